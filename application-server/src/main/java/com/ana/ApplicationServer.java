@@ -1,32 +1,95 @@
 package com.ana;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.ana.admission.AdmissionController;
+import com.ana.admission.AdmissionController.BodyCost;
+import com.ana.admission.FairnessPolicy;
+import com.ana.admission.Lane;
 import com.ana.coordinator.Coordinator;
+import com.ana.db.CachingDatabaseClient;
+import com.ana.db.DatabaseClient;
 import com.ana.db.DatabaseClientImpl;
-import java.util.Base64;
+import com.ana.db.TreeDatabaseClient;
+import com.ana.model.ChangeEntry;
+import com.ana.model.FileDownload;
+import com.ana.model.ResolvedFile;
+import com.ana.model.SpaceUsage;
+import com.ana.metrics.MeteredProxy;
+import com.ana.metrics.Metrics;
+import com.ana.model.UploadSession;
+import com.ana.wire.BatchCodec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import spark.Spark;
 
 public class ApplicationServer {
     
     private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final int METADATA_CACHE_ENTRIES = 10000;
     private static Coordinator coordinator;
+    private static CachingDatabaseClient cachedDbClient;
+    private static AdmissionController admission;
     
     public static void main(String[] args) {
         try {
-            // Inicializar base de datos
-            DatabaseClientImpl dbClient = new DatabaseClientImpl();
+            // Inicializar base de datos con caché de metadatos
+            // -Ddfs.directoryTree=true activa el modo árbol (rutas resueltas por parent_id en memoria)
+            DatabaseClientImpl baseDbClient = Boolean.getBoolean("dfs.directoryTree")
+                ? new TreeDatabaseClient()
+                : new DatabaseClientImpl();
+            // Métricas entre la caché y la BD: miden solo las llamadas que llegan a SQL Server
+            DatabaseClient meteredDbClient = MeteredProxy.wrap(DatabaseClient.class, baseDbClient,
+                Metrics.timer("dfs_db_call", "Llamadas a la base de datos por método", "method"));
+            cachedDbClient = new CachingDatabaseClient(meteredDbClient, METADATA_CACHE_ENTRIES);
             
             // Inicializar coordinador
             coordinator = new Coordinator(
-                dbClient,
+                cachedDbClient,
                 "localhost",  // registryHost
                 1099,         // registryPort
                 3             // replicaCount
             );
             
+            // Reparto por usuario: ritmo en unidades/s (una por petición y otra por cada 4 MB),
+            // pesos con -Ddfs.admission.userWeights=<userId>:<peso>,... (1 por defecto)
+            FairnessPolicy fairness = new FairnessPolicy(
+                Double.parseDouble(System.getProperty("dfs.admission.userRate", "200")),
+                Double.parseDouble(System.getProperty("dfs.admission.userBurst", "1000")),
+                Integer.getInteger("dfs.admission.maxQueuedPerUser", 16),
+                parseUserWeights(System.getProperty("dfs.admission.userWeights", "")),
+                ApplicationServer::requestToken,
+                token -> {
+                    com.ana.model.User user = validateToken(token);
+                    return user != null ? user.getId() : null;
+                });
+            
+            // Control de admisión: presupuesto global de bytes y un pool por grupo de endpoints
+            // (-Ddfs.admission.virtualThreads=true usa hilos virtuales en Java 21+)
+            admission = new AdmissionController(
+                Long.getLong("dfs.admission.maxInFlightBytes", Runtime.getRuntime().maxMemory() / 4),
+                Long.getLong("dfs.admission.queueTimeoutMs", 10000),
+                Boolean.getBoolean("dfs.admission.virtualThreads"),
+                fairness);
+            Lane metadataLane = admission.lane("metadata",
+                Integer.getInteger("dfs.admission.metadataThreads", 32),
+                Integer.getInteger("dfs.admission.metadataQueue", 256));
+            Lane transferLane = admission.lane("transfer",
+                Integer.getInteger("dfs.admission.transferThreads", 16),
+                Integer.getInteger("dfs.admission.transferQueue", 64));
+            // Long polling de /api/changes: cada petición ocupa un trabajador hasta 30 s
+            Lane pollLane = admission.lane("poll",
+                Integer.getInteger("dfs.admission.pollThreads", 256),
+                Integer.getInteger("dfs.admission.pollQueue", 256));
+            
             // Configurar Spark
             Spark.port(8081);
             Spark.staticFiles.location("/public");
@@ -45,7 +108,7 @@ public class ApplicationServer {
             
             // ========== AUTENTICACIÓN ==========
             
-            Spark.post("/api/register", (req, res) -> {
+            Spark.post("/api/register", admission.admit(metadataLane, BodyCost.NONE, (req, res) -> {
                 try {
                     JsonNode body = objectMapper.readTree(req.body());
                     String username = body.get("username").asText();
@@ -62,9 +125,9 @@ public class ApplicationServer {
                     error.put("error", e.getMessage());
                     return error;
                 }
-            });
+            }));
             
-            Spark.post("/api/login", (req, res) -> {
+            Spark.post("/api/login", admission.admit(metadataLane, BodyCost.NONE, (req, res) -> {
                 try {
                     JsonNode body = objectMapper.readTree(req.body());
                     String email = body.get("email").asText();
@@ -80,11 +143,11 @@ public class ApplicationServer {
                     error.put("error", e.getMessage());
                     return error;
                 }
-            });
+            }));
             
             // ========== GESTIÓN DE DIRECTORIOS ==========
             
-            Spark.post("/api/createDirectories", (req, res) -> {
+            Spark.post("/api/createDirectories", admission.admit(metadataLane, BodyCost.NONE, (req, res) -> {
                 try {
                     JsonNode body = objectMapper.readTree(req.body());
                     ArrayNode pathsNode = (ArrayNode) body.get("paths");
@@ -113,15 +176,43 @@ public class ApplicationServer {
                     error.put("error", e.getMessage());
                     return error;
                 }
-            });
+            }));
             
             // ========== SUBIDA DE ARCHIVOS ==========
             
-            Spark.post("/api/uploadFiles", (req, res) -> {
+            // Cuerpo en JSON o Smile según Content-Type; respuesta según Accept
+            Spark.post("/api/uploadFiles", admission.admit(transferLane, BodyCost.ENCODED, (req, res) -> {
+                try {
+                    BatchCodec.UploadRequest upload = BatchCodec.forContentType(req.contentType()).readUpload(req.bodyAsBytes());
+                    
+                    // Validar token
+                    com.ana.model.User user = validateToken(upload.token);
+                    if (user == null) {
+                        res.status(401);
+                        ObjectNode error = objectMapper.createObjectNode();
+                        error.put("error", "Token inválido o expirado");
+                        return error;
+                    }
+                    
+                    String[] fileIds = coordinator.handleUploadFiles(upload.paths, upload.data, user.getId());
+                    
+                    BatchCodec responseCodec = BatchCodec.forAccept(req.headers("Accept"));
+                    res.type(responseCodec.getContentType());
+                    return responseCodec.writeFileIds(fileIds);
+                } catch (Exception e) {
+                    res.status(400);
+                    ObjectNode error = objectMapper.createObjectNode();
+                    error.put("error", e.getMessage());
+                    return error;
+                }
+            }));
+            
+            // Deduplicación previa: el cliente envía hashes y solo sube el contenido que falte
+            Spark.post("/api/precheckUpload", admission.admit(metadataLane, BodyCost.NONE, (req, res) -> {
                 try {
                     JsonNode body = objectMapper.readTree(req.body());
                     ArrayNode pathsNode = (ArrayNode) body.get("paths");
-                    ArrayNode dataNode = (ArrayNode) body.get("data");
+                    ArrayNode hashesNode = (ArrayNode) body.get("hashes");
                     String token = body.get("token").asText();
                     
                     // Validar token
@@ -133,22 +224,18 @@ public class ApplicationServer {
                         return error;
                     }
                     
-                    // Convertir paths a array de strings
                     String[] paths = new String[pathsNode.size()];
+                    String[] hashes = new String[hashesNode.size()];
                     for (int i = 0; i < pathsNode.size(); i++) {
                         paths[i] = pathsNode.get(i).asText();
                     }
-                    
-                    // Convertir data de Base64 a byte[][]
-                    byte[][] data = new byte[dataNode.size()][];
-                    for (int i = 0; i < dataNode.size(); i++) {
-                        String base64Data = dataNode.get(i).asText();
-                        data[i] = Base64.getDecoder().decode(base64Data);
+                    for (int i = 0; i < hashesNode.size(); i++) {
+                        hashes[i] = hashesNode.get(i).asText();
                     }
                     
-                    String[] fileIds = coordinator.handleUploadFiles(paths, data, user.getId());
+                    String[] fileIds = coordinator.handlePrecheckUpload(paths, hashes, user.getId());
                     
-                    // Crear respuesta
+                    // Vacío = el contenido no está almacenado y hay que subirlo con /api/uploadFiles
                     ObjectNode response = objectMapper.createObjectNode();
                     ArrayNode idsArray = response.putArray("fileIds");
                     for (String fileId : fileIds) {
@@ -161,18 +248,16 @@ public class ApplicationServer {
                     error.put("error", e.getMessage());
                     return error;
                 }
-            });
+            }));
             
             // ========== DESCARGA DE ARCHIVOS ==========
             
-            Spark.post("/api/downloadFiles", (req, res) -> {
+            Spark.post("/api/downloadFiles", admission.admit(transferLane, BodyCost.NONE, (req, res) -> {
                 try {
-                    JsonNode body = objectMapper.readTree(req.body());
-                    ArrayNode pathsNode = (ArrayNode) body.get("paths");
-                    String token = body.get("token").asText();
+                    BatchCodec.DownloadRequest download = BatchCodec.forContentType(req.contentType()).readDownload(req.bodyAsBytes());
                     
                     // Validar token
-                    com.ana.model.User user = validateToken(token);
+                    com.ana.model.User user = validateToken(download.token);
                     if (user == null) {
                         res.status(401);
                         ObjectNode error = objectMapper.createObjectNode();
@@ -180,36 +265,38 @@ public class ApplicationServer {
                         return error;
                     }
                     
-                    // Convertir paths a array de strings
-                    String[] paths = new String[pathsNode.size()];
-                    for (int i = 0; i < pathsNode.size(); i++) {
-                        paths[i] = pathsNode.get(i).asText();
+                    // La petición apenas tiene cuerpo: se reserva el contenido leído de los nodos más la respuesta codificada
+                    long responseBytes = coordinator.estimateDownloadBytes(download.paths, download.ifNoneMatch, user.getId());
+                    int permits = admission.reserveBytes(2 * responseBytes);
+                    if (permits < 0) {
+                        res.status(503);
+                        res.header("Retry-After", String.valueOf(admission.retryAfterSeconds()));
+                        ObjectNode error = objectMapper.createObjectNode();
+                        error.put("error", "Servidor saturado: demasiados bytes en curso");
+                        return error;
                     }
-                    
-                    byte[][] files = coordinator.handleDownloadFiles(paths, user.getId());
-                    
-                    // Convertir a Base64 y crear respuesta
-                    ObjectNode response = objectMapper.createObjectNode();
-                    ArrayNode dataArray = response.putArray("data");
-                    for (byte[] file : files) {
-                        if (file != null) {
-                            dataArray.add(Base64.getEncoder().encodeToString(file));
-                        } else {
-                            dataArray.add("");
-                        }
+                    try {
+                        // ifNoneMatch: ETag que el cliente ya tiene por ruta (opcional, "" si no tiene ninguno)
+                        FileDownload[] files = coordinator.handleDownloadFiles(download.paths, download.ifNoneMatch, user.getId());
+                        
+                        // Las entradas no modificadas van sin datos
+                        BatchCodec responseCodec = BatchCodec.forAccept(req.headers("Accept"));
+                        res.type(responseCodec.getContentType());
+                        return responseCodec.writeDownloads(files);
+                    } finally {
+                        admission.releaseBytes(permits);
                     }
-                    return response;
                 } catch (Exception e) {
                     res.status(400);
                     ObjectNode error = objectMapper.createObjectNode();
                     error.put("error", e.getMessage());
                     return error;
                 }
-            });
+            }));
             
             // ========== ELIMINACIÓN DE ARCHIVOS ==========
             
-            Spark.post("/api/deleteFiles", (req, res) -> {
+            Spark.post("/api/deleteFiles", admission.admit(metadataLane, BodyCost.NONE, (req, res) -> {
                 try {
                     JsonNode body = objectMapper.readTree(req.body());
                     ArrayNode pathsNode = (ArrayNode) body.get("paths");
@@ -238,11 +325,11 @@ public class ApplicationServer {
                     error.put("error", e.getMessage());
                     return error;
                 }
-            });
+            }));
             
             // ========== MOVER/RENOMBRAR ==========
             
-            Spark.post("/api/moveFiles", (req, res) -> {
+            Spark.post("/api/moveFiles", admission.admit(metadataLane, BodyCost.NONE, (req, res) -> {
                 try {
                     JsonNode body = objectMapper.readTree(req.body());
                     ArrayNode oldPathsNode = (ArrayNode) body.get("oldPaths");
@@ -274,11 +361,48 @@ public class ApplicationServer {
                     error.put("error", e.getMessage());
                     return error;
                 }
-            });
+            }));
+            
+            // ========== COPIAR ==========
+            
+            Spark.post("/api/copyFiles", admission.admit(metadataLane, BodyCost.NONE, (req, res) -> {
+                try {
+                    JsonNode body = objectMapper.readTree(req.body());
+                    ArrayNode sourcePathsNode = (ArrayNode) body.get("sourcePaths");
+                    ArrayNode targetPathsNode = (ArrayNode) body.get("targetPaths");
+                    String token = body.get("token").asText();
+                    
+                    // Validar token
+                    com.ana.model.User user = validateToken(token);
+                    if (user == null) {
+                        res.status(401);
+                        ObjectNode error = objectMapper.createObjectNode();
+                        error.put("error", "Token inválido o expirado");
+                        return error;
+                    }
+                    
+                    String[] sourcePaths = new String[sourcePathsNode.size()];
+                    String[] targetPaths = new String[targetPathsNode.size()];
+                    for (int i = 0; i < sourcePathsNode.size(); i++) {
+                        sourcePaths[i] = sourcePathsNode.get(i).asText();
+                    }
+                    for (int i = 0; i < targetPathsNode.size(); i++) {
+                        targetPaths[i] = targetPathsNode.get(i).asText();
+                    }
+                    
+                    coordinator.handleCopyFiles(sourcePaths, targetPaths, user.getId());
+                    return objectMapper.createObjectNode().put("message", "Archivos copiados exitosamente");
+                } catch (Exception e) {
+                    res.status(400);
+                    ObjectNode error = objectMapper.createObjectNode();
+                    error.put("error", e.getMessage());
+                    return error;
+                }
+            }));
             
             // ========== COMPARTIR ==========
             
-            Spark.post("/api/shareFiles", (req, res) -> {
+            Spark.post("/api/shareFiles", admission.admit(metadataLane, BodyCost.NONE, (req, res) -> {
                 try {
                     JsonNode body = objectMapper.readTree(req.body());
                     ArrayNode pathsNode = (ArrayNode) body.get("paths");
@@ -309,9 +433,413 @@ public class ApplicationServer {
                     error.put("error", e.getMessage());
                     return error;
                 }
+            }));
+            
+            // ========== LISTADO ==========
+            
+            Spark.post("/api/list", admission.admit(metadataLane, BodyCost.NONE, (req, res) -> {
+                String path;
+                String cursor;
+                int limit;
+                com.ana.model.User user;
+                try {
+                    JsonNode body = objectMapper.readTree(req.body());
+                    path = body.get("path").asText();
+                    cursor = body.hasNonNull("cursor") ? body.get("cursor").asText() : null;
+                    limit = body.hasNonNull("limit") ? body.get("limit").asInt() : 0;
+                    String token = body.get("token").asText();
+                    
+                    // Validar token
+                    user = validateToken(token);
+                    if (user == null) {
+                        res.status(401);
+                        ObjectNode error = objectMapper.createObjectNode();
+                        error.put("error", "Token inválido o expirado");
+                        return error;
+                    }
+                } catch (Exception e) {
+                    res.status(400);
+                    ObjectNode error = objectMapper.createObjectNode();
+                    error.put("error", e.getMessage());
+                    return error;
+                }
+                
+                // La página se escribe según se leen las filas, sin construir el árbol JSON completo
+                res.type("application/json");
+                JsonGenerator json = objectMapper.getFactory().createGenerator(res.raw().getOutputStream());
+                try {
+                    json.writeStartObject();
+                    json.writeStringField("path", path);
+                    json.writeArrayFieldStart("entries");
+                    String nextCursor = coordinator.handleListDirectory(path, cursor, limit, user.getId(), entry -> {
+                        try {
+                            json.writeStartObject();
+                            json.writeStringField("name", entry.getName());
+                            json.writeStringField("path", entry.getPath());
+                            json.writeStringField("type", entry.isDirectory() ? "directory" : "file");
+                            if (!entry.isDirectory()) {
+                                json.writeStringField("fileId", entry.getFileId());
+                                json.writeNumberField("sizeBytes", entry.getSizeBytes());
+                            }
+                            json.writeEndObject();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                    json.writeEndArray();
+                    json.writeStringField("nextCursor", nextCursor);
+                    json.writeEndObject();
+                    json.close();
+                } catch (IllegalArgumentException e) {
+                    // Falla la validación antes de la primera fila: se descarta el búfer sin enviarlo
+                    res.status(400);
+                    ObjectNode error = objectMapper.createObjectNode();
+                    error.put("error", e.getMessage());
+                    return error;
+                }
+                return "";
+            }));
+            
+            // ========== TRANSFERENCIA BINARIA (SIN BASE64) ==========
+            
+            // Un archivo por petición con los bytes tal cual en el cuerpo; lo usan las operaciones MTOM
+            Spark.post("/api/files/upload", admission.admit(transferLane, BodyCost.STREAMED, (req, res) -> {
+                try {
+                    // Validar token
+                    com.ana.model.User user = validateToken(bearerToken(req));
+                    if (user == null) {
+                        res.status(401);
+                        ObjectNode error = objectMapper.createObjectNode();
+                        error.put("error", "Token inválido o expirado");
+                        return error;
+                    }
+                    
+                    // El cuerpo no se acumula: cada pieza sale hacia las réplicas según llega
+                    String path = req.queryParams("path");
+                    String fileId;
+                    try (InputStream in = req.raw().getInputStream()) {
+                        fileId = coordinator.handleUploadFileStream(path, in, req.contentLength(), user.getId());
+                    }
+                    return objectMapper.createObjectNode().put("fileId", fileId);
+                } catch (IllegalStateException e) {
+                    // Nodos no disponibles: el cliente puede reintentar la misma petición
+                    res.status(503);
+                    ObjectNode error = objectMapper.createObjectNode();
+                    error.put("error", e.getMessage());
+                    return error;
+                } catch (Exception e) {
+                    res.status(400);
+                    ObjectNode error = objectMapper.createObjectNode();
+                    error.put("error", e.getMessage());
+                    return error;
+                }
+            }));
+            
+            Spark.get("/api/files/download", admission.admit(transferLane, BodyCost.NONE, (req, res) -> {
+                ResolvedFile file;
+                try {
+                    // Validar token
+                    com.ana.model.User user = validateToken(bearerToken(req));
+                    if (user == null) {
+                        res.status(401);
+                        ObjectNode error = objectMapper.createObjectNode();
+                        error.put("error", "Token inválido o expirado");
+                        return error;
+                    }
+                    
+                    file = coordinator.resolveDownload(req.queryParams("path"), user.getId());
+                } catch (Exception e) {
+                    res.status(400);
+                    ObjectNode error = objectMapper.createObjectNode();
+                    error.put("error", e.getMessage());
+                    return error;
+                }
+                
+                String etag = file.getMetadata().getETag();
+                res.header("ETag", etag);
+                if (etag.equals(req.headers("If-None-Match"))) {
+                    res.status(304);
+                    return "";
+                }
+                // Se envía por tramos leídos de los nodos; si fallan todas las réplicas a mitad,
+                // la respuesta queda más corta que Content-Length y el cliente la descarta
+                res.type("application/octet-stream");
+                res.header("Content-Length", String.valueOf(file.getMetadata().getSizeBytes()));
+                try (OutputStream out = res.raw().getOutputStream()) {
+                    coordinator.streamFile(file, out);
+                }
+                return "";
+            }));
+            
+            // Subárbol como ZIP en streaming; compress=false guarda todo sin DEFLATE
+            Spark.get("/api/files/zip", admission.admit(transferLane, BodyCost.NONE, (req, res) -> {
+                com.ana.model.User user = validateToken(bearerToken(req));
+                if (user == null) {
+                    res.status(401);
+                    ObjectNode error = objectMapper.createObjectNode();
+                    error.put("error", "Token inválido o expirado");
+                    return error;
+                }
+                
+                String path = req.queryParams("path");
+                String name = path != null ? path.replaceAll("/+$", "") : "";
+                res.type("application/zip");
+                res.header("Content-Disposition", "attachment; filename=\""
+                        + name.substring(name.lastIndexOf('/') + 1) + ".zip\"");
+                try {
+                    coordinator.handleDownloadDirectoryZip(path, !"false".equals(req.queryParams("compress")),
+                            user.getId(), res.raw().getOutputStream());
+                } catch (IllegalArgumentException e) {
+                    // Falla la validación antes de la primera entrada: todavía se puede responder con error
+                    res.status(400);
+                    res.type("application/json");
+                    res.raw().setHeader("Content-Disposition", null);
+                    ObjectNode error = objectMapper.createObjectNode();
+                    error.put("error", e.getMessage());
+                    return error;
+                }
+                return "";
+            }));
+            
+            // ========== SUBIDAS REANUDABLES ==========
+            
+            // Crea la sesión: {path, size, chunkSize?}
+            Spark.post("/api/uploads", admission.admit(metadataLane, BodyCost.NONE, (req, res) -> {
+                try {
+                    // Validar token
+                    com.ana.model.User user = validateToken(bearerToken(req));
+                    if (user == null) {
+                        res.status(401);
+                        ObjectNode error = objectMapper.createObjectNode();
+                        error.put("error", "Token inválido o expirado");
+                        return error;
+                    }
+                    
+                    JsonNode body = objectMapper.readTree(req.body());
+                    String path = body.get("path").asText();
+                    long size = body.get("size").asLong();
+                    int chunkSize = body.has("chunkSize") ? body.get("chunkSize").asInt() : 0;
+                    
+                    UploadSession session = coordinator.handleCreateUploadSession(path, size, chunkSize, user.getId());
+                    return describeUploadSession(session);
+                } catch (Exception e) {
+                    res.status(400);
+                    ObjectNode error = objectMapper.createObjectNode();
+                    error.put("error", e.getMessage());
+                    return error;
+                }
+            }));
+            
+            // Fragmento con los bytes tal cual en el cuerpo; admite cualquier orden y reintentos
+            Spark.put("/api/uploads/:uploadId/chunks/:index", admission.admit(transferLane, BodyCost.RAW, (req, res) -> {
+                try {
+                    // Validar token
+                    com.ana.model.User user = validateToken(bearerToken(req));
+                    if (user == null) {
+                        res.status(401);
+                        ObjectNode error = objectMapper.createObjectNode();
+                        error.put("error", "Token inválido o expirado");
+                        return error;
+                    }
+                    
+                    int chunkIndex = Integer.parseInt(req.params("index"));
+                    coordinator.handleUploadChunk(req.params("uploadId"), chunkIndex, req.bodyAsBytes(), user.getId());
+                    return objectMapper.createObjectNode().put("chunk", chunkIndex);
+                } catch (IllegalStateException e) {
+                    // Nodos no disponibles: el cliente puede reintentar la misma petición
+                    res.status(503);
+                    ObjectNode error = objectMapper.createObjectNode();
+                    error.put("error", e.getMessage());
+                    return error;
+                } catch (Exception e) {
+                    res.status(400);
+                    ObjectNode error = objectMapper.createObjectNode();
+                    error.put("error", e.getMessage());
+                    return error;
+                }
+            }));
+            
+            // Fragmentos recibidos; el desplazamiento de cada uno es chunk * chunkSize
+            Spark.get("/api/uploads/:uploadId", admission.admit(metadataLane, BodyCost.NONE, (req, res) -> {
+                try {
+                    // Validar token
+                    com.ana.model.User user = validateToken(bearerToken(req));
+                    if (user == null) {
+                        res.status(401);
+                        ObjectNode error = objectMapper.createObjectNode();
+                        error.put("error", "Token inválido o expirado");
+                        return error;
+                    }
+                    
+                    UploadSession session = coordinator.handleGetUploadSession(req.params("uploadId"), user.getId());
+                    ObjectNode response = describeUploadSession(session);
+                    ArrayNode received = response.putArray("receivedChunks");
+                    for (int chunk : session.getReceivedChunks()) {
+                        received.add(chunk);
+                    }
+                    return response;
+                } catch (Exception e) {
+                    res.status(400);
+                    ObjectNode error = objectMapper.createObjectNode();
+                    error.put("error", e.getMessage());
+                    return error;
+                }
+            }));
+            
+            Spark.post("/api/uploads/:uploadId/commit", admission.admit(transferLane, BodyCost.NONE, (req, res) -> {
+                try {
+                    // Validar token
+                    com.ana.model.User user = validateToken(bearerToken(req));
+                    if (user == null) {
+                        res.status(401);
+                        ObjectNode error = objectMapper.createObjectNode();
+                        error.put("error", "Token inválido o expirado");
+                        return error;
+                    }
+                    
+                    String fileId = coordinator.handleCommitUploadSession(req.params("uploadId"), user.getId());
+                    return objectMapper.createObjectNode().put("fileId", fileId);
+                } catch (IllegalStateException e) {
+                    // Nodos no disponibles: el cliente puede reintentar la misma petición
+                    res.status(503);
+                    ObjectNode error = objectMapper.createObjectNode();
+                    error.put("error", e.getMessage());
+                    return error;
+                } catch (Exception e) {
+                    res.status(400);
+                    ObjectNode error = objectMapper.createObjectNode();
+                    error.put("error", e.getMessage());
+                    return error;
+                }
+            }));
+            
+            Spark.delete("/api/uploads/:uploadId", admission.admit(metadataLane, BodyCost.NONE, (req, res) -> {
+                try {
+                    // Validar token
+                    com.ana.model.User user = validateToken(bearerToken(req));
+                    if (user == null) {
+                        res.status(401);
+                        ObjectNode error = objectMapper.createObjectNode();
+                        error.put("error", "Token inválido o expirado");
+                        return error;
+                    }
+                    
+                    coordinator.handleAbortUploadSession(req.params("uploadId"), user.getId());
+                    return objectMapper.createObjectNode().put("message", "Subida cancelada");
+                } catch (Exception e) {
+                    res.status(400);
+                    ObjectNode error = objectMapper.createObjectNode();
+                    error.put("error", e.getMessage());
+                    return error;
+                }
+            }));
+            
+            // ========== REGISTRO DE CAMBIOS ==========
+            
+            Spark.get("/api/changes", admission.admit(pollLane, BodyCost.NONE, (req, res) -> {
+                try {
+                    // Validar token
+                    com.ana.model.User user = validateToken(bearerToken(req));
+                    if (user == null) {
+                        res.status(401);
+                        ObjectNode error = objectMapper.createObjectNode();
+                        error.put("error", "Token inválido o expirado");
+                        return error;
+                    }
+                    
+                    ObjectNode response = objectMapper.createObjectNode();
+                    String since = req.queryParams("since");
+                    if (since == null || since.isEmpty()) {
+                        response.putArray("changes");
+                        response.put("cursor", String.valueOf(coordinator.handleGetLatestChangeCursor(user.getId())));
+                        return response;
+                    }
+                    
+                    long sinceId = Long.parseLong(since);
+                    String wait = req.queryParams("wait");
+                    long waitMs = wait != null ? Long.parseLong(wait) * 1000 : 0;
+                    List<ChangeEntry> changes = coordinator.handleGetChanges(sinceId, waitMs, user.getId());
+                    
+                    ArrayNode changesArray = response.putArray("changes");
+                    long cursor = sinceId;
+                    for (ChangeEntry change : changes) {
+                        ObjectNode entry = changesArray.addObject();
+                        entry.put("id", change.getId());
+                        entry.put("op", change.getOp());
+                        entry.put("path", change.getPath());
+                        if (change.getOldPath() != null) {
+                            entry.put("oldPath", change.getOldPath());
+                        }
+                        if (change.getFileId() != null) {
+                            entry.put("fileId", change.getFileId());
+                        }
+                        entry.put("timestamp", change.getTimestamp());
+                        cursor = change.getId();
+                    }
+                    response.put("cursor", String.valueOf(cursor));
+                    return response;
+                } catch (Exception e) {
+                    res.status(400);
+                    ObjectNode error = objectMapper.createObjectNode();
+                    error.put("error", e.getMessage());
+                    return error;
+                }
+            }));
+            
+            // ========== USO DE ESPACIO ==========
+            
+            Spark.post("/api/getSpaceUsage", admission.admit(metadataLane, BodyCost.NONE, (req, res) -> {
+                try {
+                    JsonNode body = objectMapper.readTree(req.body());
+                    String token = body.get("token").asText();
+                    
+                    // Validar token
+                    com.ana.model.User user = validateToken(token);
+                    if (user == null) {
+                        res.status(401);
+                        ObjectNode error = objectMapper.createObjectNode();
+                        error.put("error", "Token inválido o expirado");
+                        return error;
+                    }
+                    
+                    SpaceUsage usage = coordinator.handleGetSpaceUsage(user.getId());
+                    ObjectNode response = objectMapper.createObjectNode();
+                    response.put("bytesUsed", usage.getBytesUsed());
+                    response.put("fileCount", usage.getFileCount());
+                    response.put("directoryCount", usage.getDirectoryCount());
+                    if (usage.getQuotaBytes() != null) {
+                        response.put("quotaBytes", usage.getQuotaBytes());
+                    } else {
+                        response.putNull("quotaBytes");
+                    }
+                    return response;
+                } catch (Exception e) {
+                    res.status(400);
+                    ObjectNode error = objectMapper.createObjectNode();
+                    error.put("error", e.getMessage());
+                    return error;
+                }
+            }));
+            
+            // ========== ESTADÍSTICAS ==========
+            
+            Spark.get("/api/cacheStats", (req, res) -> {
+                ObjectNode response = objectMapper.createObjectNode();
+                response.set("caches", objectMapper.valueToTree(cachedDbClient.getCacheStats()));
+                return response;
             });
             
+            Spark.get("/api/admissionStats", (req, res) -> {
+                ObjectNode response = objectMapper.createObjectNode();
+                response.set("admission", objectMapper.valueToTree(admission.stats()));
+                return response;
+            });
             
+            // Formato de texto de Prometheus: rutas HTTP, BD, llamadas RMI por nodo y JVM
+            Spark.get("/metrics", (req, res) -> {
+                res.type(Metrics.CONTENT_TYPE);
+                return Metrics.scrape();
+            });
             
             System.out.println("✅ Application Server listo en http://localhost:8081");
             System.out.println("📝 Endpoints disponibles:");
@@ -319,11 +847,26 @@ public class ApplicationServer {
             System.out.println("   POST /api/login");
             System.out.println("   POST /api/createDirectories");
             System.out.println("   POST /api/uploadFiles");
+            System.out.println("   POST /api/precheckUpload");
             System.out.println("   POST /api/downloadFiles");
             System.out.println("   POST /api/deleteFiles");
             System.out.println("   POST /api/moveFiles");
+            System.out.println("   POST /api/copyFiles");
             System.out.println("   POST /api/shareFiles");
+            System.out.println("   POST /api/list");
+            System.out.println("   POST /api/files/upload?path=<ruta>");
+            System.out.println("   GET  /api/files/download?path=<ruta>");
+            System.out.println("   GET  /api/files/zip?path=<directorio>");
+            System.out.println("   POST /api/uploads");
+            System.out.println("   PUT  /api/uploads/<id>/chunks/<n>");
+            System.out.println("   GET  /api/uploads/<id>");
+            System.out.println("   POST /api/uploads/<id>/commit");
+            System.out.println("   DELETE /api/uploads/<id>");
+            System.out.println("   GET  /api/changes?since=<cursor>&wait=<segundos>");
             System.out.println("   POST /api/getSpaceUsage");
+            System.out.println("   GET  /api/cacheStats");
+            System.out.println("   GET  /api/admissionStats");
+            System.out.println("   GET  /metrics");
             
         } catch (Exception e) {
             System.err.println("❌ Error iniciando Application Server: " + e.getMessage());
@@ -331,6 +874,61 @@ public class ApplicationServer {
         }
     }
     
+    /**
+     * Token en Authorization: Bearer o en ?token=
+     */
+    private static String bearerToken(spark.Request req) {
+        String authorization = req.headers("Authorization");
+        if (authorization != null && authorization.startsWith("Bearer ")) {
+            return authorization.substring("Bearer ".length());
+        }
+        return req.queryParams("token");
+    }
+    
+    /**
+     * Token de la petición para el reparto por usuario: cabecera, ?token= o el campo token del
+     * cuerpo JSON/Smile en las rutas que lo leen entero de todas formas
+     */
+    private static String requestToken(spark.Request req, BodyCost cost) {
+        String token = bearerToken(req);
+        if (token == null && "POST".equals(req.requestMethod()) && (cost == BodyCost.NONE || cost == BodyCost.ENCODED)) {
+            try {
+                token = BatchCodec.forContentType(req.contentType()).readToken(req.bodyAsBytes());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return token;
+    }
+    
+    /**
+     * Formato <userId>:<peso> separado por comas
+     */
+    private static Map<Integer, Double> parseUserWeights(String spec) {
+        Map<Integer, Double> weights = new HashMap<>();
+        for (String entry : spec.split(",")) {
+            if (entry.trim().isEmpty()) {
+                continue;
+            }
+            String[] parts = entry.trim().split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Peso de usuario inválido: " + entry);
+            }
+            weights.put(Integer.parseInt(parts[0].trim()), Double.parseDouble(parts[1].trim()));
+        }
+        return weights;
+    }
+    
+    private static ObjectNode describeUploadSession(UploadSession session) {
+        ObjectNode response = objectMapper.createObjectNode();
+        response.put("uploadId", session.getId());
+        response.put("path", session.getPath());
+        response.put("size", session.getTotalSize());
+        response.put("chunkSize", session.getChunkSize());
+        response.put("chunkCount", session.getChunkCount());
+        return response;
+    }
+    
     /**
      * Método auxiliar para validar tokens
      */
@@ -0,0 +1,215 @@
+package com.ana.admission;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.ana.metrics.Metrics;
+import com.ana.metrics.TimerFamily;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import spark.Route;
+
+/**
+ * Control de admisión delante de los handlers del Coordinator.
+ *
+ * Cada petición reserva del presupuesto global los bytes que ocupará su cuerpo en memoria y
+ * se ejecuta en el pool de su grupo de endpoints. Con la cola del grupo llena responde 429 al
+ * momento; si no consigue presupuesto o no empieza dentro del tiempo de espera responde 503.
+ * Ambas respuestas llevan Retry-After.
+ *
+ * Dentro de cada grupo las peticiones se reparten por usuario (FairnessPolicy): cola propia
+ * servida por DRR según su coste en unidades y cubo de fichas que responde 429 al agotarse.
+ */
+public class AdmissionController {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final TimerFamily HTTP_REQUESTS = Metrics.timer("dfs_http_request",
+            "Peticiones HTTP por ruta, incluida la espera en cola", "method", "route");
+    // Ventana de piezas en vuelo de una subida en corte directo (ReplicaStreamer)
+    private static final long STREAMED_WINDOW_BYTES = 16L * 1024 * 1024;
+    private static final long RETRY_AFTER_QUEUE_FULL_SECONDS = 1;
+    // Unidad de coste: una petición más una unidad por cada 4 MB de cuerpo, hasta MAX_COST_UNITS
+    private static final long COST_UNIT_BYTES = 4L * 1024 * 1024;
+    private static final int MAX_COST_UNITS = 16;
+
+    /**
+     * Memoria que ocupa el cuerpo de la petición mientras se atiende
+     */
+    public enum BodyCost {
+        // Sin cuerpo relevante (metadatos, descargas)
+        NONE,
+        // Cuerpo leído entero como bytes
+        RAW,
+        // Cuerpo JSON/Smile leído entero y decodificado: cuerpo más contenido de los archivos
+        ENCODED,
+        // Cuerpo reenviado por piezas: como mucho la ventana de ReplicaStreamer
+        STREAMED;
+
+        long bytesFor(long contentLength) {
+            // Sin Content-Length (chunked) se reserva la ventana de streaming como estimación
+            long length = contentLength >= 0 ? contentLength : STREAMED_WINDOW_BYTES;
+            switch (this) {
+                case RAW: return length;
+                case ENCODED: return 2 * length;
+                case STREAMED: return Math.min(length, STREAMED_WINDOW_BYTES);
+                default: return 0;
+            }
+        }
+    }
+
+    private final long maxInFlightBytes;
+    // Presupuesto en KB; justo para que una petición grande no espere para siempre tras las pequeñas
+    private final Semaphore byteBudget;
+    private final int budgetPermits;
+    private final long queueTimeoutMs;
+    private final boolean virtualThreads;
+    private final FairnessPolicy fairness;
+    private final Map<String, Lane> lanes = new LinkedHashMap<>();
+    private final AtomicLong budgetTimeouts = new AtomicLong();
+
+    public AdmissionController(long maxInFlightBytes, long queueTimeoutMs, boolean virtualThreads,
+            FairnessPolicy fairness) {
+        this.maxInFlightBytes = maxInFlightBytes;
+        this.budgetPermits = (int) Math.min(Integer.MAX_VALUE, Math.max(1, maxInFlightBytes / 1024));
+        this.byteBudget = new Semaphore(budgetPermits, true);
+        this.queueTimeoutMs = queueTimeoutMs;
+        this.virtualThreads = virtualThreads;
+        this.fairness = fairness;
+    }
+
+    public synchronized Lane lane(String name, int threads, int queueCapacity) {
+        Lane lane = new Lane(name, threads, queueCapacity, fairness.getMaxQueuedPerFlow(), fairness::weight,
+                virtualThreads);
+        lanes.put(name, lane);
+        return lane;
+    }
+
+    /**
+     * Envuelve una ruta de Spark con la reserva de bytes y la ejecución en el pool del grupo
+     */
+    public Route admit(Lane lane, BodyCost cost, Route route) {
+        Route admitted = queued(lane, cost, route);
+        return (req, res) -> {
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                Object body = admitted.handle(req, res);
+                // Los handlers responden sus errores con estado >= 400 en vez de lanzar
+                failed = res.status() >= 400;
+                return body;
+            } finally {
+                HTTP_REQUESTS.labels(req.requestMethod(), req.matchedPath()).record(System.nanoTime() - start, failed);
+            }
+        };
+    }
+
+    private Route queued(Lane lane, BodyCost cost, Route route) {
+        return (req, res) -> {
+            long deadline = System.currentTimeMillis() + queueTimeoutMs;
+            long bodyBytes = cost.bytesFor(req.contentLength());
+            int permits = permitsFor(bodyBytes);
+            if (permits > 0 && !byteBudget.tryAcquire(permits, queueTimeoutMs, TimeUnit.MILLISECONDS)) {
+                budgetTimeouts.incrementAndGet();
+                return reject(res, 503, retryAfterSeconds(), "Servidor saturado: demasiados bytes en curso");
+            }
+            try {
+                // Tras reservar el presupuesto: identificar el flujo puede leer el cuerpo
+                String flow = fairness.flowOf(req, cost);
+                int units = (int) Math.min(MAX_COST_UNITS, 1 + bodyBytes / COST_UNIT_BYTES);
+                long waitNanos = fairness.tryAcquire(flow, units);
+                if (waitNanos > 0) {
+                    return reject(res, 429, Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + 999_999_999L)),
+                            "Límite de peticiones por usuario superado");
+                }
+
+                CountDownLatch started = new CountDownLatch(1);
+                FlowTask result = new FlowTask(flow, units, () -> {
+                    started.countDown();
+                    return route.handle(req, res);
+                });
+                try {
+                    lane.getExecutor().execute(result);
+                } catch (RejectedExecutionException e) {
+                    lane.recordRejected();
+                    return reject(res, 429, RETRY_AFTER_QUEUE_FULL_SECONDS,
+                            "Demasiadas peticiones en cola para " + lane.getName());
+                }
+
+                long remaining = Math.max(0, deadline - System.currentTimeMillis());
+                // Si empezó justo al vencer el plazo, cancel falla y se espera a que termine
+                if (!started.await(remaining, TimeUnit.MILLISECONDS) && result.cancel(false)) {
+                    lane.getExecutor().remove(result);
+                    lane.recordTimedOut();
+                    return reject(res, 503, retryAfterSeconds(), "Servidor saturado: tiempo de espera agotado");
+                }
+                try {
+                    return result.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw cause instanceof Exception ? (Exception) cause : new RuntimeException(cause);
+                }
+            } finally {
+                if (permits > 0) {
+                    byteBudget.release(permits);
+                }
+            }
+        };
+    }
+
+    /**
+     * Reserva presupuesto para una respuesta cuyo tamaño solo se conoce dentro del handler
+     * @return Permisos a devolver con releaseBytes, o -1 si no hubo presupuesto a tiempo
+     */
+    public int reserveBytes(long bytes) throws InterruptedException {
+        int permits = permitsFor(bytes);
+        if (permits > 0 && !byteBudget.tryAcquire(permits, queueTimeoutMs, TimeUnit.MILLISECONDS)) {
+            budgetTimeouts.incrementAndGet();
+            return -1;
+        }
+        return permits;
+    }
+
+    public void releaseBytes(int permits) {
+        if (permits > 0) {
+            byteBudget.release(permits);
+        }
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("inFlightBytes", (long) (budgetPermits - byteBudget.availablePermits()) * 1024);
+        stats.put("maxInFlightBytes", maxInFlightBytes);
+        stats.put("budgetWaiters", byteBudget.getQueueLength());
+        stats.put("budgetTimeouts", budgetTimeouts.get());
+        Map<String, Object> laneStats = new LinkedHashMap<>();
+        for (Lane lane : lanes.values()) {
+            laneStats.put(lane.getName(), lane.stats());
+        }
+        stats.put("lanes", laneStats);
+        stats.put("fairness", fairness.stats());
+        return stats;
+    }
+
+    public long retryAfterSeconds() {
+        return Math.max(1, (queueTimeoutMs + 999) / 1000);
+    }
+
+    // Una petición mayor que el presupuesto se admite sola en vez de rechazarse siempre
+    private int permitsFor(long bytes) {
+        return (int) Math.min(budgetPermits, (bytes + 1023) / 1024);
+    }
+
+    private static ObjectNode reject(spark.Response res, int status, long retryAfterSeconds, String message) {
+        res.status(status);
+        res.type("application/json");
+        res.header("Retry-After", String.valueOf(retryAfterSeconds));
+        ObjectNode error = objectMapper.createObjectNode();
+        error.put("error", message);
+        return error;
+    }
+}
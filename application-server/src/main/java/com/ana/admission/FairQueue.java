@@ -0,0 +1,337 @@
+package com.ana.admission;
+
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Cola de un Lane con una subcola por flujo servidas por déficit round-robin (DRR). En cada
+ * turno un flujo gana peso × QUANTUM unidades y atiende peticiones mientras le alcancen, así
+ * un usuario con miles de peticiones en cola no retrasa más de un turno a los demás y, si
+ * está solo, aprovecha todos los trabajadores.
+ */
+class FairQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+
+    private static final double QUANTUM = 1.0;
+    private static final int MAX_REPORTED_FLOWS = 10;
+
+    private final int capacity;
+    private final int maxPerFlow;
+    private final ToDoubleFunction<String> weights;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Map<String, Flow> flows = new HashMap<>();
+    // Flujos con peticiones en el orden de sus turnos
+    private final ArrayDeque<Flow> active = new ArrayDeque<>();
+    private int count;
+
+    private static class Flow {
+        private final String key;
+        private final double quantum;
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        private double deficit;
+        private boolean inTurn;
+
+        Flow(String key, double quantum) {
+            this.key = key;
+            this.quantum = quantum;
+        }
+    }
+
+    FairQueue(int capacity, int maxPerFlow, ToDoubleFunction<String> weights) {
+        this.capacity = capacity;
+        this.maxPerFlow = Math.max(1, Math.min(maxPerFlow, capacity));
+        this.weights = weights;
+    }
+
+    /**
+     * Rechaza con la cola llena o con el flujo en su máximo: un usuario no ocupa la cola de todos
+     */
+    @Override
+    public boolean offer(Runnable task) {
+        Objects.requireNonNull(task);
+        String key = flowOf(task);
+        lock.lock();
+        try {
+            Flow flow = flows.get(key);
+            if (count >= capacity || (flow != null && flow.tasks.size() >= maxPerFlow)) {
+                return false;
+            }
+            if (flow == null) {
+                flow = new Flow(key, QUANTUM * weights.applyAsDouble(key));
+                flows.put(key, flow);
+                active.addLast(flow);
+            }
+            flow.tasks.addLast(task);
+            count++;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(Runnable task, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (!offer(task)) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(Runnable task) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (!offer(task)) {
+                notFull.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll() {
+        lock.lock();
+        try {
+            return count > 0 ? dequeue() : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                while (count == 0) {
+                    notEmpty.await();
+                }
+                // null si solo quedaban canceladas
+                Runnable task = dequeue();
+                if (task != null) {
+                    return task;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Siguiente petición según DRR; las canceladas (tiempo de espera agotado) se descartan sin cobrar
+     */
+    private Runnable dequeue() {
+        while (true) {
+            Flow flow = active.peekFirst();
+            if (!flow.inTurn) {
+                flow.deficit += flow.quantum;
+                flow.inTurn = true;
+            }
+            Runnable task = flow.tasks.peekFirst();
+            boolean cancelled = task instanceof FlowTask && ((FlowTask) task).isCancelled();
+            if (!cancelled) {
+                int cost = costOf(task);
+                if (flow.deficit < cost) {
+                    // Fin de su turno: el déficit acumulado se conserva para el siguiente
+                    flow.inTurn = false;
+                    active.addLast(active.removeFirst());
+                    continue;
+                }
+                flow.deficit -= cost;
+            }
+            flow.tasks.removeFirst();
+            count--;
+            if (flow.tasks.isEmpty()) {
+                active.removeFirst();
+                flows.remove(flow.key);
+            }
+            notFull.signal();
+            if (!cancelled) {
+                return task;
+            }
+            if (count == 0) {
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public boolean remove(Object task) {
+        if (!(task instanceof Runnable)) {
+            return false;
+        }
+        lock.lock();
+        try {
+            Flow flow = flows.get(flowOf((Runnable) task));
+            if (flow == null || !flow.tasks.remove(task)) {
+                return false;
+            }
+            count--;
+            if (flow.tasks.isEmpty()) {
+                active.remove(flow);
+                flows.remove(flow.key);
+            }
+            notFull.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable peek() {
+        lock.lock();
+        try {
+            return count > 0 ? active.peekFirst().tasks.peekFirst() : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return capacity - count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> target) {
+        return drainTo(target, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> target, int maxElements) {
+        int drained = 0;
+        Runnable task;
+        while (drained < maxElements && (task = poll()) != null) {
+            target.add(task);
+            drained++;
+        }
+        return drained;
+    }
+
+    /**
+     * Recorre una copia; remove() del iterador quita la petición de la cola
+     */
+    @Override
+    public Iterator<Runnable> iterator() {
+        List<Runnable> snapshot = new ArrayList<>();
+        lock.lock();
+        try {
+            for (Flow flow : active) {
+                snapshot.addAll(flow.tasks);
+            }
+        } finally {
+            lock.unlock();
+        }
+        Iterator<Runnable> it = snapshot.iterator();
+        return new Iterator<Runnable>() {
+            private Runnable last;
+
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public Runnable next() {
+                last = it.next();
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                if (last == null) {
+                    throw new IllegalStateException();
+                }
+                FairQueue.this.remove(last);
+                last = null;
+            }
+        };
+    }
+
+    int flowCount() {
+        lock.lock();
+        try {
+            return flows.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Flujos con más peticiones en cola, para las estadísticas
+     */
+    Map<String, Integer> largestFlows() {
+        List<Map.Entry<String, Integer>> sizes = new ArrayList<>();
+        lock.lock();
+        try {
+            for (Flow flow : active) {
+                sizes.add(new AbstractMap.SimpleEntry<>(flow.key, flow.tasks.size()));
+            }
+        } finally {
+            lock.unlock();
+        }
+        sizes.sort((a, b) -> Integer.compare(b.getValue(), a.getValue()));
+        Map<String, Integer> largest = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> entry : sizes.subList(0, Math.min(MAX_REPORTED_FLOWS, sizes.size()))) {
+            largest.put(entry.getKey(), entry.getValue());
+        }
+        return largest;
+    }
+
+    private static String flowOf(Runnable task) {
+        return task instanceof FlowTask ? ((FlowTask) task).getFlow() : "";
+    }
+
+    private static int costOf(Runnable task) {
+        return task instanceof FlowTask ? ((FlowTask) task).getCost() : 1;
+    }
+}
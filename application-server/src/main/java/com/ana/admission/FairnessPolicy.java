@@ -0,0 +1,141 @@
+package com.ana.admission;
+
+import com.ana.admission.AdmissionController.BodyCost;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import spark.Request;
+
+/**
+ * Reparto entre usuarios: a qué flujo pertenece cada petición, con qué peso se sirve su
+ * cola y cuántas unidades por segundo puede consumir (cubo de fichas por flujo, escalado por
+ * el peso). Las peticiones sin token válido se agrupan por IP de origen.
+ */
+public class FairnessPolicy {
+
+    private static final double MIN_WEIGHT = 0.1;
+    private static final int MAX_TRACKED_FLOWS = 10000;
+    private static final int TOKEN_CACHE_ENTRIES = 10000;
+    private static final long TOKEN_CACHE_TTL_MS = 60_000;
+
+    private final double ratePerSecond;
+    private final double burst;
+    private final int maxQueuedPerFlow;
+    private final Map<Integer, Double> userWeights;
+    private final BiFunction<Request, BodyCost, String> tokenOf;
+    private final Function<String, Integer> userIdByToken;
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong rateLimited = new AtomicLong();
+    // token -> {userId, instante de la consulta}; solo decide el flujo, la autenticación va aparte
+    private final Map<String, long[]> tokenUsers = new LinkedHashMap<String, long[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, long[]> eldest) {
+            return size() > TOKEN_CACHE_ENTRIES;
+        }
+    };
+
+    /**
+     * ratePerSecond <= 0 desactiva el límite de ritmo; el reparto por pesos se mantiene
+     */
+    public FairnessPolicy(double ratePerSecond, double burst, int maxQueuedPerFlow, Map<Integer, Double> userWeights,
+            BiFunction<Request, BodyCost, String> tokenOf, Function<String, Integer> userIdByToken) {
+        this.ratePerSecond = ratePerSecond;
+        this.burst = Math.max(1, burst);
+        this.maxQueuedPerFlow = maxQueuedPerFlow;
+        this.userWeights = userWeights;
+        this.tokenOf = tokenOf;
+        this.userIdByToken = userIdByToken;
+    }
+
+    public int getMaxQueuedPerFlow() {
+        return maxQueuedPerFlow;
+    }
+
+    /**
+     * Flujo de la petición: "user:<id>" con token válido, "ip:<dirección>" si no
+     */
+    public String flowOf(Request req, BodyCost cost) {
+        String token = null;
+        try {
+            token = tokenOf.apply(req, cost);
+        } catch (Exception e) {
+            // Cuerpo ilegible: el handler responderá 400; aquí basta con agruparlo por IP
+        }
+        Integer userId = token != null && !token.isEmpty() ? lookupUser(token) : null;
+        return userId != null ? "user:" + userId : "ip:" + req.ip();
+    }
+
+    public double weight(String flow) {
+        if (flow.startsWith("user:")) {
+            try {
+                Double weight = userWeights.get(Integer.valueOf(flow.substring("user:".length())));
+                if (weight != null) {
+                    return Math.max(MIN_WEIGHT, weight);
+                }
+            } catch (NumberFormatException e) {
+                // Flujo con formato ajeno: peso por defecto
+            }
+        }
+        return 1.0;
+    }
+
+    /**
+     * Consume cost unidades del cubo del flujo; 0 si hay fichas o los nanosegundos de espera
+     */
+    public long tryAcquire(String flow, int cost) {
+        if (ratePerSecond <= 0) {
+            return 0;
+        }
+        TokenBucket bucket = buckets.get(flow);
+        if (bucket == null) {
+            if (buckets.size() >= MAX_TRACKED_FLOWS) {
+                // Un cubo lleno equivale a uno nuevo: se puede olvidar sin cambiar nada
+                buckets.values().removeIf(TokenBucket::isFull);
+            }
+            double weight = weight(flow);
+            bucket = buckets.computeIfAbsent(flow, k -> new TokenBucket(ratePerSecond * weight, burst * weight));
+        }
+        long waitNanos = bucket.tryConsume(cost);
+        if (waitNanos > 0) {
+            rateLimited.incrementAndGet();
+        }
+        return waitNanos;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("ratePerSecond", ratePerSecond);
+        stats.put("burst", burst);
+        stats.put("maxQueuedPerFlow", maxQueuedPerFlow);
+        stats.put("userWeights", userWeights);
+        stats.put("trackedFlows", buckets.size());
+        stats.put("rateLimited", rateLimited.get());
+        return stats;
+    }
+
+    private Integer lookupUser(String token) {
+        long now = System.currentTimeMillis();
+        synchronized (tokenUsers) {
+            long[] cached = tokenUsers.get(token);
+            if (cached != null && now - cached[1] < TOKEN_CACHE_TTL_MS) {
+                return (int) cached[0];
+            }
+        }
+        Integer userId;
+        try {
+            userId = userIdByToken.apply(token);
+        } catch (Exception e) {
+            return null;
+        }
+        // Los tokens inválidos no se guardan: el handler los rechazará con 401
+        if (userId != null) {
+            synchronized (tokenUsers) {
+                tokenUsers.put(token, new long[] {userId, now});
+            }
+        }
+        return userId;
+    }
+}
@@ -0,0 +1,27 @@
+package com.ana.admission;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Petición en cola de un Lane con el flujo (usuario) al que pertenece y su coste en unidades
+ */
+class FlowTask extends FutureTask<Object> {
+
+    private final String flow;
+    private final int cost;
+
+    FlowTask(String flow, int cost, Callable<Object> callable) {
+        super(callable);
+        this.flow = flow;
+        this.cost = cost;
+    }
+
+    String getFlow() {
+        return flow;
+    }
+
+    int getCost() {
+        return cost;
+    }
+}
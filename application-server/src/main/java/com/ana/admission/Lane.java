@@ -0,0 +1,89 @@
+package com.ana.admission;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Pool de trabajadores de un grupo de endpoints con cola acotada. Separar los grupos evita
+ * que las transferencias grandes dejen sin hilos a las operaciones de metadatos; dentro del
+ * grupo la cola reparte los trabajadores entre usuarios (FairQueue).
+ */
+public class Lane {
+
+    private final String name;
+    private final FairQueue queue;
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+
+    Lane(String name, int threads, int queueCapacity, int maxQueuedPerFlow, ToDoubleFunction<String> weights,
+            boolean virtualThreads) {
+        this.name = name;
+        this.queue = new FairQueue(queueCapacity, maxQueuedPerFlow, weights);
+        // AbortPolicy: con la cola llena la petición se rechaza en vez de ejecutarse en el hilo de Jetty
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, queue,
+                virtualThreads ? virtualThreadFactory(name) : platformThreadFactory(name));
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    ThreadPoolExecutor getExecutor() {
+        return executor;
+    }
+
+    void recordRejected() {
+        rejected.incrementAndGet();
+    }
+
+    void recordTimedOut() {
+        timedOut.incrementAndGet();
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("active", executor.getActiveCount());
+        stats.put("threads", executor.getMaximumPoolSize());
+        stats.put("queued", queue.size());
+        stats.put("queueCapacity", queue.size() + queue.remainingCapacity());
+        stats.put("queuedFlows", queue.flowCount());
+        stats.put("largestFlows", queue.largestFlows());
+        stats.put("completed", executor.getCompletedTaskCount());
+        stats.put("rejected", rejected.get());
+        stats.put("timedOut", timedOut.get());
+        return stats;
+    }
+
+    private static ThreadFactory platformThreadFactory(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, name + "-worker-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Thread.ofVirtual().factory() por reflexión: el módulo compila para Java 11
+     */
+    private static ThreadFactory virtualThreadFactory(String name) {
+        try {
+            // Métodos de la interfaz pública Thread.Builder: la implementación no es accesible
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, name + "-vworker-", 1L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            System.err.println("⚠️ Hilos virtuales no disponibles en esta JVM; se usan hilos de plataforma");
+            return platformThreadFactory(name);
+        }
+    }
+}
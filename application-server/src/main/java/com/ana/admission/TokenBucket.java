@@ -0,0 +1,45 @@
+package com.ana.admission;
+
+/**
+ * Cubo de fichas: se rellena a ratePerSecond hasta burst. Cada petición consume su coste
+ * en unidades; sin fichas suficientes se rechaza sin consumir nada.
+ */
+class TokenBucket {
+
+    private final double ratePerSecond;
+    private final double burst;
+    private double tokens;
+    private long lastRefillNanos;
+
+    TokenBucket(double ratePerSecond, double burst) {
+        this.ratePerSecond = ratePerSecond;
+        this.burst = burst;
+        this.tokens = burst;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Consume cost fichas; devuelve 0 si lo consiguió o los nanosegundos hasta que haya suficientes
+     */
+    synchronized long tryConsume(double cost) {
+        refill();
+        // Un coste mayor que la ráfaga nunca cabría: se cobra la ráfaga entera
+        double needed = Math.min(cost, burst);
+        if (tokens >= needed) {
+            tokens -= needed;
+            return 0;
+        }
+        return (long) Math.ceil((needed - tokens) / ratePerSecond * 1_000_000_000L);
+    }
+
+    synchronized boolean isFull() {
+        refill();
+        return tokens >= burst;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefillNanos) / 1_000_000_000.0 * ratePerSecond);
+        lastRefillNanos = now;
+    }
+}
@@ -0,0 +1,64 @@
+package com.ana.bench;
+
+import com.ana.db.DatabaseClientImpl;
+import com.ana.db.TreeDatabaseClient;
+import com.ana.model.FileMetadata;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Mide la latencia de renombrar y eliminar un directorio según el tamaño del subárbol,
+ * comparando el modelo por rutas (DatabaseClientImpl) con el modo árbol (TreeDatabaseClient).
+ *
+ * Uso: mvn exec:java -Dexec.mainClass=com.ana.bench.DirectoryTreeBenchmark -Dexec.args="<userId>"
+ */
+public class DirectoryTreeBenchmark {
+
+    private static final int[] SUBTREE_SIZES = {10, 100, 1000, 10000};
+    private static final int FILES_PER_SUBDIRECTORY = 100;
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("Uso: DirectoryTreeBenchmark <userId>");
+            return;
+        }
+        int userId = Integer.parseInt(args[0]);
+
+        run("rutas", new DatabaseClientImpl(), userId);
+        run("árbol", new TreeDatabaseClient(), userId);
+    }
+
+    private static void run(String label, DatabaseClientImpl db, int userId) {
+        String root = "/user" + userId + "/bench-tree-" + System.currentTimeMillis();
+        for (int size : SUBTREE_SIZES) {
+            String dir = root + "/s" + size;
+            db.createDirectory(dir, userId);
+
+            // Repartir los archivos en subdirectorios para tener un subárbol realista
+            List<FileMetadata> files = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                String subdirectory = dir + "/d" + (i / FILES_PER_SUBDIRECTORY);
+                if (i % FILES_PER_SUBDIRECTORY == 0) {
+                    db.createDirectory(subdirectory, userId);
+                }
+                files.add(new FileMetadata(subdirectory + "/f" + i, 1024, userId));
+            }
+            db.saveFileMetadataBatch(userId, files);
+
+            String renamed = dir + "-renamed";
+            long start = System.nanoTime();
+            db.moveDirectory(dir, renamed, userId);
+            long renameNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            db.deleteFilesInDirectory(renamed, userId);
+            db.deleteDirectory(renamed, userId);
+            long deleteNanos = System.nanoTime() - start;
+
+            System.out.printf("📊 [%s] subárbol de %6d archivos: renombrar %9.2f ms, eliminar %9.2f ms%n",
+                    label, size, renameNanos / 1_000_000.0, deleteNanos / 1_000_000.0);
+        }
+        db.deleteDirectory(root, userId);
+    }
+}
@@ -0,0 +1,79 @@
+package com.ana.bench;
+
+import com.ana.db.DatabaseClientImpl;
+import com.ana.model.FileMetadata;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Mide el throughput de escritura de metadatos (archivos + réplicas) según el tamaño de lote.
+ * Compara la ruta archivo por archivo con saveFileMetadataBatch/saveReplicasBatch.
+ *
+ * Uso: mvn exec:java -Dexec.mainClass=com.ana.bench.MetadataBatchBenchmark -Dexec.args="<userId> [totalFiles]"
+ */
+public class MetadataBatchBenchmark {
+
+    private static final int[] BATCH_SIZES = {1, 10, 100, 1000};
+    private static final List<String> NODES = Arrays.asList("node1", "node2", "node3");
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("Uso: MetadataBatchBenchmark <userId> [totalFiles]");
+            return;
+        }
+        int userId = Integer.parseInt(args[0]);
+        int totalFiles = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        DatabaseClientImpl db = new DatabaseClientImpl();
+        String root = "/user" + userId + "/bench-" + System.currentTimeMillis();
+
+        // Línea base: un saveFileMetadata + saveReplicas por archivo
+        List<String> created = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < totalFiles; i++) {
+            FileMetadata meta = new FileMetadata(root + "/single/f" + i, 1024, userId);
+            db.saveFileMetadata(meta);
+            db.saveReplicas(meta.getId(), NODES);
+            created.add(meta.getId());
+        }
+        report("por archivo", totalFiles, System.nanoTime() - start);
+        cleanup(db, created);
+
+        for (int batchSize : BATCH_SIZES) {
+            created.clear();
+            start = System.nanoTime();
+            for (int from = 0; from < totalFiles; from += batchSize) {
+                List<FileMetadata> batch = new ArrayList<>();
+                for (int i = from; i < Math.min(totalFiles, from + batchSize); i++) {
+                    batch.add(new FileMetadata(root + "/batch" + batchSize + "/f" + i, 1024, userId));
+                }
+                db.saveFileMetadataBatch(userId, batch);
+
+                Map<String, List<String>> replicas = new LinkedHashMap<>();
+                for (FileMetadata meta : batch) {
+                    replicas.put(meta.getId(), NODES);
+                    created.add(meta.getId());
+                }
+                db.saveReplicasBatch(replicas, new ArrayList<>());
+            }
+            report("lote de " + batchSize, totalFiles, System.nanoTime() - start);
+            cleanup(db, created);
+        }
+    }
+
+    private static void report(String label, int files, long nanos) {
+        double seconds = nanos / 1_000_000_000.0;
+        System.out.printf("📊 %-14s %8d archivos en %8.2f s -> %10.1f archivos/s%n",
+                label, files, seconds, files / seconds);
+    }
+
+    private static void cleanup(DatabaseClientImpl db, List<String> fileIds) {
+        for (String fileId : fileIds) {
+            db.deleteFile(Integer.parseInt(fileId));
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.ana.coordinator;
+
+import com.ana.model.DirectoryShare;
+import java.util.*;
+
+/**
+ * Índice en memoria de los directorios compartidos (ACL heredada por el subárbol).
+ *
+ * Cada usuario tiene un trie de segmentos de ruta; un nodo marcado concede acceso a todo lo
+ * que cuelga de él, así que comprobar una ruta cuesta O(profundidad) sin consultar la BD.
+ * grantsByPath, ordenado por ruta, localiza las concesiones bajo un prefijo al mover o
+ * eliminar directorios.
+ */
+public class AccessControlIndex {
+
+    private static final class Node {
+        final Map<String, Node> children = new HashMap<>();
+        String permission;
+    }
+
+    private final Map<Integer, Node> rootsByUser = new HashMap<>();
+    private final TreeMap<String, Map<Integer, String>> grantsByPath = new TreeMap<>();
+
+    public synchronized void load(List<DirectoryShare> shares) {
+        rootsByUser.clear();
+        grantsByPath.clear();
+        for (DirectoryShare share : shares) {
+            grant(share.getSharedWithUserId(), share.getPath(), share.getPermissionLevel());
+        }
+    }
+
+    public synchronized void grant(int userId, String directoryPath, String permission) {
+        Node node = rootsByUser.computeIfAbsent(userId, k -> new Node());
+        for (String segment : segments(directoryPath)) {
+            node = node.children.computeIfAbsent(segment, k -> new Node());
+        }
+        node.permission = permission;
+        grantsByPath.computeIfAbsent(directoryPath, k -> new HashMap<>()).put(userId, permission);
+    }
+
+    /**
+     * true si algún directorio que contiene la ruta (o ella misma) está compartido con el usuario
+     */
+    public synchronized boolean canRead(int userId, String path) {
+        Node node = rootsByUser.get(userId);
+        if (node == null) {
+            return false;
+        }
+        for (String segment : segments(path)) {
+            node = node.children.get(segment);
+            if (node == null) {
+                return false;
+            }
+            if (node.permission != null) {
+                return true; // 'read' y 'write' conceden lectura
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Las concesiones del subárbol siguen a su directorio cuando se mueve o renombra
+     */
+    public synchronized void moveDirectory(String oldPath, String newPath) {
+        for (Map.Entry<String, Map<Integer, String>> entry : removeSubtree(oldPath).entrySet()) {
+            String movedPath = newPath + entry.getKey().substring(oldPath.length());
+            for (Map.Entry<Integer, String> userGrant : entry.getValue().entrySet()) {
+                grant(userGrant.getKey(), movedPath, userGrant.getValue());
+            }
+        }
+    }
+
+    public synchronized void removeDirectory(String directoryPath) {
+        removeSubtree(directoryPath);
+    }
+
+    /**
+     * Quita las concesiones de la ruta y de sus descendientes y las devuelve por ruta
+     */
+    private Map<String, Map<Integer, String>> removeSubtree(String directoryPath) {
+        Map<String, Map<Integer, String>> removed = new LinkedHashMap<>();
+        Map<Integer, String> exact = grantsByPath.remove(directoryPath);
+        if (exact != null) {
+            removed.put(directoryPath, exact);
+        }
+        // '0' es el carácter siguiente a '/': el rango cubre exactamente directoryPath + "/..."
+        SortedMap<String, Map<Integer, String>> descendants = grantsByPath.subMap(directoryPath + "/", directoryPath + "0");
+        removed.putAll(descendants);
+        descendants.clear();
+
+        for (Map.Entry<String, Map<Integer, String>> entry : removed.entrySet()) {
+            for (Integer userId : entry.getValue().keySet()) {
+                revoke(userId, entry.getKey());
+            }
+        }
+        return removed;
+    }
+
+    private void revoke(int userId, String directoryPath) {
+        Node root = rootsByUser.get(userId);
+        if (root == null) {
+            return;
+        }
+        Deque<Node> chain = new ArrayDeque<>();
+        List<String> segments = segments(directoryPath);
+        Node node = root;
+        for (String segment : segments) {
+            chain.push(node);
+            node = node.children.get(segment);
+            if (node == null) {
+                return;
+            }
+        }
+        node.permission = null;
+
+        // Podar las ramas que quedaron sin concesiones
+        for (int i = segments.size() - 1; i >= 0 && node.permission == null && node.children.isEmpty(); i--) {
+            Node parent = chain.pop();
+            parent.children.remove(segments.get(i));
+            node = parent;
+        }
+        if (root.children.isEmpty()) {
+            rootsByUser.remove(userId);
+        }
+    }
+
+    private static List<String> segments(String path) {
+        List<String> segments = new ArrayList<>();
+        for (String segment : path.split("/")) {
+            if (!segment.isEmpty()) {
+                segments.add(segment);
+            }
+        }
+        return segments;
+    }
+}
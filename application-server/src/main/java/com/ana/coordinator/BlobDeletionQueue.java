@@ -0,0 +1,117 @@
+package com.ana.coordinator;
+
+import com.ana.db.DatabaseClient;
+import com.ana.model.BlobDeletion;
+import com.ana.node.StorageNode;
+import java.rmi.RemoteException;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Recolector asíncrono de blobs huérfanos respaldado por la tabla blob_deletions.
+ * Los borrados de metadatos encolan sus réplicas en la misma transacción; este worker
+ * las agrupa por nodo, las elimina con deleteFiles y reintenta con backoff exponencial
+ * (calculado en la BD) las de nodos caídos, hasta que vuelven.
+ */
+public class BlobDeletionQueue {
+
+    private static final int MAX_DELETIONS_PER_ROUND = 5000;
+    private static final int MAX_FILES_PER_CALL = 1000;
+    private static final long POLL_INTERVAL_MS = 5000;
+
+    private final DatabaseClient dbClient;
+    private final Function<String, StorageNode> nodeResolver;
+    private final Thread worker;
+    private boolean wakeUpRequested;
+
+    public BlobDeletionQueue(DatabaseClient dbClient, Function<String, StorageNode> nodeResolver) {
+        this.dbClient = dbClient;
+        this.nodeResolver = nodeResolver;
+        this.worker = new Thread(this::runWorker, "blob-deletion-worker");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Avisa al worker de que hay borrados nuevos sin esperar al siguiente sondeo
+     */
+    public synchronized void wakeUp() {
+        wakeUpRequested = true;
+        notifyAll();
+    }
+
+    private void runWorker() {
+        while (true) {
+            try {
+                int processed = processDueDeletions();
+                if (processed >= MAX_DELETIONS_PER_ROUND) {
+                    continue; // Queda trabajo pendiente: seguir sin esperar
+                }
+            } catch (Exception e) {
+                System.err.println("⚠️ Error en la cola de borrado: " + e.getMessage());
+            }
+
+            synchronized (this) {
+                if (!wakeUpRequested) {
+                    try {
+                        wait(POLL_INTERVAL_MS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                wakeUpRequested = false;
+            }
+        }
+    }
+
+    private int processDueDeletions() {
+        List<BlobDeletion> due = dbClient.getDueBlobDeletions(MAX_DELETIONS_PER_ROUND);
+        Map<String, List<BlobDeletion>> byNode = new LinkedHashMap<>();
+        for (BlobDeletion deletion : due) {
+            byNode.computeIfAbsent(deletion.getNodeId(), k -> new ArrayList<>()).add(deletion);
+        }
+        for (Map.Entry<String, List<BlobDeletion>> entry : byNode.entrySet()) {
+            deleteFromNode(entry.getKey(), entry.getValue());
+        }
+        return due.size();
+    }
+
+    private void deleteFromNode(String nodeId, List<BlobDeletion> deletions) {
+        StorageNode node = nodeResolver.apply(nodeId);
+        if (node == null) {
+            dbClient.retryBlobDeletions(idsOf(deletions), "Nodo no disponible: " + nodeId);
+            return;
+        }
+
+        for (int from = 0; from < deletions.size(); from += MAX_FILES_PER_CALL) {
+            List<BlobDeletion> chunk = deletions.subList(from, Math.min(deletions.size(), from + MAX_FILES_PER_CALL));
+            String[] fileIds = new String[chunk.size()];
+            for (int i = 0; i < chunk.size(); i++) {
+                fileIds[i] = chunk.get(i).getFileId();
+            }
+
+            try {
+                Set<String> failed = new HashSet<>(Arrays.asList(node.deleteFiles(fileIds)));
+                List<Long> completed = new ArrayList<>();
+                List<Long> retry = new ArrayList<>();
+                for (BlobDeletion deletion : chunk) {
+                    (failed.contains(deletion.getFileId()) ? retry : completed).add(deletion.getId());
+                }
+                dbClient.completeBlobDeletions(completed);
+                dbClient.retryBlobDeletions(retry, "El nodo no pudo eliminar el archivo");
+                System.out.println("🗑️ " + completed.size() + " archivos eliminados del nodo " + nodeId);
+            } catch (RemoteException e) {
+                System.err.println("⚠️ Error eliminando de nodo " + nodeId + ": " + e.getMessage());
+                dbClient.retryBlobDeletions(idsOf(chunk), e.getMessage());
+            }
+        }
+    }
+
+    private static List<Long> idsOf(List<BlobDeletion> deletions) {
+        List<Long> ids = new ArrayList<>();
+        for (BlobDeletion deletion : deletions) {
+            ids.add(deletion.getId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,35 @@
+package com.ana.coordinator;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Despierta a las peticiones de long-poll de /api/changes cuando cambia el árbol de un usuario.
+ * Cada usuario tiene un contador de versión en memoria; un sondeo solo vuelve a consultar
+ * change_log cuando la versión de su usuario avanza, no con cada escritura de cualquier usuario.
+ */
+public class ChangeNotifier {
+
+    private final Map<Integer, Long> versions = new HashMap<>();
+
+    public synchronized long currentVersion(int userId) {
+        return versions.getOrDefault(userId, 0L);
+    }
+
+    public synchronized void publish(int userId) {
+        versions.merge(userId, 1L, Long::sum);
+        notifyAll();
+    }
+
+    /**
+     * Espera hasta que la versión del usuario deje de ser seenVersion o se agote el tiempo
+     */
+    public synchronized void await(int userId, long seenVersion, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        long remaining = timeoutMs;
+        while (currentVersion(userId) == seenVersion && remaining > 0) {
+            wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+        }
+    }
+}
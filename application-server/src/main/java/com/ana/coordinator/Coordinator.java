@@ -1,21 +1,62 @@
 package com.ana.coordinator;
 
 import com.ana.db.DatabaseClient;
+import com.ana.db.QuotaExceededException;
+import com.ana.metrics.MeteredProxy;
+import com.ana.metrics.Metrics;
+import com.ana.metrics.TimerFamily;
+import com.ana.model.ChangeEntry;
+import com.ana.model.DirectoryEntry;
+import com.ana.model.DirectoryShare;
+import com.ana.model.FileDownload;
 import com.ana.model.FileMetadata;
+import com.ana.model.ReplicaLocation;
+import com.ana.model.ResolvedFile;
+import com.ana.model.SpaceUsage;
+import com.ana.model.StoredBlob;
+import com.ana.model.UploadSession;
 import com.ana.model.User;
 import com.ana.node.StorageNode;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.rmi.Naming;
+import java.nio.charset.StandardCharsets;
 import java.rmi.RemoteException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 public class Coordinator {
     
+    private static final int DEFAULT_LIST_PAGE_SIZE = 1000;
+    private static final int MAX_LIST_PAGE_SIZE = 10000;
+    private static final int MAX_CHANGES_PER_POLL = 1000;
+    private static final long MAX_CHANGES_WAIT_MS = 30000;
+    private static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final int MIN_CHUNK_SIZE = 256 * 1024;
+    private static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+    // Tramo leído de un nodo por llamada al enviar un archivo en streaming
+    private static final int STREAM_BLOCK_SIZE = 4 * 1024 * 1024;
+    // Ventana deslizante: cada fragmento recibido la renueva
+    private static final int UPLOAD_SESSION_TTL_SECONDS = 24 * 60 * 60;
+    private static final TimerFamily RMI_CALLS = Metrics.timer("dfs_rmi_call",
+            "Llamadas RMI a los nodos de almacenamiento", "node", "method");
+
     private final DatabaseClient dbClient;
     private final Map<String, StorageNode> nodeMap = new ConcurrentHashMap<>();
     private final String registryHost;
     private final int registryPort;
     private final int replicaCount;
+    private final BlobDeletionQueue deletionQueue;
+    private final ReconciliationJob reconciliationJob;
+    private final UploadSessionExpiry uploadSessionExpiry;
+    private final ChangeNotifier changeNotifier = new ChangeNotifier();
+    private final AccessControlIndex accessControl = new AccessControlIndex();
+    private final ReplicaStreamer replicaStreamer = new ReplicaStreamer();
+    private final DirectoryArchiver directoryArchiver;
 
     public Coordinator(DatabaseClient dbClient, String registryHost, int registryPort, int replicaCount) {
         this.dbClient = dbClient;
@@ -23,22 +64,62 @@ public class Coordinator {
         this.registryPort = registryPort;
         this.replicaCount = replicaCount;
         registerKnownNodes();
+        this.deletionQueue = new BlobDeletionQueue(dbClient, this::resolveNode);
+        this.reconciliationJob = new ReconciliationJob(dbClient, nodeMap::keySet, this::resolveNode);
+        this.reconciliationJob.start();
+        this.uploadSessionExpiry = new UploadSessionExpiry(dbClient, this::resolveNode);
+        this.uploadSessionExpiry.start();
+        this.directoryArchiver = new DirectoryArchiver(dbClient, this::resolveNode);
+        loadAccessControl();
+    }
+
+    private void loadAccessControl() {
+        try {
+            List<DirectoryShare> shares = dbClient.getDirectoryShares();
+            accessControl.load(shares);
+            System.out.println("🔐 " + shares.size() + " directorios compartidos cargados en el índice de ACL");
+        } catch (Exception e) {
+            System.err.println("⚠️ Error cargando directorios compartidos: " + e.getMessage());
+        }
     }
 
     private void registerKnownNodes() {
         String[] nodeIds = {"node1", "node2", "node3"};
         for (String nodeId : nodeIds) {
+            lookupNode(nodeId);
+        }
+    }
+
+    private StorageNode lookupNode(String nodeId) {
+        try {
+            StorageNode node = MeteredProxy.wrap(StorageNode.class, (StorageNode) Naming.lookup(
+                "rmi://" + registryHost + ":" + registryPort + "/" + nodeId), RMI_CALLS, nodeId);
+            if (node.isHealthy()) {
+                nodeMap.put(nodeId, node);
+                System.out.println("✅ Nodo " + nodeId + " conectado y saludable.");
+                return node;
+            }
+        } catch (Exception e) {
+            System.err.println("⚠️ Nodo " + nodeId + " no disponible: " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Nodo conocido y saludable, o reconexión vía RMI Registry si había caído
+     */
+    private StorageNode resolveNode(String nodeId) {
+        StorageNode node = nodeMap.get(nodeId);
+        if (node != null) {
             try {
-                StorageNode node = (StorageNode) Naming.lookup(
-                    "rmi://" + registryHost + ":" + registryPort + "/" + nodeId);
                 if (node.isHealthy()) {
-                    nodeMap.put(nodeId, node);
-                    System.out.println("✅ Nodo " + nodeId + " conectado y saludable.");
+                    return node;
                 }
-            } catch (Exception e) {
-                System.err.println("⚠️ Nodo " + nodeId + " no disponible: " + e.getMessage());
+            } catch (RemoteException e) {
+                nodeMap.remove(nodeId);
             }
         }
+        return lookupNode(nodeId);
     }
 
     // ========== AUTENTICACIÓN ==========
@@ -92,9 +173,46 @@ public class Coordinator {
             if (!path.equals("/user" + ownerId) && !path.startsWith(expectedPrefix)) {
                 throw new IllegalArgumentException("Ruta debe pertenecer al usuario: " + expectedPrefix);
             }
-            
-            dbClient.createDirectory(path, ownerId);
         }
+        
+        // Todos los directorios y sus ancestros en una sola transacción
+        dbClient.createDirectories(Arrays.asList(paths), ownerId);
+        changeNotifier.publish(ownerId);
+    }
+
+    /**
+     * Emite una página de hijos directos de path y devuelve el cursor opaco de la siguiente (o null)
+     */
+    public String handleListDirectory(String path, String cursor, int limit, int userId,
+            Consumer<DirectoryEntry> consumer) {
+        if (path == null || path.isEmpty() || !path.startsWith("/")) {
+            throw new IllegalArgumentException("Ruta inválida: " + path);
+        }
+        if (path.length() > 1 && path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+        String root = "/user" + userId;
+        if (!path.equals(root) && !path.startsWith(root + "/")) {
+            throw new IllegalArgumentException("Ruta debe pertenecer al usuario: " + root + "/");
+        }
+        if (!path.equals(root) && !dbClient.directoryExists(path, userId)) {
+            throw new IllegalArgumentException("Directorio no encontrado: " + path);
+        }
+
+        int pageSize = limit <= 0 ? DEFAULT_LIST_PAGE_SIZE : Math.min(limit, MAX_LIST_PAGE_SIZE);
+        String rawCursor = null;
+        if (cursor != null && !cursor.isEmpty()) {
+            try {
+                rawCursor = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Cursor inválido");
+            }
+        }
+
+        String next = dbClient.listDirectory(path, userId, rawCursor, pageSize, consumer);
+        return next != null
+                ? Base64.getUrlEncoder().withoutPadding().encodeToString(next.getBytes(StandardCharsets.UTF_8))
+                : null;
     }
 
     // ========== SUBIDA DE ARCHIVOS ==========
@@ -106,63 +224,623 @@ public class Coordinator {
         
         String[] fileIds = new String[paths.length];
         
+        // Validar rutas y preparar los metadatos del lote
+        List<FileMetadata> batch = new ArrayList<>();
+        List<Integer> batchIndexes = new ArrayList<>();
+        String expectedPrefix = "/user" + ownerId + "/";
         for (int i = 0; i < paths.length; i++) {
-            try {
-                // Validar ruta
-                String path = paths[i];
-                if (path == null || path.isEmpty() || !path.startsWith("/")) {
-                    throw new IllegalArgumentException("Ruta inválida: " + path);
-                }
-                
-                String expectedPrefix = "/user" + ownerId + "/";
-                if (!path.startsWith(expectedPrefix)) {
-                    throw new IllegalArgumentException("Ruta debe pertenecer al usuario: " + expectedPrefix);
-                }
-                
-                // Crear metadatos
-                FileMetadata metadata = new FileMetadata(path, data[i].length, ownerId);
-                dbClient.saveFileMetadata(metadata);
-                String fileId = metadata.getId();
-                
-                // Seleccionar nodos
-                List<StorageNode> nodes = getAvailableNodes(replicaCount);
-                if (nodes.size() < 2) {
-                    throw new IllegalStateException("No hay suficientes nodos disponibles para redundancia");
-                }
-                
-                // Almacenar en nodos
-                List<String> successfulNodes = new ArrayList<>();
-                for (StorageNode node : nodes) {
-                    try {
-                        node.storeFile(fileId, data[i]);
-                        successfulNodes.add(node.getNodeId());
-                    } catch (RemoteException e) {
-                        System.err.println("⚠️ Error almacenando en nodo: " + e.getMessage());
-                        continue;
-                    }
-                }
-                
-                if (successfulNodes.isEmpty()) {
-                    throw new RuntimeException("Ningún nodo aceptó el archivo");
+            String path = paths[i];
+            if (path == null || path.isEmpty() || !path.startsWith("/")) {
+                System.err.println("❌ Error subiendo archivo " + path + ": Ruta inválida: " + path);
+                continue;
+            }
+            if (!path.startsWith(expectedPrefix)) {
+                System.err.println("❌ Error subiendo archivo " + path + ": Ruta debe pertenecer al usuario: " + expectedPrefix);
+                continue;
+            }
+            batch.add(new FileMetadata(path, data[i].length, ownerId));
+            batchIndexes.add(i);
+        }
+        if (batch.isEmpty()) {
+            return fileIds;
+        }
+        
+        // Hash del contenido: lo ya almacenado solo añade una referencia al blob existente
+        String[] hashes = new String[batch.size()];
+        for (int b = 0; b < batch.size(); b++) {
+            hashes[b] = sha256Hex(data[batchIndexes.get(b)]);
+        }
+        Map<String, StoredBlob> storedBlobs = Collections.emptyMap();
+        try {
+            storedBlobs = dbClient.findBlobsByHash(Arrays.asList(hashes), null);
+        } catch (Exception e) {
+            System.err.println("⚠️ Error consultando el índice de contenido: " + e.getMessage());
+        }
+        
+        // Solo la primera aparición de cada contenido nuevo se escribe en los nodos;
+        // las repeticiones dentro del lote referencian su blob cuando ya está replicado
+        Map<String, Integer> writers = new LinkedHashMap<>();
+        List<Integer> repeats = new ArrayList<>();
+        List<FileMetadata> deduplicated = new ArrayList<>();
+        for (int b = 0; b < batch.size(); b++) {
+            StoredBlob blob = storedBlobs.get(hashes[b]);
+            if (blob != null) {
+                batch.get(b).setBlobId(blob.getId());
+                deduplicated.add(batch.get(b));
+            } else if (writers.putIfAbsent(hashes[b], b) != null) {
+                repeats.add(b);
+            }
+        }
+        
+        // Seleccionar nodos
+        List<StorageNode> nodes = writers.isEmpty() ? Collections.emptyList() : getAvailableNodes(replicaCount);
+        if (!writers.isEmpty() && nodes.size() < 2) {
+            System.err.println("❌ Error subiendo archivos: No hay suficientes nodos disponibles para redundancia");
+            writers.clear();
+            repeats.clear();
+        }
+        List<FileMetadata> initial = new ArrayList<>(deduplicated);
+        for (int b : writers.values()) {
+            initial.add(batch.get(b));
+        }
+        if (initial.isEmpty()) {
+            return fileIds;
+        }
+        
+        // Crear metadatos de todo el lote en una sola transacción
+        try {
+            dbClient.saveFileMetadataBatch(ownerId, initial);
+        } catch (QuotaExceededException e) {
+            // La cuota rechaza el lote completo: se informa al cliente en vez de devolver nulos
+            throw e;
+        } catch (Exception e) {
+            System.err.println("❌ Error guardando metadatos del lote: " + e.getMessage());
+            return fileIds;
+        }
+        
+        // Almacenar en nodos
+        Map<String, List<String>> replicas = new LinkedHashMap<>();
+        List<String> discarded = new ArrayList<>();
+        for (int b : writers.values()) {
+            int i = batchIndexes.get(b);
+            String fileId = batch.get(b).getId();
+            
+            List<String> successfulNodes = new ArrayList<>();
+            for (StorageNode node : nodes) {
+                try {
+                    node.storeFile(fileId, data[i]);
+                    successfulNodes.add(node.getNodeId());
+                } catch (RemoteException e) {
+                    System.err.println("⚠️ Error almacenando en nodo: " + e.getMessage());
+                    continue;
                 }
-                
-                // Registrar réplicas
-                dbClient.saveReplicas(fileId, successfulNodes);
-                fileIds[i] = fileId;
-                
+            }
+            
+            if (successfulNodes.isEmpty()) {
+                System.err.println("❌ Error subiendo archivo " + paths[i] + ": Ningún nodo aceptó el archivo");
+                discarded.add(fileId);
+                continue;
+            }
+            replicas.put(fileId, successfulNodes);
+        }
+        
+        // Registrar réplicas del lote en una sola transacción
+        try {
+            dbClient.saveReplicasBatch(replicas, discarded);
+        } catch (Exception e) {
+            System.err.println("❌ Error registrando réplicas del lote: " + e.getMessage());
+            return fileIds;
+        }
+        
+        // Indexar por hash los blobs nuevos; si falla solo se pierde la deduplicación futura
+        Map<String, String> newHashes = new LinkedHashMap<>();
+        for (int b : writers.values()) {
+            if (replicas.containsKey(batch.get(b).getId())) {
+                newHashes.put(batch.get(b).getId(), hashes[b]);
+            }
+        }
+        try {
+            dbClient.registerBlobHashes(newHashes);
+        } catch (Exception e) {
+            System.err.println("⚠️ Error indexando hashes de contenido: " + e.getMessage());
+        }
+        
+        // Repeticiones dentro del lote: referencian el blob que se acaba de replicar
+        List<FileMetadata> followers = new ArrayList<>();
+        for (int b : repeats) {
+            String writerId = batch.get(writers.get(hashes[b])).getId();
+            if (replicas.containsKey(writerId)) {
+                batch.get(b).setBlobId(Integer.parseInt(writerId));
+                followers.add(batch.get(b));
+            }
+        }
+        if (!followers.isEmpty()) {
+            try {
+                dbClient.saveFileMetadataBatch(ownerId, followers);
             } catch (Exception e) {
-                System.err.println("❌ Error subiendo archivo " + paths[i] + ": " + e.getMessage());
-                fileIds[i] = null;
+                System.err.println("❌ Error guardando archivos repetidos del lote: " + e.getMessage());
+            }
+        }
+        
+        changeNotifier.publish(ownerId);
+        int reused = 0;
+        for (int b = 0; b < batch.size(); b++) {
+            FileMetadata meta = batch.get(b);
+            if (meta.getId() == null) {
+                continue;
+            }
+            if (meta.getBlobId() != null) {
+                fileIds[batchIndexes.get(b)] = meta.getId();
+                reused++;
+            } else if (replicas.containsKey(meta.getId())) {
+                fileIds[batchIndexes.get(b)] = meta.getId();
+            }
+        }
+        if (reused > 0) {
+            System.out.println("♻️ " + reused + " archivos deduplicados sin escribir en los nodos");
+        }
+        
+        return fileIds;
+    }
+
+    /**
+     * Subida sin contenido: crea los archivos cuyo hash ya corresponde a un blob del usuario.
+     * Devuelve el id de cada archivo creado, o null si hay que subir sus bytes.
+     */
+    public String[] handlePrecheckUpload(String[] paths, String[] hashes, int ownerId) {
+        if (paths.length != hashes.length) {
+            throw new IllegalArgumentException("El número de rutas y hashes debe coincidir");
+        }
+        
+        String[] fileIds = new String[paths.length];
+        String expectedPrefix = "/user" + ownerId + "/";
+        List<String> normalized = new ArrayList<>();
+        for (int i = 0; i < paths.length; i++) {
+            if (paths[i] == null || !paths[i].startsWith(expectedPrefix)) {
+                throw new IllegalArgumentException("Ruta debe pertenecer al usuario: " + expectedPrefix);
+            }
+            if (hashes[i] == null || !hashes[i].matches("[0-9a-fA-F]{64}")) {
+                throw new IllegalArgumentException("Hash SHA-256 inválido para " + paths[i]);
+            }
+            normalized.add(hashes[i].toLowerCase());
+        }
+        
+        // Solo blobs que el propio usuario ya referencia: un hash no es prueba de tener el contenido
+        Map<String, StoredBlob> storedBlobs = dbClient.findBlobsByHash(normalized, ownerId);
+        List<FileMetadata> batch = new ArrayList<>();
+        List<Integer> batchIndexes = new ArrayList<>();
+        for (int i = 0; i < paths.length; i++) {
+            StoredBlob blob = storedBlobs.get(normalized.get(i));
+            if (blob != null) {
+                FileMetadata meta = new FileMetadata(paths[i], blob.getSizeBytes(), ownerId);
+                meta.setBlobId(blob.getId());
+                batch.add(meta);
+                batchIndexes.add(i);
             }
         }
+        if (batch.isEmpty()) {
+            return fileIds;
+        }
         
+        dbClient.saveFileMetadataBatch(ownerId, batch);
+        changeNotifier.publish(ownerId);
+        for (int b = 0; b < batch.size(); b++) {
+            fileIds[batchIndexes.get(b)] = batch.get(b).getId();
+        }
+        System.out.println("♻️ " + batch.size() + "/" + paths.length + " archivos creados por hash sin subir contenido");
         return fileIds;
     }
 
+    /**
+     * Subida de un archivo en corte directo: el cuerpo se reenvía a las réplicas por piezas
+     * según llega, y los metadatos solo se crean cuando todas las réplicas confirmaron los bytes.
+     * contentLength es -1 si el cliente no lo indicó.
+     */
+    public String handleUploadFileStream(String path, InputStream in, long contentLength, int ownerId)
+            throws IOException {
+        String expectedPrefix = "/user" + ownerId + "/";
+        if (path == null || !path.startsWith(expectedPrefix)) {
+            throw new IllegalArgumentException("Ruta debe pertenecer al usuario: " + expectedPrefix);
+        }
+        if (contentLength > 0) {
+            checkQuota(ownerId, contentLength);
+        }
+        
+        Map<String, StorageNode> nodes = chooseUploadNodes();
+        String stagingId = UUID.randomUUID().toString();
+        long start = System.currentTimeMillis();
+        List<String> successfulNodes = Collections.emptyList();
+        try {
+            ReplicaStreamer.Result result = replicaStreamer.stream(stagingId, in, nodes);
+            
+            FileMetadata meta = new FileMetadata(path, result.getTotalBytes(), ownerId);
+            dbClient.saveFileMetadataBatch(ownerId, Collections.singletonList(meta));
+            Map<String, StorageNode> complete = new LinkedHashMap<>(nodes);
+            complete.keySet().retainAll(result.getNodeIds());
+            successfulNodes = commitStaged(stagingId, result.getPieceCount(), meta, complete, false);
+            
+            changeNotifier.publish(ownerId);
+            System.out.println("📡 " + path + " reenviado en corte directo (" + result.getTotalBytes() + " bytes, "
+                    + (System.currentTimeMillis() - start) + " ms, réplicas en " + successfulNodes + ")");
+            return meta.getId();
+        } finally {
+            // Lo que quede en el área temporal (nodos fallidos o subida abortada) se descarta
+            for (Map.Entry<String, StorageNode> entry : nodes.entrySet()) {
+                if (successfulNodes.contains(entry.getKey())) {
+                    continue; // commitChunks ya limpió su área temporal
+                }
+                try {
+                    entry.getValue().discardChunks(stagingId);
+                } catch (RemoteException e) {
+                    System.err.println("⚠️ Error descartando piezas en nodo " + entry.getKey() + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void checkQuota(int ownerId, long bytes) {
+        SpaceUsage usage = dbClient.getSpaceUsage(ownerId);
+        if (usage.getQuotaBytes() != null && usage.getBytesUsed() + bytes > usage.getQuotaBytes()) {
+            throw new QuotaExceededException("Cuota de almacenamiento excedida para el usuario " + ownerId);
+        }
+    }
+
+    /**
+     * Nodos saludables para una nueva subida, por id; exige al menos dos para redundancia
+     */
+    private Map<String, StorageNode> chooseUploadNodes() {
+        Map<String, StorageNode> nodes = new LinkedHashMap<>();
+        for (StorageNode node : getAvailableNodes(replicaCount)) {
+            try {
+                nodes.put(node.getNodeId(), node);
+            } catch (RemoteException e) {
+                System.err.println("⚠️ Error consultando nodo: " + e.getMessage());
+            }
+        }
+        if (nodes.size() < 2) {
+            throw new IllegalStateException("No hay suficientes nodos disponibles para redundancia");
+        }
+        return nodes;
+    }
+
+    private static String sha256Hex(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte value : digest) {
+                hex.append(Character.forDigit((value >> 4) & 0xF, 16)).append(Character.forDigit(value & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        }
+    }
+
+    // ========== SUBIDAS REANUDABLES ==========
+
+    /**
+     * Abre una sesión de subida por fragmentos; los fragmentos se guardan en el área
+     * temporal de los nodos elegidos aquí y no en la memoria del Application Server
+     */
+    public UploadSession handleCreateUploadSession(String path, long totalSize, int chunkSize, int ownerId) {
+        String expectedPrefix = "/user" + ownerId + "/";
+        if (path == null || !path.startsWith(expectedPrefix)) {
+            throw new IllegalArgumentException("Ruta debe pertenecer al usuario: " + expectedPrefix);
+        }
+        if (totalSize < 0) {
+            throw new IllegalArgumentException("Tamaño inválido: " + totalSize);
+        }
+        if (chunkSize <= 0) {
+            chunkSize = DEFAULT_CHUNK_SIZE;
+        }
+        if (chunkSize < MIN_CHUNK_SIZE || chunkSize > MAX_CHUNK_SIZE) {
+            throw new IllegalArgumentException("El tamaño de fragmento debe estar entre "
+                    + MIN_CHUNK_SIZE + " y " + MAX_CHUNK_SIZE + " bytes");
+        }
+        
+        // Rechazar antes de transferir nada; la cuota se valida de nuevo al confirmar
+        checkQuota(ownerId, totalSize);
+        List<String> nodeIds = new ArrayList<>(chooseUploadNodes().keySet());
+        
+        UploadSession session = new UploadSession(UUID.randomUUID().toString(), ownerId, path, totalSize,
+                chunkSize, nodeIds, new ArrayList<>());
+        dbClient.createUploadSession(session, UPLOAD_SESSION_TTL_SECONDS);
+        System.out.println("📤 Sesión de subida " + session.getId() + " creada para " + path + " ("
+                + session.getChunkCount() + " fragmentos en " + nodeIds + ")");
+        return session;
+    }
+
+    /**
+     * Guarda un fragmento en los nodos de la sesión; puede llegar en cualquier orden,
+     * en paralelo con otros o repetido. Un nodo que falla deja de usarse en la sesión.
+     */
+    public void handleUploadChunk(String uploadId, int chunkIndex, byte[] data, int ownerId) {
+        UploadSession session = requireOpenUploadSession(uploadId, ownerId);
+        if (chunkIndex < 0 || chunkIndex >= session.getChunkCount()) {
+            throw new IllegalArgumentException("Número de fragmento fuera de rango: " + chunkIndex);
+        }
+        if (data.length != session.getChunkLength(chunkIndex)) {
+            throw new IllegalArgumentException("El fragmento " + chunkIndex + " debe medir "
+                    + session.getChunkLength(chunkIndex) + " bytes y mide " + data.length);
+        }
+        
+        Set<String> failed = replicaStreamer.storeChunk(uploadId, chunkIndex, data, resolveNodes(session.getNodeIds()));
+        if (failed.size() == session.getNodeIds().size()) {
+            // Ningún nodo lo aceptó: la sesión se conserva para que el cliente reintente
+            throw new IllegalStateException("Ningún nodo aceptó el fragmento " + chunkIndex);
+        }
+        
+        // Solo los nodos que recibieron todos los fragmentos participan en la confirmación
+        for (String nodeId : failed) {
+            dbClient.markUploadNodeFailed(uploadId, nodeId);
+        }
+        dbClient.recordUploadChunk(uploadId, chunkIndex, UPLOAD_SESSION_TTL_SECONDS);
+    }
+
+    /**
+     * Estado de la sesión con los fragmentos ya recibidos, para reanudar tras un corte
+     */
+    public UploadSession handleGetUploadSession(String uploadId, int ownerId) {
+        UploadSession session = requireUploadSession(uploadId, ownerId);
+        session.setReceivedChunks(dbClient.getUploadChunks(uploadId));
+        return session;
+    }
+
+    /**
+     * Une los fragmentos en cada nodo de la sesión y crea el archivo; devuelve su id. Solo la
+     * petición que reserva la sesión confirma; un reintento posterior recibe el mismo id.
+     */
+    public String handleCommitUploadSession(String uploadId, int ownerId) {
+        UploadSession session = requireUploadSession(uploadId, ownerId);
+        if (session.getCommittedFileId() != null) {
+            return session.getCommittedFileId(); // El cliente perdió la respuesta anterior
+        }
+        int chunkCount = session.getChunkCount();
+        int received = dbClient.getUploadChunks(uploadId).size();
+        if (received < chunkCount) {
+            throw new IllegalArgumentException("Faltan " + (chunkCount - received) + " de "
+                    + chunkCount + " fragmentos");
+        }
+        if (!dbClient.claimUploadCommit(uploadId, ownerId, UPLOAD_SESSION_TTL_SECONDS)) {
+            UploadSession current = requireUploadSession(uploadId, ownerId);
+            if (current.getCommittedFileId() != null) {
+                return current.getCommittedFileId();
+            }
+            // Otra petición la está confirmando: el cliente puede reintentar y recibirá su id
+            throw new IllegalStateException("La subida " + uploadId + " ya se está confirmando");
+        }
+        
+        FileMetadata meta = new FileMetadata(session.getPath(), session.getTotalSize(), ownerId);
+        List<String> successfulNodes;
+        try {
+            dbClient.saveFileMetadataBatch(ownerId, Collections.singletonList(meta));
+            successfulNodes = commitStaged(uploadId, chunkCount, meta, resolveNodes(session.getNodeIds()), true);
+        } catch (RuntimeException e) {
+            // Sin archivo creado: la sesión vuelve a poder confirmarse
+            dbClient.releaseUploadCommit(uploadId);
+            throw e;
+        }
+        
+        uploadSessionExpiry.discard(new UploadSession(uploadId, ownerId, session.getPath(), session.getTotalSize(),
+                session.getChunkSize(), Collections.emptyList(), session.getFailedNodeIds()));
+        dbClient.completeUploadCommit(uploadId, meta.getId(), UPLOAD_SESSION_TTL_SECONDS);
+        changeNotifier.publish(ownerId);
+        System.out.println("✅ Subida " + uploadId + " confirmada: " + session.getPath() + " ("
+                + chunkCount + " fragmentos, réplicas en " + successfulNodes + ")");
+        return meta.getId();
+    }
+
+    public void handleAbortUploadSession(String uploadId, int ownerId) {
+        UploadSession session = requireOpenUploadSession(uploadId, ownerId);
+        uploadSessionExpiry.discard(session);
+        dbClient.deleteUploadSession(uploadId);
+    }
+
+    /**
+     * Une en los nodos el contenido ya recibido en su área temporal y registra las réplicas
+     * del archivo meta (cuyos metadatos ya existen); devuelve los nodos con réplica.
+     * uploadSession indica que stagingId es una sesión de subida registrada en la BD
+     */
+    private List<String> commitStaged(String stagingId, int chunkCount, FileMetadata meta,
+            Map<String, StorageNode> nodes, boolean uploadSession) {
+        String fileId = meta.getId();
+        Map<String, String> hashes = replicaStreamer.commit(stagingId, chunkCount, fileId, nodes);
+        if (hashes.isEmpty()) {
+            // Descartar los metadatos; el contenido sigue en el área temporal
+            dbClient.saveReplicasBatch(Collections.emptyMap(), Collections.singletonList(fileId));
+            throw new IllegalStateException("Ningún nodo pudo unir el contenido de " + meta.getPath());
+        }
+        
+        // Solo cuentan los nodos cuyo SHA-256 coincide con la mayoría; el resto unió otro contenido
+        String majorityHash = majorityHash(hashes.values());
+        List<String> successfulNodes = new ArrayList<>();
+        for (Map.Entry<String, String> entry : hashes.entrySet()) {
+            if (entry.getValue().equals(majorityHash)) {
+                successfulNodes.add(entry.getKey());
+            } else {
+                discardMismatchedReplica(uploadSession ? stagingId : null, fileId, entry.getKey(), nodes.get(entry.getKey()));
+            }
+        }
+        if (successfulNodes.isEmpty()) {
+            dbClient.saveReplicasBatch(Collections.emptyMap(), Collections.singletonList(fileId));
+            throw new IllegalStateException("Las réplicas de " + meta.getPath() + " no coinciden en su contenido");
+        }
+        dbClient.saveReplicasBatch(Collections.singletonMap(fileId, successfulNodes), Collections.emptyList());
+        
+        // Indexar por hash para deduplicar subidas futuras del mismo contenido
+        try {
+            dbClient.registerBlobHashes(Collections.singletonMap(fileId, majorityHash));
+        } catch (Exception e) {
+            System.err.println("⚠️ Error indexando hash de contenido: " + e.getMessage());
+        }
+        return successfulNodes;
+    }
+
+    /**
+     * Hash que devolvió más de la mitad de los nodos, o null si ninguno tiene mayoría
+     */
+    private static String majorityHash(Collection<String> hashes) {
+        Map<String, Integer> votes = new HashMap<>();
+        for (String hash : hashes) {
+            if (votes.merge(hash, 1, Integer::sum) * 2 > hashes.size()) {
+                return hash;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Borra el blob unido por un nodo con contenido distinto y, si viene de una sesión de subida
+     * (uploadId no nulo), lo marca como fallido en ella. En corte directo no hay sesión: basta con
+     * dejarlo fuera de las réplicas. Si el nodo no responde, la reconciliación encolará el blob
+     * huérfano más tarde.
+     */
+    private void discardMismatchedReplica(String uploadId, String fileId, String nodeId, StorageNode node) {
+        System.err.println("⚠️ El nodo " + nodeId + " unió un contenido distinto para " + fileId + "; se descarta");
+        if (uploadId != null) {
+            dbClient.markUploadNodeFailed(uploadId, nodeId);
+        }
+        try {
+            node.deleteFile(fileId);
+        } catch (RemoteException e) {
+            System.err.println("⚠️ Error borrando réplica discordante en nodo " + nodeId + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Nodo por id en el orden dado; null si el nodo no está disponible
+     */
+    private Map<String, StorageNode> resolveNodes(List<String> nodeIds) {
+        Map<String, StorageNode> nodes = new LinkedHashMap<>();
+        for (String nodeId : nodeIds) {
+            nodes.put(nodeId, resolveNode(nodeId));
+        }
+        return nodes;
+    }
+
+    private UploadSession requireUploadSession(String uploadId, int ownerId) {
+        UploadSession session = uploadId != null ? dbClient.getUploadSession(uploadId, ownerId) : null;
+        if (session == null) {
+            throw new IllegalArgumentException("Sesión de subida no encontrada o expirada: " + uploadId);
+        }
+        return session;
+    }
+
+    /**
+     * Sesión que todavía acepta fragmentos o cancelación: ni confirmándose ni confirmada
+     */
+    private UploadSession requireOpenUploadSession(String uploadId, int ownerId) {
+        UploadSession session = requireUploadSession(uploadId, ownerId);
+        if (session.isCommitting() || session.getCommittedFileId() != null) {
+            throw new IllegalArgumentException("La sesión de subida ya se está confirmando: " + uploadId);
+        }
+        return session;
+    }
+
     // ========== DESCARGA DE ARCHIVOS ==========
     
     public byte[][] handleDownloadFiles(String[] paths, int userId) {
+        FileDownload[] downloads = handleDownloadFiles(paths, null, userId);
         byte[][] files = new byte[paths.length][];
+        for (int i = 0; i < paths.length; i++) {
+            files[i] = downloads[i].getData();
+        }
+        return files;
+    }
+
+    /**
+     * Resuelve un archivo para enviarlo con streamFile: comprueba que existe y que se puede leer
+     */
+    public ResolvedFile resolveDownload(String path, int userId) {
+        if (path == null || path.isEmpty()) {
+            throw new IllegalArgumentException("Ruta inválida");
+        }
+        ResolvedFile file = dbClient.resolveFilesForRead(Collections.singletonList(path), userId).get(path);
+        if (file == null) {
+            throw new IllegalArgumentException("Archivo no encontrado: " + path);
+        }
+        if (!file.isReadable() && !accessControl.canRead(userId, path)) {
+            throw new IllegalArgumentException("Acceso denegado para: " + path);
+        }
+        return file;
+    }
+
+    /**
+     * Escribe el contenido en out por tramos leídos de las réplicas, sin tenerlo entero en memoria.
+     * Si una réplica falla a mitad, la siguiente continúa desde el mismo byte.
+     */
+    public void streamFile(ResolvedFile file, OutputStream out) throws IOException {
+        FileMetadata meta = file.getMetadata();
+        long size = meta.getSizeBytes();
+        long offset = 0;
+        Iterator<String> replicas = file.getReplicaNodeIds().iterator();
+        String nodeId = null;
+        StorageNode node = null;
+        while (offset < size) {
+            if (node == null) {
+                if (!replicas.hasNext()) {
+                    throw new IOException("No se pudo leer " + meta.getPath() + " de ningún nodo ("
+                            + offset + " de " + size + " bytes enviados)");
+                }
+                nodeId = replicas.next();
+                node = nodeMap.get(nodeId);
+                continue;
+            }
+            try {
+                int length = (int) Math.min(STREAM_BLOCK_SIZE, size - offset);
+                byte[] block = node.readFileRange(meta.getStorageKey(), offset, length);
+                if (block.length == 0) {
+                    throw new RemoteException("Contenido más corto que sus metadatos");
+                }
+                out.write(block);
+                offset += block.length;
+            } catch (RemoteException e) {
+                System.err.println("⚠️ Error leyendo " + meta.getPath() + " de nodo " + nodeId + ": " + e.getMessage());
+                node = null;
+            }
+        }
+    }
+
+    /**
+     * Bytes que leerá handleDownloadFiles de los nodos: rutas existentes cuyo ETag no coincide
+     */
+    public long estimateDownloadBytes(String[] paths, String[] ifNoneMatch, int userId) {
+        List<String> validPaths = new ArrayList<>();
+        for (String path : paths) {
+            if (path != null && !path.isEmpty()) {
+                validPaths.add(path);
+            }
+        }
+        Map<String, ResolvedFile> resolved = dbClient.resolveFilesForRead(validPaths, userId);
+        long total = 0;
+        for (int i = 0; i < paths.length; i++) {
+            ResolvedFile file = resolved.get(paths[i]);
+            if (file != null && (ifNoneMatch == null || i >= ifNoneMatch.length
+                    || !file.getMetadata().getETag().equals(ifNoneMatch[i]))) {
+                total += file.getMetadata().getSizeBytes();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Descarga condicional: si ifNoneMatch[i] coincide con el ETag actual de la ruta solo se
+     * devuelve la marca de no modificado, sin leer de los nodos
+     */
+    public FileDownload[] handleDownloadFiles(String[] paths, String[] ifNoneMatch, int userId) {
+        if (ifNoneMatch != null && ifNoneMatch.length != paths.length) {
+            throw new IllegalArgumentException("El número de rutas y ETags debe coincidir");
+        }
+        FileDownload[] files = new FileDownload[paths.length];
+        
+        // Resolver metadatos, permisos y réplicas de todo el lote en un solo viaje a la BD
+        List<String> validPaths = new ArrayList<>();
+        for (String path : paths) {
+            if (path != null && !path.isEmpty()) {
+                validPaths.add(path);
+            }
+        }
+        Map<String, ResolvedFile> resolved = dbClient.resolveFilesForRead(validPaths, userId);
         
         for (int i = 0; i < paths.length; i++) {
             try {
@@ -172,18 +850,26 @@ public class Coordinator {
                 }
                 
                 // Buscar archivo
-                FileMetadata meta = dbClient.getFileByPath(path);
-                if (meta == null) {
+                ResolvedFile file = resolved.get(path);
+                if (file == null) {
                     throw new IllegalArgumentException("Archivo no encontrado: " + path);
                 }
+                FileMetadata meta = file.getMetadata();
                 
-                // Verificar permisos
-                if (!dbClient.hasReadAccess(userId, Integer.parseInt(meta.getId()))) {
+                // Verificar permisos: propietario o compartido por archivo (BD) o por directorio (índice)
+                if (!file.isReadable() && !accessControl.canRead(userId, path)) {
                     throw new IllegalArgumentException("Acceso denegado para: " + path);
                 }
                 
+                // El cliente ya tiene esta versión: basta con la consulta de metadatos
+                String etag = meta.getETag();
+                if (ifNoneMatch != null && etag.equals(ifNoneMatch[i])) {
+                    files[i] = new FileDownload(null, etag, true);
+                    continue;
+                }
+                
                 // Obtener nodos
-                List<String> nodeIds = dbClient.getReplicaNodeIds(meta.getId());
+                List<String> nodeIds = file.getReplicaNodeIds();
                 if (nodeIds.isEmpty()) {
                     throw new IllegalStateException("No hay réplicas disponibles para: " + path);
                 }
@@ -195,7 +881,7 @@ public class Coordinator {
                     if (node != null) {
                         try {
                             if (node.isHealthy()) {
-                                files[i] = node.readFile(meta.getId());
+                                files[i] = new FileDownload(node.readFile(meta.getStorageKey()), etag, false);
                                 downloaded = true;
                                 break;
                             }
@@ -212,13 +898,38 @@ public class Coordinator {
                 
             } catch (Exception e) {
                 System.err.println("❌ Error descargando archivo " + paths[i] + ": " + e.getMessage());
-                files[i] = null;
+                files[i] = new FileDownload(null, null, false);
             }
         }
         
         return files;
     }
 
+    /**
+     * Escribe en out el subárbol como ZIP en streaming. La ruta y el permiso (propietario o
+     * directorio compartido) se validan antes de escribir el primer byte.
+     */
+    public void handleDownloadDirectoryZip(String path, boolean compress, int userId, OutputStream out)
+            throws IOException {
+        if (path == null || !path.matches("/user\\d+/.+")) {
+            throw new IllegalArgumentException("Ruta inválida: " + path);
+        }
+        if (path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+        int ownerId = Integer.parseInt(path.substring("/user".length(), path.indexOf('/', 1)));
+        if (ownerId != userId && !accessControl.canRead(userId, path)) {
+            throw new IllegalArgumentException("Acceso denegado para: " + path);
+        }
+        if (!dbClient.directoryExists(path, ownerId)) {
+            throw new IllegalArgumentException("Directorio no encontrado: " + path);
+        }
+        
+        long start = System.currentTimeMillis();
+        directoryArchiver.write(path, ownerId, userId, compress, out);
+        System.out.println("🗜️ " + path + " descargado como ZIP (" + (System.currentTimeMillis() - start) + " ms)");
+    }
+
     // ========== ELIMINACIÓN DE ARCHIVOS Y DIRECTORIOS ==========
     
     public void handleDeleteFiles(String[] paths, int userId) {
@@ -228,56 +939,29 @@ public class Coordinator {
             }
             
             // Verificar que exista y pertenezca al usuario
-            if (!dbClient.isFile(path, userId) && !dbClient.isDirectory(path, userId)) {
+            boolean isFile = dbClient.isFile(path, userId);
+            boolean isDirectory = !isFile && dbClient.isDirectory(path, userId);
+            if (!isFile && !isDirectory) {
                 throw new IllegalArgumentException("Ruta no encontrada o acceso denegado: " + path);
             }
             
-            if (dbClient.isFile(path, userId)) {
+            if (isFile) {
                 // Eliminar archivo
                 FileMetadata file = dbClient.getFileByPathAndOwner(path, userId);
                 if (file == null) continue;
                 
-                // Eliminar de nodos
-                List<String> nodeIds = dbClient.getReplicaNodeIds(file.getId());
-                for (String nodeId : nodeIds) {
-                    StorageNode node = nodeMap.get(nodeId);
-                    if (node != null) {
-                        try {
-                            node.deleteFile(file.getId());
-                            System.out.println("🗑️ Archivo " + file.getId() + " eliminado del nodo " + nodeId);
-                        } catch (RemoteException e) {
-                            System.err.println("⚠️ Error eliminando de nodo " + nodeId + ": " + e.getMessage());
-                        }
-                    }
-                }
-                
-                // Eliminar metadatos
+                // Eliminar metadatos; sus réplicas quedan en la cola durable de borrado
                 dbClient.deleteFile(Integer.parseInt(file.getId()));
                 
-            } else if (dbClient.isDirectory(path, userId)) {
-                // Eliminar directorio recursivamente
-                List<Integer> fileIds = dbClient.getFileIdsInDirectory(path, userId);
-                for (Integer fileId : fileIds) {
-                    String fileIdStr = String.valueOf(fileId);
-                    List<String> nodeIds = dbClient.getReplicaNodeIds(fileIdStr);
-                    for (String nodeId : nodeIds) {
-                        StorageNode node = nodeMap.get(nodeId);
-                        if (node != null) {
-                            try {
-                                node.deleteFile(fileIdStr);
-                                System.out.println("🗑️ Archivo " + fileIdStr + " eliminado del nodo " + nodeId);
-                            } catch (RemoteException e) {
-                                System.err.println("⚠️ Error eliminando de nodo " + nodeId + ": " + e.getMessage());
-                            }
-                        }
-                    }
-                }
-                
-                // Eliminar metadatos
-                dbClient.deleteFilesInDirectory(path, userId);
-                dbClient.deleteDirectory(path, userId);
+            } else {
+                // Eliminar el subárbol en una sola transacción; sus réplicas quedan en la cola
+                List<ReplicaLocation> replicas = dbClient.deleteDirectoryTree(path, userId);
+                accessControl.removeDirectory(path);
+                System.out.println("🗑️ Directorio " + path + " eliminado; " + replicas.size() + " réplicas encoladas");
             }
         }
+        deletionQueue.wakeUp();
+        changeNotifier.publish(userId);
     }
 
     // ========== MOVER/RENOMBRAR ==========
@@ -322,10 +1006,54 @@ public class Coordinator {
                     throw new IllegalArgumentException("El directorio destino ya existe: " + newPath);
                 }
                 dbClient.moveDirectory(oldPath, newPath, userId);
+                accessControl.moveDirectory(oldPath, newPath);
                 
             } else {
                 throw new IllegalArgumentException("Ruta no encontrada o conflicto: " + oldPath);
             }
+            changeNotifier.publish(userId);
+        }
+    }
+
+    // ========== COPIAR ==========
+    
+    /**
+     * Copia archivos o directorios dentro del espacio del usuario sin mover bytes:
+     * las copias referencian los blobs existentes en los nodos
+     */
+    public void handleCopyFiles(String[] sourcePaths, String[] targetPaths, int userId) {
+        if (sourcePaths.length != targetPaths.length) {
+            throw new IllegalArgumentException("El número de rutas de origen y destino debe coincidir");
+        }
+        
+        String expectedPrefix = "/user" + userId + "/";
+        for (int i = 0; i < sourcePaths.length; i++) {
+            String sourcePath = sourcePaths[i];
+            String targetPath = targetPaths[i];
+            
+            if (sourcePath == null || targetPath == null || sourcePath.equals(targetPath)) {
+                throw new IllegalArgumentException("Rutas inválidas");
+            }
+            if (!sourcePath.startsWith(expectedPrefix) || !targetPath.startsWith(expectedPrefix)) {
+                throw new IllegalArgumentException("Solo puedes copiar archivos en tu espacio");
+            }
+            if (dbClient.isFile(targetPath, userId) || dbClient.isDirectory(targetPath, userId)) {
+                throw new IllegalArgumentException("El destino ya existe: " + targetPath);
+            }
+            
+            if (dbClient.isFile(sourcePath, userId)) {
+                dbClient.copyFile(sourcePath, targetPath, userId);
+            } else if (dbClient.isDirectory(sourcePath, userId)) {
+                if (targetPath.startsWith(sourcePath + "/")) {
+                    throw new IllegalArgumentException("No se puede copiar un directorio dentro de sí mismo");
+                }
+                int copied = dbClient.copyDirectory(sourcePath, targetPath, userId);
+                System.out.println("📋 Directorio " + sourcePath + " copiado a " + targetPath + " (" + copied + " archivos)");
+            } else {
+                throw new IllegalArgumentException("Ruta no encontrada: " + sourcePath);
+            }
+            // Solo tras una copia completada: las anteriores del lote ya se notificaron
+            changeNotifier.publish(userId);
         }
     }
 
@@ -365,21 +1093,50 @@ public class Coordinator {
                 dbClient.shareFile(Integer.parseInt(file.getId()), sharedUser.getId(), permission);
                 
             } else if (isDirectory && !isFile) {
-                // Compartir directorio (todos los archivos)
-                List<Integer> fileIds = dbClient.getFileIdsInDirectory(path, ownerId);
-                if (fileIds.isEmpty()) {
-                    throw new IllegalArgumentException("El directorio está vacío: " + path);
-                }
-                for (Integer fileId : fileIds) {
-                    dbClient.shareFile(fileId, sharedUser.getId(), permission);
-                }
+                // Compartir directorio: una sola fila que hereda todo el subárbol, incluidos archivos futuros
+                DirectoryShare share = dbClient.shareDirectory(path, ownerId, sharedUser.getId(), permission);
+                accessControl.grant(share.getSharedWithUserId(), share.getPath(), share.getPermissionLevel());
                 
             } else {
                 throw new IllegalArgumentException("Ruta no encontrada: " + path);
             }
+            changeNotifier.publish(ownerId);
+            changeNotifier.publish(sharedUser.getId());
         }
     }
 
+    // ========== REGISTRO DE CAMBIOS ==========
+
+    /**
+     * Cursor más reciente del usuario: el cliente lo guarda antes de su sincronización completa
+     */
+    public long handleGetLatestChangeCursor(int userId) {
+        return dbClient.getLatestChangeId(userId);
+    }
+
+    /**
+     * Cambios posteriores al cursor; si no hay ninguno espera hasta waitMs a que el usuario
+     * publique alguno (long-poll)
+     */
+    public List<ChangeEntry> handleGetChanges(long sinceId, long waitMs, int userId) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + Math.min(Math.max(waitMs, 0), MAX_CHANGES_WAIT_MS);
+        while (true) {
+            // Leer la versión antes de consultar: un cambio publicado entre ambos no se pierde
+            long version = changeNotifier.currentVersion(userId);
+            List<ChangeEntry> changes = dbClient.getChanges(userId, sinceId, MAX_CHANGES_PER_POLL);
+            long remaining = deadline - System.currentTimeMillis();
+            if (!changes.isEmpty() || remaining <= 0) {
+                return changes;
+            }
+            changeNotifier.await(userId, version, remaining);
+        }
+    }
+
+    public SpaceUsage handleGetSpaceUsage(int userId) {
+        // Lectura por clave primaria de los contadores mantenidos en cada escritura
+        return dbClient.getSpaceUsage(userId);
+    }
+
     // ========== MÉTODOS AUXILIARES ==========
     
     private List<StorageNode> getAvailableNodes(int count) {
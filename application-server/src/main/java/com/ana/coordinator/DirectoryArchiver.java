@@ -0,0 +1,206 @@
+package com.ana.coordinator;
+
+import com.ana.db.DatabaseClient;
+import com.ana.model.DirectoryEntry;
+import com.ana.model.ResolvedFile;
+import com.ana.node.StorageNode;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.rmi.RemoteException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Escribe un subárbol como ZIP en streaming. El árbol se recorre con el listado paginado
+ * (una página por nivel en memoria), los archivos se piden a sus réplicas con como mucho
+ * PREFETCH_WINDOW lecturas adelantadas y se escriben en orden según llegan. Así la memoria
+ * depende de la profundidad y del tamaño de los archivos en vuelo, no del tamaño de la carpeta.
+ */
+public class DirectoryArchiver {
+
+    private static final int PAGE_SIZE = 1000;
+    private static final int PREFETCH_WINDOW = 4;
+    private static final int PREFETCH_THREADS = 16;
+    // Tipos que se comprimen bien con DEFLATE; el resto (ya comprimidos o binarios) se guarda sin comprimir
+    private static final Set<String> COMPRESSIBLE_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "txt", "md", "csv", "tsv", "log", "json", "xml", "html", "htm", "css", "js", "svg",
+            "java", "py", "c", "h", "cpp", "sql", "yml", "yaml", "ini", "properties", "bmp", "tar"));
+
+    private final DatabaseClient dbClient;
+    private final Function<String, StorageNode> nodeResolver;
+    private final ExecutorService prefetchExecutor = Executors.newFixedThreadPool(PREFETCH_THREADS, r -> {
+        Thread thread = new Thread(r, "zip-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public DirectoryArchiver(DatabaseClient dbClient, Function<String, StorageNode> nodeResolver) {
+        this.dbClient = dbClient;
+        this.nodeResolver = nodeResolver;
+    }
+
+    /**
+     * Escribe el directorio del propietario como ZIP; las entradas llevan el nombre del directorio
+     * como raíz. Los archivos ilegibles se omiten y se listan en ERRORES.txt al final.
+     */
+    public void write(String directoryPath, int ownerId, int userId, boolean compress, OutputStream out)
+            throws IOException {
+        Archive archive = new Archive(new ZipOutputStream(out), compress);
+        String rootName = directoryPath.substring(directoryPath.lastIndexOf('/') + 1);
+        try {
+            archiveDirectory(directoryPath, rootName + "/", ownerId, userId, archive);
+            archive.finish();
+        } finally {
+            archive.cancelPending();
+        }
+    }
+
+    private void archiveDirectory(String directoryPath, String entryPrefix, int ownerId, int userId, Archive archive)
+            throws IOException {
+        archive.putDirectory(entryPrefix);
+        String cursor = null;
+        do {
+            List<DirectoryEntry> page = new ArrayList<>();
+            cursor = dbClient.listDirectory(directoryPath, ownerId, cursor, PAGE_SIZE, page::add);
+
+            List<String> filePaths = new ArrayList<>();
+            for (DirectoryEntry entry : page) {
+                if (entry.isDirectory()) {
+                    archiveDirectory(entry.getPath(), entryPrefix + entry.getName() + "/", ownerId, userId, archive);
+                } else {
+                    filePaths.add(entry.getPath());
+                }
+            }
+            if (filePaths.isEmpty()) {
+                continue;
+            }
+
+            // Metadatos y réplicas de toda la página en un solo viaje a la BD
+            Map<String, ResolvedFile> resolved = dbClient.resolveFilesForRead(filePaths, userId);
+            for (String path : filePaths) {
+                String entryName = entryPrefix + path.substring(path.lastIndexOf('/') + 1);
+                ResolvedFile file = resolved.get(path);
+                if (file == null) {
+                    archive.skip(entryName, "archivo no encontrado");
+                    continue;
+                }
+                archive.putFile(entryName, prefetchExecutor.submit(() -> readFromReplicas(file)));
+            }
+        } while (cursor != null);
+    }
+
+    private byte[] readFromReplicas(ResolvedFile file) throws IOException {
+        String storageKey = file.getMetadata().getStorageKey();
+        for (String nodeId : file.getReplicaNodeIds()) {
+            StorageNode node = nodeResolver.apply(nodeId);
+            if (node == null) {
+                continue;
+            }
+            try {
+                return node.readFile(storageKey);
+            } catch (RemoteException e) {
+                System.err.println("⚠️ Error leyendo " + storageKey + " del nodo " + nodeId + ": " + e.getMessage());
+            }
+        }
+        throw new IOException("ninguna réplica disponible");
+    }
+
+    private static boolean isCompressible(String entryName) {
+        int dot = entryName.lastIndexOf('.');
+        return dot > entryName.lastIndexOf('/')
+                && COMPRESSIBLE_EXTENSIONS.contains(entryName.substring(dot + 1).toLowerCase());
+    }
+
+    /**
+     * ZIP en curso con la ventana de lecturas adelantadas, escritas en el orden del recorrido
+     */
+    private static class Archive {
+        private final ZipOutputStream zip;
+        private final boolean compress;
+        private final Deque<Map.Entry<String, Future<byte[]>>> pending = new ArrayDeque<>();
+        private final List<String> errors = new ArrayList<>();
+
+        Archive(ZipOutputStream zip, boolean compress) {
+            this.zip = zip;
+            this.compress = compress;
+        }
+
+        void putDirectory(String entryName) throws IOException {
+            // Pasa por la cola para no vaciar la ventana en cada cambio de directorio
+            putFile(entryName, CompletableFuture.completedFuture(null));
+        }
+
+        void putFile(String entryName, Future<byte[]> data) throws IOException {
+            drain(PREFETCH_WINDOW - 1);
+            pending.addLast(new AbstractMap.SimpleEntry<>(entryName, data));
+        }
+
+        void skip(String entryName, String reason) {
+            errors.add(entryName + ": " + reason);
+        }
+
+        void finish() throws IOException {
+            drain(0);
+            if (!errors.isEmpty()) {
+                writeEntry("ERRORES.txt", String.join("\n", errors).getBytes(StandardCharsets.UTF_8));
+            }
+            zip.finish();
+        }
+
+        void cancelPending() {
+            for (Map.Entry<String, Future<byte[]>> entry : pending) {
+                entry.getValue().cancel(true);
+            }
+        }
+
+        /**
+         * Escribe las entradas más antiguas hasta dejar como mucho maxPending en vuelo
+         */
+        private void drain(int maxPending) throws IOException {
+            while (pending.size() > maxPending) {
+                Map.Entry<String, Future<byte[]>> entry = pending.removeFirst();
+                byte[] data;
+                try {
+                    data = entry.getValue().get();
+                } catch (ExecutionException e) {
+                    skip(entry.getKey(), e.getCause().getMessage());
+                    continue;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Descarga interrumpida", e);
+                }
+                writeEntry(entry.getKey(), data);
+            }
+        }
+
+        private void writeEntry(String entryName, byte[] data) throws IOException {
+            ZipEntry zipEntry = new ZipEntry(entryName);
+            if (data == null) {
+                zip.putNextEntry(zipEntry);
+                zip.closeEntry();
+                return;
+            }
+            if (!compress || !isCompressible(entryName)) {
+                // STORED exige tamaño y CRC antes de los datos; ya se tiene el contenido completo
+                CRC32 crc = new CRC32();
+                crc.update(data);
+                zipEntry.setMethod(ZipEntry.STORED);
+                zipEntry.setSize(data.length);
+                zipEntry.setCompressedSize(data.length);
+                zipEntry.setCrc(crc.getValue());
+            }
+            zip.putNextEntry(zipEntry);
+            zip.write(data);
+            zip.closeEntry();
+        }
+    }
+}
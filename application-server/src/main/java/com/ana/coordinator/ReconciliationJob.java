@@ -0,0 +1,151 @@
+package com.ana.coordinator;
+
+import com.ana.db.DatabaseClient;
+import com.ana.model.ReplicaRepair;
+import com.ana.node.StorageNode;
+import java.rmi.RemoteException;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Reconciliación periódica entre el inventario de cada nodo y file_replicas.
+ *
+ * Cada nodo exporta un resumen por cubetas (cantidad, suma y suma de cuadrados de los ids)
+ * y la BD calcula el mismo resumen con un GROUP BY. Solo las cubetas que difieren se
+ * listan en ambos lados, así que lo transferido crece con la deriva y no con el total.
+ * Los blobs sin fila se encolan en blob_deletions y las filas sin blob en replica_repairs;
+ * las reparaciones se copian desde otra réplica sana.
+ */
+public class ReconciliationJob {
+
+    // ~25k ids por cubeta con 100M de archivos por nodo
+    private static final int BUCKET_COUNT = 4096;
+    private static final int MAX_REPAIRS_PER_ROUND = 500;
+    private static final long RECONCILE_INTERVAL_HOURS = 6;
+    private static final long REPAIR_INTERVAL_MINUTES = 1;
+
+    private final DatabaseClient dbClient;
+    private final Supplier<Collection<String>> nodeIds;
+    private final Function<String, StorageNode> nodeResolver;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "reconciliation-job");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ReconciliationJob(DatabaseClient dbClient, Supplier<Collection<String>> nodeIds,
+            Function<String, StorageNode> nodeResolver) {
+        this.dbClient = dbClient;
+        this.nodeIds = nodeIds;
+        this.nodeResolver = nodeResolver;
+    }
+
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::reconcileAll, RECONCILE_INTERVAL_HOURS, RECONCILE_INTERVAL_HOURS, TimeUnit.HOURS);
+        scheduler.scheduleWithFixedDelay(this::processRepairs, REPAIR_INTERVAL_MINUTES, REPAIR_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    public void reconcileAll() {
+        for (String nodeId : new ArrayList<>(nodeIds.get())) {
+            try {
+                reconcileNode(nodeId);
+            } catch (Exception e) {
+                System.err.println("⚠️ Error reconciliando nodo " + nodeId + ": " + e.getMessage());
+            }
+        }
+    }
+
+    public void reconcileNode(String nodeId) throws RemoteException {
+        StorageNode node = nodeResolver.apply(nodeId);
+        if (node == null) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        long[] expected = dbClient.getReplicaDigests(nodeId, BUCKET_COUNT);
+        long[] actual = node.getInventoryDigests(BUCKET_COUNT);
+
+        int mismatched = 0;
+        int orphans = 0;
+        int missing = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            if (expected[3 * bucket] == actual[3 * bucket]
+                    && expected[3 * bucket + 1] == actual[3 * bucket + 1]
+                    && expected[3 * bucket + 2] == actual[3 * bucket + 2]) {
+                continue;
+            }
+            mismatched++;
+
+            // Primero la BD y luego el nodo: un blob subido entre ambas lecturas nunca parece faltante
+            Set<String> inDb = new HashSet<>(dbClient.getReplicaFileIdsInBucket(nodeId, BUCKET_COUNT, bucket));
+            Set<String> onNode = new HashSet<>(Arrays.asList(node.listFileIds(BUCKET_COUNT, bucket)));
+
+            List<String> orphanIds = new ArrayList<>();
+            for (String fileId : onNode) {
+                if (!inDb.contains(fileId)) {
+                    orphanIds.add(fileId);
+                }
+            }
+            List<String> missingIds = new ArrayList<>();
+            for (String fileId : inDb) {
+                if (!onNode.contains(fileId)) {
+                    missingIds.add(fileId);
+                }
+            }
+
+            if (!orphanIds.isEmpty()) {
+                orphans += dbClient.enqueueOrphanBlobs(nodeId, orphanIds);
+            }
+            if (!missingIds.isEmpty()) {
+                missing += dbClient.markReplicasMissing(nodeId, missingIds);
+            }
+        }
+
+        System.out.println("🔎 Reconciliación de " + nodeId + ": " + mismatched + "/" + BUCKET_COUNT
+                + " cubetas distintas, " + orphans + " huérfanos encolados, " + missing
+                + " réplicas a reparar (" + (System.currentTimeMillis() - start) + " ms)");
+    }
+
+    public void processRepairs() {
+        try {
+            for (ReplicaRepair repair : dbClient.getDueReplicaRepairs(MAX_REPAIRS_PER_ROUND)) {
+                try {
+                    repair(repair);
+                    dbClient.completeReplicaRepair(repair);
+                } catch (Exception e) {
+                    dbClient.retryReplicaRepairs(Collections.singletonList(repair.getId()), e.getMessage());
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("⚠️ Error procesando reparaciones: " + e.getMessage());
+        }
+    }
+
+    private void repair(ReplicaRepair repair) throws RemoteException {
+        StorageNode target = nodeResolver.apply(repair.getNodeId());
+        if (target == null) {
+            throw new IllegalStateException("Nodo destino no disponible: " + repair.getNodeId());
+        }
+
+        // Copiar desde cualquier otra réplica sana
+        for (String sourceId : dbClient.getReplicaNodeIds(repair.getFileId())) {
+            StorageNode source = nodeResolver.apply(sourceId);
+            if (source == null || sourceId.equals(repair.getNodeId())) {
+                continue;
+            }
+            try {
+                target.storeFile(repair.getFileId(), source.readFile(repair.getFileId()));
+                System.out.println("🩹 Réplica " + repair.getFileId() + " restaurada en " + repair.getNodeId()
+                        + " desde " + sourceId);
+                return;
+            } catch (RemoteException e) {
+                System.err.println("⚠️ Error copiando desde " + sourceId + ": " + e.getMessage());
+            }
+        }
+        throw new IllegalStateException("No hay réplica sana desde la que copiar " + repair.getFileId());
+    }
+}
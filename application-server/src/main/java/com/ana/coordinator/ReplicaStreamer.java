@@ -0,0 +1,153 @@
+package com.ana.coordinator;
+
+import com.ana.node.StorageNode;
+import java.io.IOException;
+import java.io.InputStream;
+import java.rmi.RemoteException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Reenvío en corte directo hacia las réplicas: cada pieza leída del cuerpo HTTP se envía a
+ * todos los nodos a la vez mientras se lee la siguiente. Como mucho MAX_IN_FLIGHT_PIECES
+ * piezas en memoria por subida; con el límite alcanzado no se lee más del cuerpo y TCP
+ * frena al cliente. Un nodo que falla deja de recibir piezas y queda fuera de la subida.
+ */
+public class ReplicaStreamer {
+
+    private static final int PIECE_SIZE = 4 * 1024 * 1024;
+    private static final int MAX_IN_FLIGHT_PIECES = 4;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "replica-stream");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Resultado de un envío: piezas y bytes enviados y nodos que los recibieron todos
+     */
+    public static class Result {
+        private final int pieceCount;
+        private final long totalBytes;
+        private final List<String> nodeIds;
+
+        Result(int pieceCount, long totalBytes, List<String> nodeIds) {
+            this.pieceCount = pieceCount;
+            this.totalBytes = totalBytes;
+            this.nodeIds = nodeIds;
+        }
+
+        public int getPieceCount() { return pieceCount; }
+        public long getTotalBytes() { return totalBytes; }
+        public List<String> getNodeIds() { return nodeIds; }
+    }
+
+    /**
+     * Envía el flujo completo al área temporal stagingId de los nodos
+     */
+    public Result stream(String stagingId, InputStream in, Map<String, StorageNode> nodes) throws IOException {
+        Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT_PIECES);
+        Set<String> failed = ConcurrentHashMap.newKeySet();
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+        int pieceCount = 0;
+        long totalBytes = 0;
+        try {
+            while (true) {
+                inFlight.acquire();
+                byte[] piece = in.readNBytes(PIECE_SIZE);
+                if (piece.length == 0) {
+                    inFlight.release();
+                    break;
+                }
+                if (failed.size() == nodes.size()) {
+                    throw new IllegalStateException("Ningún nodo acepta la subida");
+                }
+
+                int index = pieceCount++;
+                totalBytes += piece.length;
+                pending.add(storeAsync(stagingId, index, piece, nodes, failed)
+                        .whenComplete((v, e) -> inFlight.release()));
+                if (piece.length < PIECE_SIZE) {
+                    break; // readNBytes solo devuelve menos al final del flujo
+                }
+            }
+            CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Subida interrumpida", e);
+        }
+
+        List<String> nodeIds = new ArrayList<>();
+        for (String nodeId : nodes.keySet()) {
+            if (!failed.contains(nodeId)) {
+                nodeIds.add(nodeId);
+            }
+        }
+        if (nodeIds.isEmpty()) {
+            throw new IllegalStateException("Ningún nodo recibió la subida completa");
+        }
+        return new Result(pieceCount, totalBytes, nodeIds);
+    }
+
+    /**
+     * Guarda una pieza en todos los nodos en paralelo; devuelve los nodos que fallaron
+     */
+    public Set<String> storeChunk(String stagingId, int index, byte[] data, Map<String, StorageNode> nodes) {
+        Set<String> failed = ConcurrentHashMap.newKeySet();
+        storeAsync(stagingId, index, data, nodes, failed).join();
+        return failed;
+    }
+
+    private CompletableFuture<Void> storeAsync(String stagingId, int index, byte[] data,
+            Map<String, StorageNode> nodes, Set<String> failed) {
+        List<CompletableFuture<Void>> sends = new ArrayList<>();
+        for (Map.Entry<String, StorageNode> entry : nodes.entrySet()) {
+            String nodeId = entry.getKey();
+            if (failed.contains(nodeId)) {
+                continue;
+            }
+            sends.add(CompletableFuture.runAsync(() -> {
+                if (failed.contains(nodeId)) {
+                    return; // Ya falló con una pieza anterior
+                }
+                try {
+                    if (entry.getValue() == null) {
+                        throw new RemoteException("Nodo no disponible: " + nodeId);
+                    }
+                    entry.getValue().storeChunk(stagingId, index, data);
+                } catch (RemoteException e) {
+                    System.err.println("⚠️ Error enviando pieza " + index + " al nodo " + nodeId + ": " + e.getMessage());
+                    failed.add(nodeId);
+                }
+            }, executor));
+        }
+        return CompletableFuture.allOf(sends.toArray(new CompletableFuture<?>[0]));
+    }
+
+    /**
+     * Une las piezas en cada nodo en paralelo; devuelve el SHA-256 del contenido por nodo que lo logró
+     */
+    public Map<String, String> commit(String stagingId, int pieceCount, String fileId, Map<String, StorageNode> nodes) {
+        Map<String, String> hashes = new ConcurrentHashMap<>();
+        List<CompletableFuture<Void>> commits = new ArrayList<>();
+        for (Map.Entry<String, StorageNode> entry : nodes.entrySet()) {
+            if (entry.getValue() == null) {
+                continue;
+            }
+            commits.add(CompletableFuture.runAsync(() -> {
+                try {
+                    hashes.put(entry.getKey(), entry.getValue().commitChunks(stagingId, pieceCount, fileId));
+                } catch (RemoteException e) {
+                    System.err.println("⚠️ Error uniendo piezas en nodo " + entry.getKey() + ": " + e.getMessage());
+                }
+            }, executor));
+        }
+        CompletableFuture.allOf(commits.toArray(new CompletableFuture<?>[0])).join();
+        return hashes;
+    }
+}
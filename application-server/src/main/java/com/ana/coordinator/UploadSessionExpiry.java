@@ -0,0 +1,74 @@
+package com.ana.coordinator;
+
+import com.ana.db.DatabaseClient;
+import com.ana.model.UploadSession;
+import com.ana.node.StorageNode;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Descarta las sesiones de subida reanudable sin actividad: borra sus fragmentos
+ * temporales en los nodos y después la sesión en la BD. Un nodo caído no bloquea
+ * la limpieza; el propio nodo purga al arrancar el área temporal abandonada.
+ */
+public class UploadSessionExpiry {
+
+    private static final int MAX_SESSIONS_PER_ROUND = 100;
+    private static final long EXPIRY_INTERVAL_MINUTES = 10;
+
+    private final DatabaseClient dbClient;
+    private final Function<String, StorageNode> nodeResolver;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "upload-session-expiry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public UploadSessionExpiry(DatabaseClient dbClient, Function<String, StorageNode> nodeResolver) {
+        this.dbClient = dbClient;
+        this.nodeResolver = nodeResolver;
+    }
+
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::expireSessions, EXPIRY_INTERVAL_MINUTES, EXPIRY_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    public void expireSessions() {
+        try {
+            List<UploadSession> expired = dbClient.getExpiredUploadSessions(MAX_SESSIONS_PER_ROUND);
+            for (UploadSession session : expired) {
+                discard(session);
+                dbClient.deleteUploadSession(session.getId());
+            }
+            if (!expired.isEmpty()) {
+                System.out.println("⌛ " + expired.size() + " sesiones de subida expiradas descartadas");
+            }
+        } catch (Exception e) {
+            System.err.println("⚠️ Error expirando sesiones de subida: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Borra los fragmentos temporales de la sesión en todos sus nodos, incluidos los que fallaron
+     */
+    public void discard(UploadSession session) {
+        List<String> nodeIds = new ArrayList<>(session.getNodeIds());
+        nodeIds.addAll(session.getFailedNodeIds());
+        for (String nodeId : nodeIds) {
+            StorageNode node = nodeResolver.apply(nodeId);
+            if (node == null) {
+                continue;
+            }
+            try {
+                node.discardChunks(session.getId());
+            } catch (RemoteException e) {
+                System.err.println("⚠️ Error descartando fragmentos en nodo " + nodeId + ": " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.ana.db;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+/**
+ * Caché LRU acotada con claves de tipo ruta.
+ * Guarda también resultados negativos (Optional.empty()) y cuenta aciertos/fallos.
+ * Cada invalidación deja una marca con su número de secuencia sobre la clave, el prefijo o el
+ * atributo indexado: quien lee del origen anota version() antes y rellena con putIfUnchanged,
+ * que solo descarta el valor si una invalidación posterior afectó a esa misma clave.
+ */
+class BoundedCache<V> {
+
+    private static final String KEY_MARK = "k:";
+    private static final String PREFIX_MARK = "p:";
+    private static final String INDEX_MARK = "i:";
+
+    private final String name;
+    private final int maxEntries;
+    private final LinkedHashMap<String, Optional<V>> entries;
+    // Las mismas claves ordenadas, para invalidar un prefijo sin recorrer toda la caché
+    private final TreeSet<String> sortedKeys = new TreeSet<>();
+    // Índice opcional por un atributo del valor (p. ej. id de archivo) -> clave
+    private final Function<V, String> indexOf;
+    private final Map<String, String> keyByIndex = new HashMap<>();
+    // Marca de invalidación -> secuencia, en orden de antigüedad
+    private final LinkedHashMap<String, Long> tombstones = new LinkedHashMap<>();
+    private long sequence;
+    // Lecturas empezadas antes de esta secuencia no rellenan: sus marcas ya se descartaron
+    private long floor;
+    private long hits;
+    private long misses;
+
+    BoundedCache(String name, int maxEntries) {
+        this(name, maxEntries, null);
+    }
+
+    BoundedCache(String name, int maxEntries, Function<V, String> indexOf) {
+        this.name = name;
+        this.maxEntries = maxEntries;
+        this.indexOf = indexOf;
+        this.entries = new LinkedHashMap<String, Optional<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Optional<V>> eldest) {
+                if (size() > BoundedCache.this.maxEntries) {
+                    forget(eldest.getKey(), eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Devuelve la entrada en caché, o null si no está (distinto de Optional.empty())
+     */
+    synchronized Optional<V> get(String key) {
+        Optional<V> value = entries.get(key);
+        if (value != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return value;
+    }
+
+    /**
+     * Número de secuencia actual; se anota antes de leer del origen
+     */
+    synchronized long version() {
+        return sequence;
+    }
+
+    /**
+     * Guarda el valor salvo que, desde expectedVersion, se haya invalidado la clave, un prefijo
+     * que la contiene o el atributo indexado del valor
+     */
+    synchronized void putIfUnchanged(String key, V value, long expectedVersion) {
+        if (expectedVersion < floor || invalidatedSince(KEY_MARK + key, expectedVersion)) {
+            return;
+        }
+        if (invalidatedSince(PREFIX_MARK + key, expectedVersion)) {
+            return;
+        }
+        for (int slash = key.indexOf('/'); slash >= 0; slash = key.indexOf('/', slash + 1)) {
+            if (invalidatedSince(PREFIX_MARK + key.substring(0, slash), expectedVersion)) {
+                return;
+            }
+        }
+        String indexKey = indexOf != null && value != null ? indexOf.apply(value) : null;
+        if (indexKey != null && invalidatedSince(INDEX_MARK + indexKey, expectedVersion)) {
+            return;
+        }
+
+        Optional<V> previous = entries.put(key, Optional.ofNullable(value));
+        if (previous != null) {
+            unindex(key, previous);
+        }
+        sortedKeys.add(key);
+        if (indexKey != null) {
+            // Un mismo valor indexado solo vive en una clave: la anterior quedó obsoleta
+            String staleKey = keyByIndex.put(indexKey, key);
+            if (staleKey != null && !staleKey.equals(key)) {
+                entries.remove(staleKey);
+                sortedKeys.remove(staleKey);
+            }
+        }
+    }
+
+    synchronized void invalidate(String key) {
+        mark(KEY_MARK + key);
+        Optional<V> removed = entries.remove(key);
+        if (removed != null) {
+            forget(key, removed);
+        }
+    }
+
+    /**
+     * Entrada cuyo valor tiene ese atributo indexado, sin contarla como acierto ni fallo
+     */
+    synchronized V peekIndexed(String indexKey) {
+        String key = keyByIndex.get(indexKey);
+        Optional<V> value = key != null ? entries.get(key) : null;
+        return value != null ? value.orElse(null) : null;
+    }
+
+    /**
+     * Elimina la entrada cuyo valor tiene ese atributo indexado, sin recorrer la caché
+     */
+    synchronized void invalidateIndexed(String indexKey) {
+        mark(INDEX_MARK + indexKey);
+        String key = keyByIndex.remove(indexKey);
+        if (key != null) {
+            entries.remove(key);
+            sortedKeys.remove(key);
+        }
+    }
+
+    /**
+     * Elimina la clave exacta y todas las que cuelgan de ella (prefix + "/...")
+     * @return Valores presentes que fueron eliminados
+     */
+    synchronized List<V> invalidatePrefix(String prefix) {
+        mark(PREFIX_MARK + prefix);
+        List<String> keys = new ArrayList<>();
+        if (sortedKeys.contains(prefix)) {
+            keys.add(prefix);
+        }
+        // '0' es el carácter siguiente a '/': el rango cubre exactamente prefix + "/..."
+        keys.addAll(sortedKeys.subSet(prefix + "/", prefix + "0"));
+        List<V> removed = new ArrayList<>();
+        for (String key : keys) {
+            Optional<V> value = entries.remove(key);
+            if (value != null) {
+                value.ifPresent(removed::add);
+                forget(key, value);
+            }
+        }
+        return removed;
+    }
+
+    synchronized void clear() {
+        sequence++;
+        floor = sequence;
+        tombstones.clear();
+        entries.clear();
+        sortedKeys.clear();
+        keyByIndex.clear();
+    }
+
+    synchronized String getName() { return name; }
+    synchronized int size() { return entries.size(); }
+    synchronized long getHits() { return hits; }
+    synchronized long getMisses() { return misses; }
+
+    synchronized double getHitRatio() {
+        long total = hits + misses;
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    private boolean invalidatedSince(String mark, long expectedVersion) {
+        Long invalidatedAt = tombstones.get(mark);
+        return invalidatedAt != null && invalidatedAt > expectedVersion;
+    }
+
+    private void mark(String mark) {
+        sequence++;
+        tombstones.remove(mark);
+        tombstones.put(mark, sequence);
+        // Tantas marcas como entradas; al descartar la más antigua las lecturas previas no rellenan
+        Iterator<Map.Entry<String, Long>> it = tombstones.entrySet().iterator();
+        while (tombstones.size() > maxEntries && it.hasNext()) {
+            floor = Math.max(floor, it.next().getValue());
+            it.remove();
+        }
+    }
+
+    private void forget(String key, Optional<V> value) {
+        sortedKeys.remove(key);
+        unindex(key, value);
+    }
+
+    private void unindex(String key, Optional<V> value) {
+        if (indexOf != null && value.isPresent()) {
+            keyByIndex.remove(indexOf.apply(value.get()), key);
+        }
+    }
+}
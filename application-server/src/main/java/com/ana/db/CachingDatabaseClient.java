@@ -0,0 +1,664 @@
+package com.ana.db;
+
+import com.ana.model.BlobDeletion;
+import com.ana.model.ChangeEntry;
+import com.ana.model.DirectoryEntry;
+import com.ana.model.DirectoryShare;
+import com.ana.model.FileMetadata;
+import com.ana.model.ReplicaLocation;
+import com.ana.model.ReplicaRepair;
+import com.ana.model.ResolvedFile;
+import com.ana.model.SpaceUsage;
+import com.ana.model.StoredBlob;
+import com.ana.model.UploadSession;
+import com.ana.model.User;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * Caché de metadatos en proceso delante de un DatabaseClient.
+ * Cachea ruta -> FileMetadata, fileId -> réplicas, existencia de directorios y páginas de
+ * listado; las operaciones de escritura invalidan las entradas afectadas después de delegar.
+ */
+public class CachingDatabaseClient implements DatabaseClient {
+
+    // Páginas más grandes van siempre al origen: cada una retiene todas sus entradas
+    private static final int MAX_CACHED_PAGE_ENTRIES = 1000;
+
+    private final DatabaseClient delegate;
+    private final BoundedCache<FileMetadata> filesByPath;
+    private final BoundedCache<List<String>> replicasByFileId;
+    private final BoundedCache<Boolean> directories;
+    private final BoundedCache<ListingPage> listings;
+
+    public CachingDatabaseClient(DatabaseClient delegate, int maxEntries) {
+        this.delegate = delegate;
+        this.filesByPath = new BoundedCache<>("files", maxEntries, FileMetadata::getId);
+        this.replicasByFileId = new BoundedCache<>("replicas", maxEntries);
+        this.directories = new BoundedCache<>("directories", maxEntries);
+        this.listings = new BoundedCache<>("listings", Math.max(16, maxEntries / 100));
+    }
+
+    /**
+     * Página de listado ya leída: entradas en orden y cursor siguiente
+     */
+    private static class ListingPage {
+        final List<DirectoryEntry> entries;
+        final String next;
+
+        ListingPage(List<DirectoryEntry> entries, String next) {
+            this.entries = entries;
+            this.next = next;
+        }
+    }
+
+    // ========== LECTURAS CACHEADAS ==========
+
+    @Override
+    public FileMetadata getFileByPath(String path) {
+        Optional<FileMetadata> cached = filesByPath.get(path);
+        if (cached != null) {
+            return cached.orElse(null);
+        }
+        long version = filesByPath.version();
+        FileMetadata meta = delegate.getFileByPath(path);
+        filesByPath.putIfUnchanged(path, meta, version);
+        return meta;
+    }
+
+    @Override
+    public FileMetadata getFileMetadata(String path) {
+        return getFileByPath(path);
+    }
+
+    @Override
+    public FileMetadata getFileMetadata(String path, int ownerId) {
+        return getFileByPathAndOwner(path, ownerId);
+    }
+
+    @Override
+    public FileMetadata getFileByPathAndOwner(String path, int ownerId) {
+        FileMetadata meta = getFileByPath(path);
+        return meta != null && meta.getOwnerId() == ownerId ? meta : null;
+    }
+
+    @Override
+    public boolean isFile(String path, int ownerId) {
+        return getFileByPathAndOwner(path, ownerId) != null;
+    }
+
+    @Override
+    public List<String> getReplicaNodeIds(String fileId) {
+        Optional<List<String>> cached = replicasByFileId.get(fileId);
+        if (cached != null && cached.isPresent()) {
+            return new ArrayList<>(cached.get());
+        }
+        long version = replicasByFileId.version();
+        List<String> nodeIds = delegate.getReplicaNodeIds(fileId);
+        replicasByFileId.putIfUnchanged(fileId, new ArrayList<>(nodeIds), version);
+        return nodeIds;
+    }
+
+    @Override
+    public boolean directoryExists(String path, int ownerId) {
+        String key = directoryKey(path, ownerId);
+        Optional<Boolean> cached = directories.get(key);
+        if (cached != null && cached.isPresent()) {
+            return cached.get();
+        }
+        long version = directories.version();
+        boolean exists = delegate.directoryExists(path, ownerId);
+        directories.putIfUnchanged(key, exists, version);
+        return exists;
+    }
+
+    @Override
+    public boolean isDirectory(String path, int ownerId) {
+        return directoryExists(path, ownerId);
+    }
+
+    /**
+     * Los archivos propios con metadatos y réplicas en caché se resuelven sin consulta; el resto,
+     * incluidos los ajenos (el permiso depende de file_shares), va al origen en un solo lote
+     */
+    @Override
+    public Map<String, ResolvedFile> resolveFilesForRead(List<String> paths, int userId) {
+        Map<String, ResolvedFile> resolved = new HashMap<>();
+        if (paths == null || paths.isEmpty()) {
+            return resolved;
+        }
+        List<String> missing = new ArrayList<>();
+        for (String path : paths) {
+            Optional<FileMetadata> meta = filesByPath.get(path);
+            if (meta != null && !meta.isPresent()) {
+                continue; // No existe
+            }
+            Optional<List<String>> replicas = meta != null && meta.get().getOwnerId() == userId
+                    ? replicasByFileId.get(blobKeyOf(meta.get())) : null;
+            if (replicas == null || !replicas.isPresent()) {
+                missing.add(path);
+                continue;
+            }
+            ResolvedFile file = new ResolvedFile(meta.get(), true);
+            file.getReplicaNodeIds().addAll(replicas.get());
+            resolved.put(path, file);
+        }
+        if (missing.isEmpty()) {
+            return resolved;
+        }
+
+        long filesVersion = filesByPath.version();
+        long replicasVersion = replicasByFileId.version();
+        Map<String, ResolvedFile> fetched = delegate.resolveFilesForRead(missing, userId);
+        for (String path : missing) {
+            ResolvedFile file = fetched.get(path);
+            filesByPath.putIfUnchanged(path, file != null ? file.getMetadata() : null, filesVersion);
+            if (file != null) {
+                resolved.put(path, file);
+                replicasByFileId.putIfUnchanged(blobKeyOf(file.getMetadata()),
+                        new ArrayList<>(file.getReplicaNodeIds()), replicasVersion);
+            }
+        }
+        return resolved;
+    }
+
+    @Override
+    public String listDirectory(String directoryPath, int ownerId, String cursor, int limit,
+            Consumer<DirectoryEntry> consumer) {
+        if (limit > MAX_CACHED_PAGE_ENTRIES) {
+            return delegate.listDirectory(directoryPath, ownerId, cursor, limit, consumer);
+        }
+        String key = listingPrefix(directoryPath, ownerId) + "/" + limit + "/" + (cursor != null ? cursor : "");
+        Optional<ListingPage> cached = listings.get(key);
+        if (cached != null && cached.isPresent()) {
+            cached.get().entries.forEach(consumer);
+            return cached.get().next;
+        }
+        long version = listings.version();
+        List<DirectoryEntry> entries = new ArrayList<>();
+        String next = delegate.listDirectory(directoryPath, ownerId, cursor, limit, entry -> {
+            entries.add(entry);
+            consumer.accept(entry);
+        });
+        listings.putIfUnchanged(key, new ListingPage(entries, next), version);
+        return next;
+    }
+
+    // ========== ESCRITURAS CON INVALIDACIÓN ==========
+
+    @Override
+    public void saveFileMetadata(FileMetadata metadata) {
+        try {
+            delegate.saveFileMetadata(metadata);
+        } finally {
+            filesByPath.invalidate(metadata.getPath());
+            invalidateParentListing(metadata.getPath(), metadata.getOwnerId());
+        }
+    }
+
+    @Override
+    public void saveFileMetadataBatch(int ownerId, List<FileMetadata> files) {
+        try {
+            delegate.saveFileMetadataBatch(ownerId, files);
+        } finally {
+            for (FileMetadata file : files) {
+                filesByPath.invalidate(file.getPath());
+                invalidateParentListing(file.getPath(), ownerId);
+            }
+        }
+    }
+
+    @Override
+    public void saveReplicas(String fileId, List<String> nodeIds) {
+        try {
+            delegate.saveReplicas(fileId, nodeIds);
+        } finally {
+            replicasByFileId.invalidate(fileId);
+        }
+    }
+
+    @Override
+    public void saveReplicasBatch(Map<String, List<String>> nodeIdsByFileId, List<String> discardedFileIds) {
+        try {
+            delegate.saveReplicasBatch(nodeIdsByFileId, discardedFileIds);
+        } finally {
+            for (String fileId : nodeIdsByFileId.keySet()) {
+                replicasByFileId.invalidate(fileId);
+            }
+            if (discardedFileIds != null) {
+                for (String fileId : discardedFileIds) {
+                    invalidateFileId(fileId);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void createDirectory(String path, int ownerId) {
+        try {
+            delegate.createDirectory(path, ownerId);
+        } finally {
+            invalidateAncestors(path, ownerId);
+        }
+    }
+
+    @Override
+    public Map<String, Integer> createDirectories(List<String> paths, int ownerId) {
+        try {
+            return delegate.createDirectories(paths, ownerId);
+        } finally {
+            for (String path : paths) {
+                invalidateAncestors(path, ownerId);
+            }
+        }
+    }
+
+    @Override
+    public void moveDirectory(String oldPath, String newPath, int ownerId) {
+        try {
+            delegate.moveDirectory(oldPath, newPath, ownerId);
+        } finally {
+            directories.invalidatePrefix(directoryKey(oldPath, ownerId));
+            directories.invalidatePrefix(directoryKey(newPath, ownerId));
+            // moveDirectory crea los padres que falten del destino
+            invalidateAncestors(newPath, ownerId);
+            invalidateListingsUnder(oldPath, ownerId);
+            invalidateListingsUnder(newPath, ownerId);
+            invalidateParentListing(oldPath, ownerId);
+            filesByPath.invalidatePrefix(oldPath);
+            filesByPath.invalidatePrefix(newPath);
+        }
+    }
+
+    @Override
+    public void moveFile(String oldPath, String newPath, int ownerId) {
+        try {
+            delegate.moveFile(oldPath, newPath, ownerId);
+        } finally {
+            filesByPath.invalidate(oldPath);
+            filesByPath.invalidate(newPath);
+            invalidateParentListing(oldPath, ownerId);
+            invalidateAncestors(newPath, ownerId);
+        }
+    }
+
+    @Override
+    public FileMetadata copyFile(String sourcePath, String targetPath, int ownerId) {
+        try {
+            return delegate.copyFile(sourcePath, targetPath, ownerId);
+        } finally {
+            filesByPath.invalidate(targetPath);
+            invalidateAncestors(targetPath, ownerId);
+        }
+    }
+
+    @Override
+    public int copyDirectory(String sourcePath, String targetPath, int ownerId) {
+        try {
+            return delegate.copyDirectory(sourcePath, targetPath, ownerId);
+        } finally {
+            invalidateAncestors(targetPath, ownerId);
+            directories.invalidatePrefix(directoryKey(targetPath, ownerId));
+            invalidateListingsUnder(targetPath, ownerId);
+            filesByPath.invalidatePrefix(targetPath);
+        }
+    }
+
+    @Override
+    public void deleteFile(int fileId) {
+        try {
+            delegate.deleteFile(fileId);
+        } finally {
+            invalidateFileId(String.valueOf(fileId));
+        }
+    }
+
+    @Override
+    public void deleteFilesInDirectory(String directoryPath, int ownerId) {
+        try {
+            delegate.deleteFilesInDirectory(directoryPath, ownerId);
+        } finally {
+            invalidateListingsUnder(directoryPath, ownerId);
+            for (FileMetadata file : filesByPath.invalidatePrefix(directoryPath)) {
+                replicasByFileId.invalidate(file.getId());
+            }
+        }
+    }
+
+    @Override
+    public void deleteDirectory(String directoryPath, int ownerId) {
+        try {
+            delegate.deleteDirectory(directoryPath, ownerId);
+        } finally {
+            directories.invalidatePrefix(directoryKey(directoryPath, ownerId));
+            invalidateListingsUnder(directoryPath, ownerId);
+            invalidateParentListing(directoryPath, ownerId);
+        }
+    }
+
+    @Override
+    public List<ReplicaLocation> deleteDirectoryTree(String directoryPath, int ownerId) {
+        List<ReplicaLocation> replicas = null;
+        try {
+            replicas = delegate.deleteDirectoryTree(directoryPath, ownerId);
+            return replicas;
+        } finally {
+            directories.invalidatePrefix(directoryKey(directoryPath, ownerId));
+            invalidateListingsUnder(directoryPath, ownerId);
+            invalidateParentListing(directoryPath, ownerId);
+            for (FileMetadata file : filesByPath.invalidatePrefix(directoryPath)) {
+                replicasByFileId.invalidate(file.getId());
+            }
+            if (replicas != null) {
+                for (ReplicaLocation replica : replicas) {
+                    replicasByFileId.invalidate(replica.getFileId());
+                }
+            }
+        }
+    }
+
+    // ========== SIN CACHÉ ==========
+
+    @Override
+    public SpaceUsage getSpaceUsage(int userId) {
+        // Ya es una lectura por clave primaria; cachearla obligaría a invalidar en cada escritura
+        return delegate.getSpaceUsage(userId);
+    }
+
+    @Override
+    public List<ChangeEntry> getChanges(int userId, long sinceId, int limit) {
+        return delegate.getChanges(userId, sinceId, limit);
+    }
+
+    @Override
+    public long getLatestChangeId(int userId) {
+        return delegate.getLatestChangeId(userId);
+    }
+
+    @Override
+    public Map<String, StoredBlob> findBlobsByHash(List<String> contentHashes, Integer ownerId) {
+        return delegate.findBlobsByHash(contentHashes, ownerId);
+    }
+
+    @Override
+    public void registerBlobHashes(Map<String, String> contentHashByBlobId) {
+        delegate.registerBlobHashes(contentHashByBlobId);
+    }
+
+    @Override
+    public List<BlobDeletion> getDueBlobDeletions(int limit) {
+        return delegate.getDueBlobDeletions(limit);
+    }
+
+    @Override
+    public void completeBlobDeletions(List<Long> ids) {
+        delegate.completeBlobDeletions(ids);
+    }
+
+    @Override
+    public void retryBlobDeletions(List<Long> ids, String error) {
+        delegate.retryBlobDeletions(ids, error);
+    }
+
+    @Override
+    public void createUploadSession(UploadSession session, int ttlSeconds) {
+        delegate.createUploadSession(session, ttlSeconds);
+    }
+
+    @Override
+    public UploadSession getUploadSession(String uploadId, int ownerId) {
+        return delegate.getUploadSession(uploadId, ownerId);
+    }
+
+    @Override
+    public List<Integer> getUploadChunks(String uploadId) {
+        return delegate.getUploadChunks(uploadId);
+    }
+
+    @Override
+    public void recordUploadChunk(String uploadId, int chunkIndex, int ttlSeconds) {
+        delegate.recordUploadChunk(uploadId, chunkIndex, ttlSeconds);
+    }
+
+    @Override
+    public void markUploadNodeFailed(String uploadId, String nodeId) {
+        delegate.markUploadNodeFailed(uploadId, nodeId);
+    }
+
+    @Override
+    public boolean claimUploadCommit(String uploadId, int ownerId, int ttlSeconds) {
+        return delegate.claimUploadCommit(uploadId, ownerId, ttlSeconds);
+    }
+
+    @Override
+    public void releaseUploadCommit(String uploadId) {
+        delegate.releaseUploadCommit(uploadId);
+    }
+
+    @Override
+    public void completeUploadCommit(String uploadId, String fileId, int ttlSeconds) {
+        delegate.completeUploadCommit(uploadId, fileId, ttlSeconds);
+    }
+
+    @Override
+    public void deleteUploadSession(String uploadId) {
+        delegate.deleteUploadSession(uploadId);
+    }
+
+    @Override
+    public List<UploadSession> getExpiredUploadSessions(int limit) {
+        return delegate.getExpiredUploadSessions(limit);
+    }
+
+    @Override
+    public long[] getReplicaDigests(String nodeId, int bucketCount) {
+        return delegate.getReplicaDigests(nodeId, bucketCount);
+    }
+
+    @Override
+    public List<String> getReplicaFileIdsInBucket(String nodeId, int bucketCount, int bucket) {
+        return delegate.getReplicaFileIdsInBucket(nodeId, bucketCount, bucket);
+    }
+
+    @Override
+    public int enqueueOrphanBlobs(String nodeId, List<String> fileIds) {
+        return delegate.enqueueOrphanBlobs(nodeId, fileIds);
+    }
+
+    @Override
+    public int markReplicasMissing(String nodeId, List<String> fileIds) {
+        try {
+            return delegate.markReplicasMissing(nodeId, fileIds);
+        } finally {
+            // Las réplicas marcadas dejan de ser sanas
+            for (String fileId : fileIds) {
+                replicasByFileId.invalidate(fileId);
+            }
+        }
+    }
+
+    @Override
+    public List<ReplicaRepair> getDueReplicaRepairs(int limit) {
+        return delegate.getDueReplicaRepairs(limit);
+    }
+
+    @Override
+    public void completeReplicaRepair(ReplicaRepair repair) {
+        try {
+            delegate.completeReplicaRepair(repair);
+        } finally {
+            replicasByFileId.invalidate(repair.getFileId());
+        }
+    }
+
+    @Override
+    public void retryReplicaRepairs(List<Long> ids, String error) {
+        delegate.retryReplicaRepairs(ids, error);
+    }
+
+    @Override
+    public User getUserByToken(String token) {
+        return delegate.getUserByToken(token);
+    }
+
+    @Override
+    public User getUserByEmail(String email) {
+        return delegate.getUserByEmail(email);
+    }
+
+    @Override
+    public void createSession(String token, int userId, LocalDateTime expiresAt) {
+        delegate.createSession(token, userId, expiresAt);
+    }
+
+    @Override
+    public void registerUser(String username, String email, String passwordHash) {
+        delegate.registerUser(username, email, passwordHash);
+    }
+
+    @Override
+    public boolean hasReadAccess(int userId, int fileId) {
+        return delegate.hasReadAccess(userId, fileId);
+    }
+
+    @Override
+    public List<Integer> getFilesInDirectory(String directoryPath, int ownerId) {
+        return delegate.getFilesInDirectory(directoryPath, ownerId);
+    }
+
+    @Override
+    public void shareFile(int fileId, int sharedWithUserId, String permissionLevel) {
+        delegate.shareFile(fileId, sharedWithUserId, permissionLevel);
+    }
+
+    @Override
+    public DirectoryShare shareDirectory(String path, int ownerId, int sharedWithUserId, String permissionLevel) {
+        return delegate.shareDirectory(path, ownerId, sharedWithUserId, permissionLevel);
+    }
+
+    @Override
+    public List<DirectoryShare> getDirectoryShares() {
+        return delegate.getDirectoryShares();
+    }
+
+    @Override
+    public List<Integer> getFileIdsInDirectory(String directoryPath, int ownerId) {
+        return delegate.getFileIdsInDirectory(directoryPath, ownerId);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return delegate.getConnection();
+    }
+
+    // ========== ESTADÍSTICAS ==========
+
+    public List<CacheStats> getCacheStats() {
+        return Arrays.asList(
+                new CacheStats(filesByPath),
+                new CacheStats(replicasByFileId),
+                new CacheStats(directories),
+                new CacheStats(listings));
+    }
+
+    public static class CacheStats {
+        private final String name;
+        private final int size;
+        private final long hits;
+        private final long misses;
+        private final double hitRatio;
+
+        CacheStats(BoundedCache<?> cache) {
+            this.name = cache.getName();
+            this.size = cache.size();
+            this.hits = cache.getHits();
+            this.misses = cache.getMisses();
+            this.hitRatio = cache.getHitRatio();
+        }
+
+        // Getters
+        public String getName() { return name; }
+        public int getSize() { return size; }
+        public long getHits() { return hits; }
+        public long getMisses() { return misses; }
+        public double getHitRatio() { return hitRatio; }
+    }
+
+    // ========== MÉTODOS AUXILIARES ==========
+
+    private void invalidateFileId(String fileId) {
+        FileMetadata meta = filesByPath.peekIndexed(fileId);
+        replicasByFileId.invalidate(fileId);
+        filesByPath.invalidateIndexed(fileId);
+        if (meta != null) {
+            // Si era la última referencia, las réplicas del blob también desaparecen
+            replicasByFileId.invalidate(blobKeyOf(meta));
+            invalidateParentListing(meta.getPath(), meta.getOwnerId());
+        } else {
+            // Sin la ruta no se sabe qué listado contenía el archivo
+            listings.clear();
+        }
+    }
+
+    /**
+     * Invalida la existencia de cada ancestro y los listados donde aparecen (pueden haberse creado)
+     */
+    private void invalidateAncestors(String path, int ownerId) {
+        if (path == null) {
+            return;
+        }
+        StringBuilder current = new StringBuilder();
+        for (String segment : path.split("/")) {
+            if (segment.isEmpty()) continue;
+            invalidateListing(current.length() > 0 ? current.toString() : null, ownerId);
+            current.append('/').append(segment);
+            directories.invalidate(directoryKey(current.toString(), ownerId));
+        }
+        invalidateListing(current.toString(), ownerId);
+    }
+
+    private void invalidateParentListing(String path, int ownerId) {
+        if (path != null) {
+            invalidateListing(DirectoryTreeIndex.parentOf(path), ownerId);
+        }
+    }
+
+    /**
+     * Todas las páginas del listado de ese directorio
+     */
+    private void invalidateListing(String directoryPath, int ownerId) {
+        if (directoryPath != null) {
+            listings.invalidatePrefix(listingPrefix(directoryPath, ownerId));
+        }
+    }
+
+    /**
+     * Listados del directorio y de todos sus descendientes
+     */
+    private void invalidateListingsUnder(String directoryPath, int ownerId) {
+        listings.invalidatePrefix(directoryKey(directoryPath, ownerId));
+        invalidateListing(directoryPath, ownerId);
+    }
+
+    private static String directoryKey(String path, int ownerId) {
+        return ownerId + ":" + path;
+    }
+
+    // Las páginas de un directorio cuelgan de esta clave; '|' la separa de sus subdirectorios
+    private static String listingPrefix(String directoryPath, int ownerId) {
+        return directoryKey(directoryPath, ownerId) + "|";
+    }
+
+    private static String blobKeyOf(FileMetadata meta) {
+        return meta.getBlobId() != null ? String.valueOf(meta.getBlobId()) : meta.getId();
+    }
+}
@@ -1,10 +1,22 @@
 package com.ana.db;
 
+import com.ana.model.BlobDeletion;
+import com.ana.model.ChangeEntry;
+import com.ana.model.DirectoryEntry;
+import com.ana.model.DirectoryShare;
 import com.ana.model.FileMetadata;
+import com.ana.model.ReplicaLocation;
+import com.ana.model.ReplicaRepair;
+import com.ana.model.ResolvedFile;
+import com.ana.model.SpaceUsage;
+import com.ana.model.StoredBlob;
+import com.ana.model.UploadSession;
 import com.ana.model.User;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 public interface DatabaseClient {
 
@@ -14,6 +26,9 @@ public interface DatabaseClient {
     FileMetadata getFileMetadata(String path, int ownerId);
     List<String> getReplicaNodeIds(String fileId);
     void saveReplicas(String fileId, List<String> nodeIds);
+    void saveFileMetadataBatch(int ownerId, List<FileMetadata> files);
+    void saveReplicasBatch(Map<String, List<String>> nodeIdsByFileId, List<String> discardedFileIds);
+    Map<String, ResolvedFile> resolveFilesForRead(List<String> paths, int userId);
 
     // User and files
 
@@ -27,14 +42,57 @@ public interface DatabaseClient {
     void registerUser(String username, String email, String passwordHash);
     boolean hasReadAccess(int userId, int fileId);
     void createDirectory(String path, int ownerId);
+    Map<String, Integer> createDirectories(List<String> paths, int ownerId);
     void moveDirectory(String oldPath, String newPath, int ownerId);
     boolean directoryExists(String path, int ownerId);
     List<Integer> getFilesInDirectory(String directoryPath, int ownerId);
+    String listDirectory(String directoryPath, int ownerId, String cursor, int limit, Consumer<DirectoryEntry> consumer);
     void shareFile(int fileId, int sharedWithUserId, String permissionLevel);
+    DirectoryShare shareDirectory(String path, int ownerId, int sharedWithUserId, String permissionLevel);
+    List<DirectoryShare> getDirectoryShares();
     void moveFile(String oldPath, String newPath, int ownerId);
+    FileMetadata copyFile(String sourcePath, String targetPath, int ownerId);
+    int copyDirectory(String sourcePath, String targetPath, int ownerId);
     void deleteFile(int fileId);
     void deleteFilesInDirectory(String directoryPath, int ownerId);
     void deleteDirectory(String directoryPath, int ownerId);
+    List<ReplicaLocation> deleteDirectoryTree(String directoryPath, int ownerId);
+    SpaceUsage getSpaceUsage(int userId);
+
+    // Registro de cambios
+    List<ChangeEntry> getChanges(int userId, long sinceId, int limit);
+    long getLatestChangeId(int userId);
+
+    // Deduplicación por contenido
+    Map<String, StoredBlob> findBlobsByHash(List<String> contentHashes, Integer ownerId);
+    void registerBlobHashes(Map<String, String> contentHashByBlobId);
+
+    // Cola durable de borrado de blobs
+    List<BlobDeletion> getDueBlobDeletions(int limit);
+    void completeBlobDeletions(List<Long> ids);
+    void retryBlobDeletions(List<Long> ids, String error);
+
+    // Reconciliación de inventario de nodos
+    long[] getReplicaDigests(String nodeId, int bucketCount);
+    List<String> getReplicaFileIdsInBucket(String nodeId, int bucketCount, int bucket);
+    int enqueueOrphanBlobs(String nodeId, List<String> fileIds);
+    int markReplicasMissing(String nodeId, List<String> fileIds);
+    List<ReplicaRepair> getDueReplicaRepairs(int limit);
+    void completeReplicaRepair(ReplicaRepair repair);
+    void retryReplicaRepairs(List<Long> ids, String error);
+
+    // Subidas reanudables por fragmentos
+    void createUploadSession(UploadSession session, int ttlSeconds);
+    UploadSession getUploadSession(String uploadId, int ownerId);
+    List<Integer> getUploadChunks(String uploadId);
+    void recordUploadChunk(String uploadId, int chunkIndex, int ttlSeconds);
+    void markUploadNodeFailed(String uploadId, String nodeId);
+    boolean claimUploadCommit(String uploadId, int ownerId, int ttlSeconds);
+    void releaseUploadCommit(String uploadId);
+    void completeUploadCommit(String uploadId, String fileId, int ttlSeconds);
+    void deleteUploadSession(String uploadId);
+    List<UploadSession> getExpiredUploadSessions(int limit);
+
     List<Integer> getFileIdsInDirectory(String directoryPath, int ownerId);
     boolean isDirectory(String path, int ownerId);
     boolean isFile(String path, int ownerId);
@@ -1,16 +1,76 @@
 package com.ana.db;
 
+import com.ana.model.BlobDeletion;
+import com.ana.model.ChangeEntry;
+import com.ana.model.DirectoryEntry;
+import com.ana.model.DirectoryShare;
 import com.ana.model.FileMetadata;
+import com.ana.model.ReplicaLocation;
+import com.ana.model.ReplicaRepair;
+import com.ana.model.ResolvedFile;
+import com.ana.model.SpaceUsage;
+import com.ana.model.StoredBlob;
+import com.ana.model.UploadSession;
 import com.ana.model.User;
 
 import java.sql.*;
 import java.time.LocalDateTime;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
 
 public class DatabaseClientImpl implements DatabaseClient {
 
+    // SQL Server admite como máximo 2100 parámetros por sentencia
+    protected static final int MAX_PATHS_PER_QUERY = 2000;
+    // Filas por INSERT multi-fila: 6 parámetros por archivo y máximo 1000 filas por VALUES
+    private static final int MAX_FILES_PER_INSERT = 300;
+    private static final int MAX_REPLICAS_PER_INSERT = 1000;
+    private static final int MAX_DIRECTORIES_PER_INSERT = 600;
+    // Filas por cláusula VALUES (límite de SQL Server)
+    private static final int MAX_VALUES_ROWS = 1000;
+    // Prefijos del cursor de listado: subdirectorios primero, luego archivos
+    protected static final String LIST_CURSOR_DIRECTORIES = "d:";
+    protected static final String LIST_CURSOR_FILES = "f:";
+    protected static final int LIST_FETCH_SIZE = 500;
+
+    // Columnas de permiso de lectura y réplicas sanas para resolveFilesForRead (parámetros: userId, userId)
+    protected static final String READ_ACCESS_AND_REPLICAS_COLUMNS =
+            "CASE WHEN f.owner_id = ? OR EXISTS (" +
+            "SELECT 1 FROM file_shares fs WHERE fs.file_id = f.id AND fs.shared_with_user_id = ? " +
+            "AND fs.permission_level IN ('read', 'write')) THEN 1 ELSE 0 END AS can_read, " +
+            "r.node_id ";
+
+    // Registro de cambios escrito por la misma sentencia que modifica los metadatos (OUTPUT ... INTO)
+    protected static final String CHANGE_LOG_INTO = " INTO change_log (user_id, op, path, old_path, file_id) ";
+    protected static final String MOVE_FILE_CHANGE_OUTPUT = "OUTPUT INSERTED.owner_id, '" + ChangeEntry.MOVE +
+            "', INSERTED.path, DELETED.path, INSERTED.id" + CHANGE_LOG_INTO;
+    protected static final String MOVE_DIRECTORY_CHANGE_OUTPUT = "OUTPUT INSERTED.owner_id, '" + ChangeEntry.MOVE_DIRECTORY +
+            "', INSERTED.path, DELETED.path, NULL" + CHANGE_LOG_INTO;
+    private static final String CREATE_DIRECTORY_CHANGE_OUTPUT = "OUTPUT INSERTED.owner_id, '" + ChangeEntry.CREATE_DIRECTORY +
+            "', INSERTED.path, NULL, NULL" + CHANGE_LOG_INTO;
+    private static final String UPLOAD_CHANGE_OUTPUT = "OUTPUT INSERTED.owner_id, '" + ChangeEntry.UPLOAD +
+            "', INSERTED.path, NULL, INSERTED.id" + CHANGE_LOG_INTO;
+    private static final String DELETE_FILE_CHANGE_OUTPUT = "OUTPUT DELETED.owner_id, '" + ChangeEntry.DELETE +
+            "', DELETED.path, NULL, DELETED.id" + CHANGE_LOG_INTO;
+
+    // Cada archivo subido crea su blob (clave = id del archivo) con una referencia
+    private static final String NEW_BLOB_OUTPUT = "OUTPUT INSERTED.id, 1 INTO blobs (id, ref_count) ";
+
+    // Encola en blob_deletions las réplicas borradas, dentro de la misma sentencia DELETE
+    protected static final String BLOB_DELETIONS_OUTPUT =
+            "OUTPUT DELETED.file_id, DELETED.node_id INTO blob_deletions (file_id, node_id) ";
+
     private String getUrl() {
         return "jdbc:sqlserver://localhost:1433;databaseName=PROYECTO_DISTRIBUIDOS;encrypt=false;";
     }
@@ -28,48 +88,12 @@ public class DatabaseClientImpl implements DatabaseClient {
 
     @Override
     public void saveFileMetadata(FileMetadata metadata) {
-        String checkUserSql = "SELECT COUNT(*) FROM users WHERE id = ?";
-        String insertSql = "INSERT INTO files (name, path, size_bytes, owner_id, directory_id, created_at, updated_at) "
-                +
-                "VALUES (?, ?, ?, ?, ?, GETDATE(), GETDATE())";
-
-        try (Connection conn = getConnection(); // ← ¡Obtiene conexión nueva!
-                PreparedStatement checkStmt = conn.prepareStatement(checkUserSql)) {
-
-            checkStmt.setInt(1, metadata.getOwnerId());
-            try (ResultSet rs = checkStmt.executeQuery()) {
-                if (rs.next() && rs.getInt(1) == 0) {
-                    throw new RuntimeException("Usuario no encontrado con ID: " + metadata.getOwnerId());
-                }
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException("Error verificando usuario", e);
-        }
-
-        try (Connection conn = getConnection();
-                PreparedStatement stmt = conn.prepareStatement(insertSql, Statement.RETURN_GENERATED_KEYS)) {
-
-            stmt.setString(1, metadata.getName());
-            stmt.setString(2, metadata.getPath());
-            stmt.setLong(3, metadata.getSizeBytes());
-            stmt.setInt(4, metadata.getOwnerId());
-            stmt.setObject(5, metadata.getDirectoryId());
-
-            stmt.executeUpdate();
-
-            try (ResultSet rs = stmt.getGeneratedKeys()) {
-                if (rs.next()) {
-                    metadata.setId(String.valueOf(rs.getInt(1))); // ← ID numérico como String
-                }
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException("Error saving file metadata", e);
-        }
+        saveFileMetadataBatch(metadata.getOwnerId(), Collections.singletonList(metadata));
     }
 
     @Override
     public FileMetadata getFileMetadata(String path) {
-        String sql = "SELECT id, name, path, size_bytes, owner_id, directory_id, created_at, updated_at " +
+        String sql = "SELECT id, name, path, size_bytes, owner_id, directory_id, blob_id, created_at, updated_at " +
                 "FROM files WHERE path = ?";
 
         try (Connection conn = getConnection();
@@ -85,6 +109,8 @@ public class DatabaseClientImpl implements DatabaseClient {
                     meta.setSizeBytes(rs.getLong("size_bytes"));
                     meta.setOwnerId(rs.getInt("owner_id"));
                     meta.setDirectoryId(rs.getInt("directory_id"));
+                    int blobId = rs.getInt("blob_id");
+                    meta.setBlobId(rs.wasNull() ? null : blobId);
                     return meta;
                 }
             }
@@ -112,6 +138,267 @@ public class DatabaseClientImpl implements DatabaseClient {
         }
     }
 
+    @Override
+    public void saveFileMetadataBatch(int ownerId, List<FileMetadata> files) {
+        if (files == null || files.isEmpty()) {
+            return;
+        }
+
+        long totalBytes = 0;
+        for (FileMetadata file : files) {
+            totalBytes += file.getSizeBytes();
+        }
+
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                // Verificar propietario y cuota una sola vez para todo el lote, sumando el uso
+                applyUsageDelta(conn, ownerId, totalBytes, files.size(), 0, true);
+
+                // Los archivos con blobId (contenido ya almacenado) solo añaden una referencia
+                List<FileMetadata> fresh = new ArrayList<>();
+                List<FileMetadata> deduplicated = new ArrayList<>();
+                for (FileMetadata file : files) {
+                    (file.getBlobId() == null ? fresh : deduplicated).add(file);
+                }
+                for (int from = 0; from < fresh.size(); from += MAX_FILES_PER_INSERT) {
+                    List<FileMetadata> chunk = fresh.subList(from, Math.min(fresh.size(), from + MAX_FILES_PER_INSERT));
+                    insertFileChunk(conn, ownerId, chunk, NEW_BLOB_OUTPUT);
+                }
+                for (int from = 0; from < deduplicated.size(); from += MAX_FILES_PER_INSERT) {
+                    List<FileMetadata> chunk = deduplicated.subList(from, Math.min(deduplicated.size(), from + MAX_FILES_PER_INSERT));
+                    // Ya son descargables: se publican en el registro de cambios con el propio INSERT
+                    insertFileChunk(conn, ownerId, chunk, UPLOAD_CHANGE_OUTPUT);
+                    List<Integer> ids = new ArrayList<>();
+                    for (FileMetadata file : chunk) {
+                        ids.add(Integer.parseInt(file.getId()));
+                    }
+                    retainBlobs(conn, "id IN (" + String.join(", ", Collections.nCopies(ids.size(), "?")) + ")",
+                            stmt -> {
+                                for (int i = 0; i < ids.size(); i++) {
+                                    stmt.setInt(i + 1, ids.get(i));
+                                }
+                            });
+                }
+
+                conn.commit();
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                for (FileMetadata file : files) {
+                    file.setId(null);
+                }
+                if (e instanceof QuotaExceededException) {
+                    throw (QuotaExceededException) e;
+                }
+                throw new RuntimeException("Error guardando metadatos del lote", e);
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Error en transacción", e);
+        }
+    }
+
+    private void insertFileChunk(Connection conn, int ownerId, List<FileMetadata> chunk, String outputInto) throws SQLException {
+        // Un solo INSERT multi-fila; OUTPUT devuelve los IDs generados junto con su ruta
+        StringBuilder sql = new StringBuilder(
+                "INSERT INTO files (name, path, size_bytes, owner_id, directory_id, blob_id, created_at, updated_at) " +
+                outputInto + "OUTPUT INSERTED.id, INSERTED.path VALUES ");
+        for (int i = 0; i < chunk.size(); i++) {
+            sql.append(i == 0 ? "" : ", ").append("(?, ?, ?, ?, ?, ?, GETDATE(), GETDATE())");
+        }
+
+        // Varias filas pueden compartir ruta dentro del lote: se asignan en orden de aparición
+        Map<String, Deque<FileMetadata>> pending = new HashMap<>();
+        try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+            int param = 1;
+            for (FileMetadata meta : chunk) {
+                stmt.setString(param++, meta.getName());
+                stmt.setString(param++, meta.getPath());
+                stmt.setLong(param++, meta.getSizeBytes());
+                stmt.setInt(param++, ownerId);
+                stmt.setObject(param++, meta.getDirectoryId());
+                stmt.setObject(param++, meta.getBlobId());
+                pending.computeIfAbsent(meta.getPath(), k -> new ArrayDeque<>()).add(meta);
+            }
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    Deque<FileMetadata> queue = pending.get(rs.getString("path"));
+                    if (queue != null && !queue.isEmpty()) {
+                        queue.poll().setId(String.valueOf(rs.getInt("id")));
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void saveReplicasBatch(Map<String, List<String>> nodeIdsByFileId, List<String> discardedFileIds) {
+        List<Integer> fileIds = new ArrayList<>();
+        List<String> nodeIds = new ArrayList<>();
+        for (Map.Entry<String, List<String>> entry : nodeIdsByFileId.entrySet()) {
+            for (String nodeId : entry.getValue()) {
+                fileIds.add(Integer.parseInt(entry.getKey()));
+                nodeIds.add(nodeId);
+            }
+        }
+        if (fileIds.isEmpty() && (discardedFileIds == null || discardedFileIds.isEmpty())) {
+            return;
+        }
+
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                // Todas las réplicas del lote en INSERTs multi-fila dentro de la misma transacción
+                for (int from = 0; from < fileIds.size(); from += MAX_REPLICAS_PER_INSERT) {
+                    int to = Math.min(fileIds.size(), from + MAX_REPLICAS_PER_INSERT);
+                    StringBuilder sql = new StringBuilder(
+                            "INSERT INTO file_replicas (file_id, node_id, stored_at, is_healthy) VALUES ");
+                    for (int i = from; i < to; i++) {
+                        sql.append(i == from ? "" : ", ").append("(?, ?, GETDATE(), 1)");
+                    }
+                    try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+                        int param = 1;
+                        for (int i = from; i < to; i++) {
+                            stmt.setInt(param++, fileIds.get(i));
+                            stmt.setString(param++, nodeIds.get(i));
+                        }
+                        stmt.executeUpdate();
+                    }
+                }
+
+                // Los archivos con réplicas ya son descargables: se publican en el registro de cambios
+                List<String> storedFileIds = new ArrayList<>(nodeIdsByFileId.keySet());
+                for (int from = 0; from < storedFileIds.size(); from += MAX_PATHS_PER_QUERY) {
+                    List<String> chunk = storedFileIds.subList(from, Math.min(storedFileIds.size(), from + MAX_PATHS_PER_QUERY));
+                    String sql = "INSERT INTO change_log (user_id, op, path, old_path, file_id) " +
+                            "SELECT owner_id, '" + ChangeEntry.UPLOAD + "', path, NULL, id FROM files WHERE id IN (" +
+                            String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")";
+                    try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                        for (int i = 0; i < chunk.size(); i++) {
+                            stmt.setInt(i + 1, Integer.parseInt(chunk.get(i)));
+                        }
+                        stmt.executeUpdate();
+                    }
+                }
+
+                // Los archivos que ningún nodo aceptó no deben quedar como metadatos huérfanos
+                if (discardedFileIds != null && !discardedFileIds.isEmpty()) {
+                    for (int from = 0; from < discardedFileIds.size(); from += MAX_PATHS_PER_QUERY) {
+                        List<String> chunk = discardedFileIds.subList(from, Math.min(discardedFileIds.size(), from + MAX_PATHS_PER_QUERY));
+                        String sql = "DELETE FROM files OUTPUT DELETED.owner_id, DELETED.size_bytes WHERE id IN (" +
+                                String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")";
+                        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                            for (int i = 0; i < chunk.size(); i++) {
+                                stmt.setInt(i + 1, Integer.parseInt(chunk.get(i)));
+                            }
+                            try (ResultSet rs = stmt.executeQuery()) {
+                                releaseDeletedFilesUsage(conn, rs);
+                            }
+                        }
+                        String blobsSql = "DELETE FROM blobs WHERE id IN (" +
+                                String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")";
+                        try (PreparedStatement stmt = conn.prepareStatement(blobsSql)) {
+                            for (int i = 0; i < chunk.size(); i++) {
+                                stmt.setInt(i + 1, Integer.parseInt(chunk.get(i)));
+                            }
+                            stmt.executeUpdate();
+                        }
+                    }
+                }
+
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw new RuntimeException("Error guardando réplicas del lote", e);
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Error en transacción", e);
+        }
+    }
+
+    /**
+     * Blobs indexados por hash. Con ownerId solo se devuelven blobs que ese usuario ya referencia,
+     * para que conocer un hash no dé acceso al contenido de otro usuario.
+     */
+    @Override
+    public Map<String, StoredBlob> findBlobsByHash(List<String> contentHashes, Integer ownerId) {
+        Map<String, StoredBlob> found = new HashMap<>();
+        if (contentHashes == null || contentHashes.isEmpty()) {
+            return found;
+        }
+
+        List<String> distinct = new ArrayList<>(new LinkedHashSet<>(contentHashes));
+        try (Connection conn = getConnection()) {
+            for (int from = 0; from < distinct.size(); from += MAX_PATHS_PER_QUERY) {
+                List<String> chunk = distinct.subList(from, Math.min(distinct.size(), from + MAX_PATHS_PER_QUERY));
+                String sql = "SELECT b.id, b.content_hash, b.size_bytes FROM blobs b WHERE b.ref_count > 0 AND b.content_hash IN (" +
+                        String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")" +
+                        (ownerId == null ? "" : " AND EXISTS (SELECT 1 FROM files f " +
+                                "WHERE COALESCE(f.blob_id, f.id) = b.id AND f.owner_id = ?)");
+                try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                    int param = 1;
+                    for (String hash : chunk) {
+                        stmt.setString(param++, hash);
+                    }
+                    if (ownerId != null) {
+                        stmt.setInt(param, ownerId);
+                    }
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            String hash = rs.getString("content_hash");
+                            found.put(hash, new StoredBlob(rs.getInt("id"), hash, rs.getLong("size_bytes")));
+                        }
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Error buscando blobs por hash", e);
+        }
+        return found;
+    }
+
+    /**
+     * Indexa por hash los blobs recién replicados. Si otro blob ya tiene el mismo hash
+     * (subidas simultáneas del mismo contenido) este queda sin indexar.
+     */
+    @Override
+    public void registerBlobHashes(Map<String, String> contentHashByBlobId) {
+        if (contentHashByBlobId == null || contentHashByBlobId.isEmpty()) {
+            return;
+        }
+
+        // Una fila por hash: el primero gana dentro del mismo lote
+        Map<String, String> blobIdByHash = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : contentHashByBlobId.entrySet()) {
+            blobIdByHash.putIfAbsent(entry.getValue(), entry.getKey());
+        }
+        List<Map.Entry<String, String>> rows = new ArrayList<>(blobIdByHash.entrySet());
+
+        try (Connection conn = getConnection()) {
+            for (int from = 0; from < rows.size(); from += MAX_VALUES_ROWS) {
+                List<Map.Entry<String, String>> chunk = rows.subList(from, Math.min(rows.size(), from + MAX_VALUES_ROWS));
+                String sql = "UPDATE b SET b.content_hash = v.content_hash, b.size_bytes = f.size_bytes FROM blobs b " +
+                        "INNER JOIN (VALUES " + String.join(", ", Collections.nCopies(chunk.size(), "(?, ?)")) +
+                        ") v(id, content_hash) ON v.id = b.id INNER JOIN files f ON f.id = b.id " +
+                        "WHERE b.content_hash IS NULL AND NOT EXISTS (SELECT 1 FROM blobs x WHERE x.content_hash = v.content_hash)";
+                try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                    int param = 1;
+                    for (Map.Entry<String, String> row : chunk) {
+                        stmt.setInt(param++, Integer.parseInt(row.getValue()));
+                        stmt.setString(param++, row.getKey());
+                    }
+                    stmt.executeUpdate();
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Error registrando hashes de blobs", e);
+        }
+    }
+
     @Override
     public List<String> getReplicaNodeIds(String fileId) {
         String sql = "SELECT node_id FROM file_replicas WHERE file_id = ? AND is_healthy = 1";
@@ -133,76 +420,223 @@ public class DatabaseClientImpl implements DatabaseClient {
     }
 
     @Override
-    public void createDirectory(String path, int ownerId) {
-        if (path == null || path.isEmpty() || !path.startsWith("/")) {
-            throw new IllegalArgumentException("Ruta inválida: debe empezar con '/'");
+    public Map<String, ResolvedFile> resolveFilesForRead(List<String> paths, int userId) {
+        Map<String, ResolvedFile> resolved = new HashMap<>();
+        if (paths == null || paths.isEmpty()) {
+            return resolved;
         }
 
-        // Validar que la ruta sea de este usuario: /user1/...
-        String expectedPrefix = "/user" + ownerId + "/";
-        if (!path.equals("/user" + ownerId) && !path.startsWith(expectedPrefix)) {
-            throw new IllegalArgumentException("Ruta debe pertenecer al usuario: " + expectedPrefix);
+        // Metadatos, permiso de lectura y réplicas sanas en una sola consulta por lote
+        for (int from = 0; from < paths.size(); from += MAX_PATHS_PER_QUERY) {
+            List<String> chunk = paths.subList(from, Math.min(paths.size(), from + MAX_PATHS_PER_QUERY));
+            String sql = "SELECT f.id, f.name, f.path, f.size_bytes, f.owner_id, f.directory_id, f.blob_id, " +
+                    READ_ACCESS_AND_REPLICAS_COLUMNS +
+                    "FROM files f " +
+                    "LEFT JOIN file_replicas r ON r.file_id = COALESCE(f.blob_id, f.id) AND r.is_healthy = 1 " +
+                    "WHERE f.path IN (" + String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")";
+
+            try (Connection conn = getConnection();
+                    PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setInt(1, userId);
+                stmt.setInt(2, userId);
+                for (int i = 0; i < chunk.size(); i++) {
+                    stmt.setString(i + 3, chunk.get(i));
+                }
+
+                try (ResultSet rs = stmt.executeQuery()) {
+                    readResolvedFiles(rs, resolved);
+                }
+            } catch (SQLException e) {
+                throw new RuntimeException("Error resolviendo archivos para lectura", e);
+            }
         }
+        return resolved;
+    }
+
+    /**
+     * Agrupa por ruta las filas (archivo x réplica) de una consulta de resolución
+     */
+    protected void readResolvedFiles(ResultSet rs, Map<String, ResolvedFile> resolved) throws SQLException {
+        while (rs.next()) {
+            String path = rs.getString("path");
+            ResolvedFile file = resolved.get(path);
+            if (file == null) {
+                file = new ResolvedFile(mapFileMetadata(rs), rs.getInt("can_read") == 1);
+                resolved.put(path, file);
+            }
+            String nodeId = rs.getString("node_id");
+            if (nodeId != null) {
+                file.getReplicaNodeIds().add(nodeId);
+            }
+        }
+    }
+
+    protected FileMetadata mapFileMetadata(ResultSet rs) throws SQLException {
+        FileMetadata meta = new FileMetadata();
+        meta.setId(String.valueOf(rs.getInt("id")));
+        meta.setName(rs.getString("name"));
+        meta.setPath(rs.getString("path"));
+        meta.setSizeBytes(rs.getLong("size_bytes"));
+        meta.setOwnerId(rs.getInt("owner_id"));
+        meta.setDirectoryId(rs.getInt("directory_id"));
+        int blobId = rs.getInt("blob_id");
+        meta.setBlobId(rs.wasNull() ? null : blobId);
+        return meta;
+    }
 
-        // Obtener todos los segmentos de la ruta
-        String[] segments = path.split("/");
-        List<String> currentPathParts = new ArrayList<>();
-        Integer parentId = null; // ← ¡CAMBIADO A Integer!
+    @Override
+    public void createDirectory(String path, int ownerId) {
+        createDirectories(Collections.singletonList(path), ownerId);
+    }
+
+    @Override
+    public Map<String, Integer> createDirectories(List<String> paths, int ownerId) {
+        Map<String, Integer> created = new LinkedHashMap<>();
+        Map<String, Integer> result;
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                result = insertDirectories(conn, paths, ownerId, created);
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw new RuntimeException("Error creando directorios", e);
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Error en transacción", e);
+        }
 
-        for (String segment : segments) {
-            if (segment.isEmpty())
-                continue;
-            currentPathParts.add(segment);
-            String currentPath = "/" + String.join("/", currentPathParts);
+        onDirectoriesCreated(created, ownerId);
+        return result;
+    }
 
-            // Verificar si ya existe
-            Integer existingId = getDirectoryIdByPath(currentPath, ownerId);
-            if (existingId != null) {
-                parentId = existingId;
-                continue;
+    /**
+     * Crea las rutas y los ancestros que falten dentro de la transacción en curso. Devuelve los
+     * ids de todas y deja en created las nuevas, que el llamador pasa a onDirectoriesCreated
+     * solo después del commit.
+     */
+    protected Map<String, Integer> insertDirectories(Connection conn, List<String> paths, int ownerId,
+            Map<String, Integer> created) throws SQLException {
+        // Todas las rutas pedidas y sus ancestros, agrupadas por profundidad
+        TreeMap<Integer, List<String>> levels = new TreeMap<>();
+        Set<String> allPaths = new LinkedHashSet<>();
+        for (String path : paths) {
+            validateDirectoryPath(path, ownerId);
+            StringBuilder current = new StringBuilder();
+            int depth = 0;
+            for (String segment : path.split("/")) {
+                if (segment.isEmpty())
+                    continue;
+                current.append('/').append(segment);
+                depth++;
+                if (allPaths.add(current.toString())) {
+                    levels.computeIfAbsent(depth, k -> new ArrayList<>()).add(current.toString());
+                }
             }
+        }
 
-            // Insertar nuevo directorio
-            String sql = "INSERT INTO directories (path, parent_id, owner_id) VALUES (?, ?, ?)";
-            try (Connection conn = getConnection();
-                    PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+        Map<String, Integer> ids = new HashMap<>(findExistingDirectories(conn, new ArrayList<>(allPaths), ownerId));
+        int createdBefore = created.size();
+        // Insertar por niveles: los padres de cada nivel ya tienen id
+        for (List<String> level : levels.values()) {
+            List<String> missing = new ArrayList<>();
+            for (String path : level) {
+                if (!ids.containsKey(path)) {
+                    missing.add(path);
+                }
+            }
+            for (int from = 0; from < missing.size(); from += MAX_DIRECTORIES_PER_INSERT) {
+                List<String> chunk = missing.subList(from, Math.min(missing.size(), from + MAX_DIRECTORIES_PER_INSERT));
+                insertDirectoryChunk(conn, chunk, ids, created, ownerId);
+            }
+        }
+        if (created.size() > createdBefore) {
+            applyUsageDelta(conn, ownerId, 0, 0, created.size() - createdBefore, false);
+        }
 
-                stmt.setString(1, currentPath);
-                stmt.setObject(2, parentId); // ← setObject maneja null correctamente
-                stmt.setInt(3, ownerId);
-                stmt.executeUpdate();
+        Map<String, Integer> result = new LinkedHashMap<>();
+        for (String path : allPaths) {
+            result.put(path, ids.get(path));
+        }
+        return result;
+    }
 
-                try (ResultSet rs = stmt.getGeneratedKeys()) {
-                    if (rs.next()) {
-                        parentId = rs.getInt(1); // ← rs.getInt() devuelve int, pero lo asignamos a Integer
+    /**
+     * IDs de los directorios ya existentes entre las rutas dadas
+     */
+    protected Map<String, Integer> findExistingDirectories(Connection conn, List<String> paths, int ownerId)
+            throws SQLException {
+        Map<String, Integer> existing = new HashMap<>();
+        for (int from = 0; from < paths.size(); from += MAX_PATHS_PER_QUERY) {
+            List<String> chunk = paths.subList(from, Math.min(paths.size(), from + MAX_PATHS_PER_QUERY));
+            String sql = "SELECT id, path FROM directories WHERE owner_id = ? AND path IN (" +
+                    String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")";
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setInt(1, ownerId);
+                for (int i = 0; i < chunk.size(); i++) {
+                    stmt.setString(i + 2, chunk.get(i));
+                }
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        existing.put(rs.getString("path"), rs.getInt("id"));
                     }
                 }
-            } catch (SQLException e) {
-                throw new RuntimeException("Error creando directorio: " + currentPath, e);
             }
         }
+        return existing;
     }
 
-    private Integer getDirectoryIdByPath(String path, int ownerId) {
-        String sql = "SELECT id FROM directories WHERE path = ? AND owner_id = ?";
-        try (Connection conn = getConnection();
-                PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setString(1, path);
-            stmt.setInt(2, ownerId);
+    /**
+     * Se invoca tras confirmar la transacción con los directorios nuevos en orden de creación
+     */
+    protected void onDirectoriesCreated(Map<String, Integer> created, int ownerId) {
+    }
+
+    private void insertDirectoryChunk(Connection conn, List<String> chunk, Map<String, Integer> ids,
+            Map<String, Integer> created, int ownerId) throws SQLException {
+        StringBuilder sql = new StringBuilder(
+                "INSERT INTO directories (path, parent_id, owner_id) " + CREATE_DIRECTORY_CHANGE_OUTPUT +
+                "OUTPUT INSERTED.id, INSERTED.path VALUES ");
+        for (int i = 0; i < chunk.size(); i++) {
+            sql.append(i == 0 ? "" : ", ").append("(?, ?, ?)");
+        }
+
+        try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+            int param = 1;
+            for (String path : chunk) {
+                int lastSlash = path.lastIndexOf('/');
+                stmt.setString(param++, path);
+                stmt.setObject(param++, lastSlash > 0 ? ids.get(path.substring(0, lastSlash)) : null);
+                stmt.setInt(param++, ownerId);
+            }
             try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getInt("id");
+                while (rs.next()) {
+                    ids.put(rs.getString("path"), rs.getInt("id"));
                 }
             }
-        } catch (SQLException e) {
-            throw new RuntimeException("Error buscando directorio", e);
         }
-        return null;
+        for (String path : chunk) {
+            created.put(path, ids.get(path));
+        }
+    }
+
+    protected void validateDirectoryPath(String path, int ownerId) {
+        if (path == null || path.isEmpty() || !path.startsWith("/")) {
+            throw new IllegalArgumentException("Ruta inválida: debe empezar con '/'");
+        }
+
+        // Validar que la ruta sea de este usuario: /user1/...
+        String expectedPrefix = "/user" + ownerId + "/";
+        if (!path.equals("/user" + ownerId) && !path.startsWith(expectedPrefix)) {
+            throw new IllegalArgumentException("Ruta debe pertenecer al usuario: " + expectedPrefix);
+        }
     }
 
     @Override
     public FileMetadata getFileMetadata(String path, int ownerId) {
-        String sql = "SELECT id, name, path, size_bytes, owner_id, directory_id " +
+        String sql = "SELECT id, name, path, size_bytes, owner_id, directory_id, blob_id " +
                 "FROM files WHERE path = ? AND owner_id = ?";
 
         try (Connection conn = getConnection();
@@ -220,6 +654,8 @@ public class DatabaseClientImpl implements DatabaseClient {
                     meta.setSizeBytes(rs.getLong("size_bytes"));
                     meta.setOwnerId(rs.getInt("owner_id"));
                     meta.setDirectoryId(rs.getInt("directory_id"));
+                    int blobId = rs.getInt("blob_id");
+                    meta.setBlobId(rs.wasNull() ? null : blobId);
                     return meta;
                 }
             }
@@ -231,75 +667,443 @@ public class DatabaseClientImpl implements DatabaseClient {
 
     @Override
     public void registerUser(String username, String email, String passwordHash) {
-        String sql = "INSERT INTO users (username, email, password_hash) VALUES (?, ?, ?)";
-        try (Connection conn = getConnection();
-                PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setString(1, username);
-            stmt.setString(2, email);
-            stmt.setString(3, passwordHash);
-            stmt.executeUpdate();
+        String sql = "INSERT INTO users (username, email, password_hash) OUTPUT INSERTED.id VALUES (?, ?, ?)";
+        String usageSql = "INSERT INTO user_usage (user_id) VALUES (?)";
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                int userId;
+                try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                    stmt.setString(1, username);
+                    stmt.setString(2, email);
+                    stmt.setString(3, passwordHash);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        rs.next();
+                        userId = rs.getInt(1);
+                    }
+                }
+                try (PreparedStatement stmt = conn.prepareStatement(usageSql)) {
+                    stmt.setInt(1, userId);
+                    stmt.executeUpdate();
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw new RuntimeException("Error registrando usuario", e);
+            } finally {
+                conn.setAutoCommit(true);
+            }
         } catch (SQLException e) {
             throw new RuntimeException("Error registrando usuario", e);
         }
     }
 
-    public User getUserByEmail(String email) {
-        String sql = "SELECT id, username, email, password_hash FROM users WHERE email = ?";
+    @Override
+    public SpaceUsage getSpaceUsage(int userId) {
+        String sql = "SELECT bytes_used, file_count, directory_count, quota_bytes FROM user_usage WHERE user_id = ?";
+        SpaceUsage usage = new SpaceUsage();
         try (Connection conn = getConnection();
                 PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setString(1, email);
+            stmt.setInt(1, userId);
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
-                    User user = new User();
-                    user.setId(rs.getInt("id"));
-                    user.setUsername(rs.getString("username"));
-                    user.setEmail(rs.getString("email"));
-                    user.setPasswordHash(rs.getString("password_hash"));
-                    return user;
+                    usage.setBytesUsed(rs.getLong("bytes_used"));
+                    usage.setFileCount(rs.getLong("file_count"));
+                    usage.setDirectoryCount(rs.getLong("directory_count"));
+                    long quota = rs.getLong("quota_bytes");
+                    usage.setQuotaBytes(rs.wasNull() ? null : quota);
                 }
             }
         } catch (SQLException e) {
-            throw new RuntimeException("Error buscando usuario", e);
+            throw new RuntimeException("Error obteniendo uso de espacio", e);
         }
-        return null;
+        return usage;
     }
 
-    @Override
-    public void createSession(String token, int userId, LocalDateTime expiresAt) {
-        String sql = "INSERT INTO sessions (token, user_id, expires_at) VALUES (?, ?, ?)";
-        try (Connection conn = getConnection();
-                PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setString(1, token);
-            stmt.setInt(2, userId);
-            stmt.setTimestamp(3, Timestamp.valueOf(expiresAt));
-            stmt.executeUpdate();
-        } catch (SQLException e) {
-            throw new RuntimeException("Error creando sesión", e);
-        }
+    /**
+     * Enlaza los parámetros de un predicado SQL reutilizado en varias sentencias
+     */
+    protected interface StatementBinder {
+        void bind(PreparedStatement stmt) throws SQLException;
     }
 
-    @Override
-    public User getUserByToken(String token) {
-        String sql = "SELECT u.id, u.username, u.email " +
-                "FROM users u " +
-                "INNER JOIN sessions s ON u.id = s.user_id " +
-                "WHERE s.token = ? AND s.expires_at > GETDATE()";
-        try (Connection conn = getConnection();
-                PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setString(1, token);
+    /**
+     * Resta a cada blob las referencias de los archivos que cumplen filesPredicate (que se van a
+     * borrar). Los blobs que se quedan sin referencias pierden sus réplicas, que pasan a
+     * blob_deletions en la misma sentencia; devuelve esas réplicas.
+     */
+    protected List<ReplicaLocation> releaseBlobs(Connection conn, String filesPredicate, StatementBinder binder)
+            throws SQLException {
+        String blobsOfFiles = "SELECT COALESCE(blob_id, id) FROM files WHERE " + filesPredicate;
+        String decrementSql = "UPDATE b SET b.ref_count = b.ref_count - x.refs FROM blobs b " +
+                "INNER JOIN (SELECT COALESCE(blob_id, id) AS blob_id, COUNT(*) AS refs FROM files WHERE " +
+                filesPredicate + " GROUP BY COALESCE(blob_id, id)) x ON x.blob_id = b.id";
+        String deleteReplicasSql = "DELETE r " + BLOB_DELETIONS_OUTPUT + "OUTPUT DELETED.file_id, DELETED.node_id " +
+                "FROM file_replicas r INNER JOIN blobs b ON b.id = r.file_id " +
+                "WHERE b.ref_count <= 0 AND b.id IN (" + blobsOfFiles + ")";
+        String deleteBlobsSql = "DELETE FROM blobs WHERE ref_count <= 0 AND id IN (" + blobsOfFiles + ")";
+
+        List<ReplicaLocation> released = new ArrayList<>();
+        try (PreparedStatement stmt = conn.prepareStatement(decrementSql)) {
+            binder.bind(stmt);
+            stmt.executeUpdate();
+        }
+        try (PreparedStatement stmt = conn.prepareStatement(deleteReplicasSql)) {
+            binder.bind(stmt);
             try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    User user = new User();
-                    user.setId(rs.getInt("id"));
-                    user.setUsername(rs.getString("username"));
-                    user.setEmail(rs.getString("email"));
-                    return user;
+                while (rs.next()) {
+                    released.add(new ReplicaLocation(String.valueOf(rs.getInt("file_id")), rs.getString("node_id")));
                 }
             }
-        } catch (SQLException e) {
-            throw new RuntimeException("Error validando token", e);
         }
-        return null;
+        try (PreparedStatement stmt = conn.prepareStatement(deleteBlobsSql)) {
+            binder.bind(stmt);
+            stmt.executeUpdate();
+        }
+        return released;
+    }
+
+    /**
+     * Suma a cada blob las referencias de los archivos que cumplen filesPredicate (que se van a
+     * copiar). Falla si algún blob desapareció entretanto por un borrado concurrente.
+     */
+    protected void retainBlobs(Connection conn, String filesPredicate, StatementBinder binder) throws SQLException {
+        String countSql = "SELECT COUNT(DISTINCT COALESCE(blob_id, id)) FROM files WHERE " + filesPredicate;
+        String incrementSql = "UPDATE b SET b.ref_count = b.ref_count + x.refs FROM blobs b " +
+                "INNER JOIN (SELECT COALESCE(blob_id, id) AS blob_id, COUNT(*) AS refs FROM files WHERE " +
+                filesPredicate + " GROUP BY COALESCE(blob_id, id)) x ON x.blob_id = b.id WHERE b.ref_count > 0";
+        int expected;
+        try (PreparedStatement stmt = conn.prepareStatement(countSql)) {
+            binder.bind(stmt);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                expected = rs.getInt(1);
+            }
+        }
+        try (PreparedStatement stmt = conn.prepareStatement(incrementSql)) {
+            binder.bind(stmt);
+            if (stmt.executeUpdate() != expected) {
+                throw new IllegalStateException("El contenido de origen se eliminó durante la copia");
+            }
+        }
+    }
+
+    /**
+     * Directorio padre que se guarda en files.directory_id al copiar; el modo por rutas no lo usa
+     */
+    protected Integer parentDirectoryIdFor(String path, int ownerId) {
+        return null;
+    }
+
+    /**
+     * Copia solo metadatos: el archivo nuevo referencia el mismo blob que el origen
+     */
+    @Override
+    public FileMetadata copyFile(String sourcePath, String targetPath, int ownerId) {
+        FileMetadata source = getFileByPathAndOwner(sourcePath, ownerId);
+        if (source == null) {
+            throw new IllegalArgumentException("Archivo no encontrado: " + sourcePath);
+        }
+        FileMetadata copy = new FileMetadata(targetPath, source.getSizeBytes(), ownerId);
+        copy.setBlobId(Integer.parseInt(source.getStorageKey()));
+        copy.setDirectoryId(parentDirectoryIdFor(targetPath, ownerId));
+
+        String insertSql = "INSERT INTO files (name, path, size_bytes, owner_id, directory_id, blob_id, created_at, updated_at) " +
+                "OUTPUT INSERTED.id VALUES (?, ?, ?, ?, ?, ?, GETDATE(), GETDATE())";
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                applyUsageDelta(conn, ownerId, copy.getSizeBytes(), 1, 0, true);
+                retainBlobs(conn, "id = ?", stmt -> stmt.setInt(1, Integer.parseInt(source.getId())));
+                try (PreparedStatement stmt = conn.prepareStatement(insertSql)) {
+                    stmt.setString(1, copy.getName());
+                    stmt.setString(2, copy.getPath());
+                    stmt.setLong(3, copy.getSizeBytes());
+                    stmt.setInt(4, ownerId);
+                    stmt.setObject(5, copy.getDirectoryId());
+                    stmt.setInt(6, copy.getBlobId());
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        rs.next();
+                        copy.setId(String.valueOf(rs.getInt(1)));
+                    }
+                }
+                logChange(conn, ownerId, ChangeEntry.COPY, targetPath, sourcePath, Integer.parseInt(copy.getId()));
+                conn.commit();
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                if (e instanceof QuotaExceededException) {
+                    throw (QuotaExceededException) e;
+                }
+                throw new RuntimeException("Error copiando archivo", e);
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Error en transacción", e);
+        }
+        return copy;
+    }
+
+    /**
+     * Copia un subárbol: crea los directorios destino y duplica las filas de archivos con un
+     * INSERT ... SELECT que apunta a los mismos blobs, todo en una transacción. Ningún byte pasa
+     * por los nodos.
+     */
+    @Override
+    public int copyDirectory(String sourcePath, String targetPath, int ownerId) {
+        String dirsSql = "SELECT path FROM directories WHERE owner_id = ? AND path LIKE ?";
+        String predicate = "owner_id = ? AND path LIKE ?";
+        StatementBinder binder = stmt -> {
+            stmt.setInt(1, ownerId);
+            stmt.setString(2, sourcePath + "/%");
+        };
+        String copySql = "INSERT INTO files (name, path, size_bytes, owner_id, directory_id, blob_id, created_at, updated_at) " +
+                "SELECT RIGHT(path, CHARINDEX('/', REVERSE(path)) - 1), ? + SUBSTRING(path, ?, 4000), " +
+                "size_bytes, owner_id, NULL, COALESCE(blob_id, id), " +
+                "GETDATE(), GETDATE() FROM files WHERE " + predicate;
+
+        Map<String, Integer> created = new LinkedHashMap<>();
+        int copied;
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                List<String> targets = new ArrayList<>();
+                targets.add(targetPath);
+                try (PreparedStatement stmt = conn.prepareStatement(dirsSql)) {
+                    binder.bind(stmt);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            targets.add(targetPath + rs.getString("path").substring(sourcePath.length()));
+                        }
+                    }
+                }
+                // Si la copia falla (cuota incluida) tampoco quedan los directorios destino vacíos
+                insertDirectories(conn, targets, ownerId, created);
+
+                copied = reserveCopyUsage(conn, ownerId, predicate, binder);
+                retainBlobs(conn, predicate, binder);
+                try (PreparedStatement stmt = conn.prepareStatement(copySql)) {
+                    stmt.setString(1, targetPath);
+                    stmt.setInt(2, sourcePath.length() + 1);
+                    stmt.setInt(3, ownerId);
+                    stmt.setString(4, sourcePath + "/%");
+                    stmt.executeUpdate();
+                }
+                logChange(conn, ownerId, ChangeEntry.COPY_DIRECTORY, targetPath, sourcePath, null);
+                conn.commit();
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                if (e instanceof QuotaExceededException) {
+                    throw (QuotaExceededException) e;
+                }
+                throw new RuntimeException("Error copiando directorio", e);
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Error en transacción", e);
+        }
+        onDirectoriesCreated(created, ownerId);
+        return copied;
+    }
+
+    /**
+     * Suma al uso (con cuota) el tamaño y número de archivos que se van a copiar; devuelve el número
+     */
+    protected int reserveCopyUsage(Connection conn, int ownerId, String filesPredicate, StatementBinder binder)
+            throws SQLException {
+        String sql = "SELECT COUNT(*) AS file_count, ISNULL(SUM(size_bytes), 0) AS total_bytes FROM files WHERE " +
+                filesPredicate;
+        int count;
+        long bytes;
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            binder.bind(stmt);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                count = rs.getInt("file_count");
+                bytes = rs.getLong("total_bytes");
+            }
+        }
+        applyUsageDelta(conn, ownerId, bytes, count, 0, true);
+        return count;
+    }
+
+    /**
+     * Añade una entrada al registro de cambios dentro de la transacción en curso
+     */
+    protected void logChange(Connection conn, int userId, String op, String path, String oldPath, Integer fileId)
+            throws SQLException {
+        String sql = "INSERT INTO change_log (user_id, op, path, old_path, file_id) VALUES (?, ?, ?, ?, ?)";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, userId);
+            stmt.setString(2, op);
+            stmt.setString(3, path);
+            stmt.setString(4, oldPath);
+            stmt.setObject(5, fileId);
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Cambios del usuario posteriores a sinceId, en orden. Se lee sin NOLOCK: una entrada de una
+     * transacción aún abierta bloquea la lectura en vez de saltarse, así el cursor nunca la pierde.
+     */
+    @Override
+    public List<ChangeEntry> getChanges(int userId, long sinceId, int limit) {
+        String sql = "SELECT TOP (?) id, op, path, old_path, file_id, created_at FROM change_log " +
+                "WHERE user_id = ? AND id > ? ORDER BY id";
+        List<ChangeEntry> changes = new ArrayList<>();
+        try (Connection conn = getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, limit);
+            stmt.setInt(2, userId);
+            stmt.setLong(3, sinceId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    int fileId = rs.getInt("file_id");
+                    String fileIdValue = rs.wasNull() ? null : String.valueOf(fileId);
+                    changes.add(new ChangeEntry(rs.getLong("id"), rs.getString("op"), rs.getString("path"),
+                            rs.getString("old_path"), fileIdValue, rs.getTimestamp("created_at").getTime()));
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Error obteniendo cambios", e);
+        }
+        return changes;
+    }
+
+    @Override
+    public long getLatestChangeId(int userId) {
+        String sql = "SELECT ISNULL(MAX(id), 0) FROM change_log WHERE user_id = ?";
+        try (Connection conn = getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, userId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Error obteniendo cambios", e);
+        }
+    }
+
+    /**
+     * Ajusta los contadores de uso dentro de la transacción en curso. Con enforceQuota el mismo
+     * UPDATE valida que el usuario exista y que no supere quota_bytes, sin consultas extra.
+     */
+    protected void applyUsageDelta(Connection conn, int userId, long bytes, long files, long directories,
+            boolean enforceQuota) throws SQLException {
+        String sql = "UPDATE user_usage SET bytes_used = bytes_used + ?, file_count = file_count + ?, " +
+                "directory_count = directory_count + ?, updated_at = GETDATE() WHERE user_id = ?" +
+                (enforceQuota ? " AND (quota_bytes IS NULL OR bytes_used + ? <= quota_bytes)" : "");
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setLong(1, bytes);
+            stmt.setLong(2, files);
+            stmt.setLong(3, directories);
+            stmt.setInt(4, userId);
+            if (enforceQuota) {
+                stmt.setLong(5, bytes);
+            }
+            if (stmt.executeUpdate() > 0) {
+                return;
+            }
+        }
+
+        // Ninguna fila: usuario inexistente, usuario sin contadores todavía o cuota excedida
+        String checkSql = "SELECT (SELECT COUNT(*) FROM users WHERE id = ?) AS user_exists, " +
+                "(SELECT COUNT(*) FROM user_usage WHERE user_id = ?) AS usage_exists";
+        try (PreparedStatement stmt = conn.prepareStatement(checkSql)) {
+            stmt.setInt(1, userId);
+            stmt.setInt(2, userId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                if (rs.getInt("user_exists") == 0) {
+                    throw new RuntimeException("Usuario no encontrado con ID: " + userId);
+                }
+                if (rs.getInt("usage_exists") > 0) {
+                    throw new QuotaExceededException("Cuota de almacenamiento excedida para el usuario " + userId);
+                }
+            }
+        }
+        try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO user_usage (user_id) VALUES (?)")) {
+            stmt.setInt(1, userId);
+            stmt.executeUpdate();
+        }
+        applyUsageDelta(conn, userId, bytes, files, directories, enforceQuota);
+    }
+
+    /**
+     * Descuenta del uso de cada propietario las filas devueltas por DELETE ... OUTPUT owner_id, size_bytes
+     */
+    protected void releaseDeletedFilesUsage(Connection conn, ResultSet deleted) throws SQLException {
+        Map<Integer, long[]> byOwner = new HashMap<>();
+        while (deleted.next()) {
+            long[] totals = byOwner.computeIfAbsent(deleted.getInt("owner_id"), k -> new long[2]);
+            totals[0] += deleted.getLong("size_bytes");
+            totals[1]++;
+        }
+        for (Map.Entry<Integer, long[]> entry : byOwner.entrySet()) {
+            applyUsageDelta(conn, entry.getKey(), -entry.getValue()[0], -entry.getValue()[1], 0, false);
+        }
+    }
+
+    public User getUserByEmail(String email) {
+        String sql = "SELECT id, username, email, password_hash FROM users WHERE email = ?";
+        try (Connection conn = getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, email);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    User user = new User();
+                    user.setId(rs.getInt("id"));
+                    user.setUsername(rs.getString("username"));
+                    user.setEmail(rs.getString("email"));
+                    user.setPasswordHash(rs.getString("password_hash"));
+                    return user;
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Error buscando usuario", e);
+        }
+        return null;
+    }
+
+    @Override
+    public void createSession(String token, int userId, LocalDateTime expiresAt) {
+        String sql = "INSERT INTO sessions (token, user_id, expires_at) VALUES (?, ?, ?)";
+        try (Connection conn = getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, token);
+            stmt.setInt(2, userId);
+            stmt.setTimestamp(3, Timestamp.valueOf(expiresAt));
+            stmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new RuntimeException("Error creando sesión", e);
+        }
+    }
+
+    @Override
+    public User getUserByToken(String token) {
+        String sql = "SELECT u.id, u.username, u.email " +
+                "FROM users u " +
+                "INNER JOIN sessions s ON u.id = s.user_id " +
+                "WHERE s.token = ? AND s.expires_at > GETDATE()";
+        try (Connection conn = getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, token);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    User user = new User();
+                    user.setId(rs.getInt("id"));
+                    user.setUsername(rs.getString("username"));
+                    user.setEmail(rs.getString("email"));
+                    return user;
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Error validando token", e);
+        }
+        return null;
     }
 
     @Override
@@ -309,20 +1113,152 @@ public class DatabaseClientImpl implements DatabaseClient {
         }
 
         String sql = "INSERT INTO file_shares (file_id, shared_with_user_id, permission_level) VALUES (?, ?, ?)";
+        // Tanto el propietario como el destinatario ven el cambio en su registro
+        String logSql = "INSERT INTO change_log (user_id, op, path, old_path, file_id) " +
+                "SELECT u.user_id, '" + ChangeEntry.SHARE + "', f.path, NULL, f.id FROM files f " +
+                "CROSS APPLY (VALUES (f.owner_id), (?)) AS u (user_id) WHERE f.id = ?";
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                    stmt.setInt(1, fileId);
+                    stmt.setInt(2, sharedWithUserId);
+                    stmt.setString(3, permissionLevel);
+                    stmt.executeUpdate();
+                }
+                try (PreparedStatement stmt = conn.prepareStatement(logSql)) {
+                    stmt.setInt(1, sharedWithUserId);
+                    stmt.setInt(2, fileId);
+                    stmt.executeUpdate();
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                if (e.getMessage().contains("UNIQUE")) {
+                    throw new RuntimeException("El archivo ya está compartido con este usuario", e);
+                }
+                throw new RuntimeException("Error compartiendo archivo", e);
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Error compartiendo archivo", e);
+        }
+    }
+
+    /**
+     * Comparte un directorio con una sola fila; si ya estaba compartido se actualiza el permiso
+     */
+    @Override
+    public DirectoryShare shareDirectory(String path, int ownerId, int sharedWithUserId, String permissionLevel) {
+        if (!"read".equals(permissionLevel) && !"write".equals(permissionLevel)) {
+            throw new IllegalArgumentException("Nivel de permiso inválido. Use 'read' o 'write'");
+        }
+        Integer directoryId = directoryIdOf(path, ownerId);
+        if (directoryId == null) {
+            throw new IllegalArgumentException("Directorio no encontrado: " + path);
+        }
+
+        String updateSql = "UPDATE directory_shares SET permission_level = ? WHERE directory_id = ? AND shared_with_user_id = ?";
+        String insertSql = "INSERT INTO directory_shares (directory_id, shared_with_user_id, permission_level) VALUES (?, ?, ?)";
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                int updated;
+                try (PreparedStatement stmt = conn.prepareStatement(updateSql)) {
+                    stmt.setString(1, permissionLevel);
+                    stmt.setInt(2, directoryId);
+                    stmt.setInt(3, sharedWithUserId);
+                    updated = stmt.executeUpdate();
+                }
+                if (updated == 0) {
+                    try (PreparedStatement stmt = conn.prepareStatement(insertSql)) {
+                        stmt.setInt(1, directoryId);
+                        stmt.setInt(2, sharedWithUserId);
+                        stmt.setString(3, permissionLevel);
+                        stmt.executeUpdate();
+                    }
+                }
+                // Tanto el propietario como el destinatario ven el cambio en su registro
+                logChange(conn, ownerId, ChangeEntry.SHARE, path, null, null);
+                logChange(conn, sharedWithUserId, ChangeEntry.SHARE, path, null, null);
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw new RuntimeException("Error compartiendo directorio", e);
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Error compartiendo directorio", e);
+        }
+        return new DirectoryShare(directoryId, path, sharedWithUserId, permissionLevel);
+    }
+
+    /**
+     * Todas las comparticiones de directorios con su ruta actual, para el índice de ACL en memoria.
+     * Antes purga las de directorios ya eliminados.
+     */
+    @Override
+    public List<DirectoryShare> getDirectoryShares() {
+        String sql = "SELECT ds.directory_id, d.path, ds.shared_with_user_id, ds.permission_level " +
+                "FROM directory_shares ds INNER JOIN directories d ON d.id = ds.directory_id";
+        List<DirectoryShare> shares = new ArrayList<>();
         try (Connection conn = getConnection();
-                PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setInt(1, fileId);
-            stmt.setInt(2, sharedWithUserId);
-            stmt.setString(3, permissionLevel);
-            stmt.executeUpdate();
+                PreparedStatement stmt = conn.prepareStatement(sql);
+                ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                int directoryId = rs.getInt("directory_id");
+                String path = currentDirectoryPath(directoryId, rs.getString("path"));
+                if (path != null) {
+                    shares.add(new DirectoryShare(directoryId, path, rs.getInt("shared_with_user_id"),
+                            rs.getString("permission_level")));
+                }
+            }
         } catch (SQLException e) {
-            if (e.getMessage().contains("UNIQUE")) {
-                throw new RuntimeException("El archivo ya está compartido con este usuario", e);
+            throw new RuntimeException("Error cargando directorios compartidos", e);
+        }
+        return shares;
+    }
+
+    /**
+     * Quita los permisos compartidos del directorio y su subárbol, en la transacción que los borra
+     */
+    private void deleteDirectoryShares(Connection conn, String directoryPath, int ownerId) throws SQLException {
+        String sql = "DELETE ds FROM directory_shares ds INNER JOIN directories d ON d.id = ds.directory_id " +
+                "WHERE d.owner_id = ? AND (d.path = ? OR d.path LIKE ?)";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, ownerId);
+            stmt.setString(2, directoryPath);
+            stmt.setString(3, directoryPath + "/%");
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Id del directorio del propietario, o null si no existe
+     */
+    protected Integer directoryIdOf(String path, int ownerId) {
+        String sql = "SELECT id FROM directories WHERE path = ? AND owner_id = ?";
+        try (Connection conn = getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, path);
+            stmt.setInt(2, ownerId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getInt("id") : null;
             }
-            throw new RuntimeException("Error compartiendo archivo", e);
+        } catch (SQLException e) {
+            throw new RuntimeException("Error buscando directorio", e);
         }
     }
 
+    /**
+     * Ruta vigente de un directorio; en modo por rutas es la columna path
+     */
+    protected String currentDirectoryPath(int directoryId, String storedPath) {
+        return storedPath;
+    }
+
     @Override
     public void moveFile(String oldPath, String newPath, int ownerId) {
 
@@ -356,7 +1292,7 @@ public class DatabaseClientImpl implements DatabaseClient {
         }
 
         // Actualizar la ruta
-        String updateSql = "UPDATE files SET path = ? WHERE id = ?";
+        String updateSql = "UPDATE files SET path = ? " + MOVE_FILE_CHANGE_OUTPUT + "WHERE id = ?";
         try (Connection conn = getConnection();
                 PreparedStatement updateStmt = conn.prepareStatement(updateSql)) {
             updateStmt.setString(1, newPath);
@@ -415,7 +1351,8 @@ public class DatabaseClientImpl implements DatabaseClient {
                 }
 
                 // Actualizar el directorio raíz
-                String updateRootDirSql = "UPDATE directories SET path = ? WHERE path = ? AND owner_id = ?";
+                String updateRootDirSql = "UPDATE directories SET path = ? " + MOVE_DIRECTORY_CHANGE_OUTPUT +
+                        "WHERE path = ? AND owner_id = ?";
                 try (PreparedStatement stmt = conn.prepareStatement(updateRootDirSql)) {
                     stmt.setString(1, newPath);
                     stmt.setString(2, oldPath);
@@ -515,23 +1452,93 @@ public class DatabaseClientImpl implements DatabaseClient {
         return fileIds;
     }
 
+    /**
+     * Lista los hijos directos de un directorio: primero subdirectorios y luego archivos, por ruta.
+     * El cursor ("d:" o "f:" seguido de la última ruta devuelta) se resuelve con un seek sobre
+     * (owner_id, parent_path, path), así que cada página cuesta lo mismo sin importar su posición.
+     * Las filas se entregan al consumidor según se leen; devuelve el cursor siguiente o null.
+     */
+    @Override
+    public String listDirectory(String directoryPath, int ownerId, String cursor, int limit,
+            Consumer<DirectoryEntry> consumer) {
+        boolean inFiles = cursor != null && cursor.startsWith(LIST_CURSOR_FILES);
+        String after = cursor != null && cursor.length() > 2 ? cursor.substring(2) : "";
+
+        String dirsSql = "SELECT TOP (?) path FROM directories " +
+                "WHERE owner_id = ? AND parent_path = ? AND path > ? ORDER BY path";
+        String filesSql = "SELECT TOP (?) id, path, size_bytes FROM files " +
+                "WHERE owner_id = ? AND parent_path = ? AND path > ? ORDER BY path";
+
+        try (Connection conn = getConnection()) {
+            int emitted = 0;
+            if (!inFiles) {
+                String last = null;
+                try (PreparedStatement stmt = prepareListQuery(conn, dirsSql, limit + 1, ownerId, directoryPath, after);
+                        ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        if (emitted == limit) {
+                            return LIST_CURSOR_DIRECTORIES + last;
+                        }
+                        last = rs.getString("path");
+                        consumer.accept(new DirectoryEntry(nameOf(last), last, true, null, 0));
+                        emitted++;
+                    }
+                }
+                // Directorios agotados: la página sigue con los archivos desde el principio
+                after = "";
+            }
+
+            String last = after;
+            try (PreparedStatement stmt = prepareListQuery(conn, filesSql, limit - emitted + 1, ownerId, directoryPath, after);
+                    ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    if (emitted == limit) {
+                        return LIST_CURSOR_FILES + last;
+                    }
+                    last = rs.getString("path");
+                    consumer.accept(new DirectoryEntry(nameOf(last), last, false,
+                            String.valueOf(rs.getInt("id")), rs.getLong("size_bytes")));
+                    emitted++;
+                }
+            }
+            return null;
+        } catch (SQLException e) {
+            throw new RuntimeException("Error listando directorio", e);
+        }
+    }
+
+    private PreparedStatement prepareListQuery(Connection conn, String sql, int top, int ownerId,
+            String directoryPath, String after) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement(sql);
+        stmt.setInt(1, top);
+        stmt.setInt(2, ownerId);
+        stmt.setString(3, directoryPath);
+        stmt.setString(4, after);
+        // Páginas grandes: traer filas por bloques en vez de materializar todo el resultado
+        stmt.setFetchSize(LIST_FETCH_SIZE);
+        return stmt;
+    }
+
+    private static String nameOf(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
     @Override
     public void deleteFile(int fileId) {
-        // Primero eliminar réplicas
-        String deleteReplicasSql = "DELETE FROM file_replicas WHERE file_id = ?";
-        // Luego eliminar archivo
-        String deleteFileSql = "DELETE FROM files WHERE id = ?";
+        // Primero soltar la referencia al blob (si era la última, sus réplicas se encolan)
+        // Luego eliminar archivo, descontando su tamaño del uso del propietario
+        String deleteFileSql = "DELETE FROM files " + DELETE_FILE_CHANGE_OUTPUT +
+                "OUTPUT DELETED.owner_id, DELETED.size_bytes WHERE id = ?";
 
         try (Connection conn = getConnection()) {
             conn.setAutoCommit(false);
             try {
-                try (PreparedStatement stmt = conn.prepareStatement(deleteReplicasSql)) {
-                    stmt.setInt(1, fileId);
-                    stmt.executeUpdate();
-                }
+                releaseBlobs(conn, "id = ?", stmt -> stmt.setInt(1, fileId));
                 try (PreparedStatement stmt = conn.prepareStatement(deleteFileSql)) {
                     stmt.setInt(1, fileId);
-                    stmt.executeUpdate();
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        releaseDeletedFilesUsage(conn, rs);
+                    }
                 }
                 conn.commit();
             } catch (SQLException e) {
@@ -563,18 +1570,24 @@ public class DatabaseClientImpl implements DatabaseClient {
         try (Connection conn = getConnection()) {
             conn.setAutoCommit(false);
             try {
+                deleteDirectoryShares(conn, directoryPath, ownerId);
+                int deletedDirs;
                 // Eliminar subdirectorios
                 try (PreparedStatement stmt = conn.prepareStatement(deleteSubDirsSql)) {
                     stmt.setString(1, directoryPath + "/%");
                     stmt.setInt(2, ownerId);
                     stmt.setString(3, directoryPath);
-                    stmt.executeUpdate();
+                    deletedDirs = stmt.executeUpdate();
                 }
                 // Eliminar directorio raíz
                 try (PreparedStatement stmt = conn.prepareStatement(deleteRootDirSql)) {
                     stmt.setString(1, directoryPath);
                     stmt.setInt(2, ownerId);
-                    stmt.executeUpdate();
+                    deletedDirs += stmt.executeUpdate();
+                }
+                applyUsageDelta(conn, ownerId, 0, 0, -deletedDirs, false);
+                if (deletedDirs > 0) {
+                    logChange(conn, ownerId, ChangeEntry.DELETE_DIRECTORY, directoryPath, null, null);
                 }
                 conn.commit();
             } catch (SQLException e) {
@@ -588,6 +1601,557 @@ public class DatabaseClientImpl implements DatabaseClient {
         }
     }
 
+    @Override
+    public List<ReplicaLocation> deleteDirectoryTree(String directoryPath, int ownerId) {
+        // Referencias a blobs, archivos y directorios del subárbol en una sola transacción
+        String sumFilesSql = "SELECT COUNT_BIG(*) AS file_count, ISNULL(SUM(size_bytes), 0) AS total_bytes " +
+                "FROM files WHERE path LIKE ? AND owner_id = ?";
+        String deleteFilesSql = "DELETE FROM files WHERE path LIKE ? AND owner_id = ?";
+        String deleteDirsSql = "DELETE FROM directories WHERE (path LIKE ? OR path = ?) AND owner_id = ?";
+
+        List<ReplicaLocation> replicas = new ArrayList<>();
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                replicas.addAll(releaseBlobs(conn, "path LIKE ? AND owner_id = ?", stmt -> {
+                    stmt.setString(1, directoryPath + "/%");
+                    stmt.setInt(2, ownerId);
+                }));
+                long deletedBytes = 0;
+                long deletedFiles = 0;
+                try (PreparedStatement stmt = conn.prepareStatement(sumFilesSql)) {
+                    stmt.setString(1, directoryPath + "/%");
+                    stmt.setInt(2, ownerId);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        if (rs.next()) {
+                            deletedFiles = rs.getLong("file_count");
+                            deletedBytes = rs.getLong("total_bytes");
+                        }
+                    }
+                }
+                try (PreparedStatement stmt = conn.prepareStatement(deleteFilesSql)) {
+                    stmt.setString(1, directoryPath + "/%");
+                    stmt.setInt(2, ownerId);
+                    stmt.executeUpdate();
+                }
+                deleteDirectoryShares(conn, directoryPath, ownerId);
+                int deletedDirs;
+                try (PreparedStatement stmt = conn.prepareStatement(deleteDirsSql)) {
+                    stmt.setString(1, directoryPath + "/%");
+                    stmt.setString(2, directoryPath);
+                    stmt.setInt(3, ownerId);
+                    deletedDirs = stmt.executeUpdate();
+                }
+                applyUsageDelta(conn, ownerId, -deletedBytes, -deletedFiles, -deletedDirs, false);
+                if (deletedDirs > 0 || deletedFiles > 0) {
+                    // Una sola entrada para todo el subárbol; el cliente elimina su copia local
+                    logChange(conn, ownerId, ChangeEntry.DELETE_DIRECTORY, directoryPath, null, null);
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw new RuntimeException("Error eliminando directorio", e);
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Error en transacción", e);
+        }
+        return replicas;
+    }
+
+    @Override
+    public List<BlobDeletion> getDueBlobDeletions(int limit) {
+        String sql = "SELECT TOP (?) id, file_id, node_id, attempts FROM blob_deletions " +
+                "WHERE next_attempt_at <= GETDATE() ORDER BY node_id, id";
+        List<BlobDeletion> deletions = new ArrayList<>();
+        try (Connection conn = getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, limit);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    deletions.add(new BlobDeletion(rs.getLong("id"), String.valueOf(rs.getInt("file_id")),
+                            rs.getString("node_id"), rs.getInt("attempts")));
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Error leyendo cola de borrado", e);
+        }
+        return deletions;
+    }
+
+    @Override
+    public void completeBlobDeletions(List<Long> ids) {
+        updateByIds("DELETE FROM blob_deletions WHERE id IN (%s)", ids, null);
+    }
+
+    @Override
+    public void retryBlobDeletions(List<Long> ids, String error) {
+        // Backoff exponencial: 5 s, 10 s, 20 s... hasta un máximo de 1 hora
+        updateByIds("UPDATE blob_deletions SET attempts = attempts + 1, last_error = ?, " +
+                "next_attempt_at = DATEADD(SECOND, CASE WHEN attempts >= 10 THEN 3600 " +
+                "ELSE 5 * POWER(2, attempts) END, GETDATE()) WHERE id IN (%s)", ids, error != null ? error : "");
+    }
+
+    /**
+     * Ejecuta una sentencia con "IN (%s)" sobre los ids, en bloques; error es el primer parámetro si no es null
+     */
+    private void updateByIds(String sqlTemplate, List<Long> ids, String error) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        try (Connection conn = getConnection()) {
+            for (int from = 0; from < ids.size(); from += MAX_PATHS_PER_QUERY) {
+                List<Long> chunk = ids.subList(from, Math.min(ids.size(), from + MAX_PATHS_PER_QUERY));
+                String sql = String.format(sqlTemplate, String.join(", ", Collections.nCopies(chunk.size(), "?")));
+                try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                    int param = 1;
+                    if (error != null) {
+                        stmt.setString(param++, error.length() > 500 ? error.substring(0, 500) : error);
+                    }
+                    for (Long id : chunk) {
+                        stmt.setLong(param++, id);
+                    }
+                    stmt.executeUpdate();
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Error actualizando cola", e);
+        }
+    }
+
+    @Override
+    public long[] getReplicaDigests(String nodeId, int bucketCount) {
+        // Mismo resumen que StorageNode.getInventoryDigests, calculado en la BD con GROUP BY
+        String sql = "SELECT bucket, COUNT_BIG(*) AS id_count, SUM(id) AS id_sum, " +
+                "SUM((id * id) % 2147483647) AS square_sum " +
+                "FROM (SELECT CAST(file_id AS BIGINT) % ? AS bucket, CAST(file_id AS BIGINT) AS id " +
+                "FROM file_replicas WHERE node_id = ?) t GROUP BY bucket";
+        long[] digests = new long[3 * bucketCount];
+        try (Connection conn = getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, bucketCount);
+            stmt.setString(2, nodeId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    int bucket = (int) rs.getLong("bucket");
+                    digests[3 * bucket] = rs.getLong("id_count");
+                    digests[3 * bucket + 1] = rs.getLong("id_sum");
+                    digests[3 * bucket + 2] = rs.getLong("square_sum");
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Error calculando resumen de réplicas", e);
+        }
+        return digests;
+    }
+
+    @Override
+    public List<String> getReplicaFileIdsInBucket(String nodeId, int bucketCount, int bucket) {
+        String sql = "SELECT file_id FROM file_replicas WHERE node_id = ? AND file_id % ? = ?";
+        List<String> fileIds = new ArrayList<>();
+        try (Connection conn = getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, nodeId);
+            stmt.setInt(2, bucketCount);
+            stmt.setInt(3, bucket);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    fileIds.add(String.valueOf(rs.getInt("file_id")));
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Error listando réplicas", e);
+        }
+        return fileIds;
+    }
+
+    @Override
+    public int enqueueOrphanBlobs(String nodeId, List<String> fileIds) {
+        // Se ignoran archivos recién creados (subida en curso) y blobs ya encolados
+        String template = "INSERT INTO blob_deletions (file_id, node_id) " +
+                "SELECT v.id, ? FROM (VALUES %s) AS v(id) " +
+                "WHERE NOT EXISTS (SELECT 1 FROM file_replicas r WHERE r.file_id = v.id AND r.node_id = ?) " +
+                "AND NOT EXISTS (SELECT 1 FROM files f WHERE f.id = v.id AND f.created_at > DATEADD(HOUR, -1, GETDATE())) " +
+                "AND NOT EXISTS (SELECT 1 FROM blob_deletions b WHERE b.file_id = v.id AND b.node_id = ?)";
+        int queued = 0;
+        try (Connection conn = getConnection()) {
+            for (int from = 0; from < fileIds.size(); from += MAX_VALUES_ROWS) {
+                List<String> chunk = fileIds.subList(from, Math.min(fileIds.size(), from + MAX_VALUES_ROWS));
+                String sql = String.format(template, String.join(", ", Collections.nCopies(chunk.size(), "(?)")));
+                try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                    int param = 1;
+                    stmt.setString(param++, nodeId);
+                    for (String fileId : chunk) {
+                        stmt.setInt(param++, Integer.parseInt(fileId));
+                    }
+                    stmt.setString(param++, nodeId);
+                    stmt.setString(param++, nodeId);
+                    queued += stmt.executeUpdate();
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Error encolando blobs huérfanos", e);
+        }
+        return queued;
+    }
+
+    @Override
+    public int markReplicasMissing(String nodeId, List<String> fileIds) {
+        String updateTemplate = "UPDATE file_replicas SET is_healthy = 0 WHERE node_id = ? AND file_id IN (%s)";
+        String insertTemplate = "INSERT INTO replica_repairs (file_id, node_id) " +
+                "SELECT v.id, ? FROM (VALUES %s) AS v(id) " +
+                "WHERE NOT EXISTS (SELECT 1 FROM replica_repairs rr WHERE rr.file_id = v.id AND rr.node_id = ?)";
+        int queued = 0;
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                for (int from = 0; from < fileIds.size(); from += MAX_VALUES_ROWS) {
+                    List<String> chunk = fileIds.subList(from, Math.min(fileIds.size(), from + MAX_VALUES_ROWS));
+                    String placeholders = String.join(", ", Collections.nCopies(chunk.size(), "?"));
+                    try (PreparedStatement stmt = conn.prepareStatement(String.format(updateTemplate, placeholders))) {
+                        int param = 1;
+                        stmt.setString(param++, nodeId);
+                        for (String fileId : chunk) {
+                            stmt.setInt(param++, Integer.parseInt(fileId));
+                        }
+                        stmt.executeUpdate();
+                    }
+                    String values = String.join(", ", Collections.nCopies(chunk.size(), "(?)"));
+                    try (PreparedStatement stmt = conn.prepareStatement(String.format(insertTemplate, values))) {
+                        int param = 1;
+                        stmt.setString(param++, nodeId);
+                        for (String fileId : chunk) {
+                            stmt.setInt(param++, Integer.parseInt(fileId));
+                        }
+                        stmt.setString(param++, nodeId);
+                        queued += stmt.executeUpdate();
+                    }
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw new RuntimeException("Error registrando réplicas faltantes", e);
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Error en transacción", e);
+        }
+        return queued;
+    }
+
+    @Override
+    public List<ReplicaRepair> getDueReplicaRepairs(int limit) {
+        String sql = "SELECT TOP (?) id, file_id, node_id, attempts FROM replica_repairs " +
+                "WHERE next_attempt_at <= GETDATE() ORDER BY id";
+        List<ReplicaRepair> repairs = new ArrayList<>();
+        try (Connection conn = getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, limit);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    repairs.add(new ReplicaRepair(rs.getLong("id"), String.valueOf(rs.getInt("file_id")),
+                            rs.getString("node_id"), rs.getInt("attempts")));
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Error leyendo reparaciones pendientes", e);
+        }
+        return repairs;
+    }
+
+    @Override
+    public void completeReplicaRepair(ReplicaRepair repair) {
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                try (PreparedStatement stmt = conn.prepareStatement(
+                        "UPDATE file_replicas SET is_healthy = 1, stored_at = GETDATE() WHERE file_id = ? AND node_id = ?")) {
+                    stmt.setInt(1, Integer.parseInt(repair.getFileId()));
+                    stmt.setString(2, repair.getNodeId());
+                    stmt.executeUpdate();
+                }
+                try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM replica_repairs WHERE id = ?")) {
+                    stmt.setLong(1, repair.getId());
+                    stmt.executeUpdate();
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw new RuntimeException("Error completando reparación", e);
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Error en transacción", e);
+        }
+    }
+
+    @Override
+    public void retryReplicaRepairs(List<Long> ids, String error) {
+        updateByIds("UPDATE replica_repairs SET attempts = attempts + 1, last_error = ?, " +
+                "next_attempt_at = DATEADD(SECOND, CASE WHEN attempts >= 10 THEN 3600 " +
+                "ELSE 5 * POWER(2, attempts) END, GETDATE()) WHERE id IN (%s)", ids, error != null ? error : "");
+    }
+
+    @Override
+    public void createUploadSession(UploadSession session, int ttlSeconds) {
+        String sessionSql = "INSERT INTO upload_sessions (id, owner_id, path, total_size, chunk_size, expires_at) " +
+                "VALUES (?, ?, ?, ?, ?, DATEADD(SECOND, ?, GETDATE()))";
+        String nodeSql = "INSERT INTO upload_session_nodes (upload_id, node_id) VALUES (?, ?)";
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                try (PreparedStatement stmt = conn.prepareStatement(sessionSql)) {
+                    stmt.setString(1, session.getId());
+                    stmt.setInt(2, session.getOwnerId());
+                    stmt.setString(3, session.getPath());
+                    stmt.setLong(4, session.getTotalSize());
+                    stmt.setInt(5, session.getChunkSize());
+                    stmt.setInt(6, ttlSeconds);
+                    stmt.executeUpdate();
+                }
+                try (PreparedStatement stmt = conn.prepareStatement(nodeSql)) {
+                    for (String nodeId : session.getNodeIds()) {
+                        stmt.setString(1, session.getId());
+                        stmt.setString(2, nodeId);
+                        stmt.addBatch();
+                    }
+                    stmt.executeBatch();
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw new RuntimeException("Error creando sesión de subida", e);
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Error en transacción", e);
+        }
+    }
+
+    @Override
+    public UploadSession getUploadSession(String uploadId, int ownerId) {
+        String sql = "SELECT id, owner_id, path, total_size, chunk_size, committing, committed_file_id " +
+                "FROM upload_sessions WHERE id = ? AND owner_id = ? AND expires_at > GETDATE()";
+        try (Connection conn = getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, uploadId);
+            stmt.setInt(2, ownerId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? readUploadSession(conn, rs) : null;
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Error buscando sesión de subida", e);
+        }
+    }
+
+    @Override
+    public List<Integer> getUploadChunks(String uploadId) {
+        String sql = "SELECT chunk_index FROM upload_session_chunks WHERE upload_id = ? ORDER BY chunk_index";
+        List<Integer> chunks = new ArrayList<>();
+        try (Connection conn = getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, uploadId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    chunks.add(rs.getInt("chunk_index"));
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Error leyendo fragmentos recibidos", e);
+        }
+        return chunks;
+    }
+
+    @Override
+    public void recordUploadChunk(String uploadId, int chunkIndex, int ttlSeconds) {
+        // Reenviar un fragmento ya registrado no duplica la fila; cada fragmento renueva la expiración
+        String chunkSql = "INSERT INTO upload_session_chunks (upload_id, chunk_index) SELECT ?, ? " +
+                "WHERE NOT EXISTS (SELECT 1 FROM upload_session_chunks WHERE upload_id = ? AND chunk_index = ?)";
+        String renewSql = "UPDATE upload_sessions SET expires_at = DATEADD(SECOND, ?, GETDATE()) WHERE id = ?";
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                try (PreparedStatement stmt = conn.prepareStatement(chunkSql)) {
+                    stmt.setString(1, uploadId);
+                    stmt.setInt(2, chunkIndex);
+                    stmt.setString(3, uploadId);
+                    stmt.setInt(4, chunkIndex);
+                    stmt.executeUpdate();
+                }
+                try (PreparedStatement stmt = conn.prepareStatement(renewSql)) {
+                    stmt.setInt(1, ttlSeconds);
+                    stmt.setString(2, uploadId);
+                    stmt.executeUpdate();
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw new RuntimeException("Error registrando fragmento", e);
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Error en transacción", e);
+        }
+    }
+
+    @Override
+    public void markUploadNodeFailed(String uploadId, String nodeId) {
+        String sql = "UPDATE upload_session_nodes SET failed = 1 WHERE upload_id = ? AND node_id = ?";
+        try (Connection conn = getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, uploadId);
+            stmt.setString(2, nodeId);
+            stmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new RuntimeException("Error actualizando nodos de la subida", e);
+        }
+    }
+
+    /**
+     * Reserva la confirmación de la sesión; solo una petición concurrente obtiene true. La
+     * expiración se renueva para que UploadSessionExpiry no la descarte a mitad de confirmar.
+     */
+    @Override
+    public boolean claimUploadCommit(String uploadId, int ownerId, int ttlSeconds) {
+        String sql = "UPDATE upload_sessions SET committing = 1, expires_at = DATEADD(SECOND, ?, GETDATE()) " +
+                "WHERE id = ? AND owner_id = ? AND committing = 0 AND expires_at > GETDATE()";
+        try (Connection conn = getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, ttlSeconds);
+            stmt.setString(2, uploadId);
+            stmt.setInt(3, ownerId);
+            return stmt.executeUpdate() == 1;
+        } catch (SQLException e) {
+            throw new RuntimeException("Error reservando la confirmación de la subida", e);
+        }
+    }
+
+    @Override
+    public void releaseUploadCommit(String uploadId) {
+        String sql = "UPDATE upload_sessions SET committing = 0 WHERE id = ? AND committed_file_id IS NULL";
+        try (Connection conn = getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, uploadId);
+            stmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new RuntimeException("Error liberando la confirmación de la subida", e);
+        }
+    }
+
+    /**
+     * Marca la sesión como confirmada: borra fragmentos y nodos pero conserva la fila con el id
+     * del archivo hasta que expire, para responder a un reintento del cliente
+     */
+    @Override
+    public void completeUploadCommit(String uploadId, String fileId, int ttlSeconds) {
+        String[] sqls = {
+            "DELETE FROM upload_session_chunks WHERE upload_id = ?",
+            "DELETE FROM upload_session_nodes WHERE upload_id = ?"
+        };
+        String sessionSql = "UPDATE upload_sessions SET committed_file_id = ?, " +
+                "expires_at = DATEADD(SECOND, ?, GETDATE()) WHERE id = ?";
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                for (String sql : sqls) {
+                    try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                        stmt.setString(1, uploadId);
+                        stmt.executeUpdate();
+                    }
+                }
+                try (PreparedStatement stmt = conn.prepareStatement(sessionSql)) {
+                    stmt.setInt(1, Integer.parseInt(fileId));
+                    stmt.setInt(2, ttlSeconds);
+                    stmt.setString(3, uploadId);
+                    stmt.executeUpdate();
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw new RuntimeException("Error confirmando sesión de subida", e);
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Error en transacción", e);
+        }
+    }
+
+    @Override
+    public void deleteUploadSession(String uploadId) {
+        String[] sqls = {
+            "DELETE FROM upload_session_chunks WHERE upload_id = ?",
+            "DELETE FROM upload_session_nodes WHERE upload_id = ?",
+            "DELETE FROM upload_sessions WHERE id = ?"
+        };
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                for (String sql : sqls) {
+                    try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                        stmt.setString(1, uploadId);
+                        stmt.executeUpdate();
+                    }
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw new RuntimeException("Error eliminando sesión de subida", e);
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Error en transacción", e);
+        }
+    }
+
+    @Override
+    public List<UploadSession> getExpiredUploadSessions(int limit) {
+        String sql = "SELECT TOP (?) id, owner_id, path, total_size, chunk_size, committing, committed_file_id " +
+                "FROM upload_sessions WHERE expires_at <= GETDATE() ORDER BY expires_at";
+        List<UploadSession> sessions = new ArrayList<>();
+        try (Connection conn = getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, limit);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    sessions.add(readUploadSession(conn, rs));
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Error leyendo sesiones de subida expiradas", e);
+        }
+        return sessions;
+    }
+
+    /**
+     * Sesión de la fila actual con sus nodos, separados en activos y fallidos
+     */
+    private UploadSession readUploadSession(Connection conn, ResultSet rs) throws SQLException {
+        String uploadId = rs.getString("id");
+        List<String> nodeIds = new ArrayList<>();
+        List<String> failedNodeIds = new ArrayList<>();
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT node_id, failed FROM upload_session_nodes WHERE upload_id = ?")) {
+            stmt.setString(1, uploadId);
+            try (ResultSet nodes = stmt.executeQuery()) {
+                while (nodes.next()) {
+                    (nodes.getBoolean("failed") ? failedNodeIds : nodeIds).add(nodes.getString("node_id"));
+                }
+            }
+        }
+        UploadSession session = new UploadSession(uploadId, rs.getInt("owner_id"), rs.getString("path"),
+                rs.getLong("total_size"), rs.getInt("chunk_size"), nodeIds, failedNodeIds);
+        session.setCommitting(rs.getBoolean("committing"));
+        session.setCommittedFileId(rs.getString("committed_file_id"));
+        return session;
+    }
+
     @Override
     public boolean hasReadAccess(int userId, int fileId) {
         String sql = "SELECT 1 FROM files f WHERE f.id = ? AND f.owner_id = ? " +
@@ -612,7 +2176,7 @@ public class DatabaseClientImpl implements DatabaseClient {
 
     @Override
     public FileMetadata getFileByPath(String path) {
-        String sql = "SELECT id, name, path, size_bytes, owner_id, directory_id " +
+        String sql = "SELECT id, name, path, size_bytes, owner_id, directory_id, blob_id " +
                 "FROM files WHERE path = ?";
         try (Connection conn = getConnection();
                 PreparedStatement stmt = conn.prepareStatement(sql)) {
@@ -626,6 +2190,8 @@ public class DatabaseClientImpl implements DatabaseClient {
                     meta.setSizeBytes(rs.getLong("size_bytes"));
                     meta.setOwnerId(rs.getInt("owner_id"));
                     meta.setDirectoryId(rs.getInt("directory_id"));
+                    int blobId = rs.getInt("blob_id");
+                    meta.setBlobId(rs.wasNull() ? null : blobId);
                     return meta;
                 }
             }
@@ -637,7 +2203,7 @@ public class DatabaseClientImpl implements DatabaseClient {
 
     @Override
     public FileMetadata getFileByPathAndOwner(String path, int ownerId) {
-        String sql = "SELECT id, name, path, size_bytes, owner_id, directory_id " +
+        String sql = "SELECT id, name, path, size_bytes, owner_id, directory_id, blob_id " +
                 "FROM files WHERE path = ? AND owner_id = ?";
         try (Connection conn = getConnection();
                 PreparedStatement stmt = conn.prepareStatement(sql)) {
@@ -652,6 +2218,8 @@ public class DatabaseClientImpl implements DatabaseClient {
                     meta.setSizeBytes(rs.getLong("size_bytes"));
                     meta.setOwnerId(rs.getInt("owner_id"));
                     meta.setDirectoryId(rs.getInt("directory_id"));
+                    int blobId = rs.getInt("blob_id");
+                    meta.setBlobId(rs.wasNull() ? null : blobId);
                     return meta;
                 }
             }
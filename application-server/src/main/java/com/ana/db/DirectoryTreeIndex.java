@@ -0,0 +1,196 @@
+package com.ana.db;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Índice en memoria del árbol de directorios (id, parent_id, nombre).
+ * Resuelve rutas completas sin depender de la columna path de los descendientes,
+ * de modo que mover un directorio solo cambia su propio nodo.
+ */
+public class DirectoryTreeIndex {
+
+    private static class Node {
+        final int id;
+        final int ownerId;
+        Node parent;
+        Integer pendingParentId;
+        String name;
+        // Ordenados por nombre para paginar el listado con tailMap
+        final TreeMap<String, Node> children = new TreeMap<>();
+
+        Node(int id, int ownerId, String name) {
+            this.id = id;
+            this.ownerId = ownerId;
+            this.name = name;
+        }
+    }
+
+    private final Map<Integer, Node> byId = new HashMap<>();
+    private final Map<String, Node> roots = new HashMap<>();
+
+    /**
+     * Registra un directorio leído de la BD; los padres pueden llegar después que los hijos.
+     * Hay que llamar a link() al terminar la carga.
+     */
+    public synchronized void load(int id, Integer parentId, int ownerId, String name) {
+        Node node = new Node(id, ownerId, name);
+        node.pendingParentId = parentId;
+        byId.put(id, node);
+    }
+
+    public synchronized void link() {
+        for (Node node : byId.values()) {
+            if (node.pendingParentId != null || node.parent == null) {
+                attach(node, node.pendingParentId != null ? byId.get(node.pendingParentId) : null);
+                node.pendingParentId = null;
+            }
+        }
+    }
+
+    public synchronized Integer resolve(String path) {
+        Node node = find(path);
+        return node != null ? node.id : null;
+    }
+
+    public synchronized boolean exists(String path, int ownerId) {
+        Node node = find(path);
+        return node != null && node.ownerId == ownerId;
+    }
+
+    public synchronized String pathOf(int id) {
+        Node node = byId.get(id);
+        if (node == null) {
+            return null;
+        }
+        Deque<String> parts = new ArrayDeque<>();
+        for (Node current = node; current != null; current = current.parent) {
+            parts.push(current.name);
+        }
+        return "/" + String.join("/", parts);
+    }
+
+    public synchronized void add(int id, Integer parentId, int ownerId, String name) {
+        Node node = new Node(id, ownerId, name);
+        byId.put(id, node);
+        attach(node, parentId != null ? byId.get(parentId) : null);
+    }
+
+    /**
+     * Cambia padre y nombre de un directorio; los descendientes lo siguen sin cambios.
+     * Rechaza un padre nuevo dentro del propio subárbol, que dejaría un ciclo.
+     */
+    public synchronized void move(int id, Integer newParentId, String newName) {
+        Node node = byId.get(id);
+        if (node == null) {
+            return;
+        }
+        Node newParent = newParentId != null ? byId.get(newParentId) : null;
+        for (Node current = newParent; current != null; current = current.parent) {
+            if (current == node) {
+                throw new IllegalArgumentException("No se puede mover un directorio dentro de sí mismo");
+            }
+        }
+        detach(node);
+        node.name = newName;
+        attach(node, newParent);
+    }
+
+    /**
+     * IDs del directorio y de todo su subárbol (el propio directorio primero)
+     */
+    public synchronized List<Integer> subtreeIds(int id) {
+        List<Integer> ids = new ArrayList<>();
+        Node root = byId.get(id);
+        if (root == null) {
+            return ids;
+        }
+        Deque<Node> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            ids.add(node.id);
+            for (Node child : node.children.values()) {
+                stack.push(child);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Hasta limit nombres de subdirectorios posteriores a after (exclusivo), en orden
+     */
+    public synchronized List<String> childNamesAfter(int id, String after, int limit) {
+        List<String> names = new ArrayList<>();
+        Node node = byId.get(id);
+        if (node == null) {
+            return names;
+        }
+        for (String name : node.children.tailMap(after, false).keySet()) {
+            if (names.size() == limit) {
+                break;
+            }
+            names.add(name);
+        }
+        return names;
+    }
+
+    public synchronized void removeSubtree(int id) {
+        Node node = byId.get(id);
+        if (node == null) {
+            return;
+        }
+        detach(node);
+        for (Integer childId : subtreeIds(id)) {
+            byId.remove(childId);
+        }
+    }
+
+    private Node find(String path) {
+        if (path == null || !path.startsWith("/")) {
+            return null;
+        }
+        Node current = null;
+        for (String segment : path.split("/")) {
+            if (segment.isEmpty()) continue;
+            current = current == null ? roots.get(segment) : current.children.get(segment);
+            if (current == null) {
+                return null;
+            }
+        }
+        return current;
+    }
+
+    private void attach(Node node, Node parent) {
+        node.parent = parent;
+        if (parent != null) {
+            parent.children.put(node.name, node);
+        } else {
+            roots.put(node.name, node);
+        }
+    }
+
+    private void detach(Node node) {
+        if (node.parent != null) {
+            node.parent.children.remove(node.name);
+        } else if (roots.get(node.name) == node) {
+            roots.remove(node.name);
+        }
+        node.parent = null;
+    }
+
+    public static String nameOf(String path) {
+        int lastSlash = path.lastIndexOf('/');
+        return lastSlash >= 0 ? path.substring(lastSlash + 1) : path;
+    }
+
+    public static String parentOf(String path) {
+        int lastSlash = path.lastIndexOf('/');
+        return lastSlash > 0 ? path.substring(0, lastSlash) : null;
+    }
+}
@@ -0,0 +1,12 @@
+package com.ana.db;
+
+/**
+ * La operación superaría la cuota de almacenamiento del usuario
+ */
+public class QuotaExceededException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public QuotaExceededException(String message) {
+        super(message);
+    }
+}
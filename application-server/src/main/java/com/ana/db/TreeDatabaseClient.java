@@ -0,0 +1,567 @@
+package com.ana.db;
+
+import com.ana.model.ChangeEntry;
+import com.ana.model.DirectoryEntry;
+import com.ana.model.FileMetadata;
+import com.ana.model.ReplicaLocation;
+import com.ana.model.ResolvedFile;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Modo árbol: archivos y directorios referencian a su padre por id (directory_id / parent_id)
+ * y las rutas completas se resuelven con DirectoryTreeIndex en memoria.
+ * La columna path de los descendientes deja de ser autoritativa, por lo que renombrar
+ * o mover un directorio actualiza una única fila.
+ *
+ * Requiere haber aplicado db/schema-updates.sql (índice files(directory_id, name) y
+ * relleno de directory_id en archivos antiguos).
+ */
+public class TreeDatabaseClient extends DatabaseClientImpl {
+
+    // Parámetros por fila en los VALUES de resolución: ruta, directorio, nombre
+    private static final int MAX_RESOLVE_PER_QUERY = 600;
+
+    private final DirectoryTreeIndex tree = new DirectoryTreeIndex();
+    // Un movimiento de directorios a la vez por propietario: validar y mover no puede intercalarse
+    private final Map<Integer, Object> moveLocks = new ConcurrentHashMap<>();
+
+    public TreeDatabaseClient() {
+        loadTree();
+    }
+
+    private void loadTree() {
+        String sql = "SELECT id, parent_id, path, owner_id FROM directories";
+        try (Connection conn = getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql);
+                ResultSet rs = stmt.executeQuery()) {
+            int count = 0;
+            while (rs.next()) {
+                int parentId = rs.getInt("parent_id");
+                Integer parent = rs.wasNull() ? null : parentId;
+                // El último segmento de la ruta almacenada siempre es el nombre vigente
+                tree.load(rs.getInt("id"), parent, rs.getInt("owner_id"),
+                        DirectoryTreeIndex.nameOf(rs.getString("path")));
+                count++;
+            }
+            tree.link();
+            System.out.println("🌳 Índice de directorios cargado: " + count + " directorios");
+        } catch (SQLException e) {
+            throw new RuntimeException("Error cargando árbol de directorios", e);
+        }
+    }
+
+    // ========== ARCHIVOS ==========
+
+    @Override
+    public void saveFileMetadataBatch(int ownerId, List<FileMetadata> files) {
+        // Crear de una vez los directorios padre que falten
+        Set<String> missingParents = new LinkedHashSet<>();
+        for (FileMetadata file : files) {
+            String parent = DirectoryTreeIndex.parentOf(file.getPath());
+            if (parent != null && tree.resolve(parent) == null) {
+                missingParents.add(parent);
+            }
+        }
+        if (!missingParents.isEmpty()) {
+            createDirectories(new ArrayList<>(missingParents), ownerId);
+        }
+        for (FileMetadata file : files) {
+            file.setDirectoryId(ensureParentDirectory(file.getPath(), ownerId));
+        }
+        super.saveFileMetadataBatch(ownerId, files);
+    }
+
+    @Override
+    public FileMetadata getFileMetadata(String path) {
+        return findFile(path, null);
+    }
+
+    @Override
+    public FileMetadata getFileMetadata(String path, int ownerId) {
+        return findFile(path, ownerId);
+    }
+
+    @Override
+    public FileMetadata getFileByPath(String path) {
+        return findFile(path, null);
+    }
+
+    @Override
+    public FileMetadata getFileByPathAndOwner(String path, int ownerId) {
+        return findFile(path, ownerId);
+    }
+
+    @Override
+    public boolean isFile(String path, int ownerId) {
+        return findFile(path, ownerId) != null;
+    }
+
+    @Override
+    public Map<String, ResolvedFile> resolveFilesForRead(List<String> paths, int userId) {
+        Map<String, ResolvedFile> resolved = new HashMap<>();
+        List<String> located = new ArrayList<>();
+        List<Integer> directoryIds = new ArrayList<>();
+        for (String path : paths) {
+            Integer directoryId = path != null ? tree.resolve(DirectoryTreeIndex.parentOf(path)) : null;
+            if (directoryId != null) {
+                located.add(path);
+                directoryIds.add(directoryId);
+            }
+        }
+
+        for (int from = 0; from < located.size(); from += MAX_RESOLVE_PER_QUERY) {
+            int to = Math.min(located.size(), from + MAX_RESOLVE_PER_QUERY);
+            String sql = "SELECT req.path, f.id, f.name, f.size_bytes, f.owner_id, f.directory_id, f.blob_id, " +
+                    READ_ACCESS_AND_REPLICAS_COLUMNS +
+                    "FROM (VALUES " + String.join(", ", Collections.nCopies(to - from, "(?, ?, ?)")) + ") " +
+                    "AS req(path, dir_id, name) " +
+                    "INNER JOIN files f ON f.directory_id = req.dir_id AND f.name = req.name " +
+                    "LEFT JOIN file_replicas r ON r.file_id = COALESCE(f.blob_id, f.id) AND r.is_healthy = 1";
+
+            try (Connection conn = getConnection();
+                    PreparedStatement stmt = conn.prepareStatement(sql)) {
+                int param = 1;
+                stmt.setInt(param++, userId);
+                stmt.setInt(param++, userId);
+                for (int i = from; i < to; i++) {
+                    stmt.setString(param++, located.get(i));
+                    stmt.setInt(param++, directoryIds.get(i));
+                    stmt.setString(param++, DirectoryTreeIndex.nameOf(located.get(i)));
+                }
+                try (ResultSet rs = stmt.executeQuery()) {
+                    readResolvedFiles(rs, resolved);
+                }
+            } catch (SQLException e) {
+                throw new RuntimeException("Error resolviendo archivos para lectura", e);
+            }
+        }
+        return resolved;
+    }
+
+    @Override
+    public void moveFile(String oldPath, String newPath, int ownerId) {
+        if (oldPath == null || newPath == null || oldPath.equals(newPath)) {
+            throw new IllegalArgumentException("Rutas inválidas");
+        }
+        if (directoryExists(oldPath, ownerId)) {
+            throw new IllegalArgumentException("La ruta es un directorio, no un archivo");
+        }
+
+        FileMetadata file = findFile(oldPath, ownerId);
+        if (file == null) {
+            throw new IllegalArgumentException("Archivo no encontrado o no tienes permisos");
+        }
+        Integer newDirectoryId = ensureParentDirectory(newPath, ownerId);
+
+        String updateSql = "UPDATE files SET path = ?, name = ?, directory_id = ?, updated_at = GETDATE() " +
+                MOVE_FILE_CHANGE_OUTPUT + "WHERE id = ?";
+        try (Connection conn = getConnection();
+                PreparedStatement stmt = conn.prepareStatement(updateSql)) {
+            stmt.setString(1, newPath);
+            stmt.setString(2, DirectoryTreeIndex.nameOf(newPath));
+            stmt.setObject(3, newDirectoryId);
+            stmt.setInt(4, Integer.parseInt(file.getId()));
+            if (stmt.executeUpdate() == 0) {
+                throw new RuntimeException("No se pudo actualizar el archivo");
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Error moviendo archivo", e);
+        }
+    }
+
+    @Override
+    public List<Integer> getFilesInDirectory(String directoryPath, int ownerId) {
+        return getFileIdsInDirectory(directoryPath, ownerId);
+    }
+
+    @Override
+    public List<Integer> getFileIdsInDirectory(String directoryPath, int ownerId) {
+        List<Integer> fileIds = new ArrayList<>();
+        Integer directoryId = tree.resolve(directoryPath);
+        if (directoryId == null) {
+            return fileIds;
+        }
+
+        List<Integer> directoryIds = tree.subtreeIds(directoryId);
+        try (Connection conn = getConnection()) {
+            for (int from = 0; from < directoryIds.size(); from += MAX_PATHS_PER_QUERY) {
+                List<Integer> chunk = directoryIds.subList(from, Math.min(directoryIds.size(), from + MAX_PATHS_PER_QUERY));
+                String sql = "SELECT id FROM files WHERE owner_id = ? AND directory_id IN (" +
+                        String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")";
+                try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                    stmt.setInt(1, ownerId);
+                    for (int i = 0; i < chunk.size(); i++) {
+                        stmt.setInt(i + 2, chunk.get(i));
+                    }
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            fileIds.add(rs.getInt("id"));
+                        }
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Error obteniendo archivos del directorio", e);
+        }
+        return fileIds;
+    }
+
+    // ========== DIRECTORIOS ==========
+
+    @Override
+    protected Map<String, Integer> findExistingDirectories(Connection conn, List<String> paths, int ownerId) {
+        // Los ancestros existentes se resuelven en memoria, sin consultar la BD
+        Map<String, Integer> existing = new HashMap<>();
+        for (String path : paths) {
+            Integer id = tree.resolve(path);
+            if (id != null) {
+                existing.put(path, id);
+            }
+        }
+        return existing;
+    }
+
+    @Override
+    protected void onDirectoriesCreated(Map<String, Integer> created, int ownerId) {
+        for (Map.Entry<String, Integer> entry : created.entrySet()) {
+            String path = entry.getKey();
+            String parent = DirectoryTreeIndex.parentOf(path);
+            tree.add(entry.getValue(), parent != null ? tree.resolve(parent) : null, ownerId,
+                    DirectoryTreeIndex.nameOf(path));
+        }
+    }
+
+    @Override
+    public boolean directoryExists(String path, int ownerId) {
+        return tree.exists(path, ownerId);
+    }
+
+    @Override
+    public boolean isDirectory(String path, int ownerId) {
+        return tree.exists(path, ownerId);
+    }
+
+    @Override
+    public void moveDirectory(String oldPath, String newPath, int ownerId) {
+        if (oldPath == null || newPath == null || oldPath.equals(newPath)) {
+            throw new IllegalArgumentException("Rutas inválidas");
+        }
+        // Sin el bloqueo, mover A dentro de B y B dentro de A a la vez dejaría un ciclo en el índice
+        synchronized (moveLocks.computeIfAbsent(ownerId, k -> new Object())) {
+            moveDirectoryLocked(oldPath, newPath, ownerId);
+        }
+    }
+
+    private void moveDirectoryLocked(String oldPath, String newPath, int ownerId) {
+        if (!directoryExists(oldPath, ownerId)) {
+            throw new IllegalArgumentException("Directorio origen no encontrado: " + oldPath);
+        }
+        if (directoryExists(newPath, ownerId)) {
+            throw new IllegalArgumentException("El directorio destino ya existe: " + newPath);
+        }
+        if (newPath.startsWith(oldPath + "/")) {
+            throw new IllegalArgumentException("No se puede mover un directorio dentro de sí mismo");
+        }
+
+        int directoryId = tree.resolve(oldPath);
+        Integer newParentId = ensureParentDirectory(newPath, ownerId);
+
+        // Una sola fila: los descendientes siguen colgando del mismo id
+        String sql = "UPDATE directories SET path = ?, parent_id = ? " + MOVE_DIRECTORY_CHANGE_OUTPUT +
+                "WHERE id = ? AND owner_id = ?";
+        try (Connection conn = getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, newPath);
+            stmt.setObject(2, newParentId);
+            stmt.setInt(3, directoryId);
+            stmt.setInt(4, ownerId);
+            stmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new RuntimeException("Error moviendo directorio", e);
+        }
+        tree.move(directoryId, newParentId, DirectoryTreeIndex.nameOf(newPath));
+    }
+
+    /**
+     * Subdirectorios desde el índice en memoria (ordenados por nombre) y archivos con un seek
+     * sobre files(directory_id, name); el cursor guarda el último nombre devuelto
+     */
+    @Override
+    public String listDirectory(String directoryPath, int ownerId, String cursor, int limit,
+            Consumer<DirectoryEntry> consumer) {
+        Integer directoryId = tree.resolve(directoryPath);
+        if (directoryId == null || !tree.exists(directoryPath, ownerId)) {
+            return null;
+        }
+        boolean inFiles = cursor != null && cursor.startsWith(LIST_CURSOR_FILES);
+        String after = cursor != null && cursor.length() > 2 ? cursor.substring(2) : "";
+
+        int emitted = 0;
+        if (!inFiles) {
+            List<String> names = tree.childNamesAfter(directoryId, after, limit + 1);
+            for (String name : names) {
+                if (emitted == limit) {
+                    return LIST_CURSOR_DIRECTORIES + names.get(limit - 1);
+                }
+                consumer.accept(new DirectoryEntry(name, directoryPath + "/" + name, true, null, 0));
+                emitted++;
+            }
+            after = "";
+        }
+
+        String sql = "SELECT TOP (?) id, name, size_bytes FROM files WHERE directory_id = ? AND name > ? ORDER BY name";
+        try (Connection conn = getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, limit - emitted + 1);
+            stmt.setInt(2, directoryId);
+            stmt.setString(3, after);
+            stmt.setFetchSize(LIST_FETCH_SIZE);
+            String last = after;
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    if (emitted == limit) {
+                        return LIST_CURSOR_FILES + last;
+                    }
+                    last = rs.getString("name");
+                    consumer.accept(new DirectoryEntry(last, directoryPath + "/" + last, false,
+                            String.valueOf(rs.getInt("id")), rs.getLong("size_bytes")));
+                    emitted++;
+                }
+            }
+            return null;
+        } catch (SQLException e) {
+            throw new RuntimeException("Error listando directorio", e);
+        }
+    }
+
+    @Override
+    protected Integer directoryIdOf(String path, int ownerId) {
+        return tree.exists(path, ownerId) ? tree.resolve(path) : null;
+    }
+
+    /**
+     * La columna path solo se actualiza en la raíz movida; la ruta vigente sale del árbol
+     */
+    @Override
+    protected String currentDirectoryPath(int directoryId, String storedPath) {
+        return tree.pathOf(directoryId);
+    }
+
+    @Override
+    protected Integer parentDirectoryIdFor(String path, int ownerId) {
+        return ensureParentDirectory(path, ownerId);
+    }
+
+    /**
+     * Copia un subárbol con las rutas del índice: cada lote une files con una tabla
+     * (directorio origen, directorio destino, ruta destino) y duplica las filas en un INSERT ... SELECT
+     */
+    @Override
+    public int copyDirectory(String sourcePath, String targetPath, int ownerId) {
+        Integer sourceId = tree.resolve(sourcePath);
+        if (sourceId == null || !tree.exists(sourcePath, ownerId)) {
+            throw new IllegalArgumentException("Directorio origen no encontrado: " + sourcePath);
+        }
+        List<Integer> sourceIds = tree.subtreeIds(sourceId);
+        List<String> targetPaths = new ArrayList<>();
+        for (Integer id : sourceIds) {
+            targetPaths.add(targetPath + tree.pathOf(id).substring(sourcePath.length()));
+        }
+        Map<String, Integer> created = new LinkedHashMap<>();
+        int copied = 0;
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                // En la misma transacción: si la copia falla no quedan directorios destino vacíos
+                Map<String, Integer> targetIds = insertDirectories(conn, targetPaths, ownerId, created);
+                for (int from = 0; from < sourceIds.size(); from += MAX_RESOLVE_PER_QUERY) {
+                    int to = Math.min(sourceIds.size(), from + MAX_RESOLVE_PER_QUERY);
+                    List<Integer> chunk = sourceIds.subList(from, to);
+                    String predicate = "owner_id = ? AND directory_id IN (" +
+                            String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")";
+                    copied += reserveCopyUsage(conn, ownerId, predicate, stmt -> bindIds(stmt, ownerId, chunk));
+                    retainBlobs(conn, predicate, stmt -> bindIds(stmt, ownerId, chunk));
+
+                    String copySql = "INSERT INTO files (name, path, size_bytes, owner_id, directory_id, blob_id, created_at, updated_at) " +
+                            "SELECT f.name, m.new_path + '/' + f.name, f.size_bytes, f.owner_id, m.new_id, " +
+                            "COALESCE(f.blob_id, f.id), GETDATE(), GETDATE() FROM files f " +
+                            "INNER JOIN (VALUES " + String.join(", ", Collections.nCopies(chunk.size(), "(?, ?, ?)")) + ") " +
+                            "AS m (old_id, new_id, new_path) ON f.directory_id = m.old_id WHERE f.owner_id = ?";
+                    try (PreparedStatement stmt = conn.prepareStatement(copySql)) {
+                        int param = 1;
+                        for (int i = from; i < to; i++) {
+                            String newPath = targetPaths.get(i);
+                            stmt.setInt(param++, sourceIds.get(i));
+                            stmt.setInt(param++, targetIds.get(newPath));
+                            stmt.setString(param++, newPath);
+                        }
+                        stmt.setInt(param, ownerId);
+                        stmt.executeUpdate();
+                    }
+                }
+                logChange(conn, ownerId, ChangeEntry.COPY_DIRECTORY, targetPath, sourcePath, null);
+                conn.commit();
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                if (e instanceof QuotaExceededException) {
+                    throw (QuotaExceededException) e;
+                }
+                throw new RuntimeException("Error copiando directorio", e);
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Error en transacción", e);
+        }
+        // El índice en memoria solo cambia con la transacción confirmada
+        onDirectoriesCreated(created, ownerId);
+        return copied;
+    }
+
+    @Override
+    public void deleteDirectory(String directoryPath, int ownerId) {
+        deleteSubtree(directoryPath, ownerId, false);
+    }
+
+    @Override
+    public List<ReplicaLocation> deleteDirectoryTree(String directoryPath, int ownerId) {
+        return deleteSubtree(directoryPath, ownerId, true);
+    }
+
+    /**
+     * Elimina el subárbol usando los ids del índice en memoria (sin LIKE sobre rutas)
+     */
+    private List<ReplicaLocation> deleteSubtree(String directoryPath, int ownerId, boolean includeFiles) {
+        List<ReplicaLocation> replicas = new ArrayList<>();
+        Integer directoryId = tree.resolve(directoryPath);
+        if (directoryId == null || !tree.exists(directoryPath, ownerId)) {
+            return replicas;
+        }
+
+        // Hijos antes que padres por si parent_id tiene clave foránea
+        List<Integer> directoryIds = new ArrayList<>(tree.subtreeIds(directoryId));
+        Collections.reverse(directoryIds);
+
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                int deletedDirs = 0;
+                for (int from = 0; from < directoryIds.size(); from += MAX_PATHS_PER_QUERY) {
+                    List<Integer> chunk = directoryIds.subList(from, Math.min(directoryIds.size(), from + MAX_PATHS_PER_QUERY));
+                    String idList = String.join(", ", Collections.nCopies(chunk.size(), "?"));
+
+                    if (includeFiles) {
+                        replicas.addAll(releaseBlobs(conn, "owner_id = ? AND directory_id IN (" + idList + ")",
+                                stmt -> bindIds(stmt, ownerId, chunk)));
+                        String deleteFilesSql = "DELETE FROM files OUTPUT DELETED.owner_id, DELETED.size_bytes " +
+                                "WHERE owner_id = ? AND directory_id IN (" + idList + ")";
+                        try (PreparedStatement stmt = prepareForIds(conn, deleteFilesSql, ownerId, chunk);
+                                ResultSet rs = stmt.executeQuery()) {
+                            releaseDeletedFilesUsage(conn, rs);
+                        }
+                    }
+
+                    // Los permisos compartidos caen con sus directorios, en la misma transacción
+                    String deleteSharesSql = "DELETE FROM directory_shares WHERE directory_id IN " +
+                            "(SELECT id FROM directories WHERE owner_id = ? AND id IN (" + idList + "))";
+                    try (PreparedStatement stmt = prepareForIds(conn, deleteSharesSql, ownerId, chunk)) {
+                        stmt.executeUpdate();
+                    }
+                    String deleteDirsSql = "DELETE FROM directories WHERE owner_id = ? AND id IN (" + idList + ")";
+                    try (PreparedStatement stmt = prepareForIds(conn, deleteDirsSql, ownerId, chunk)) {
+                        deletedDirs += stmt.executeUpdate();
+                    }
+                }
+                applyUsageDelta(conn, ownerId, 0, 0, -deletedDirs, false);
+                logChange(conn, ownerId, ChangeEntry.DELETE_DIRECTORY, directoryPath, null, null);
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw new RuntimeException("Error eliminando directorio", e);
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Error en transacción", e);
+        }
+        tree.removeSubtree(directoryId);
+        return replicas;
+    }
+
+    private PreparedStatement prepareForIds(Connection conn, String sql, int ownerId, List<Integer> ids)
+            throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement(sql);
+        bindIds(stmt, ownerId, ids);
+        return stmt;
+    }
+
+    private static void bindIds(PreparedStatement stmt, int ownerId, List<Integer> ids) throws SQLException {
+        stmt.setInt(1, ownerId);
+        for (int i = 0; i < ids.size(); i++) {
+            stmt.setInt(i + 2, ids.get(i));
+        }
+    }
+
+    // ========== MÉTODOS AUXILIARES ==========
+
+    /**
+     * Busca un archivo por (directorio padre, nombre) y le asigna la ruta lógica pedida
+     */
+    private FileMetadata findFile(String path, Integer ownerId) {
+        if (path == null) {
+            return null;
+        }
+        Integer directoryId = tree.resolve(DirectoryTreeIndex.parentOf(path));
+        if (directoryId == null) {
+            return null;
+        }
+
+        String sql = "SELECT id, name, path, size_bytes, owner_id, directory_id, blob_id " +
+                "FROM files WHERE directory_id = ? AND name = ?" + (ownerId != null ? " AND owner_id = ?" : "");
+        try (Connection conn = getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, directoryId);
+            stmt.setString(2, DirectoryTreeIndex.nameOf(path));
+            if (ownerId != null) {
+                stmt.setInt(3, ownerId);
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    FileMetadata meta = mapFileMetadata(rs);
+                    meta.setPath(path);
+                    return meta;
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Error buscando archivo por path", e);
+        }
+        return null;
+    }
+
+    /**
+     * Id del directorio padre de una ruta, creándolo (con sus ancestros) si no existe
+     */
+    private Integer ensureParentDirectory(String path, int ownerId) {
+        String parent = DirectoryTreeIndex.parentOf(path);
+        if (parent == null) {
+            return null;
+        }
+        Integer parentId = tree.resolve(parent);
+        if (parentId == null) {
+            createDirectory(parent, ownerId);
+            parentId = tree.resolve(parent);
+        }
+        return parentId;
+    }
+}
@@ -0,0 +1,48 @@
+package com.ana.metrics;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Proxy de una interfaz que mide cada llamada en una serie por método. Las series se
+ * resuelven al crear el proxy: en cada llamada solo se consulta un HashMap de solo lectura.
+ */
+public final class MeteredProxy {
+
+    private MeteredProxy() {
+    }
+
+    /**
+     * La última etiqueta de la familia recibe el nombre del método; labelValues son las anteriores
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T wrap(Class<T> type, T target, TimerFamily family, String... labelValues) {
+        Map<Method, LatencyHistogram> timers = new HashMap<>();
+        for (Method method : type.getMethods()) {
+            String[] values = Arrays.copyOf(labelValues, labelValues.length + 1);
+            values[labelValues.length] = method.getName();
+            timers.put(method, family.labels(values));
+        }
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) -> {
+            LatencyHistogram timer = timers.get(method);
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                Object result = method.invoke(target, args);
+                failed = false;
+                return result;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            } finally {
+                // equals/hashCode/toString no son de la interfaz: sin serie
+                if (timer != null) {
+                    timer.record(System.nanoTime() - start, failed);
+                }
+            }
+        });
+    }
+}
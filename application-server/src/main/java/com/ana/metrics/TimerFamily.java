@@ -0,0 +1,70 @@
+package com.ana.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Familia de histogramas con las mismas etiquetas. Se publica como name_duration_seconds
+ * (histograma; su _count da el número de llamadas) y name_errors_total (contador).
+ */
+public class TimerFamily {
+
+    private final String name;
+    private final String help;
+    private final String[] labelNames;
+    // Etiquetas ya formateadas -> serie
+    private final Map<String, LatencyHistogram> series = new ConcurrentHashMap<>();
+
+    TimerFamily(String name, String help, String... labelNames) {
+        this.name = name;
+        this.help = help;
+        this.labelNames = labelNames;
+    }
+
+    /**
+     * Serie de estos valores de etiqueta; en las rutas calientes conviene guardarla en vez de buscarla
+     */
+    public LatencyHistogram labels(String... values) {
+        if (values.length != labelNames.length) {
+            throw new IllegalArgumentException("Se esperaban " + labelNames.length + " etiquetas para " + name);
+        }
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                key.append(',');
+            }
+            key.append(labelNames[i]).append("=\"").append(escape(values[i])).append('"');
+        }
+        return series.computeIfAbsent(key.toString(), k -> new LatencyHistogram());
+    }
+
+    void writeTo(StringBuilder out) {
+        // Series sin llamadas todavía (p. ej. métodos registrados por MeteredProxy): no se exportan
+        Map<String, LatencyHistogram> used = new LinkedHashMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : series.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                used.put(entry.getKey(), entry.getValue());
+            }
+        }
+        String histogram = name + "_duration_seconds";
+        out.append("# HELP ").append(histogram).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(histogram).append(" histogram\n");
+        for (Map.Entry<String, LatencyHistogram> entry : used.entrySet()) {
+            entry.getValue().writeHistogram(out, histogram, entry.getKey());
+        }
+        String errors = name + "_errors_total";
+        out.append("# HELP ").append(errors).append(" Errores: ").append(help).append('\n');
+        out.append("# TYPE ").append(errors).append(" counter\n");
+        for (Map.Entry<String, LatencyHistogram> entry : used.entrySet()) {
+            entry.getValue().writeErrors(out, errors, entry.getKey());
+        }
+    }
+
+    private static String escape(String value) {
+        if (value == null) {
+            return "";
+        }
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,24 @@
+package com.ana.model;
+
+/**
+ * Entrada de la cola durable de borrado de blobs
+ */
+public class BlobDeletion {
+    private final long id;
+    private final String fileId;
+    private final String nodeId;
+    private final int attempts;
+
+    public BlobDeletion(long id, String fileId, String nodeId, int attempts) {
+        this.id = id;
+        this.fileId = fileId;
+        this.nodeId = nodeId;
+        this.attempts = attempts;
+    }
+
+    // Getters
+    public long getId() { return id; }
+    public String getFileId() { return fileId; }
+    public String getNodeId() { return nodeId; }
+    public int getAttempts() { return attempts; }
+}
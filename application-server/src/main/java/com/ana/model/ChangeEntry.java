@@ -0,0 +1,45 @@
+package com.ana.model;
+
+import java.io.Serializable;
+
+/**
+ * Entrada del registro de cambios (change_log) de un usuario, en orden de id
+ */
+public class ChangeEntry implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // Operaciones registradas
+    public static final String CREATE_DIRECTORY = "create_directory";
+    public static final String UPLOAD = "upload";
+    public static final String MOVE = "move";
+    public static final String MOVE_DIRECTORY = "move_directory";
+    public static final String DELETE = "delete";
+    public static final String DELETE_DIRECTORY = "delete_directory";
+    public static final String SHARE = "share";
+    public static final String COPY = "copy";
+    public static final String COPY_DIRECTORY = "copy_directory";
+
+    private final long id;
+    private final String op;
+    private final String path;
+    private final String oldPath;
+    private final String fileId;
+    private final long timestamp;
+
+    public ChangeEntry(long id, String op, String path, String oldPath, String fileId, long timestamp) {
+        this.id = id;
+        this.op = op;
+        this.path = path;
+        this.oldPath = oldPath;
+        this.fileId = fileId;
+        this.timestamp = timestamp;
+    }
+
+    // Getters
+    public long getId() { return id; }
+    public String getOp() { return op; }
+    public String getPath() { return path; }
+    public String getOldPath() { return oldPath; }
+    public String getFileId() { return fileId; }
+    public long getTimestamp() { return timestamp; }
+}
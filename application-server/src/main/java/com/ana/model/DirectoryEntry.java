@@ -0,0 +1,31 @@
+package com.ana.model;
+
+import java.io.Serializable;
+
+/**
+ * Hijo directo de un directorio tal como lo devuelve el listado paginado
+ */
+public class DirectoryEntry implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String name;
+    private final String path;
+    private final boolean directory;
+    private final String fileId;
+    private final long sizeBytes;
+
+    public DirectoryEntry(String name, String path, boolean directory, String fileId, long sizeBytes) {
+        this.name = name;
+        this.path = path;
+        this.directory = directory;
+        this.fileId = fileId;
+        this.sizeBytes = sizeBytes;
+    }
+
+    // Getters
+    public String getName() { return name; }
+    public String getPath() { return path; }
+    public boolean isDirectory() { return directory; }
+    public String getFileId() { return fileId; }
+    public long getSizeBytes() { return sizeBytes; }
+}
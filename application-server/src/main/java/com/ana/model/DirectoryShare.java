@@ -0,0 +1,24 @@
+package com.ana.model;
+
+/**
+ * Directorio compartido con un usuario; el permiso se hereda en todo su subárbol
+ */
+public class DirectoryShare {
+    private final int directoryId;
+    private final String path;
+    private final int sharedWithUserId;
+    private final String permissionLevel;
+
+    public DirectoryShare(int directoryId, String path, int sharedWithUserId, String permissionLevel) {
+        this.directoryId = directoryId;
+        this.path = path;
+        this.sharedWithUserId = sharedWithUserId;
+        this.permissionLevel = permissionLevel;
+    }
+
+    // Getters
+    public int getDirectoryId() { return directoryId; }
+    public String getPath() { return path; }
+    public int getSharedWithUserId() { return sharedWithUserId; }
+    public String getPermissionLevel() { return permissionLevel; }
+}
@@ -0,0 +1,22 @@
+package com.ana.model;
+
+/**
+ * Resultado de descargar una ruta: contenido y ETag, o solo la marca de no modificado
+ * cuando el ETag del cliente sigue vigente (data es null también si la descarga falló)
+ */
+public class FileDownload {
+    private final byte[] data;
+    private final String etag;
+    private final boolean notModified;
+
+    public FileDownload(byte[] data, String etag, boolean notModified) {
+        this.data = data;
+        this.etag = etag;
+        this.notModified = notModified;
+    }
+
+    // Getters
+    public byte[] getData() { return data; }
+    public String getEtag() { return etag; }
+    public boolean isNotModified() { return notModified; }
+}
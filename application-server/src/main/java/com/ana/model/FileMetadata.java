@@ -9,6 +9,8 @@ public class FileMetadata implements Serializable {
     private long sizeBytes;
     private int ownerId;
     private Integer directoryId;
+    // Blob compartido con otros archivos (copias); null si el blob es el del propio archivo
+    private Integer blobId;
 
     // Constructors
     public FileMetadata() {}
@@ -38,4 +40,10 @@ public class FileMetadata implements Serializable {
     public void setOwnerId(int ownerId) { this.ownerId = ownerId; }
     public Integer getDirectoryId() { return directoryId; }
     public void setDirectoryId(Integer directoryId) { this.directoryId = directoryId; }
+    public Integer getBlobId() { return blobId; }
+    public void setBlobId(Integer blobId) { this.blobId = blobId; }
+    // Clave con la que los nodos guardan el contenido
+    public String getStorageKey() { return blobId != null ? String.valueOf(blobId) : id; }
+    // Validador HTTP fuerte: un blob nunca cambia de contenido y sus ids no se reutilizan
+    public String getETag() { return "\"" + getStorageKey() + "\""; }
 }
\ No newline at end of file
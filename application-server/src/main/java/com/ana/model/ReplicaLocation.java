@@ -0,0 +1,22 @@
+package com.ana.model;
+
+import java.io.Serializable;
+
+/**
+ * Par (archivo, nodo) de una réplica física
+ */
+public class ReplicaLocation implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String fileId;
+    private final String nodeId;
+
+    public ReplicaLocation(String fileId, String nodeId) {
+        this.fileId = fileId;
+        this.nodeId = nodeId;
+    }
+
+    // Getters
+    public String getFileId() { return fileId; }
+    public String getNodeId() { return nodeId; }
+}
@@ -0,0 +1,23 @@
+package com.ana.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Resultado de resolver una ruta para lectura: metadatos, permiso y réplicas sanas
+ */
+public class ResolvedFile {
+    private final FileMetadata metadata;
+    private final boolean readable;
+    private final List<String> replicaNodeIds = new ArrayList<>();
+
+    public ResolvedFile(FileMetadata metadata, boolean readable) {
+        this.metadata = metadata;
+        this.readable = readable;
+    }
+
+    // Getters
+    public FileMetadata getMetadata() { return metadata; }
+    public boolean isReadable() { return readable; }
+    public List<String> getReplicaNodeIds() { return replicaNodeIds; }
+}
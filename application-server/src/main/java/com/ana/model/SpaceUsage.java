@@ -0,0 +1,21 @@
+package com.ana.model;
+
+/**
+ * Uso de almacenamiento de un usuario, mantenido de forma incremental en user_usage
+ */
+public class SpaceUsage {
+    private long bytesUsed;
+    private long fileCount;
+    private long directoryCount;
+    private Long quotaBytes;
+
+    // Getters and Setters
+    public long getBytesUsed() { return bytesUsed; }
+    public void setBytesUsed(long bytesUsed) { this.bytesUsed = bytesUsed; }
+    public long getFileCount() { return fileCount; }
+    public void setFileCount(long fileCount) { this.fileCount = fileCount; }
+    public long getDirectoryCount() { return directoryCount; }
+    public void setDirectoryCount(long directoryCount) { this.directoryCount = directoryCount; }
+    public Long getQuotaBytes() { return quotaBytes; }
+    public void setQuotaBytes(Long quotaBytes) { this.quotaBytes = quotaBytes; }
+}
@@ -0,0 +1,21 @@
+package com.ana.model;
+
+/**
+ * Blob ya almacenado en los nodos e indexado por el hash de su contenido
+ */
+public class StoredBlob {
+    private int id;
+    private String contentHash;
+    private long sizeBytes;
+
+    public StoredBlob(int id, String contentHash, long sizeBytes) {
+        this.id = id;
+        this.contentHash = contentHash;
+        this.sizeBytes = sizeBytes;
+    }
+
+    // Getters
+    public int getId() { return id; }
+    public String getContentHash() { return contentHash; }
+    public long getSizeBytes() { return sizeBytes; }
+}
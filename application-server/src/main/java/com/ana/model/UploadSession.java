@@ -0,0 +1,64 @@
+package com.ana.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sesión de subida reanudable: los fragmentos se guardan en el área temporal de los nodos
+ * y la BD solo registra qué fragmentos llegaron
+ */
+public class UploadSession {
+    private final String id;
+    private final int ownerId;
+    private final String path;
+    private final long totalSize;
+    private final int chunkSize;
+    private final List<String> nodeIds;
+    private final List<String> failedNodeIds;
+    private List<Integer> receivedChunks = new ArrayList<>();
+    // Una confirmación en curso; al terminar queda el id del archivo para los reintentos
+    private boolean committing;
+    private String committedFileId;
+
+    public UploadSession(String id, int ownerId, String path, long totalSize, int chunkSize,
+            List<String> nodeIds, List<String> failedNodeIds) {
+        this.id = id;
+        this.ownerId = ownerId;
+        this.path = path;
+        this.totalSize = totalSize;
+        this.chunkSize = chunkSize;
+        this.nodeIds = nodeIds;
+        this.failedNodeIds = failedNodeIds;
+    }
+
+    /**
+     * Número de fragmentos; el último puede ser más corto que chunkSize
+     */
+    public int getChunkCount() {
+        return (int) ((totalSize + chunkSize - 1) / chunkSize);
+    }
+
+    /**
+     * Tamaño esperado del fragmento chunkIndex
+     */
+    public int getChunkLength(int chunkIndex) {
+        return (int) Math.min(chunkSize, totalSize - (long) chunkIndex * chunkSize);
+    }
+
+    // Getters
+    public String getId() { return id; }
+    public int getOwnerId() { return ownerId; }
+    public String getPath() { return path; }
+    public long getTotalSize() { return totalSize; }
+    public int getChunkSize() { return chunkSize; }
+    public List<String> getNodeIds() { return nodeIds; }
+    public List<String> getFailedNodeIds() { return failedNodeIds; }
+    public List<Integer> getReceivedChunks() { return receivedChunks; }
+    public boolean isCommitting() { return committing; }
+    public String getCommittedFileId() { return committedFileId; }
+
+    // Setters
+    public void setReceivedChunks(List<Integer> receivedChunks) { this.receivedChunks = receivedChunks; }
+    public void setCommitting(boolean committing) { this.committing = committing; }
+    public void setCommittedFileId(String committedFileId) { this.committedFileId = committedFileId; }
+}
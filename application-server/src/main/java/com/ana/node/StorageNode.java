@@ -32,12 +32,52 @@ public interface StorageNode extends Remote {
      */
     byte[] readFile(String fileId) throws RemoteException;
     
+    /**
+     * Lee un tramo de un archivo, para enviarlo por bloques sin cargarlo entero
+     * @param fileId ID único del archivo
+     * @param offset Posición del primer byte
+     * @param length Bytes a leer como máximo
+     * @return Contenido del tramo; más corto que length al final del archivo
+     */
+    byte[] readFileRange(String fileId, long offset, int length) throws RemoteException;
+    
     /**
      * Elimina un archivo del nodo
      * @param fileId ID único del archivo
      */
     void deleteFile(String fileId) throws RemoteException;
     
+    /**
+     * Elimina varios archivos del nodo en una sola llamada
+     * @param fileIds IDs de los archivos
+     * @return IDs que no se pudieron eliminar
+     */
+    String[] deleteFiles(String[] fileIds) throws RemoteException;
+    
+    /**
+     * Guarda un fragmento de una subida reanudable en el área temporal del nodo
+     * @param uploadId ID de la sesión de subida
+     * @param chunkIndex Número de fragmento (desde 0)
+     * @param data Contenido del fragmento
+     */
+    void storeChunk(String uploadId, int chunkIndex, byte[] data) throws RemoteException;
+    
+    /**
+     * Une los fragmentos 0..chunkCount-1 de la sesión en el archivo fileId y
+     * elimina el área temporal de la sesión
+     * @param uploadId ID de la sesión de subida
+     * @param chunkCount Número total de fragmentos
+     * @param fileId ID único del archivo resultante
+     * @return SHA-256 (hex) del contenido del archivo
+     */
+    String commitChunks(String uploadId, int chunkCount, String fileId) throws RemoteException;
+    
+    /**
+     * Descarta los fragmentos de una sesión; no falla si la sesión no existe
+     * @param uploadId ID de la sesión de subida
+     */
+    void discardChunks(String uploadId) throws RemoteException;
+    
     /**
      * Verifica si un archivo existe en el nodo
      * @param fileId ID único del archivo
@@ -45,6 +85,23 @@ public interface StorageNode extends Remote {
      */
     boolean exists(String fileId) throws RemoteException;
     
+    /**
+     * Resumen compacto del inventario para reconciliación.
+     * Por cada cubeta (fileId % bucketCount) devuelve 3 valores consecutivos:
+     * cantidad de ids, suma de ids y suma de (id * id) % 2147483647
+     * @param bucketCount Número de cubetas
+     * @return Arreglo de 3 * bucketCount valores
+     */
+    long[] getInventoryDigests(int bucketCount) throws RemoteException;
+    
+    /**
+     * Lista los IDs almacenados en una cubeta del inventario
+     * @param bucketCount Número de cubetas
+     * @param bucket Cubeta pedida
+     * @return IDs de archivo de esa cubeta
+     */
+    String[] listFileIds(int bucketCount, int bucket) throws RemoteException;
+    
     /**
      * Obtiene el espacio libre en el nodo
      * @return Espacio libre en bytes
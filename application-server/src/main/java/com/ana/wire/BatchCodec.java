@@ -0,0 +1,208 @@
+package com.ana.wire;
+
+import com.ana.model.FileDownload;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Codificación de los lotes de subida y descarga en JSON o Smile (negociado por Content-Type
+ * y Accept). Smile lleva los bytes de los archivos en binario, sin Base64.
+ * Se lee y escribe con el parser/generador en streaming, sin construir árboles JsonNode.
+ */
+public class BatchCodec {
+
+    public static final String JSON_CONTENT_TYPE = "application/json";
+    public static final String SMILE_CONTENT_TYPE = "application/x-jackson-smile";
+
+    private static final BatchCodec JSON = new BatchCodec(new JsonFactory(), JSON_CONTENT_TYPE);
+    // Binario en crudo: el modo 7 bits por defecto añade ~14% a cada archivo
+    private static final BatchCodec SMILE = new BatchCodec(SmileFactory.builder()
+            .disable(SmileGenerator.Feature.ENCODE_BINARY_AS_7BIT).build(), SMILE_CONTENT_TYPE);
+
+    private final JsonFactory factory;
+    private final String contentType;
+
+    private BatchCodec(JsonFactory factory, String contentType) {
+        this.factory = factory;
+        this.contentType = contentType;
+    }
+
+    /**
+     * Formato del cuerpo de la petición según su Content-Type
+     */
+    public static BatchCodec forContentType(String contentType) {
+        return contentType != null && contentType.startsWith(SMILE_CONTENT_TYPE) ? SMILE : JSON;
+    }
+
+    /**
+     * Formato de la respuesta según Accept; JSON si el cliente no pide Smile
+     */
+    public static BatchCodec forAccept(String accept) {
+        return accept != null && accept.contains(SMILE_CONTENT_TYPE) ? SMILE : JSON;
+    }
+
+    public String getContentType() { return contentType; }
+
+    // ========== SUBIDA ==========
+
+    public static class UploadRequest {
+        public String[] paths = new String[0];
+        public byte[][] data = new byte[0][];
+        public String token;
+    }
+
+    public UploadRequest readUpload(byte[] body) throws IOException {
+        UploadRequest request = new UploadRequest();
+        try (JsonParser parser = factory.createParser(body)) {
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                switch (field) {
+                    case "paths":
+                        request.paths = readStrings(parser);
+                        break;
+                    case "data":
+                        List<byte[]> data = new ArrayList<>();
+                        expect(parser.currentToken(), JsonToken.START_ARRAY);
+                        while (parser.nextToken() != JsonToken.END_ARRAY) {
+                            data.add(parser.getBinaryValue());
+                        }
+                        request.data = data.toArray(new byte[0][]);
+                        break;
+                    case "token":
+                        request.token = parser.getValueAsString();
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+        }
+        return request;
+    }
+
+    public byte[] writeFileIds(String[] fileIds) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator generator = factory.createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("fileIds");
+            for (String fileId : fileIds) {
+                generator.writeString(fileId != null ? fileId : "");
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+        return out.toByteArray();
+    }
+
+    // ========== DESCARGA ==========
+
+    public static class DownloadRequest {
+        public String[] paths = new String[0];
+        public String[] ifNoneMatch;
+        public String token;
+    }
+
+    public DownloadRequest readDownload(byte[] body) throws IOException {
+        DownloadRequest request = new DownloadRequest();
+        try (JsonParser parser = factory.createParser(body)) {
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                switch (field) {
+                    case "paths":
+                        request.paths = readStrings(parser);
+                        break;
+                    case "ifNoneMatch":
+                        request.ifNoneMatch = readStrings(parser);
+                        break;
+                    case "token":
+                        request.token = parser.getValueAsString();
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+        }
+        return request;
+    }
+
+    /**
+     * Mismos campos que la respuesta JSON histórica: data (vacío si no hay contenido), etags, notModified
+     */
+    public byte[] writeDownloads(FileDownload[] files) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator generator = factory.createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("data");
+            for (FileDownload file : files) {
+                generator.writeBinary(file.getData() != null ? file.getData() : new byte[0]);
+            }
+            generator.writeEndArray();
+            generator.writeArrayFieldStart("etags");
+            for (FileDownload file : files) {
+                generator.writeString(file.getEtag() != null ? file.getEtag() : "");
+            }
+            generator.writeEndArray();
+            generator.writeArrayFieldStart("notModified");
+            for (FileDownload file : files) {
+                generator.writeBoolean(file.isNotModified());
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+        return out.toByteArray();
+    }
+
+    // ========== TOKEN ==========
+
+    /**
+     * Campo token del objeto raíz sin decodificar el resto (los valores se saltan); null si no hay
+     */
+    public String readToken(byte[] body) throws IOException {
+        if (body == null || body.length == 0) {
+            return null;
+        }
+        try (JsonParser parser = factory.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                if ("token".equals(field)) {
+                    return parser.getValueAsString();
+                }
+                parser.skipChildren();
+            }
+        }
+        return null;
+    }
+
+    // ========== AUXILIARES ==========
+
+    private static String[] readStrings(JsonParser parser) throws IOException {
+        expect(parser.currentToken(), JsonToken.START_ARRAY);
+        List<String> values = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            values.add(parser.getValueAsString());
+        }
+        return values.toArray(new String[0]);
+    }
+
+    private static void expect(JsonToken actual, JsonToken expected) {
+        if (actual != expected) {
+            throw new IllegalArgumentException("Cuerpo inválido: se esperaba " + expected + " y llegó " + actual);
+        }
+    }
+}
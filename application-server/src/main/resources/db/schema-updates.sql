@@ -0,0 +1,228 @@
+-- Cambios de esquema incrementales sobre PROYECTO_DISTRIBUIDOS.
+-- Cada bloque es idempotente y puede ejecutarse varias veces.
+-- Se ejecuta con sqlcmd o SSMS: GO cierra el lote tras cada columna nueva, porque SQL Server
+-- compila el lote entero antes de ejecutarlo y no vería la columna en los bloques siguientes.
+
+-- ========== MODO ÁRBOL (directory_id / parent_id) ==========
+
+-- Búsqueda de archivos por (directorio padre, nombre)
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'IX_files_directory_name')
+    CREATE INDEX IX_files_directory_name ON files (directory_id, name);
+
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'IX_directories_parent')
+    CREATE INDEX IX_directories_parent ON directories (parent_id);
+
+-- Rellenar directory_id de archivos antiguos a partir de su ruta
+UPDATE f SET f.directory_id = d.id
+FROM files f
+INNER JOIN directories d
+    ON d.owner_id = f.owner_id
+   AND d.path = LEFT(f.path, LEN(f.path) - LEN(f.name) - 1)
+WHERE f.directory_id IS NULL;
+
+-- ========== COLA DURABLE DE BORRADO DE BLOBS ==========
+
+-- Réplicas físicas pendientes de eliminar en los nodos; se insertan en la misma
+-- transacción que borra los metadatos y las consume BlobDeletionQueue con reintentos
+IF OBJECT_ID('blob_deletions', 'U') IS NULL
+    CREATE TABLE blob_deletions (
+        id BIGINT IDENTITY(1,1) PRIMARY KEY,
+        file_id INT NOT NULL,
+        node_id NVARCHAR(100) NOT NULL,
+        enqueued_at DATETIME NOT NULL DEFAULT GETDATE(),
+        attempts INT NOT NULL DEFAULT 0,
+        next_attempt_at DATETIME NOT NULL DEFAULT GETDATE(),
+        last_error NVARCHAR(500) NULL
+    );
+
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'IX_blob_deletions_due')
+    CREATE INDEX IX_blob_deletions_due ON blob_deletions (next_attempt_at, node_id);
+
+-- ========== RECONCILIACIÓN DE INVENTARIO ==========
+
+-- Resúmenes por nodo (GROUP BY file_id % cubetas) sin recorrer la tabla completa
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'IX_file_replicas_node_file')
+    CREATE INDEX IX_file_replicas_node_file ON file_replicas (node_id, file_id);
+
+-- Réplicas registradas cuyo blob falta en el nodo; las repara ReconciliationJob
+IF OBJECT_ID('replica_repairs', 'U') IS NULL
+    CREATE TABLE replica_repairs (
+        id BIGINT IDENTITY(1,1) PRIMARY KEY,
+        file_id INT NOT NULL,
+        node_id NVARCHAR(100) NOT NULL,
+        detected_at DATETIME NOT NULL DEFAULT GETDATE(),
+        attempts INT NOT NULL DEFAULT 0,
+        next_attempt_at DATETIME NOT NULL DEFAULT GETDATE(),
+        last_error NVARCHAR(500) NULL
+    );
+
+-- ========== USO DE ESPACIO Y CUOTAS ==========
+
+-- Contadores por usuario actualizados en la misma transacción que cada escritura;
+-- getSpaceUsage los lee por clave primaria y la subida valida quota_bytes en el mismo UPDATE
+IF OBJECT_ID('user_usage', 'U') IS NULL
+    CREATE TABLE user_usage (
+        user_id INT NOT NULL PRIMARY KEY,
+        bytes_used BIGINT NOT NULL DEFAULT 0,
+        file_count BIGINT NOT NULL DEFAULT 0,
+        directory_count BIGINT NOT NULL DEFAULT 0,
+        quota_bytes BIGINT NULL,
+        updated_at DATETIME NOT NULL DEFAULT GETDATE()
+    );
+
+-- Inicializar los contadores de los usuarios existentes (única pasada con SUM)
+INSERT INTO user_usage (user_id, bytes_used, file_count, directory_count)
+SELECT u.id,
+       ISNULL((SELECT SUM(CAST(f.size_bytes AS BIGINT)) FROM files f WHERE f.owner_id = u.id), 0),
+       (SELECT COUNT_BIG(*) FROM files f WHERE f.owner_id = u.id),
+       (SELECT COUNT_BIG(*) FROM directories d WHERE d.owner_id = u.id)
+FROM users u
+WHERE NOT EXISTS (SELECT 1 FROM user_usage uu WHERE uu.user_id = u.id);
+
+-- ========== LISTADO PAGINADO ==========
+
+-- Directorio padre calculado a partir de la ruta; se mantiene solo con cada UPDATE de path
+IF COL_LENGTH('files', 'parent_path') IS NULL
+    ALTER TABLE files ADD parent_path AS LEFT(path, LEN(path) - CHARINDEX('/', REVERSE(path))) PERSISTED;
+
+IF COL_LENGTH('directories', 'parent_path') IS NULL
+    ALTER TABLE directories ADD parent_path AS LEFT(path, LEN(path) - CHARINDEX('/', REVERSE(path))) PERSISTED;
+GO
+
+-- Seek por cursor (owner_id, parent_path, path > ?) sin OFFSET ni ordenación
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'IX_files_owner_parent_path')
+    CREATE INDEX IX_files_owner_parent_path ON files (owner_id, parent_path, path) INCLUDE (size_bytes);
+
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'IX_directories_owner_parent_path')
+    CREATE INDEX IX_directories_owner_parent_path ON directories (owner_id, parent_path, path);
+
+-- ========== REGISTRO DE CAMBIOS ==========
+
+-- Solo inserciones, escritas en la misma transacción que el cambio de metadatos;
+-- /api/changes devuelve las entradas de un usuario con id > cursor
+IF OBJECT_ID('change_log', 'U') IS NULL
+    CREATE TABLE change_log (
+        id BIGINT IDENTITY(1,1) PRIMARY KEY,
+        user_id INT NOT NULL,
+        op NVARCHAR(32) NOT NULL,
+        path NVARCHAR(1000) NOT NULL,
+        old_path NVARCHAR(1000) NULL,
+        file_id INT NULL,
+        created_at DATETIME NOT NULL DEFAULT GETDATE()
+    );
+
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'IX_change_log_user_id')
+    CREATE INDEX IX_change_log_user_id ON change_log (user_id, id);
+
+-- ========== COPIA EN EL SERVIDOR (BLOBS CON CONTEO DE REFERENCIAS) ==========
+
+-- Las copias apuntan al blob de otro archivo; NULL significa que el blob es el del propio archivo
+IF COL_LENGTH('files', 'blob_id') IS NULL
+    ALTER TABLE files ADD blob_id INT NULL;
+GO
+
+-- Un blob por contenido almacenado (id = clave en los nodos y en file_replicas.file_id);
+-- sus réplicas solo se encolan para borrado cuando ref_count llega a 0
+IF OBJECT_ID('blobs', 'U') IS NULL
+    CREATE TABLE blobs (
+        id INT NOT NULL PRIMARY KEY,
+        ref_count INT NOT NULL,
+        created_at DATETIME NOT NULL DEFAULT GETDATE()
+    );
+
+-- Cada archivo existente es la única referencia a su blob
+INSERT INTO blobs (id, ref_count)
+SELECT f.id, 1 FROM files f
+WHERE f.blob_id IS NULL AND NOT EXISTS (SELECT 1 FROM blobs b WHERE b.id = f.id);
+
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'IX_files_blob_id')
+    CREATE INDEX IX_files_blob_id ON files (blob_id) WHERE blob_id IS NOT NULL;
+
+-- file_replicas.file_id es ahora el id del blob: el archivo original puede borrarse mientras
+-- copias o referencias deduplicadas siguen usando sus réplicas, así que la clave foránea a
+-- files sobra. No se mueve a blobs porque blobs recibe filas con OUTPUT ... INTO y SQL Server
+-- no admite ese destino en una clave foránea; releaseBlobs ya borra réplicas antes que blobs
+IF EXISTS (SELECT 1 FROM sys.foreign_keys
+           WHERE parent_object_id = OBJECT_ID('file_replicas') AND referenced_object_id = OBJECT_ID('files'))
+BEGIN
+    DECLARE @dropReplicaFks NVARCHAR(MAX) = N'';
+    SELECT @dropReplicaFks = @dropReplicaFks + N'ALTER TABLE file_replicas DROP CONSTRAINT ' + QUOTENAME(name) + N'; '
+    FROM sys.foreign_keys
+    WHERE parent_object_id = OBJECT_ID('file_replicas') AND referenced_object_id = OBJECT_ID('files');
+    EXEC sp_executesql @dropReplicaFks;
+END;
+
+-- Réplicas que ya no pertenecen a ningún blob: a la cola de borrado de los nodos
+DELETE r
+OUTPUT DELETED.file_id, DELETED.node_id INTO blob_deletions (file_id, node_id)
+FROM file_replicas r
+WHERE NOT EXISTS (SELECT 1 FROM blobs b WHERE b.id = r.file_id);
+
+-- ========== DEDUPLICACIÓN POR CONTENIDO ==========
+
+-- SHA-256 (hex) y tamaño del contenido; se registran cuando el blob ya tiene réplicas
+IF COL_LENGTH('blobs', 'content_hash') IS NULL
+    ALTER TABLE blobs ADD content_hash CHAR(64) NULL, size_bytes BIGINT NULL;
+GO
+
+-- Índice hash → blob; único para que dos subidas simultáneas no registren el mismo hash
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'UX_blobs_content_hash')
+    CREATE UNIQUE INDEX UX_blobs_content_hash ON blobs (content_hash) WHERE content_hash IS NOT NULL;
+
+-- ========== COMPARTIR DIRECTORIOS (ACL HEREDADA) ==========
+
+-- Una fila por directorio compartido; el permiso se hereda en todo el subárbol,
+-- incluidos los archivos que se añadan después
+IF OBJECT_ID('directory_shares', 'U') IS NULL
+    CREATE TABLE directory_shares (
+        directory_id INT NOT NULL,
+        shared_with_user_id INT NOT NULL,
+        permission_level NVARCHAR(10) NOT NULL,
+        created_at DATETIME NOT NULL DEFAULT GETDATE(),
+        PRIMARY KEY (directory_id, shared_with_user_id)
+    );
+
+-- Permisos de directorios ya borrados; desde ahora se eliminan en la misma transacción que el directorio
+DELETE ds FROM directory_shares ds
+WHERE NOT EXISTS (SELECT 1 FROM directories d WHERE d.id = ds.directory_id);
+
+-- ========== SUBIDAS REANUDABLES ==========
+
+-- Los fragmentos viven en el área temporal de los nodos; aquí solo el estado de cada sesión.
+-- expires_at se renueva con cada fragmento y UploadSessionExpiry descarta las vencidas
+IF OBJECT_ID('upload_sessions', 'U') IS NULL
+    CREATE TABLE upload_sessions (
+        id CHAR(36) NOT NULL PRIMARY KEY,
+        owner_id INT NOT NULL,
+        path NVARCHAR(1000) NOT NULL,
+        total_size BIGINT NOT NULL,
+        chunk_size INT NOT NULL,
+        created_at DATETIME NOT NULL DEFAULT GETDATE(),
+        expires_at DATETIME NOT NULL
+    );
+
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'IX_upload_sessions_expires_at')
+    CREATE INDEX IX_upload_sessions_expires_at ON upload_sessions (expires_at);
+
+-- committing reserva la confirmación para una sola petición; committed_file_id responde a los
+-- reintentos del cliente hasta que la sesión expira
+IF COL_LENGTH('upload_sessions', 'committing') IS NULL
+    ALTER TABLE upload_sessions ADD committing BIT NOT NULL DEFAULT 0, committed_file_id INT NULL;
+GO
+
+-- Nodos que reciben los fragmentos; uno que falla deja de usarse pero se recuerda para limpiarlo
+IF OBJECT_ID('upload_session_nodes', 'U') IS NULL
+    CREATE TABLE upload_session_nodes (
+        upload_id CHAR(36) NOT NULL,
+        node_id NVARCHAR(100) NOT NULL,
+        failed BIT NOT NULL DEFAULT 0,
+        PRIMARY KEY (upload_id, node_id)
+    );
+
+IF OBJECT_ID('upload_session_chunks', 'U') IS NULL
+    CREATE TABLE upload_session_chunks (
+        upload_id CHAR(36) NOT NULL,
+        chunk_index INT NOT NULL,
+        received_at DATETIME NOT NULL DEFAULT GETDATE(),
+        PRIMARY KEY (upload_id, chunk_index)
+    );
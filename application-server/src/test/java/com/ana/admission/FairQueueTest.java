@@ -0,0 +1,108 @@
+package com.ana.admission;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class FairQueueTest {
+
+    @Test
+    void flowsTakeTurns() {
+        FairQueue queue = new FairQueue(100, 100, flow -> 1.0);
+        FlowTask a1 = task("a", 1);
+        FlowTask a2 = task("a", 1);
+        FlowTask a3 = task("a", 1);
+        FlowTask b1 = task("b", 1);
+        queue.offer(a1);
+        queue.offer(a2);
+        queue.offer(a3);
+        queue.offer(b1);
+
+        // b no espera detrás de todo lo que encoló a
+        assertEquals(List.of(a1, b1, a2, a3), drain(queue));
+    }
+
+    @Test
+    void weightScalesTheTurn() {
+        FairQueue queue = new FairQueue(100, 100, flow -> "a".equals(flow) ? 2.0 : 1.0);
+        FlowTask a1 = task("a", 1);
+        FlowTask a2 = task("a", 1);
+        FlowTask a3 = task("a", 1);
+        FlowTask b1 = task("b", 1);
+        FlowTask b2 = task("b", 1);
+        queue.offer(a1);
+        queue.offer(a2);
+        queue.offer(a3);
+        queue.offer(b1);
+        queue.offer(b2);
+
+        assertEquals(List.of(a1, a2, b1, a3, b2), drain(queue));
+    }
+
+    @Test
+    void expensiveTaskWaitsUntilItsDeficitCoversIt() {
+        FairQueue queue = new FairQueue(100, 100, flow -> 1.0);
+        FlowTask big = task("a", 2);
+        FlowTask b1 = task("b", 1);
+        FlowTask b2 = task("b", 1);
+        queue.offer(big);
+        queue.offer(b1);
+        queue.offer(b2);
+
+        assertEquals(List.of(b1, big, b2), drain(queue));
+    }
+
+    @Test
+    void rejectsFlowOverItsShareAndFullQueue() {
+        FairQueue queue = new FairQueue(3, 2, flow -> 1.0);
+        assertTrue(queue.offer(task("a", 1)));
+        assertTrue(queue.offer(task("a", 1)));
+        assertFalse(queue.offer(task("a", 1)));
+        assertTrue(queue.offer(task("b", 1)));
+        assertFalse(queue.offer(task("c", 1)));
+        assertEquals(0, queue.remainingCapacity());
+        assertEquals(2, queue.flowCount());
+    }
+
+    @Test
+    void cancelledTasksAreSkipped() {
+        FairQueue queue = new FairQueue(10, 10, flow -> 1.0);
+        FlowTask cancelled = task("a", 1);
+        FlowTask next = task("a", 1);
+        queue.offer(cancelled);
+        queue.offer(next);
+        cancelled.cancel(false);
+
+        assertSame(next, queue.poll());
+        assertNull(queue.poll());
+        assertEquals(0, queue.flowCount());
+    }
+
+    @Test
+    void removeDropsQueuedTask() {
+        FairQueue queue = new FairQueue(10, 10, flow -> 1.0);
+        FlowTask removed = task("a", 1);
+        FlowTask kept = task("b", 1);
+        queue.offer(removed);
+        queue.offer(kept);
+
+        assertTrue(queue.remove(removed));
+        assertEquals(List.of(kept), drain(queue));
+    }
+
+    private static FlowTask task(String flow, int cost) {
+        return new FlowTask(flow, cost, () -> null);
+    }
+
+    private static List<Runnable> drain(FairQueue queue) {
+        List<Runnable> order = new ArrayList<>();
+        queue.drainTo(order);
+        return order;
+    }
+}
@@ -0,0 +1,49 @@
+package com.ana.admission;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class TokenBucketTest {
+
+    @Test
+    void allowsBurstThenReportsWait() {
+        // Una ficha por segundo: el relleno durante la prueba es despreciable
+        TokenBucket bucket = new TokenBucket(1.0, 3);
+        assertTrue(bucket.isFull());
+        assertEquals(0, bucket.tryConsume(1));
+        assertEquals(0, bucket.tryConsume(2));
+
+        long waitNanos = bucket.tryConsume(1);
+        assertTrue(waitNanos > 0);
+        assertTrue(waitNanos <= TimeUnit.SECONDS.toNanos(1));
+        assertFalse(bucket.isFull());
+    }
+
+    @Test
+    void rejectedRequestConsumesNothing() {
+        TokenBucket bucket = new TokenBucket(1e-6, 2);
+        assertEquals(0, bucket.tryConsume(1));
+        assertTrue(bucket.tryConsume(2) > 0);
+        // La ficha que quedaba sigue ahí
+        assertEquals(0, bucket.tryConsume(1));
+    }
+
+    @Test
+    void costAboveBurstIsChargedAsBurst() {
+        TokenBucket bucket = new TokenBucket(1e-6, 2);
+        assertEquals(0, bucket.tryConsume(5));
+        assertTrue(bucket.tryConsume(1) > 0);
+    }
+
+    @Test
+    void refillsOverTime() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(1000.0, 1);
+        assertEquals(0, bucket.tryConsume(1));
+        Thread.sleep(20);
+        assertEquals(0, bucket.tryConsume(1));
+    }
+}
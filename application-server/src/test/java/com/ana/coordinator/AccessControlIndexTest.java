@@ -0,0 +1,61 @@
+package com.ana.coordinator;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class AccessControlIndexTest {
+
+    private static final int READER = 2;
+    private static final int OTHER = 3;
+
+    @Test
+    void grantCoversTheSubtreeOnly() {
+        AccessControlIndex acl = new AccessControlIndex();
+        acl.grant(READER, "/user1/docs", "read");
+
+        assertTrue(acl.canRead(READER, "/user1/docs"));
+        assertTrue(acl.canRead(READER, "/user1/docs/sub/file.txt"));
+        assertFalse(acl.canRead(READER, "/user1/docsx/file.txt"));
+        assertFalse(acl.canRead(READER, "/user1/file.txt"));
+        assertFalse(acl.canRead(OTHER, "/user1/docs/file.txt"));
+    }
+
+    @Test
+    void grantsFollowMovedDirectory() {
+        AccessControlIndex acl = new AccessControlIndex();
+        acl.grant(READER, "/user1/docs/shared", "write");
+        acl.grant(OTHER, "/user1/docs", "read");
+
+        acl.moveDirectory("/user1/docs", "/user1/archive");
+
+        assertFalse(acl.canRead(READER, "/user1/docs/shared/file.txt"));
+        assertFalse(acl.canRead(OTHER, "/user1/docs/file.txt"));
+        assertTrue(acl.canRead(READER, "/user1/archive/shared/file.txt"));
+        assertTrue(acl.canRead(OTHER, "/user1/archive/file.txt"));
+    }
+
+    @Test
+    void removeDirectoryRevokesDescendantGrants() {
+        AccessControlIndex acl = new AccessControlIndex();
+        acl.grant(READER, "/user1/docs/shared", "read");
+        acl.grant(READER, "/user1/photos", "read");
+
+        acl.removeDirectory("/user1/docs");
+
+        assertFalse(acl.canRead(READER, "/user1/docs/shared/file.txt"));
+        assertTrue(acl.canRead(READER, "/user1/photos/file.jpg"));
+    }
+
+    @Test
+    void revokingNestedGrantKeepsTheOuterOne() {
+        AccessControlIndex acl = new AccessControlIndex();
+        acl.grant(READER, "/user1/docs", "read");
+        acl.grant(READER, "/user1/docs/shared", "read");
+
+        acl.removeDirectory("/user1/docs/shared");
+
+        assertTrue(acl.canRead(READER, "/user1/docs/other.txt"));
+    }
+}
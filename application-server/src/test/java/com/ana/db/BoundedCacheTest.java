@@ -0,0 +1,160 @@
+package com.ana.db;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+import org.junit.jupiter.api.Test;
+
+class BoundedCacheTest {
+
+    @Test
+    void distinguishesMissFromNegativeEntry() {
+        BoundedCache<String> cache = new BoundedCache<>("test", 10);
+        assertNull(cache.get("/a"));
+
+        cache.putIfUnchanged("/a", null, cache.version());
+        Optional<String> cached = cache.get("/a");
+        assertNotNull(cached);
+        assertFalse(cached.isPresent());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    void unrelatedInvalidationsDoNotDropFill() {
+        BoundedCache<String> cache = new BoundedCache<>("test", 100);
+        long version = cache.version();
+        // Escrituras sobre otras claves mientras la lectura estaba en curso
+        for (int i = 0; i < 50; i++) {
+            cache.invalidate("/other/" + i);
+            cache.invalidatePrefix("/dir" + i);
+        }
+
+        cache.putIfUnchanged("/a", "a", version);
+        assertEquals(Optional.of("a"), cache.get("/a"));
+    }
+
+    @Test
+    void invalidatedKeyRejectsStaleFill() {
+        BoundedCache<String> cache = new BoundedCache<>("test", 10);
+        long version = cache.version();
+        cache.invalidate("/a");
+
+        cache.putIfUnchanged("/a", "stale", version);
+        assertNull(cache.get("/a"));
+
+        cache.putIfUnchanged("/a", "fresh", cache.version());
+        assertEquals(Optional.of("fresh"), cache.get("/a"));
+    }
+
+    @Test
+    void invalidatedAncestorRejectsStaleFill() {
+        BoundedCache<String> cache = new BoundedCache<>("test", 10);
+        long version = cache.version();
+        cache.invalidatePrefix("/u/dir");
+
+        cache.putIfUnchanged("/u/dir", "dir", version);
+        cache.putIfUnchanged("/u/dir/sub/file", "file", version);
+        cache.putIfUnchanged("/u/dirx", "sibling", version);
+
+        assertNull(cache.get("/u/dir"));
+        assertNull(cache.get("/u/dir/sub/file"));
+        assertEquals(Optional.of("sibling"), cache.get("/u/dirx"));
+    }
+
+    @Test
+    void invalidatePrefixRemovesOnlyTheSubtree() {
+        BoundedCache<String> cache = new BoundedCache<>("test", 10);
+        long version = cache.version();
+        cache.putIfUnchanged("/u/d", "d", version);
+        cache.putIfUnchanged("/u/d/x", "x", version);
+        cache.putIfUnchanged("/u/d/y/z", "z", version);
+        cache.putIfUnchanged("/u/d/missing", null, version);
+        cache.putIfUnchanged("/u/dd", "dd", version);
+        cache.putIfUnchanged("/u/d-1", "d-1", version);
+
+        List<String> removed = cache.invalidatePrefix("/u/d");
+
+        assertEquals(new HashSet<>(List.of("d", "x", "z")), new HashSet<>(removed));
+        assertNull(cache.get("/u/d/missing"));
+        assertEquals(Optional.of("dd"), cache.get("/u/dd"));
+        assertEquals(Optional.of("d-1"), cache.get("/u/d-1"));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    void invalidateIndexedRemovesEntryAndRejectsStaleFill() {
+        BoundedCache<String> cache = new BoundedCache<>("test", 10, Function.identity());
+        cache.putIfUnchanged("/a", "id1", cache.version());
+        assertEquals("id1", cache.peekIndexed("id1"));
+
+        long version = cache.version();
+        cache.invalidateIndexed("id1");
+
+        assertNull(cache.get("/a"));
+        cache.putIfUnchanged("/a", "id1", version);
+        assertNull(cache.get("/a"));
+        assertNull(cache.peekIndexed("id1"));
+    }
+
+    @Test
+    void indexedValueLivesUnderOneKey() {
+        BoundedCache<String> cache = new BoundedCache<>("test", 10, Function.identity());
+        cache.putIfUnchanged("/old", "id1", cache.version());
+        // El archivo se movió: la ruta anterior queda obsoleta
+        cache.putIfUnchanged("/new", "id1", cache.version());
+
+        assertNull(cache.get("/old"));
+        assertEquals(Optional.of("id1"), cache.get("/new"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() {
+        BoundedCache<String> cache = new BoundedCache<>("test", 2, Function.identity());
+        cache.putIfUnchanged("/a", "a", cache.version());
+        cache.putIfUnchanged("/b", "b", cache.version());
+        cache.get("/a");
+        cache.putIfUnchanged("/c", "c", cache.version());
+
+        assertEquals(2, cache.size());
+        assertNull(cache.get("/b"));
+        assertNull(cache.peekIndexed("b"));
+        assertEquals(Optional.of("a"), cache.get("/a"));
+        assertEquals(Optional.of("c"), cache.get("/c"));
+    }
+
+    @Test
+    void discardedTombstonesRejectOlderFills() {
+        BoundedCache<String> cache = new BoundedCache<>("test", 2);
+        long version = cache.version();
+        cache.invalidate("/a");
+        cache.invalidate("/b");
+        // Descarta la marca de /a: ya no se sabe si la lectura empezada antes está obsoleta
+        cache.invalidate("/c");
+
+        cache.putIfUnchanged("/a", "stale", version);
+        assertNull(cache.get("/a"));
+
+        cache.putIfUnchanged("/a", "fresh", cache.version());
+        assertEquals(Optional.of("fresh"), cache.get("/a"));
+    }
+
+    @Test
+    void clearRejectsFillsStartedBefore() {
+        BoundedCache<String> cache = new BoundedCache<>("test", 10);
+        long version = cache.version();
+        cache.clear();
+
+        cache.putIfUnchanged("/a", "stale", version);
+        assertNull(cache.get("/a"));
+        assertTrue(cache.getHitRatio() < 1.0);
+    }
+}
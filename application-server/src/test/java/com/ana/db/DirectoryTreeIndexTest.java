@@ -0,0 +1,93 @@
+package com.ana.db;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class DirectoryTreeIndexTest {
+
+    private static final int OWNER = 1;
+
+    private DirectoryTreeIndex tree;
+
+    @BeforeEach
+    void setUp() {
+        // /user1/a/b y /user1/c
+        tree = new DirectoryTreeIndex();
+        tree.add(1, null, OWNER, "user1");
+        tree.add(2, 1, OWNER, "a");
+        tree.add(3, 2, OWNER, "b");
+        tree.add(4, 1, OWNER, "c");
+    }
+
+    @Test
+    void resolvesPathsAndOwners() {
+        assertEquals(Integer.valueOf(3), tree.resolve("/user1/a/b"));
+        assertEquals("/user1/a/b", tree.pathOf(3));
+        assertTrue(tree.exists("/user1/a", OWNER));
+        assertFalse(tree.exists("/user1/a", 2));
+        assertNull(tree.resolve("/user1/x"));
+        assertNull(tree.resolve("user1/a"));
+    }
+
+    @Test
+    void loadLinksParentsArrivingAfterChildren() {
+        DirectoryTreeIndex loaded = new DirectoryTreeIndex();
+        loaded.load(3, 2, OWNER, "b");
+        loaded.load(2, 1, OWNER, "a");
+        loaded.load(1, null, OWNER, "user1");
+        loaded.link();
+
+        assertEquals(Integer.valueOf(3), loaded.resolve("/user1/a/b"));
+    }
+
+    @Test
+    void moveCarriesTheSubtree() {
+        tree.move(2, 4, "renamed");
+
+        assertNull(tree.resolve("/user1/a"));
+        assertEquals(Integer.valueOf(3), tree.resolve("/user1/c/renamed/b"));
+        assertEquals("/user1/c/renamed/b", tree.pathOf(3));
+    }
+
+    @Test
+    void moveIntoOwnSubtreeIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> tree.move(2, 3, "a"));
+        assertThrows(IllegalArgumentException.class, () -> tree.move(2, 2, "a"));
+
+        // El árbol queda como estaba
+        assertEquals("/user1/a/b", tree.pathOf(3));
+        assertEquals(Integer.valueOf(2), tree.resolve("/user1/a"));
+    }
+
+    @Test
+    void childNamesArePagedInOrder() {
+        tree.add(5, 1, OWNER, "d");
+        tree.add(6, 1, OWNER, "e");
+
+        assertEquals(List.of("a", "c"), tree.childNamesAfter(1, "", 2));
+        assertEquals(List.of("d", "e"), tree.childNamesAfter(1, "c", 10));
+    }
+
+    @Test
+    void removeSubtreeForgetsDescendants() {
+        tree.removeSubtree(2);
+
+        assertNull(tree.resolve("/user1/a"));
+        assertNull(tree.pathOf(3));
+        assertEquals(List.of(1, 4), tree.subtreeIds(1));
+    }
+
+    @Test
+    void parentAndNameOfPath() {
+        assertEquals("/user1/a", DirectoryTreeIndex.parentOf("/user1/a/b"));
+        assertNull(DirectoryTreeIndex.parentOf("/user1"));
+        assertEquals("b", DirectoryTreeIndex.nameOf("/user1/a/b"));
+    }
+}
@@ -0,0 +1,76 @@
+package com.ana.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class LatencyHistogramTest {
+
+    @Test
+    void emptyUntilFirstRecord() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertTrue(histogram.isEmpty());
+        histogram.record(1, false);
+        assertFalse(histogram.isEmpty());
+    }
+
+    @Test
+    void bucketsAreCumulative() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(0, false);
+        // 20 µs cae en el cubo (18,432 µs, 20,48 µs]
+        histogram.record(20_000, false);
+        histogram.record(TimeUnit.SECONDS.toNanos(100), true);
+
+        String text = write(histogram);
+        assertTrue(text.contains("t_bucket{op=\"x\",le=\"0.000016384\"} 1\n"), text);
+        assertTrue(text.contains("t_bucket{op=\"x\",le=\"0.000018432\"} 1\n"), text);
+        assertTrue(text.contains("t_bucket{op=\"x\",le=\"0.00002048\"} 2\n"), text);
+        assertTrue(text.contains("t_bucket{op=\"x\",le=\"68.719476736\"} 2\n"), text);
+        assertTrue(text.contains("t_bucket{op=\"x\",le=\"+Inf\"} 3\n"), text);
+        assertTrue(text.contains("t_count{op=\"x\"} 3\n"), text);
+        assertTrue(text.contains("t_sum{op=\"x\"} 100.00002\n"), text);
+    }
+
+    @Test
+    void bucketErrorStaysWithinOneEighth() {
+        for (long nanos = 1L << 14; nanos < TimeUnit.SECONDS.toNanos(60); nanos = nanos * 3 / 2 + 7) {
+            LatencyHistogram histogram = new LatencyHistogram();
+            histogram.record(nanos, false);
+            double upper = firstNonEmptyBound(write(histogram));
+            double seconds = nanos / 1e9;
+            assertTrue(upper >= seconds && upper <= seconds * 1.125 + 1e-12, nanos + " ns -> le=" + upper);
+        }
+    }
+
+    @Test
+    void errorsAreCountedSeparately() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000, true);
+        histogram.record(1000, false);
+        StringBuilder out = new StringBuilder();
+        histogram.writeErrors(out, "t_errors_total", "");
+        assertTrue(out.toString().equals("t_errors_total 1\n"), out.toString());
+    }
+
+    private static String write(LatencyHistogram histogram) {
+        StringBuilder out = new StringBuilder();
+        histogram.writeHistogram(out, "t", "op=\"x\"");
+        return out.toString();
+    }
+
+    /**
+     * Límite superior del primer cubo con cuenta
+     */
+    private static double firstNonEmptyBound(String text) {
+        for (String line : text.split("\n")) {
+            if (line.startsWith("t_bucket") && line.endsWith("} 1")) {
+                String le = line.substring(line.indexOf("le=\"") + 4, line.lastIndexOf('"'));
+                return Double.parseDouble(le);
+            }
+        }
+        throw new AssertionError("Sin cubos con cuenta:\n" + text);
+    }
+}
@@ -0,0 +1,116 @@
+package com.ana.wire;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.ana.model.FileDownload;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class BatchCodecTest {
+
+    private static final byte[] BINARY = {0, 1, 2, (byte) 0xff, (byte) 0x80, 127};
+
+    @Test
+    void negotiatesFormat() {
+        assertSame(BatchCodec.forContentType(BatchCodec.SMILE_CONTENT_TYPE),
+                BatchCodec.forAccept("application/json, " + BatchCodec.SMILE_CONTENT_TYPE));
+        assertEquals(BatchCodec.JSON_CONTENT_TYPE, BatchCodec.forContentType(null).getContentType());
+        assertEquals(BatchCodec.JSON_CONTENT_TYPE, BatchCodec.forAccept("*/*").getContentType());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {BatchCodec.JSON_CONTENT_TYPE, BatchCodec.SMILE_CONTENT_TYPE})
+    void readsUploadWrittenByAnyEncoder(String contentType) throws Exception {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("paths", List.of("/user1/a.bin", "/user1/b.txt"));
+        body.put("data", List.of(BINARY, "hola".getBytes(StandardCharsets.UTF_8)));
+        body.put("extra", Map.of("ignored", true));
+        body.put("token", "t0k3n");
+        byte[] encoded = mapperFor(contentType).writeValueAsBytes(body);
+
+        BatchCodec codec = BatchCodec.forContentType(contentType);
+        BatchCodec.UploadRequest request = codec.readUpload(encoded);
+
+        assertArrayEquals(new String[]{"/user1/a.bin", "/user1/b.txt"}, request.paths);
+        assertEquals(2, request.data.length);
+        assertArrayEquals(BINARY, request.data[0]);
+        assertEquals("hola", new String(request.data[1], StandardCharsets.UTF_8));
+        assertEquals("t0k3n", request.token);
+        assertEquals("t0k3n", codec.readToken(encoded));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {BatchCodec.JSON_CONTENT_TYPE, BatchCodec.SMILE_CONTENT_TYPE})
+    void readsDownloadRequest(String contentType) throws Exception {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("token", "t0k3n");
+        body.put("paths", List.of("/user1/a.bin"));
+        body.put("ifNoneMatch", List.of("\"42\""));
+        byte[] encoded = mapperFor(contentType).writeValueAsBytes(body);
+
+        BatchCodec.DownloadRequest request = BatchCodec.forContentType(contentType).readDownload(encoded);
+
+        assertArrayEquals(new String[]{"/user1/a.bin"}, request.paths);
+        assertArrayEquals(new String[]{"\"42\""}, request.ifNoneMatch);
+        assertEquals("t0k3n", request.token);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {BatchCodec.JSON_CONTENT_TYPE, BatchCodec.SMILE_CONTENT_TYPE})
+    void writesDownloadsInTheHistoricalShape(String contentType) throws Exception {
+        FileDownload[] files = {
+                new FileDownload(BINARY, "\"1\"", false),
+                new FileDownload(null, "\"2\"", true),
+                new FileDownload(null, null, false)
+        };
+
+        BatchCodec codec = BatchCodec.forAccept(contentType);
+        JsonNode response = mapperFor(contentType).readTree(codec.writeDownloads(files));
+
+        assertArrayEquals(BINARY, response.get("data").get(0).binaryValue());
+        assertEquals(0, response.get("data").get(1).binaryValue().length);
+        assertEquals(0, response.get("data").get(2).binaryValue().length);
+        assertEquals("\"1\"", response.get("etags").get(0).asText());
+        assertEquals("", response.get("etags").get(2).asText());
+        assertFalse(response.get("notModified").get(0).asBoolean());
+        assertTrue(response.get("notModified").get(1).asBoolean());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {BatchCodec.JSON_CONTENT_TYPE, BatchCodec.SMILE_CONTENT_TYPE})
+    void writesFileIdsWithEmptyForMissing(String contentType) throws Exception {
+        byte[] encoded = BatchCodec.forAccept(contentType).writeFileIds(new String[]{"7", null});
+
+        JsonNode response = mapperFor(contentType).readTree(encoded);
+        assertEquals("7", response.get("fileIds").get(0).asText());
+        assertEquals("", response.get("fileIds").get(1).asText());
+    }
+
+    @Test
+    void rejectsBodyThatIsNotAnObject() throws Exception {
+        BatchCodec codec = BatchCodec.forContentType(BatchCodec.JSON_CONTENT_TYPE);
+        byte[] body = "[1, 2]".getBytes(StandardCharsets.UTF_8);
+
+        assertThrows(IllegalArgumentException.class, () -> codec.readUpload(body));
+        // Para el reparto por usuario basta con no encontrar el token
+        assertNull(codec.readToken(body));
+    }
+
+    private static ObjectMapper mapperFor(String contentType) {
+        return BatchCodec.SMILE_CONTENT_TYPE.equals(contentType) ? new ObjectMapper(new SmileFactory()) : new ObjectMapper();
+    }
+}
@@ -1,26 +1,79 @@
 package com.ana;
 
+import com.ana.metrics.MetricsHttpServer;
+import com.ana.soap.DispatchExecutor;
 import com.ana.soap.FileServiceImpl;
+import com.ana.soap.FileStreamServiceImpl;
+import com.ana.soap.OperationLabelHandler;
+import com.sun.net.httpserver.HttpServer;
 import jakarta.xml.ws.Endpoint;
 
+import java.util.Collections;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
 public class ClientAppServer {
+    
+    private static final long STATS_INTERVAL_SECONDS = 60;
+    
     public static void main(String[] args) {
     try {
-        // Configurar el servidor HTTP para escuchar en todas las interfaces
-        System.setProperty("com.sun.xml.ws.transport.http.client.HttpTransportPipe.dump", "true");
+        // Volcado de mensajes SOAP solo bajo demanda (-Ddfs.soap.dump=true): registra cada cuerpo completo
+        if (Boolean.getBoolean("dfs.soap.dump")) {
+            System.setProperty("com.sun.xml.ws.transport.http.client.HttpTransportPipe.dump", "true");
+            System.setProperty("com.sun.xml.ws.transport.http.HttpAdapter.dump", "true");
+        }
         
         // En algunos entornos, necesitas esto:
         System.setProperty("com.sun.xml.ws.server.http.publish", "true");
         
+        // Pool de trabajadores acotado: -Ddfs.soap.threads, -Ddfs.soap.queue, -Ddfs.soap.virtualThreads
+        boolean virtualThreads = Boolean.getBoolean("dfs.soap.virtualThreads");
+        int threads = Integer.getInteger("dfs.soap.threads",
+                virtualThreads ? 1000 : Runtime.getRuntime().availableProcessors() * 8);
+        int queueCapacity = Integer.getInteger("dfs.soap.queue", 1000);
+        DispatchExecutor executor = new DispatchExecutor(threads, queueCapacity, virtualThreads);
+        
         String url = "http://192.168.1.7:8080/dfs/fileservice";
-        Endpoint.publish(url, new FileServiceImpl());
+        Endpoint endpoint = Endpoint.create(new FileServiceImpl());
+        endpoint.setExecutor(executor);
+        // Etiqueta la latencia de cada petición con su operación (dfs_soap_request)
+        endpoint.getBinding().setHandlerChain(Collections.singletonList(new OperationLabelHandler()));
+        endpoint.publish(url);
+        // Operaciones MTOM con adjuntos binarios en streaming
+        Endpoint streamEndpoint = Endpoint.create(new FileStreamServiceImpl());
+        streamEndpoint.setExecutor(executor);
+        streamEndpoint.getBinding().setHandlerChain(Collections.singletonList(new OperationLabelHandler()));
+        streamEndpoint.publish("http://192.168.1.7:8080/dfs/filestream");
+        
+        ScheduledExecutorService stats = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "soap-stats");
+            thread.setDaemon(true);
+            return thread;
+        });
+        stats.scheduleAtFixedRate(() -> System.out.println("📈 Pool SOAP: " + executor.stats()),
+                STATS_INTERVAL_SECONDS, STATS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        
+        // Métricas en formato Prometheus: peticiones SOAP, llamadas al Application Server y JVM
+        int metricsPort = Integer.getInteger("dfs.metrics.port", 9464);
+        HttpServer metricsServer = MetricsHttpServer.start(metricsPort);
         
         System.out.println("✅ DFS Client Backend SOAP listo en: http://192.168.1.7:8080/dfs/fileservice");
+        System.out.println("✅ Transferencia MTOM lista en: http://192.168.1.7:8080/dfs/filestream");
+        System.out.println("🧵 Pool SOAP: " + threads + (virtualThreads ? " hilos virtuales" : " hilos")
+                + ", cola de " + queueCapacity);
+        System.out.println("📊 Métricas en http://localhost:" + metricsPort + "/metrics");
         System.out.println("⏹️  Presiona Enter para detener...");
         System.in.read();
         
+        endpoint.stop();
+        streamEndpoint.stop();
+        metricsServer.stop(0);
+        executor.shutdown();
+        
     } catch (Exception e) {
         e.printStackTrace();
     }
 }
-}
\ No newline at end of file
+}
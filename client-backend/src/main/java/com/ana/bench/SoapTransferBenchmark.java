@@ -0,0 +1,202 @@
+package com.ana.bench;
+
+import com.ana.soap.FileServiceSOAP;
+import com.ana.soap.FileStreamServiceSOAP;
+import jakarta.activation.DataHandler;
+import jakarta.activation.DataSource;
+import jakarta.xml.ws.Service;
+import jakarta.xml.ws.soap.MTOMFeature;
+
+import javax.xml.namespace.QName;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.Random;
+
+/**
+ * Compara la subida y descarga por SOAP RPC (byte[] en Base64 dentro del XML y luego en JSON)
+ * con las operaciones MTOM en streaming, para varios tamaños de archivo.
+ * Informa del tiempo, el throughput y el pico de heap usado por este proceso durante cada operación.
+ *
+ * Uso: mvn exec:java -Dexec.mainClass=com.ana.bench.SoapTransferBenchmark
+ *      -Dexec.args="<urlBase> <userId> <email> <password>"   (urlBase p. ej. http://192.168.1.7:8080/dfs)
+ */
+public class SoapTransferBenchmark {
+
+    private static final String NAMESPACE = "http://soap.ana.com/";
+    private static final int[] SIZES_MB = {1, 16, 64};
+    private static final int REPETITIONS = 3;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4) {
+            System.out.println("Uso: SoapTransferBenchmark <urlBase> <userId> <email> <password>");
+            return;
+        }
+        String baseUrl = args[0];
+        int userId = Integer.parseInt(args[1]);
+
+        FileServiceSOAP rpc = Service.create(new URL(baseUrl + "/fileservice?wsdl"),
+                new QName(NAMESPACE, "FileServiceImplService")).getPort(FileServiceSOAP.class);
+        FileStreamServiceSOAP mtom = Service.create(new URL(baseUrl + "/filestream?wsdl"),
+                new QName(NAMESPACE, "FileStreamServiceImplService")).getPort(FileStreamServiceSOAP.class, new MTOMFeature());
+        String token = rpc.loginUser(args[2], args[3]);
+
+        String root = "/user" + userId + "/bench-soap-" + System.currentTimeMillis();
+        rpc.createDirectories(new String[]{root}, token);
+
+        for (int sizeMb : SIZES_MB) {
+            long size = sizeMb * 1024L * 1024L;
+            for (int r = 0; r < REPETITIONS; r++) {
+                // Contenido distinto en cada subida para que la deduplicación no evite la escritura
+                long seed = System.nanoTime();
+                String rpcPath = root + "/rpc-" + sizeMb + "-" + r;
+                String mtomPath = root + "/mtom-" + sizeMb + "-" + r;
+
+                HeapSampler sampler = HeapSampler.start();
+                long start = System.nanoTime();
+                rpc.uploadFiles(new String[]{rpcPath}, new byte[][]{generate(size, seed)}, token);
+                report("RPC  subida  ", size, System.nanoTime() - start, sampler.stop());
+
+                sampler = HeapSampler.start();
+                start = System.nanoTime();
+                mtom.uploadFile(mtomPath, new DataHandler(new GeneratedDataSource(size, seed + 1)), token);
+                report("MTOM subida  ", size, System.nanoTime() - start, sampler.stop());
+
+                sampler = HeapSampler.start();
+                start = System.nanoTime();
+                byte[][] downloaded = rpc.downloadFiles(new String[]{rpcPath}, token);
+                report("RPC  descarga", downloaded[0].length, System.nanoTime() - start, sampler.stop());
+
+                sampler = HeapSampler.start();
+                start = System.nanoTime();
+                long read = drain(mtom.downloadFile(mtomPath, token));
+                report("MTOM descarga", read, System.nanoTime() - start, sampler.stop());
+            }
+        }
+        rpc.deleteFiles(new String[]{root}, token);
+    }
+
+    private static void report(String label, long bytes, long nanos, long peakHeapBytes) {
+        double seconds = nanos / 1_000_000_000.0;
+        System.out.printf("📊 %s %6.1f MB: %8.2f ms, %7.1f MB/s, pico de heap %7.1f MB%n", label,
+                bytes / 1048576.0, nanos / 1_000_000.0, bytes / 1048576.0 / seconds, peakHeapBytes / 1048576.0);
+    }
+
+    private static byte[] generate(long size, long seed) {
+        byte[] data = new byte[(int) size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static long drain(DataHandler handler) throws Exception {
+        long total = 0;
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = handler.getInputStream()) {
+            for (int n; (n = in.read(buffer)) > 0; ) {
+                total += n;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Contenido pseudoaleatorio generado al vuelo: la subida MTOM nunca lo tiene entero en memoria
+     */
+    private static class GeneratedDataSource implements DataSource {
+        private final long size;
+        private final long seed;
+
+        GeneratedDataSource(long size, long seed) {
+            this.size = size;
+            this.seed = seed;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            Random random = new Random(seed);
+            return new InputStream() {
+                private long remaining = size;
+
+                @Override
+                public int read() {
+                    if (remaining <= 0) {
+                        return -1;
+                    }
+                    remaining--;
+                    return random.nextInt(256);
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    if (remaining <= 0) {
+                        return -1;
+                    }
+                    int n = (int) Math.min(len, remaining);
+                    byte[] chunk = new byte[n];
+                    random.nextBytes(chunk);
+                    System.arraycopy(chunk, 0, b, off, n);
+                    remaining -= n;
+                    return n;
+                }
+            };
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            throw new UnsupportedOperationException("Solo lectura");
+        }
+
+        @Override
+        public String getContentType() {
+            return "application/octet-stream";
+        }
+
+        @Override
+        public String getName() {
+            return "bench";
+        }
+    }
+
+    /**
+     * Muestrea el heap usado cada pocos milisegundos y devuelve el pico sobre el valor inicial
+     */
+    private static class HeapSampler {
+        private final Thread thread;
+        private final long baseline;
+        private volatile long peak;
+        private volatile boolean running = true;
+
+        private HeapSampler() {
+            System.gc();
+            baseline = usedHeap();
+            thread = new Thread(() -> {
+                while (running) {
+                    peak = Math.max(peak, usedHeap());
+                    try {
+                        Thread.sleep(5);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }, "heap-sampler");
+            thread.setDaemon(true);
+        }
+
+        static HeapSampler start() {
+            HeapSampler sampler = new HeapSampler();
+            sampler.thread.start();
+            return sampler;
+        }
+
+        long stop() throws InterruptedException {
+            running = false;
+            thread.join();
+            return Math.max(0, Math.max(peak, usedHeap()) - baseline);
+        }
+
+        private static long usedHeap() {
+            Runtime runtime = Runtime.getRuntime();
+            return runtime.totalMemory() - runtime.freeMemory();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.ana.bench;
+
+import com.ana.http.BatchCodec;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+
+/**
+ * Compara JSON (bytes en Base64) con Smile (bytes en binario) para los lotes de subida y
+ * descarga: tamaño del cuerpo y tiempo de CPU de codificar la subida y decodificar la
+ * respuesta de descarga, con una mezcla de archivos pequeños, medianos y grandes.
+ * No necesita servidores: usa el mismo BatchCodec que ApplicationServerClient.
+ *
+ * Uso: mvn exec:java -Dexec.mainClass=com.ana.bench.WireFormatBenchmark -Dexec.args="[archivos] [iteraciones]"
+ */
+public class WireFormatBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 5;
+
+    public static void main(String[] args) throws IOException {
+        int fileCount = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        // Mezcla: 70% de 1-16 KB, 25% de 64 KB-1 MB y 5% de 4 MB
+        Random random = new Random(42);
+        String[] paths = new String[fileCount];
+        byte[][] data = new byte[fileCount][];
+        long totalBytes = 0;
+        for (int i = 0; i < fileCount; i++) {
+            double kind = random.nextDouble();
+            int size = kind < 0.70 ? 1024 + random.nextInt(15 * 1024)
+                    : kind < 0.95 ? 64 * 1024 + random.nextInt(960 * 1024)
+                    : 4 * 1024 * 1024;
+            paths[i] = "/user1/bench/wire/f" + i;
+            data[i] = new byte[size];
+            random.nextBytes(data[i]);
+            totalBytes += size;
+        }
+        System.out.printf("📦 Lote de %d archivos, %.1f MB de contenido%n", fileCount, totalBytes / 1048576.0);
+
+        run("JSON ", new BatchCodec(false), new JsonFactory(), BatchCodec.JSON_CONTENT_TYPE, paths, data, iterations);
+        run("Smile", new BatchCodec(true),
+                SmileFactory.builder().disable(SmileGenerator.Feature.ENCODE_BINARY_AS_7BIT).build(), BatchCodec.SMILE_CONTENT_TYPE, paths, data, iterations);
+    }
+
+    private static void run(String label, BatchCodec codec, JsonFactory factory, String contentType,
+            String[] paths, byte[][] data, int iterations) throws IOException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        byte[] response = encodeDownloadResponse(factory, data);
+
+        long uploadSize = 0;
+        long encodeNanos = 0;
+        long decodeNanos = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS + iterations; i++) {
+            long start = threads.getCurrentThreadCpuTime();
+            uploadSize = codec.encodeUpload(paths, data, "token").length;
+            long encoded = threads.getCurrentThreadCpuTime();
+            codec.decodeDownloads(response, contentType);
+            long decoded = threads.getCurrentThreadCpuTime();
+            if (i >= WARMUP_ITERATIONS) {
+                encodeNanos += encoded - start;
+                decodeNanos += decoded - encoded;
+            }
+        }
+
+        System.out.printf("📊 %s subida %8.1f MB (CPU %7.2f ms) | descarga %8.1f MB (CPU %7.2f ms)%n", label,
+                uploadSize / 1048576.0, encodeNanos / 1_000_000.0 / iterations,
+                response.length / 1048576.0, decodeNanos / 1_000_000.0 / iterations);
+    }
+
+    /**
+     * Misma estructura que escribe el Application Server en /api/downloadFiles
+     */
+    private static byte[] encodeDownloadResponse(JsonFactory factory, byte[][] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator generator = factory.createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("data");
+            for (byte[] file : data) {
+                generator.writeBinary(file);
+            }
+            generator.writeEndArray();
+            generator.writeArrayFieldStart("etags");
+            for (int i = 0; i < data.length; i++) {
+                generator.writeString("\"" + i + "\"");
+            }
+            generator.writeEndArray();
+            generator.writeArrayFieldStart("notModified");
+            for (int i = 0; i < data.length; i++) {
+                generator.writeBoolean(false);
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+        return out.toByteArray();
+    }
+}
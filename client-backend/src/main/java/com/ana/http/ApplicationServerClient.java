@@ -6,33 +6,68 @@ import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
+import java.net.URLEncoder;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
-import java.util.Base64;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 public class ApplicationServerClient {
     
+    private static final long VALIDATOR_CACHE_BYTES = 256L * 1024 * 1024;
+    // Partes de las operaciones asíncronas por lotes
+    private static final int MAX_FILES_PER_PART = 64;
+    private static final long MAX_BYTES_PER_PART = 16L * 1024 * 1024;
+    private static final int DEFAULT_CONCURRENT_REQUESTS = 4;
+    private static final int MAX_PART_RETRIES = 2;
+    // Reintentos por fragmento de las subidas reanudables
+    private static final int MAX_CHUNK_RETRIES = 5;
+    private static final long CHUNK_RETRY_BACKOFF_MS = 500;
+    
     private final String baseUrl;
     private final HttpClient httpClient;
     private final ObjectMapper objectMapper;
+    // Contenido descargado y su ETag, para descargas condicionales
+    private final ValidatorCache validatorCache = new ValidatorCache(VALIDATOR_CACHE_BYTES);
+    private volatile int maxConcurrentRequests = DEFAULT_CONCURRENT_REQUESTS;
+    // Formato de los lotes de archivos: Smile salvo -Ddfs.wire=json (servidores antiguos)
+    private final BatchCodec batchCodec = new BatchCodec(!"json".equals(System.getProperty("dfs.wire")));
     
     public ApplicationServerClient() {
         // Por defecto, usa localhost:8081
         this.baseUrl = "http://192.168.1.73:8081";
-        this.httpClient = HttpClient.newBuilder()
+        this.httpClient = new MeteredHttpClient(HttpClient.newBuilder()
                 .connectTimeout(Duration.ofSeconds(30))
-                .build();
+                .build());
         this.objectMapper = new ObjectMapper();
     }
     
     public ApplicationServerClient(String baseUrl) {
         this.baseUrl = baseUrl;
-        this.httpClient = HttpClient.newBuilder()
+        this.httpClient = new MeteredHttpClient(HttpClient.newBuilder()
                 .connectTimeout(Duration.ofSeconds(30))
-                .build();
+                .build());
         this.objectMapper = new ObjectMapper();
     }
     
@@ -84,19 +119,33 @@ public class ApplicationServerClient {
     
     public String[] uploadFiles(String[] paths, byte[][] data, String token) 
             throws IOException, InterruptedException {
+        HttpResponse<byte[]> response = sendBatch("/api/uploadFiles", batchCodec.encodeUpload(paths, data, token));
+        return parseFileIds(response);
+    }
+    
+    private String[] parseFileIds(HttpResponse<byte[]> response) throws IOException {
+        return batchCodec.decodeFileIds(response.body(), response.headers().firstValue("Content-Type").orElse(null));
+    }
+    
+    /**
+     * Crea en el servidor los archivos cuyo contenido (SHA-256 en hex) ya está almacenado.
+     * Devuelve el id de cada archivo creado, o cadena vacía si hay que subir sus bytes.
+     */
+    public String[] precheckUpload(String[] paths, String[] hashes, String token) 
+            throws IOException, InterruptedException {
         ObjectNode json = objectMapper.createObjectNode();
         ArrayNode pathsArray = json.putArray("paths");
-        ArrayNode dataArray = json.putArray("data");
+        ArrayNode hashesArray = json.putArray("hashes");
         
         for (String path : paths) {
             pathsArray.add(path);
         }
-        for (byte[] fileData : data) {
-            dataArray.add(Base64.getEncoder().encodeToString(fileData));
+        for (String hash : hashes) {
+            hashesArray.add(hash);
         }
         json.put("token", token);
         
-        HttpResponse<String> response = sendPost("/api/uploadFiles", json.toString());
+        HttpResponse<String> response = sendPost("/api/precheckUpload", json.toString());
         validateResponse(response);
         
         JsonNode responseBody = objectMapper.readTree(response.body());
@@ -108,32 +157,556 @@ public class ApplicationServerClient {
         return fileIds;
     }
     
+    /**
+     * Subida en dos pasos: primero los hashes y después solo el contenido que el servidor no tiene
+     */
+    public String[] uploadFilesDeduplicated(String[] paths, byte[][] data, String token) 
+            throws IOException, InterruptedException {
+        String[] hashes = new String[data.length];
+        for (int i = 0; i < data.length; i++) {
+            hashes[i] = sha256Hex(data[i]);
+        }
+        String[] fileIds = precheckUpload(paths, hashes, token);
+        
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < fileIds.length; i++) {
+            if (fileIds[i].isEmpty()) {
+                missing.add(i);
+            }
+        }
+        if (missing.isEmpty()) {
+            return fileIds;
+        }
+        
+        String[] missingPaths = new String[missing.size()];
+        byte[][] missingData = new byte[missing.size()][];
+        for (int m = 0; m < missing.size(); m++) {
+            missingPaths[m] = paths[missing.get(m)];
+            missingData[m] = data[missing.get(m)];
+        }
+        String[] uploadedIds = uploadFiles(missingPaths, missingData, token);
+        for (int m = 0; m < missing.size(); m++) {
+            fileIds[missing.get(m)] = uploadedIds[m];
+        }
+        return fileIds;
+    }
+    
+    private static String sha256Hex(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte value : digest) {
+                hex.append(Character.forDigit((value >> 4) & 0xF, 16)).append(Character.forDigit(value & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        }
+    }
+    
     // ========== DESCARGA DE ARCHIVOS ==========
     
     public byte[][] downloadFiles(String[] paths, String token) 
             throws IOException, InterruptedException {
+        // Se guarda la entrada de la caché por si se desaloja mientras llega la respuesta
+        ValidatorCache.Entry[] known = knownEntries(paths);
+        HttpResponse<byte[]> response = sendBatch("/api/downloadFiles", downloadBody(paths, known, token));
+        return parseDownloads(paths, known, response);
+    }
+    
+    private ValidatorCache.Entry[] knownEntries(String[] paths) {
+        ValidatorCache.Entry[] known = new ValidatorCache.Entry[paths.length];
+        for (int i = 0; i < paths.length; i++) {
+            known[i] = validatorCache.get(paths[i]);
+        }
+        return known;
+    }
+    
+    /**
+     * Cuerpo de /api/downloadFiles con el ETag de lo que ya tenemos
+     */
+    private byte[] downloadBody(String[] paths, ValidatorCache.Entry[] known, String token) throws IOException {
+        String[] ifNoneMatch = new String[paths.length];
+        for (int i = 0; i < paths.length; i++) {
+            ifNoneMatch[i] = known[i] != null ? known[i].etag : "";
+        }
+        return batchCodec.encodeDownload(paths, ifNoneMatch, token);
+    }
+    
+    private byte[][] parseDownloads(String[] paths, ValidatorCache.Entry[] known, HttpResponse<byte[]> response)
+            throws IOException {
+        BatchCodec.DownloadResponse decoded = batchCodec.decodeDownloads(response.body(),
+                response.headers().firstValue("Content-Type").orElse(null));
+        byte[][] files = new byte[decoded.data.length][];
+        for (int i = 0; i < decoded.data.length; i++) {
+            boolean notModified = decoded.notModified != null && decoded.notModified[i];
+            if (notModified && known[i] != null) {
+                files[i] = known[i].data;
+                continue;
+            }
+            
+            files[i] = decoded.data[i];
+            String etag = decoded.etags != null ? decoded.etags[i] : "";
+            if (etag.isEmpty()) {
+                // Descarga fallida o sin acceso: no volver a ofrecer el validador antiguo
+                validatorCache.remove(paths[i]);
+            } else {
+                validatorCache.put(paths[i], etag, files[i]);
+            }
+        }
+        return files;
+    }
+    
+    // ========== TRANSFERENCIA BINARIA ==========
+    
+    /**
+     * Sube un archivo enviando el flujo tal cual (transferencia por bloques): sin Base64 ni
+     * copias completas del contenido en este proceso
+     */
+    public String uploadFileStream(String path, InputStream data, String token) 
+            throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/api/files/upload?path=" + URLEncoder.encode(path, StandardCharsets.UTF_8)))
+                .header("Authorization", "Bearer " + token)
+                .header("Content-Type", "application/octet-stream")
+                .POST(HttpRequest.BodyPublishers.ofInputStream(() -> data))
+                .build();
+        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        validateResponse(response);
+        
+        return objectMapper.readTree(response.body()).get("fileId").asText();
+    }
+    
+    /**
+     * Descarga un archivo como flujo sin cargarlo entero en memoria; quien lo recibe debe cerrarlo
+     */
+    public InputStream downloadFileStream(String path, String token) 
+            throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/api/files/download?path=" + URLEncoder.encode(path, StandardCharsets.UTF_8)))
+                .header("Authorization", "Bearer " + token)
+                .GET()
+                .build();
+        HttpResponse<InputStream> response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        if (response.statusCode() >= 400) {
+            String body;
+            try (InputStream error = response.body()) {
+                body = new String(error.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            checkStatus(response.statusCode(), body);
+        }
+        return response.body();
+    }
+    
+    /**
+     * Descarga un directorio completo como ZIP generado en streaming; quien lo recibe debe cerrarlo
+     */
+    public InputStream downloadDirectoryZip(String path, boolean compress, String token) 
+            throws IOException, InterruptedException {
+        HttpRequest request = authorizedRequest("/api/files/zip?path=" + URLEncoder.encode(path, StandardCharsets.UTF_8)
+                + "&compress=" + compress, token).GET().build();
+        HttpResponse<InputStream> response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        if (response.statusCode() >= 400) {
+            String body;
+            try (InputStream error = response.body()) {
+                body = new String(error.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            checkStatus(response.statusCode(), body);
+        }
+        return response.body();
+    }
+    
+    // ========== LOTES ASÍNCRONOS POR PARTES ==========
+    
+    /**
+     * Peticiones en vuelo como máximo por cada operación asíncrona
+     */
+    public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+        this.maxConcurrentRequests = Math.max(1, maxConcurrentRequests);
+    }
+    
+    /**
+     * Sube el lote en partes acotadas por número de archivos y bytes, con varias en vuelo a la vez.
+     * Los archivos que el servidor confirmó como no almacenados ("") o que rechazó sin procesar
+     * (429) se reintentan uno a uno en rondas posteriores. Una parte que falla por red, tiempo de
+     * espera o error 5xx deja sus entradas en null y no se reenvía: podría haberse aplicado.
+     * Un error 4xx (token, cuota) falla la operación completa.
+     */
+    public CompletableFuture<String[]> uploadFilesAsync(String[] paths, byte[][] data, String token) {
+        List<int[]> ranges = new ArrayList<>();
+        int from = 0;
+        long bytes = 0;
+        for (int i = 0; i < paths.length; i++) {
+            if (i > from && (i - from >= MAX_FILES_PER_PART || bytes + data[i].length > MAX_BYTES_PER_PART)) {
+                ranges.add(new int[]{from, i});
+                from = i;
+                bytes = 0;
+            }
+            bytes += data[i].length;
+        }
+        if (from < paths.length) {
+            ranges.add(new int[]{from, paths.length});
+        }
+        return uploadRound(paths, data, token, ranges, new String[paths.length], MAX_PART_RETRIES);
+    }
+    
+    /**
+     * Una ronda de partes con runParts; las entradas que quedan por reintentar forman la siguiente
+     * ronda, así los reintentos comparten el mismo límite de concurrencia
+     */
+    private CompletableFuture<String[]> uploadRound(String[] paths, byte[][] data, String token,
+            List<int[]> ranges, String[] fileIds, int retries) {
+        List<Supplier<CompletableFuture<String[]>>> parts = new ArrayList<>();
+        for (int[] range : ranges) {
+            String[] partPaths = Arrays.copyOfRange(paths, range[0], range[1]);
+            byte[][] partData = Arrays.copyOfRange(data, range[0], range[1]);
+            parts.add(() -> uploadPart(partPaths, partData, token));
+        }
+        return runParts(parts).thenCompose(results -> {
+            List<int[]> retried = new ArrayList<>();
+            for (int p = 0; p < ranges.size(); p++) {
+                String[] part = results.get(p);
+                for (int i = 0; i < part.length; i++) {
+                    int index = ranges.get(p)[0] + i;
+                    fileIds[index] = part[i];
+                    if (retries > 0 && part[i] != null && part[i].isEmpty()) {
+                        retried.add(new int[]{index, index + 1});
+                    }
+                }
+            }
+            if (retried.isEmpty()) {
+                return CompletableFuture.completedFuture(fileIds);
+            }
+            return uploadRound(paths, data, token, retried, fileIds, retries - 1);
+        });
+    }
+    
+    /**
+     * Ids de la parte; "" si el servidor no la almacenó (incluido 429) y null si no se sabe
+     */
+    private CompletableFuture<String[]> uploadPart(String[] paths, byte[][] data, String token) {
+        return sendBatchAsync("/api/uploadFiles", () -> batchCodec.encodeUpload(paths, data, token))
+                .thenApply(response -> {
+                    try {
+                        return parseFileIds(response);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                })
+                .handle((fileIds, error) -> {
+                    if (error == null) {
+                        return CompletableFuture.completedFuture(fileIds);
+                    }
+                    if (!isRetryable(error)) {
+                        return CompletableFuture.<String[]>failedFuture(unwrap(error));
+                    }
+                    System.err.println("⚠️ Parte de subida fallida (" + paths.length + " archivos): " + unwrap(error).getMessage());
+                    String[] unknown = new String[paths.length];
+                    if (isRejected(error)) {
+                        Arrays.fill(unknown, ""); // 429: la admisión la rechazó antes de procesarla
+                    }
+                    return CompletableFuture.completedFuture(unknown);
+                })
+                .thenCompose(future -> future);
+    }
+    
+    /**
+     * Descarga el lote en partes de MAX_FILES_PER_PART rutas con varias en vuelo a la vez.
+     * Descargar es idempotente: una parte que falla por red o error 5xx se reintenta ruta a ruta
+     * en la ronda siguiente. Las rutas que siguen fallando quedan en null.
+     */
+    public CompletableFuture<byte[][]> downloadFilesAsync(String[] paths, String token) {
+        List<int[]> ranges = new ArrayList<>();
+        for (int from = 0; from < paths.length; from += MAX_FILES_PER_PART) {
+            ranges.add(new int[]{from, Math.min(paths.length, from + MAX_FILES_PER_PART)});
+        }
+        return downloadRound(paths, token, ranges, new byte[paths.length][], MAX_PART_RETRIES);
+    }
+    
+    private CompletableFuture<byte[][]> downloadRound(String[] paths, String token, List<int[]> ranges,
+            byte[][] files, int retries) {
+        List<Supplier<CompletableFuture<byte[][]>>> parts = new ArrayList<>();
+        for (int[] range : ranges) {
+            String[] partPaths = Arrays.copyOfRange(paths, range[0], range[1]);
+            parts.add(() -> downloadPart(partPaths, token));
+        }
+        return runParts(parts).thenCompose(results -> {
+            List<int[]> retried = new ArrayList<>();
+            for (int p = 0; p < ranges.size(); p++) {
+                int[] range = ranges.get(p);
+                byte[][] part = results.get(p);
+                if (part != null) {
+                    System.arraycopy(part, 0, files, range[0], part.length);
+                    continue;
+                }
+                if (retries == 0) {
+                    System.err.println("⚠️ Descarga fallida tras reintentos: " + (range[1] - range[0]) + " rutas");
+                    continue;
+                }
+                // Cada ruta por separado para aislar la que falla
+                for (int i = range[0]; i < range[1]; i++) {
+                    retried.add(new int[]{i, i + 1});
+                }
+            }
+            if (retried.isEmpty()) {
+                return CompletableFuture.completedFuture(files);
+            }
+            return downloadRound(paths, token, retried, files, retries - 1);
+        });
+    }
+    
+    /**
+     * Contenido de la parte, o null si falló por red o error 5xx y puede repetirse
+     */
+    private CompletableFuture<byte[][]> downloadPart(String[] paths, String token) {
+        ValidatorCache.Entry[] known = knownEntries(paths);
+        return sendBatchAsync("/api/downloadFiles", () -> downloadBody(paths, known, token))
+                .thenApply(response -> {
+                    try {
+                        return parseDownloads(paths, known, response);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                })
+                .handle((files, error) -> {
+                    if (error == null) {
+                        return CompletableFuture.completedFuture(files);
+                    }
+                    if (!isRetryable(error)) {
+                        return CompletableFuture.<byte[][]>failedFuture(unwrap(error));
+                    }
+                    System.err.println("⚠️ Parte de descarga fallida (" + paths.length + " rutas): " + unwrap(error).getMessage());
+                    return CompletableFuture.<byte[][]>completedFuture(null);
+                })
+                .thenCompose(future -> future);
+    }
+    
+    /**
+     * Lanza las partes con como mucho maxConcurrentRequests en vuelo (cada una arranca cuando
+     * termina otra) y devuelve sus resultados en el orden original
+     */
+    private <T> CompletableFuture<List<T>> runParts(List<Supplier<CompletableFuture<T>>> parts) {
+        List<CompletableFuture<T>> results = new ArrayList<>();
+        for (int i = 0; i < parts.size(); i++) {
+            results.add(new CompletableFuture<>());
+        }
+        AtomicInteger next = new AtomicInteger();
+        int workers = Math.min(maxConcurrentRequests, parts.size());
+        for (int w = 0; w < workers; w++) {
+            launchNext(parts, results, next);
+        }
+        return CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            List<T> values = new ArrayList<>();
+            for (CompletableFuture<T> result : results) {
+                values.add(result.join());
+            }
+            return values;
+        });
+    }
+    
+    private <T> void launchNext(List<Supplier<CompletableFuture<T>>> parts, List<CompletableFuture<T>> results,
+            AtomicInteger next) {
+        int index = next.getAndIncrement();
+        if (index >= parts.size()) {
+            return;
+        }
+        CompletableFuture<T> part;
+        try {
+            part = parts.get(index).get();
+        } catch (RuntimeException e) {
+            part = CompletableFuture.failedFuture(e);
+        }
+        part.whenComplete((value, error) -> {
+            if (error != null) {
+                results.get(index).completeExceptionally(unwrap(error));
+            } else {
+                results.get(index).complete(value);
+            }
+            launchNext(parts, results, next);
+        });
+    }
+    
+    private CompletableFuture<HttpResponse<byte[]>> sendBatchAsync(String endpoint, BodyEncoder encoder) {
+        HttpRequest request;
+        try {
+            request = batchRequest(endpoint, encoder.encode());
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Error codificando el lote", e));
+        }
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()).thenApply(response -> {
+            if (response.statusCode() >= 500 || response.statusCode() == 429) {
+                throw new ServerErrorException(response.statusCode(), "HTTP " + response.statusCode() + ": "
+                        + new String(response.body(), StandardCharsets.UTF_8));
+            }
+            checkStatus(response.statusCode(), new String(response.body(), StandardCharsets.UTF_8));
+            return response;
+        });
+    }
+    
+    private interface BodyEncoder {
+        byte[] encode() throws IOException;
+    }
+    
+    // Red caída, servidor saturado (429) o error 5xx: la petición se puede repetir; otro 4xx no cambiará
+    private static boolean isRetryable(Throwable error) {
+        Throwable cause = unwrap(error);
+        return cause instanceof IOException || cause instanceof UncheckedIOException || cause instanceof ServerErrorException;
+    }
+    
+    // 429: la admisión rechazó la petición sin procesarla
+    private static boolean isRejected(Throwable error) {
+        Throwable cause = unwrap(error);
+        return cause instanceof ServerErrorException && ((ServerErrorException) cause).status == 429;
+    }
+    
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+    
+    private static class ServerErrorException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        ServerErrorException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+    
+    // ========== SUBIDAS REANUDABLES ==========
+    
+    /**
+     * Sube un archivo local por fragmentos con varias conexiones a la vez. Si falla, la sesión
+     * queda abierta en el servidor y resumeUpload envía solo los fragmentos que falten.
+     */
+    public String uploadFileResumable(String path, Path file, String token) 
+            throws IOException, InterruptedException {
         ObjectNode json = objectMapper.createObjectNode();
-        ArrayNode pathsArray = json.putArray("paths");
-        for (String path : paths) {
-            pathsArray.add(path);
+        json.put("path", path);
+        json.put("size", Files.size(file));
+        HttpRequest request = authorizedRequest("/api/uploads", token)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json.toString()))
+                .build();
+        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        validateResponse(response);
+        
+        String uploadId = objectMapper.readTree(response.body()).get("uploadId").asText();
+        return resumeUpload(uploadId, file, token);
+    }
+    
+    /**
+     * Consulta qué fragmentos ya recibió el servidor, envía el resto en paralelo y confirma la subida
+     */
+    public String resumeUpload(String uploadId, Path file, String token) 
+            throws IOException, InterruptedException {
+        JsonNode session = getUploadSession(uploadId, token);
+        long size = session.get("size").asLong();
+        int chunkSize = session.get("chunkSize").asInt();
+        int chunkCount = session.get("chunkCount").asInt();
+        if (Files.size(file) != size) {
+            throw new IllegalArgumentException("El archivo local no coincide con la subida " + uploadId);
+        }
+        Set<Integer> received = new HashSet<>();
+        for (JsonNode chunk : session.get("receivedChunks")) {
+            received.add(chunk.asInt());
         }
-        json.put("token", token);
         
-        HttpResponse<String> response = sendPost("/api/downloadFiles", json.toString());
+        List<Supplier<CompletableFuture<Void>>> parts = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            for (int chunk = 0; chunk < chunkCount; chunk++) {
+                if (!received.contains(chunk)) {
+                    int index = chunk;
+                    parts.add(() -> uploadChunk(uploadId, channel, index, chunkSize, size, token, MAX_CHUNK_RETRIES));
+                }
+            }
+            try {
+                runParts(parts).join();
+            } catch (CompletionException e) {
+                throw new IOException("Subida " + uploadId + " incompleta, se puede reanudar: "
+                        + unwrap(e).getMessage(), unwrap(e));
+            }
+        }
+        
+        HttpRequest request = authorizedRequest("/api/uploads/" + uploadId + "/commit", token)
+                .POST(HttpRequest.BodyPublishers.noBody())
+                .build();
+        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
         validateResponse(response);
         
-        JsonNode responseBody = objectMapper.readTree(response.body());
-        ArrayNode dataArray = (ArrayNode) responseBody.get("data");
-        byte[][] files = new byte[dataArray.size()][];
-        for (int i = 0; i < dataArray.size(); i++) {
-            String base64Data = dataArray.get(i).asText();
-            if (base64Data != null && !base64Data.isEmpty()) {
-                files[i] = Base64.getDecoder().decode(base64Data);
-            } else {
-                files[i] = new byte[0];
+        return objectMapper.readTree(response.body()).get("fileId").asText();
+    }
+    
+    /**
+     * Estado de una subida: tamaño, fragmentación y fragmentos recibidos (receivedChunks)
+     */
+    public JsonNode getUploadSession(String uploadId, String token) 
+            throws IOException, InterruptedException {
+        HttpRequest request = authorizedRequest("/api/uploads/" + uploadId, token).GET().build();
+        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        validateResponse(response);
+        
+        return objectMapper.readTree(response.body());
+    }
+    
+    public void abortUpload(String uploadId, String token) 
+            throws IOException, InterruptedException {
+        HttpRequest request = authorizedRequest("/api/uploads/" + uploadId, token).DELETE().build();
+        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        validateResponse(response);
+    }
+    
+    /**
+     * Lee el fragmento del archivo al enviarlo (solo los fragmentos en vuelo ocupan memoria) y
+     * lo reintenta con espera exponencial ante cortes de red o errores 5xx
+     */
+    private CompletableFuture<Void> uploadChunk(String uploadId, FileChannel channel, int index, int chunkSize,
+            long size, String token, int retries) {
+        byte[] data = new byte[(int) Math.min(chunkSize, size - (long) index * chunkSize)];
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, (long) index * chunkSize + buffer.position()) < 0) {
+                    throw new IOException("Fin de archivo inesperado en el fragmento " + index);
+                }
             }
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Error leyendo el fragmento " + index, e));
         }
-        return files;
+        
+        HttpRequest request = authorizedRequest("/api/uploads/" + uploadId + "/chunks/" + index, token)
+                .header("Content-Type", "application/octet-stream")
+                .PUT(HttpRequest.BodyPublishers.ofByteArray(data))
+                .build();
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .thenAccept(response -> {
+                    if (response.statusCode() >= 500 || response.statusCode() == 429) {
+                        throw new ServerErrorException(response.statusCode(), "HTTP " + response.statusCode() + ": " + response.body());
+                    }
+                    validateResponse(response);
+                })
+                .handle((ok, error) -> {
+                    if (error == null) {
+                        return CompletableFuture.<Void>completedFuture(null);
+                    }
+                    if (retries == 0 || !isRetryable(error)) {
+                        return CompletableFuture.<Void>failedFuture(unwrap(error));
+                    }
+                    long delay = CHUNK_RETRY_BACKOFF_MS << (MAX_CHUNK_RETRIES - retries);
+                    System.err.println("⚠️ Fragmento " + index + " de la subida " + uploadId + " fallido, reintento en "
+                            + delay + " ms: " + unwrap(error).getMessage());
+                    return CompletableFuture.supplyAsync(() -> null,
+                            CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS))
+                            .thenCompose(v -> uploadChunk(uploadId, channel, index, chunkSize, size, token, retries - 1));
+                })
+                .thenCompose(future -> future);
+    }
+    
+    private HttpRequest.Builder authorizedRequest(String endpoint, String token) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + endpoint))
+                .header("Authorization", "Bearer " + token);
     }
     
     // ========== ELIMINACIÓN DE ARCHIVOS ==========
@@ -175,6 +748,30 @@ public class ApplicationServerClient {
         validateResponse(response);
     }
     
+    // ========== COPIAR ==========
+    
+    public void copyFiles(String[] sourcePaths, String[] targetPaths, String token) 
+            throws IOException, InterruptedException {
+        if (sourcePaths.length != targetPaths.length) {
+            throw new IllegalArgumentException("El número de rutas de origen y destino debe coincidir");
+        }
+        
+        ObjectNode json = objectMapper.createObjectNode();
+        ArrayNode sourcePathsArray = json.putArray("sourcePaths");
+        ArrayNode targetPathsArray = json.putArray("targetPaths");
+        
+        for (String sourcePath : sourcePaths) {
+            sourcePathsArray.add(sourcePath);
+        }
+        for (String targetPath : targetPaths) {
+            targetPathsArray.add(targetPath);
+        }
+        json.put("token", token);
+        
+        HttpResponse<String> response = sendPost("/api/copyFiles", json.toString());
+        validateResponse(response);
+    }
+    
     // ========== COMPARTIR ==========
     
     public void shareFiles(String[] paths, String sharedWithEmail, String permission, String token) 
@@ -192,6 +789,46 @@ public class ApplicationServerClient {
         validateResponse(response);
     }
     
+    // ========== LISTADO ==========
+    
+    public String listDirectory(String path, String cursor, int limit, String token) 
+            throws IOException, InterruptedException {
+        ObjectNode json = objectMapper.createObjectNode();
+        json.put("path", path);
+        if (cursor != null && !cursor.isEmpty()) {
+            json.put("cursor", cursor);
+        }
+        json.put("limit", limit);
+        json.put("token", token);
+        
+        HttpResponse<String> response = sendPost("/api/list", json.toString());
+        validateResponse(response);
+        
+        return response.body();
+    }
+    
+    // ========== REGISTRO DE CAMBIOS ==========
+    
+    public String getChanges(String since, int waitSeconds, String token) 
+            throws IOException, InterruptedException {
+        StringBuilder query = new StringBuilder("/api/changes?wait=").append(waitSeconds);
+        if (since != null && !since.isEmpty()) {
+            query.append("&since=").append(URLEncoder.encode(since, StandardCharsets.UTF_8));
+        }
+        
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + query))
+                .header("Authorization", "Bearer " + token)
+                // El servidor puede retener la petición hasta waitSeconds
+                .timeout(Duration.ofSeconds(waitSeconds + 30))
+                .GET()
+                .build();
+        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        validateResponse(response);
+        
+        return response.body();
+    }
+    
     // ========== REPORTES ==========
     
     public String getSpaceUsage(String token) 
@@ -218,17 +855,41 @@ public class ApplicationServerClient {
         return httpClient.send(request, HttpResponse.BodyHandlers.ofString());
     }
     
+    /**
+     * Lotes de archivos en el formato negociado (Smile o JSON); los errores llegan siempre en JSON
+     */
+    private HttpResponse<byte[]> sendBatch(String endpoint, byte[] body) 
+            throws IOException, InterruptedException {
+        HttpResponse<byte[]> response = httpClient.send(batchRequest(endpoint, body), HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() >= 400) {
+            checkStatus(response.statusCode(), new String(response.body(), StandardCharsets.UTF_8));
+        }
+        return response;
+    }
+    
+    private HttpRequest batchRequest(String endpoint, byte[] body) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + endpoint))
+                .header("Content-Type", batchCodec.getContentType())
+                .header("Accept", batchCodec.getContentType())
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+    }
+    
     private void validateResponse(HttpResponse<String> response) {
-        int statusCode = response.statusCode();
+        checkStatus(response.statusCode(), response.body());
+    }
+    
+    private void checkStatus(int statusCode, String body) {
         if (statusCode >= 400) {
             try {
-                JsonNode errorBody = objectMapper.readTree(response.body());
+                JsonNode errorBody = objectMapper.readTree(body);
                 String errorMessage = errorBody.has("error") ? 
                     errorBody.get("error").asText() : 
                     "Error desconocido";
                 throw new RuntimeException("HTTP " + statusCode + ": " + errorMessage);
             } catch (Exception e) {
-                throw new RuntimeException("HTTP " + statusCode + ": " + response.body());
+                throw new RuntimeException("HTTP " + statusCode + ": " + body);
             }
         }
     }
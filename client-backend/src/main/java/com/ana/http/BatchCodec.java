@@ -0,0 +1,174 @@
+package com.ana.http;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Codificación de los lotes de /api/uploadFiles y /api/downloadFiles en JSON o Smile.
+ * Smile lleva los bytes de los archivos en binario, sin Base64; la respuesta se decodifica
+ * según su Content-Type porque los errores siempre llegan en JSON.
+ * Se usa el generador/parser en streaming, sin árboles JsonNode.
+ */
+public class BatchCodec {
+
+    public static final String JSON_CONTENT_TYPE = "application/json";
+    public static final String SMILE_CONTENT_TYPE = "application/x-jackson-smile";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    // Binario en crudo: el modo 7 bits por defecto añade ~14% a cada archivo
+    private static final JsonFactory SMILE_FACTORY = SmileFactory.builder()
+            .disable(SmileGenerator.Feature.ENCODE_BINARY_AS_7BIT).build();
+
+    private final boolean smile;
+
+    public BatchCodec(boolean smile) {
+        this.smile = smile;
+    }
+
+    public String getContentType() {
+        return smile ? SMILE_CONTENT_TYPE : JSON_CONTENT_TYPE;
+    }
+
+    private JsonFactory requestFactory() {
+        return smile ? SMILE_FACTORY : JSON_FACTORY;
+    }
+
+    private static JsonFactory responseFactory(String contentType) {
+        return contentType != null && contentType.startsWith(SMILE_CONTENT_TYPE) ? SMILE_FACTORY : JSON_FACTORY;
+    }
+
+    // ========== SUBIDA ==========
+
+    public byte[] encodeUpload(String[] paths, byte[][] data, String token) throws IOException {
+        long size = 256;
+        for (byte[] fileData : data) {
+            size += fileData.length;
+        }
+        // Reservar de una vez: Base64 ocupa 4/3 en JSON
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(Integer.MAX_VALUE - 8, smile ? size : size / 3 * 4 + 256));
+        try (JsonGenerator generator = requestFactory().createGenerator(out)) {
+            generator.writeStartObject();
+            writeStrings(generator, "paths", paths);
+            generator.writeArrayFieldStart("data");
+            for (byte[] fileData : data) {
+                generator.writeBinary(fileData);
+            }
+            generator.writeEndArray();
+            generator.writeStringField("token", token);
+            generator.writeEndObject();
+        }
+        return out.toByteArray();
+    }
+
+    public String[] decodeFileIds(byte[] body, String contentType) throws IOException {
+        String[] fileIds = new String[0];
+        try (JsonParser parser = responseFactory(contentType).createParser(body)) {
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                if ("fileIds".equals(field)) {
+                    fileIds = readStrings(parser);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return fileIds;
+    }
+
+    // ========== DESCARGA ==========
+
+    public byte[] encodeDownload(String[] paths, String[] ifNoneMatch, String token) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator generator = requestFactory().createGenerator(out)) {
+            generator.writeStartObject();
+            writeStrings(generator, "paths", paths);
+            writeStrings(generator, "ifNoneMatch", ifNoneMatch);
+            generator.writeStringField("token", token);
+            generator.writeEndObject();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Respuesta de descarga: data[i] vacío si no hay contenido, etags[i] vacío si falló
+     */
+    public static class DownloadResponse {
+        public byte[][] data = new byte[0][];
+        public String[] etags;
+        public boolean[] notModified;
+    }
+
+    public DownloadResponse decodeDownloads(byte[] body, String contentType) throws IOException {
+        DownloadResponse response = new DownloadResponse();
+        try (JsonParser parser = responseFactory(contentType).createParser(body)) {
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                switch (field) {
+                    case "data":
+                        List<byte[]> data = new ArrayList<>();
+                        expect(parser.currentToken(), JsonToken.START_ARRAY);
+                        while (parser.nextToken() != JsonToken.END_ARRAY) {
+                            data.add(parser.getBinaryValue());
+                        }
+                        response.data = data.toArray(new byte[0][]);
+                        break;
+                    case "etags":
+                        response.etags = readStrings(parser);
+                        break;
+                    case "notModified":
+                        List<Boolean> flags = new ArrayList<>();
+                        expect(parser.currentToken(), JsonToken.START_ARRAY);
+                        while (parser.nextToken() != JsonToken.END_ARRAY) {
+                            flags.add(parser.getBooleanValue());
+                        }
+                        response.notModified = new boolean[flags.size()];
+                        for (int i = 0; i < flags.size(); i++) {
+                            response.notModified[i] = flags.get(i);
+                        }
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+        }
+        return response;
+    }
+
+    // ========== AUXILIARES ==========
+
+    private static void writeStrings(JsonGenerator generator, String field, String[] values) throws IOException {
+        generator.writeArrayFieldStart(field);
+        for (String value : values) {
+            generator.writeString(value);
+        }
+        generator.writeEndArray();
+    }
+
+    private static String[] readStrings(JsonParser parser) throws IOException {
+        expect(parser.currentToken(), JsonToken.START_ARRAY);
+        List<String> values = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            values.add(parser.getValueAsString());
+        }
+        return values.toArray(new String[0]);
+    }
+
+    private static void expect(JsonToken actual, JsonToken expected) {
+        if (actual != expected) {
+            throw new IllegalArgumentException("Respuesta inválida: se esperaba " + expected + " y llegó " + actual);
+        }
+    }
+}
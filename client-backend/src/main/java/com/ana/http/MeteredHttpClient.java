@@ -0,0 +1,130 @@
+package com.ana.http;
+
+import com.ana.metrics.Metrics;
+import com.ana.metrics.TimerFamily;
+import java.io.IOException;
+import java.net.Authenticator;
+import java.net.CookieHandler;
+import java.net.ProxySelector;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+
+/**
+ * HttpClient que mide cada llamada al Application Server por endpoint. Con cuerpos en
+ * streaming (ofInputStream) la latencia es hasta recibir las cabeceras.
+ */
+class MeteredHttpClient extends HttpClient {
+
+    private static final TimerFamily APP_SERVER_CALLS = Metrics.timer("dfs_appserver_call",
+            "Llamadas al Application Server por endpoint", "method", "endpoint");
+
+    private final HttpClient delegate;
+
+    MeteredHttpClient(HttpClient delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler)
+            throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            HttpResponse<T> response = delegate.send(request, handler);
+            failed = response.statusCode() >= 400;
+            return response;
+        } finally {
+            record(request, start, failed);
+        }
+    }
+
+    @Override
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> handler) {
+        long start = System.nanoTime();
+        return delegate.sendAsync(request, handler).whenComplete((response, error) ->
+                record(request, start, error != null || response.statusCode() >= 400));
+    }
+
+    @Override
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> handler,
+            HttpResponse.PushPromiseHandler<T> pushPromiseHandler) {
+        long start = System.nanoTime();
+        return delegate.sendAsync(request, handler, pushPromiseHandler).whenComplete((response, error) ->
+                record(request, start, error != null || response.statusCode() >= 400));
+    }
+
+    private static void record(HttpRequest request, long start, boolean failed) {
+        APP_SERVER_CALLS.labels(request.method(), endpointOf(request.uri().getPath()))
+                .record(System.nanoTime() - start, failed);
+    }
+
+    /**
+     * Ruta sin identificadores para no crear una serie por sesión de subida
+     */
+    static String endpointOf(String path) {
+        if (path == null || !path.startsWith("/api/uploads/")) {
+            return path;
+        }
+        String[] parts = path.split("/");
+        // /api/uploads/<id>[/chunks/<n> | /commit]
+        if (parts.length >= 6 && "chunks".equals(parts[4])) {
+            return "/api/uploads/:uploadId/chunks/:index";
+        }
+        if (parts.length >= 5) {
+            return "/api/uploads/:uploadId/" + parts[4];
+        }
+        return "/api/uploads/:uploadId";
+    }
+
+    @Override
+    public Optional<CookieHandler> cookieHandler() {
+        return delegate.cookieHandler();
+    }
+
+    @Override
+    public Optional<Duration> connectTimeout() {
+        return delegate.connectTimeout();
+    }
+
+    @Override
+    public Redirect followRedirects() {
+        return delegate.followRedirects();
+    }
+
+    @Override
+    public Optional<ProxySelector> proxy() {
+        return delegate.proxy();
+    }
+
+    @Override
+    public SSLContext sslContext() {
+        return delegate.sslContext();
+    }
+
+    @Override
+    public SSLParameters sslParameters() {
+        return delegate.sslParameters();
+    }
+
+    @Override
+    public Optional<Authenticator> authenticator() {
+        return delegate.authenticator();
+    }
+
+    @Override
+    public Version version() {
+        return delegate.version();
+    }
+
+    @Override
+    public Optional<Executor> executor() {
+        return delegate.executor();
+    }
+}
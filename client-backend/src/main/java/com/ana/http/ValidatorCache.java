@@ -0,0 +1,59 @@
+package com.ana.http;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caché LRU local de descargas por ruta, acotada por bytes.
+ * Guarda el ETag de cada contenido para pedirlo con ifNoneMatch y reutilizar los bytes
+ * cuando el servidor responde que no cambió. El servidor comprueba permisos antes de
+ * confirmar un ETag, así que compartir la caché entre usuarios no expone contenido.
+ */
+class ValidatorCache {
+
+    static final class Entry {
+        final String etag;
+        final byte[] data;
+
+        Entry(String etag, byte[] data) {
+            this.etag = etag;
+            this.data = data;
+        }
+    }
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    ValidatorCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    synchronized Entry get(String path) {
+        return entries.get(path);
+    }
+
+    synchronized void put(String path, String etag, byte[] data) {
+        remove(path);
+        // Un archivo que ocupe gran parte de la caché desalojaría todo lo demás
+        if (etag == null || etag.isEmpty() || data.length > maxBytes / 8) {
+            return;
+        }
+        entries.put(path, new Entry(etag, data));
+        totalBytes += data.length;
+
+        Iterator<Entry> it = entries.values().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            totalBytes -= it.next().data.length;
+            it.remove();
+        }
+    }
+
+    synchronized void remove(String path) {
+        Entry removed = entries.remove(path);
+        if (removed != null) {
+            totalBytes -= removed.data.length;
+        }
+    }
+}
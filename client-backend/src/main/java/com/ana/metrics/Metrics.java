@@ -0,0 +1,88 @@
+package com.ana.metrics;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Registro de métricas del proceso, publicado en formato de texto de Prometheus. Las
+ * estadísticas de la JVM (memoria, GC, hilos) se leen de los MXBean al exportar, no se
+ * acumulan en cada petición.
+ *
+ * Los módulos se construyen por separado y sin proyecto padre, así que el paquete com.ana.metrics
+ * se copia idéntico en cada uno: un cambio aquí se replica en los tres.
+ */
+public final class Metrics {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final Map<String, TimerFamily> families = new LinkedHashMap<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * Familia registrada con ese nombre, o una nueva si no existía
+     */
+    public static synchronized TimerFamily timer(String name, String help, String... labelNames) {
+        return families.computeIfAbsent(name, k -> new TimerFamily(name, help, labelNames));
+    }
+
+    public static String scrape() {
+        StringBuilder out = new StringBuilder(64 * 1024);
+        synchronized (Metrics.class) {
+            for (TimerFamily family : families.values()) {
+                family.writeTo(out);
+            }
+        }
+        writeJvm(out);
+        return out.toString();
+    }
+
+    private static void writeJvm(StringBuilder out) {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        MemoryUsage nonHeap = ManagementFactory.getMemoryMXBean().getNonHeapMemoryUsage();
+        header(out, "jvm_memory_used_bytes", "Memoria usada por área", "gauge");
+        out.append("jvm_memory_used_bytes{area=\"heap\"} ").append(heap.getUsed()).append('\n');
+        out.append("jvm_memory_used_bytes{area=\"nonheap\"} ").append(nonHeap.getUsed()).append('\n');
+        header(out, "jvm_memory_committed_bytes", "Memoria reservada por área", "gauge");
+        out.append("jvm_memory_committed_bytes{area=\"heap\"} ").append(heap.getCommitted()).append('\n');
+        out.append("jvm_memory_committed_bytes{area=\"nonheap\"} ").append(nonHeap.getCommitted()).append('\n');
+        header(out, "jvm_memory_max_bytes", "Máximo del heap", "gauge");
+        out.append("jvm_memory_max_bytes{area=\"heap\"} ").append(heap.getMax()).append('\n');
+
+        header(out, "jvm_memory_pool_used_bytes", "Memoria usada por pool", "gauge");
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            out.append("jvm_memory_pool_used_bytes{pool=\"").append(pool.getName()).append("\"} ")
+                    .append(pool.getUsage().getUsed()).append('\n');
+        }
+
+        header(out, "jvm_gc_collections_total", "Recolecciones por colector", "counter");
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            out.append("jvm_gc_collections_total{gc=\"").append(gc.getName()).append("\"} ")
+                    .append(Math.max(0, gc.getCollectionCount())).append('\n');
+        }
+        header(out, "jvm_gc_collection_seconds_total", "Tiempo acumulado en recolección por colector", "counter");
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            out.append("jvm_gc_collection_seconds_total{gc=\"").append(gc.getName()).append("\"} ")
+                    .append(Math.max(0, gc.getCollectionTime()) / 1000.0).append('\n');
+        }
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        header(out, "jvm_threads_live", "Hilos vivos", "gauge");
+        out.append("jvm_threads_live ").append(threads.getThreadCount()).append('\n');
+        header(out, "jvm_threads_daemon", "Hilos daemon vivos", "gauge");
+        out.append("jvm_threads_daemon ").append(threads.getDaemonThreadCount()).append('\n');
+        header(out, "process_uptime_seconds", "Tiempo desde el arranque de la JVM", "gauge");
+        out.append("process_uptime_seconds ").append(ManagementFactory.getRuntimeMXBean().getUptime() / 1000.0).append('\n');
+    }
+
+    private static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+}
@@ -0,0 +1,104 @@
+package com.ana.soap;
+
+import com.ana.metrics.Metrics;
+import com.ana.metrics.TimerFamily;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool acotado que atiende las peticiones SOAP de los Endpoint publicados.
+ *
+ * Con la cola llena la petición se cuenta como rechazada y se ejecuta en el hilo que la
+ * despacha: el servidor HTTP deja de aceptar conexiones hasta que hay hueco, en vez de
+ * cortar la petición. Con hilos virtuales (Java 21+) el pool admite muchos más trabajadores.
+ */
+public class DispatchExecutor extends ThreadPoolExecutor {
+
+    private static final TimerFamily SOAP_REQUESTS = Metrics.timer("dfs_soap_request",
+            "Peticiones SOAP atendidas por el pool", "operation");
+    // Sin OperationLabelHandler en el Endpoint, o si la petición no llega a despacharse
+    private static final String UNKNOWN_OPERATION = "unknown";
+    // Operación WSDL de la petición que atiende este hilo; la anota OperationLabelHandler
+    private static final ThreadLocal<String> currentOperation = new ThreadLocal<>();
+
+    private final AtomicLong rejected;
+    private final ThreadLocal<Long> startNanos = new ThreadLocal<>();
+
+    public DispatchExecutor(int threads, int queueCapacity, boolean virtualThreads) {
+        this(threads, queueCapacity, virtualThreads ? virtualThreadFactory() : platformThreadFactory(), new AtomicLong());
+    }
+
+    private DispatchExecutor(int threads, int queueCapacity, ThreadFactory threadFactory, AtomicLong rejected) {
+        super(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueCapacity), threadFactory,
+                (task, executor) -> {
+                    rejected.incrementAndGet();
+                    if (!executor.isShutdown()) {
+                        task.run();
+                    }
+                });
+        this.rejected = rejected;
+        allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    protected void beforeExecute(Thread thread, Runnable task) {
+        currentOperation.remove();
+        startNanos.set(System.nanoTime());
+    }
+
+    @Override
+    protected void afterExecute(Runnable task, Throwable error) {
+        Long start = startNanos.get();
+        if (start != null) {
+            String operation = currentOperation.get();
+            SOAP_REQUESTS.labels(operation != null ? operation : UNKNOWN_OPERATION)
+                    .record(System.nanoTime() - start, error != null);
+            startNanos.remove();
+            currentOperation.remove();
+        }
+    }
+
+    static void setOperation(String operation) {
+        currentOperation.set(operation);
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public String stats() {
+        return "activos=" + getActiveCount() + "/" + getMaximumPoolSize()
+                + ", en cola=" + getQueue().size()
+                + ", completados=" + getCompletedTaskCount()
+                + ", rechazados=" + rejected.get();
+    }
+
+    private static ThreadFactory platformThreadFactory() {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, "soap-worker-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Thread.ofVirtual().factory() por reflexión: el módulo compila para Java 11
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            // Métodos de la interfaz pública Thread.Builder: la implementación no es accesible
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, "soap-vworker-", 1L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            System.err.println("⚠️ Hilos virtuales no disponibles en esta JVM; se usan hilos de plataforma");
+            return platformThreadFactory();
+        }
+    }
+}
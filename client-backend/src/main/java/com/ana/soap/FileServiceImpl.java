@@ -5,6 +5,7 @@ import jakarta.jws.WebService;
 
 import java.io.IOException;
 import java.net.http.HttpResponse;
+import java.util.concurrent.CompletionException;
 
 @WebService(endpointInterface = "com.ana.soap.FileServiceSOAP")
 public class FileServiceImpl implements FileServiceSOAP {
@@ -41,16 +42,30 @@ public class FileServiceImpl implements FileServiceSOAP {
     @Override
     public String[] uploadFiles(String[] paths, byte[][] data, String token) {
         try {
-            return client.uploadFiles(paths, data, token);
+            // Partes en paralelo: un archivo que falla no hace fallar al resto del lote
+            return client.uploadFilesAsync(paths, data, token).join();
+        } catch (CompletionException e) {
+            throw new RuntimeException("Error en uploadFiles: " + e.getCause().getMessage(), e.getCause());
         } catch (Exception e) {
             throw new RuntimeException("Error en uploadFiles: " + e.getMessage(), e);
         }
     }
     
+    @Override
+    public String[] precheckUpload(String[] paths, String[] hashes, String token) {
+        try {
+            return client.precheckUpload(paths, hashes, token);
+        } catch (Exception e) {
+            throw new RuntimeException("Error en precheckUpload: " + e.getMessage(), e);
+        }
+    }
+    
     @Override
     public byte[][] downloadFiles(String[] paths, String token) {
         try {
-            return client.downloadFiles(paths, token);
+            return client.downloadFilesAsync(paths, token).join();
+        } catch (CompletionException e) {
+            throw new RuntimeException("Error en downloadFiles: " + e.getCause().getMessage(), e.getCause());
         } catch (Exception e) {
             throw new RuntimeException("Error en downloadFiles: " + e.getMessage(), e);
         }
@@ -65,6 +80,15 @@ public class FileServiceImpl implements FileServiceSOAP {
         }
     }
     
+    @Override
+    public void copyFiles(String[] sourcePaths, String[] targetPaths, String token) {
+        try {
+            client.copyFiles(sourcePaths, targetPaths, token);
+        } catch (Exception e) {
+            throw new RuntimeException("Error en copyFiles: " + e.getMessage(), e);
+        }
+    }
+    
     @Override
     public void deleteFiles(String[] paths, String token) {
         try {
@@ -83,6 +107,24 @@ public class FileServiceImpl implements FileServiceSOAP {
         }
     }
     
+    @Override
+    public String listDirectory(String path, String cursor, int limit, String token) {
+        try {
+            return client.listDirectory(path, cursor, limit, token);
+        } catch (Exception e) {
+            throw new RuntimeException("Error en listDirectory: " + e.getMessage(), e);
+        }
+    }
+    
+    @Override
+    public String getChanges(String since, int waitSeconds, String token) {
+        try {
+            return client.getChanges(since, waitSeconds, token);
+        } catch (Exception e) {
+            throw new RuntimeException("Error en getChanges: " + e.getMessage(), e);
+        }
+    }
+    
     @Override
     public String getSpaceUsage(String token) {
         try {
@@ -13,10 +13,14 @@ public interface FileServiceSOAP {
     
     @WebMethod void createDirectories(String[] paths, String token);
     @WebMethod String[] uploadFiles(String[] paths, byte[][] data, String token);
+    @WebMethod String[] precheckUpload(String[] paths, String[] hashes, String token);
     @WebMethod byte[][] downloadFiles(String[] paths, String token);
     @WebMethod void moveFiles(String[] oldPaths, String[] newPaths, String token);
+    @WebMethod void copyFiles(String[] sourcePaths, String[] targetPaths, String token);
     @WebMethod void deleteFiles(String[] paths, String token);
     @WebMethod void shareFiles(String[] paths, String sharedWithEmail, String permission, String token);
+    @WebMethod String listDirectory(String path, String cursor, int limit, String token);
+    @WebMethod String getChanges(String since, int waitSeconds, String token);
     
     @WebMethod String getSpaceUsage(String token);
 }
\ No newline at end of file
@@ -0,0 +1,113 @@
+package com.ana.soap;
+
+import com.ana.http.ApplicationServerClient;
+import com.sun.xml.ws.developer.StreamingAttachment;
+import com.sun.xml.ws.developer.StreamingDataHandler;
+import jakarta.activation.DataHandler;
+import jakarta.activation.DataSource;
+import jakarta.jws.WebService;
+import jakarta.xml.ws.soap.MTOM;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+// Los adjuntos grandes se vuelcan a disco en vez de quedarse en memoria
+@MTOM
+@StreamingAttachment(parseEagerly = true, memoryThreshold = 4L * 1024 * 1024)
+@WebService(endpointInterface = "com.ana.soap.FileStreamServiceSOAP")
+public class FileStreamServiceImpl implements FileStreamServiceSOAP {
+    
+    // A partir de este tamaño la subida va por fragmentos reanudables en paralelo
+    private static final long RESUMABLE_THRESHOLD = 16L * 1024 * 1024;
+    
+    private final ApplicationServerClient client = new ApplicationServerClient();
+    
+    @Override
+    public String uploadFile(String path, DataHandler data, String token) {
+        if (data instanceof StreamingDataHandler) {
+            return uploadSpooled(path, (StreamingDataHandler) data, token);
+        }
+        try (InputStream in = data.getInputStream()) {
+            return client.uploadFileStream(path, in, token);
+        } catch (Exception e) {
+            throw new RuntimeException("Error en uploadFile: " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * El adjunto ya volcado a disco se mueve a un archivo temporal: los grandes se suben por
+     * fragmentos leyendo de él, y un corte de red solo repite los fragmentos afectados
+     */
+    private String uploadSpooled(String path, StreamingDataHandler data, String token) {
+        File spooled = null;
+        try {
+            spooled = File.createTempFile("dfs-upload-", ".bin");
+            data.moveTo(spooled);
+            if (spooled.length() >= RESUMABLE_THRESHOLD) {
+                return client.uploadFileResumable(path, spooled.toPath(), token);
+            }
+            try (InputStream in = new FileInputStream(spooled)) {
+                return client.uploadFileStream(path, in, token);
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Error en uploadFile: " + e.getMessage(), e);
+        } finally {
+            if (spooled != null) {
+                spooled.delete();
+            }
+        }
+    }
+    
+    @Override
+    public DataHandler downloadFile(String path, String token) {
+        try {
+            // La respuesta HTTP se copia al adjunto MTOM según se escribe el mensaje SOAP
+            return new DataHandler(new StreamDataSource(client.downloadFileStream(path, token)));
+        } catch (Exception e) {
+            throw new RuntimeException("Error en downloadFile: " + e.getMessage(), e);
+        }
+    }
+    
+    @Override
+    public DataHandler downloadDirectory(String path, boolean compress, String token) {
+        try {
+            // El ZIP se genera en el Application Server y pasa al adjunto sin acumularse aquí
+            return new DataHandler(new StreamDataSource(client.downloadDirectoryZip(path, compress, token)));
+        } catch (Exception e) {
+            throw new RuntimeException("Error en downloadDirectory: " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * DataSource de un solo uso sobre un flujo abierto
+     */
+    private static class StreamDataSource implements DataSource {
+        private final InputStream in;
+        
+        StreamDataSource(InputStream in) {
+            this.in = in;
+        }
+        
+        @Override
+        public InputStream getInputStream() {
+            return in;
+        }
+        
+        @Override
+        public OutputStream getOutputStream() {
+            throw new UnsupportedOperationException("Solo lectura");
+        }
+        
+        @Override
+        public String getContentType() {
+            return "application/octet-stream";
+        }
+        
+        @Override
+        public String getName() {
+            return "data";
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.ana.soap;
+
+import jakarta.activation.DataHandler;
+import jakarta.jws.WebMethod;
+import jakarta.jws.WebService;
+import jakarta.xml.bind.annotation.XmlMimeType;
+
+/**
+ * Transferencia de archivos como adjuntos MTOM/XOP (document/literal): los bytes viajan
+ * fuera del XML, sin Base64, y se reenvían en streaming al Application Server.
+ * Se publica aparte para no cambiar el WSDL RPC de FileServiceSOAP.
+ */
+@WebService
+public interface FileStreamServiceSOAP {
+
+    @WebMethod String uploadFile(String path, @XmlMimeType("application/octet-stream") DataHandler data, String token);
+    @WebMethod @XmlMimeType("application/octet-stream") DataHandler downloadFile(String path, String token);
+    @WebMethod @XmlMimeType("application/zip") DataHandler downloadDirectory(String path, boolean compress, String token);
+}
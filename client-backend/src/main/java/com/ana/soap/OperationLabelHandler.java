@@ -0,0 +1,31 @@
+package com.ana.soap;
+
+import jakarta.xml.ws.handler.LogicalHandler;
+import jakarta.xml.ws.handler.LogicalMessageContext;
+import jakarta.xml.ws.handler.MessageContext;
+import javax.xml.namespace.QName;
+
+/**
+ * Anota la operación WSDL de cada petición entrante para que DispatchExecutor etiquete su
+ * latencia. Solo lee propiedades del contexto: no materializa el cuerpo del mensaje.
+ */
+public class OperationLabelHandler implements LogicalHandler<LogicalMessageContext> {
+
+    @Override
+    public boolean handleMessage(LogicalMessageContext context) {
+        if (!Boolean.TRUE.equals(context.get(MessageContext.MESSAGE_OUTBOUND_PROPERTY))) {
+            QName operation = (QName) context.get(MessageContext.WSDL_OPERATION);
+            DispatchExecutor.setOperation(operation != null ? operation.getLocalPart() : null);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean handleFault(LogicalMessageContext context) {
+        return true;
+    }
+
+    @Override
+    public void close(MessageContext context) {
+    }
+}
@@ -0,0 +1,86 @@
+package com.ana.http;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class BatchCodecTest {
+
+    private static final byte[] BINARY = {0, 1, 2, (byte) 0xff, (byte) 0x80, 127};
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void encodesUploadForAnyDecoder(boolean smile) throws Exception {
+        BatchCodec codec = new BatchCodec(smile);
+        byte[] encoded = codec.encodeUpload(new String[]{"/user1/a.bin", "/user1/empty"},
+                new byte[][]{BINARY, new byte[0]}, "t0k3n");
+
+        JsonNode body = mapperFor(codec.getContentType()).readTree(encoded);
+        assertEquals("/user1/a.bin", body.get("paths").get(0).asText());
+        assertArrayEquals(BINARY, body.get("data").get(0).binaryValue());
+        assertEquals(0, body.get("data").get(1).binaryValue().length);
+        assertEquals("t0k3n", body.get("token").asText());
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void encodesDownloadRequest(boolean smile) throws Exception {
+        BatchCodec codec = new BatchCodec(smile);
+        byte[] encoded = codec.encodeDownload(new String[]{"/user1/a.bin"}, new String[]{""}, "t0k3n");
+
+        JsonNode body = mapperFor(codec.getContentType()).readTree(encoded);
+        assertEquals("/user1/a.bin", body.get("paths").get(0).asText());
+        assertEquals("", body.get("ifNoneMatch").get(0).asText());
+        assertEquals("t0k3n", body.get("token").asText());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {BatchCodec.JSON_CONTENT_TYPE, BatchCodec.SMILE_CONTENT_TYPE})
+    void decodesDownloadsInTheServerShape(String contentType) throws Exception {
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("data", List.of(BINARY, new byte[0]));
+        response.put("etags", List.of("\"1\"", "\"2\""));
+        response.put("notModified", List.of(false, true));
+        response.put("extra", Map.of("ignored", 1));
+        byte[] encoded = mapperFor(contentType).writeValueAsBytes(response);
+
+        // El formato lo decide el Content-Type de la respuesta, no el de la petición
+        BatchCodec.DownloadResponse decoded = new BatchCodec(false).decodeDownloads(encoded, contentType);
+
+        assertArrayEquals(BINARY, decoded.data[0]);
+        assertEquals(0, decoded.data[1].length);
+        assertArrayEquals(new String[]{"\"1\"", "\"2\""}, decoded.etags);
+        assertArrayEquals(new boolean[]{false, true}, decoded.notModified);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {BatchCodec.JSON_CONTENT_TYPE, BatchCodec.SMILE_CONTENT_TYPE + "; charset=binary"})
+    void decodesFileIds(String contentType) throws Exception {
+        byte[] encoded = mapperFor(contentType).writeValueAsBytes(Map.of("fileIds", List.of("7", "")));
+
+        assertArrayEquals(new String[]{"7", ""}, new BatchCodec(true).decodeFileIds(encoded, contentType));
+    }
+
+    @Test
+    void rejectsResponseThatIsNotAnObject() {
+        byte[] body = "\"error\"".getBytes(StandardCharsets.UTF_8);
+
+        assertThrows(IllegalArgumentException.class,
+                () -> new BatchCodec(false).decodeDownloads(body, BatchCodec.JSON_CONTENT_TYPE));
+    }
+
+    private static ObjectMapper mapperFor(String contentType) {
+        return contentType.startsWith(BatchCodec.SMILE_CONTENT_TYPE) ? new ObjectMapper(new SmileFactory()) : new ObjectMapper();
+    }
+}
@@ -1,10 +1,20 @@
 package com.ana.node;
 
+import com.ana.metrics.MeteredProxy;
+import com.ana.metrics.Metrics;
+import com.ana.metrics.MetricsHttpServer;
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.rmi.Naming;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.server.UnicastRemoteObject;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -14,6 +24,11 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class NodeWorker extends UnicastRemoteObject implements StorageNode {
 
+    // Fragmentos de subidas reanudables; un subdirectorio por sesión dentro del almacenamiento
+    private static final String STAGING_DIR = ".staging";
+    // Sesiones sin actividad que el Application Server no llegó a descartar
+    private static final long STALE_STAGING_MS = 48L * 60 * 60 * 1000;
+
     private final String nodeId;
     private final File storageDir;
     private final Map<String, File> fileMap; // fileId -> File
@@ -40,6 +55,7 @@ public class NodeWorker extends UnicastRemoteObject implements StorageNode {
 
         // Cargar archivos existentes al iniciar
         loadExistingFiles();
+        purgeStaleStaging();
 
         // Registrar en RMI Registry
         registerWithRegistry();
@@ -60,6 +76,23 @@ public class NodeWorker extends UnicastRemoteObject implements StorageNode {
         }
     }
 
+    /**
+     * Elimina las sesiones de subida temporales sin actividad reciente
+     */
+    private void purgeStaleStaging() {
+        File[] sessions = new File(storageDir, STAGING_DIR).listFiles();
+        if (sessions == null) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - STALE_STAGING_MS;
+        for (File session : sessions) {
+            if (session.lastModified() < cutoff) {
+                deleteStaging(session);
+                System.out.println("🧹 Subida temporal abandonada eliminada: " + session.getName());
+            }
+        }
+    }
+
     /**
      * Registra el nodo en el RMI Registry
      */
@@ -73,7 +106,7 @@ public class NodeWorker extends UnicastRemoteObject implements StorageNode {
                 // Ya existe, está bien
             }
 
-            Naming.rebind("rmi://localhost:1099/" + nodeId, this);
+            Naming.rebind("rmi://localhost:1099/" + nodeId, meteredStub());
             System.out.println("✅ Nodo '" + nodeId + "' registrado en RMI Registry.");
         } catch (Exception e) {
             throw new RemoteException("Error registrando nodo en RMI Registry", e);
@@ -91,13 +124,22 @@ public class NodeWorker extends UnicastRemoteObject implements StorageNode {
             }
 
             // Registrar el nodo en el Registry
-            Naming.rebind("rmi://localhost:1099/" + nodeId, this);
+            Naming.rebind("rmi://localhost:1099/" + nodeId, meteredStub());
             System.out.println("✅ Nodo '" + nodeId + "' registrado en RMI Registry.");
         } catch (Exception e) {
             throw new RemoteException("Error registrando nodo en RMI Registry", e);
         }
     }
 
+    /**
+     * Se registra el stub de un proxy que mide cada llamada recibida en vez del propio nodo
+     */
+    private StorageNode meteredStub() throws RemoteException {
+        StorageNode metered = MeteredProxy.wrap(StorageNode.class, this,
+                Metrics.timer("dfs_node_rmi_call", "Llamadas RMI atendidas por el nodo", "method"));
+        return (StorageNode) UnicastRemoteObject.exportObject(metered, rmiPort);
+    }
+
     @Override
     public String getNodeId() throws RemoteException {
         return nodeId;
@@ -169,6 +211,34 @@ public class NodeWorker extends UnicastRemoteObject implements StorageNode {
         }
     }
 
+    @Override
+    public byte[] readFileRange(String fileId, long offset, int length) throws RemoteException {
+        if (fileId == null || fileId.trim().isEmpty()) {
+            throw new RemoteException("File ID inválido");
+        }
+        if (offset < 0 || length < 0) {
+            throw new RemoteException("Rango inválido: " + offset + "+" + length);
+        }
+
+        File file;
+        synchronized (fileMapLock) {
+            file = fileMap.get(fileId);
+        }
+
+        if (file == null || !file.exists()) {
+            throw new RemoteException("Archivo no encontrado: " + fileId);
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            byte[] data = new byte[(int) Math.min(length, Math.max(0, raf.length() - offset))];
+            raf.seek(offset);
+            raf.readFully(data);
+            return data;
+        } catch (IOException e) {
+            throw new RemoteException("Error leyendo archivo: " + e.getMessage(), e);
+        }
+    }
+
     @Override
     public void deleteFile(String fileId) throws RemoteException {
         if (fileId == null || fileId.trim().isEmpty()) {
@@ -193,6 +263,137 @@ public class NodeWorker extends UnicastRemoteObject implements StorageNode {
         }
     }
 
+    @Override
+    public String[] deleteFiles(String[] fileIds) throws RemoteException {
+        if (fileIds == null) {
+            throw new RemoteException("Lista de archivos nula");
+        }
+
+        List<String> failed = new ArrayList<>();
+        int deleted = 0;
+        for (String fileId : fileIds) {
+            if (fileId == null || fileId.trim().isEmpty()) {
+                continue;
+            }
+
+            File file;
+            synchronized (fileMapLock) {
+                file = fileMap.remove(fileId);
+            }
+            if (file == null || !file.exists()) {
+                continue;
+            }
+            if (file.delete()) {
+                deleted++;
+            } else {
+                failed.add(fileId);
+                synchronized (fileMapLock) {
+                    fileMap.put(fileId, file);
+                }
+            }
+        }
+
+        System.out.println("🗑️ " + deleted + " archivos eliminados del nodo '" + nodeId + "'" +
+                (failed.isEmpty() ? "" : " (" + failed.size() + " fallidos)"));
+        return failed.toArray(new String[0]);
+    }
+
+    @Override
+    public void storeChunk(String uploadId, int chunkIndex, byte[] data) throws RemoteException {
+        if (chunkIndex < 0) {
+            throw new RemoteException("Número de fragmento inválido: " + chunkIndex);
+        }
+        if (data == null) {
+            throw new RemoteException("Datos nulos");
+        }
+
+        File sessionDir = stagingDir(uploadId);
+        try {
+            Files.createDirectories(sessionDir.toPath());
+            // Escribir aparte y renombrar: un fragmento a medias nunca se confunde con uno completo
+            File partial = new File(sessionDir, chunkIndex + ".tmp");
+            Files.write(partial.toPath(), data);
+            Files.move(partial.toPath(), new File(sessionDir, String.valueOf(chunkIndex)).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RemoteException("Error guardando fragmento: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public String commitChunks(String uploadId, int chunkCount, String fileId) throws RemoteException {
+        if (fileId == null || fileId.trim().isEmpty()) {
+            throw new RemoteException("File ID inválido");
+        }
+
+        File sessionDir = stagingDir(uploadId);
+        File assembled = new File(sessionDir, "assembled.tmp");
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RemoteException("SHA-256 no disponible", e);
+        }
+
+        try {
+            Files.createDirectories(sessionDir.toPath());
+            try (OutputStream out = new DigestOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(assembled)), digest)) {
+                for (int i = 0; i < chunkCount; i++) {
+                    File chunk = new File(sessionDir, String.valueOf(i));
+                    if (!chunk.isFile()) {
+                        throw new RemoteException("Falta el fragmento " + i + " de la subida " + uploadId);
+                    }
+                    Files.copy(chunk.toPath(), out);
+                }
+            }
+
+            File file = new File(storageDir, fileId);
+            Files.move(assembled.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            synchronized (fileMapLock) {
+                fileMap.put(fileId, file);
+            }
+        } catch (IOException e) {
+            assembled.delete();
+            throw new RemoteException("Error uniendo fragmentos: " + e.getMessage(), e);
+        }
+        deleteStaging(sessionDir);
+
+        StringBuilder hex = new StringBuilder(64);
+        for (byte value : digest.digest()) {
+            hex.append(Character.forDigit((value >> 4) & 0xF, 16)).append(Character.forDigit(value & 0xF, 16));
+        }
+        System.out.println("💾 Archivo '" + fileId + "' ensamblado desde " + chunkCount
+                + " fragmentos en nodo '" + nodeId + "'");
+        return hex.toString();
+    }
+
+    @Override
+    public void discardChunks(String uploadId) throws RemoteException {
+        deleteStaging(stagingDir(uploadId));
+    }
+
+    /**
+     * Directorio temporal de una sesión; el id se valida para no salir del área temporal
+     */
+    private File stagingDir(String uploadId) throws RemoteException {
+        if (uploadId == null || !uploadId.matches("[0-9a-fA-F-]{1,64}")) {
+            throw new RemoteException("Upload ID inválido");
+        }
+        return new File(new File(storageDir, STAGING_DIR), uploadId);
+    }
+
+    private static void deleteStaging(File sessionDir) {
+        File[] files = sessionDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        sessionDir.delete();
+    }
+
     @Override
     public boolean exists(String fileId) throws RemoteException {
         if (fileId == null || fileId.trim().isEmpty()) {
@@ -205,6 +406,53 @@ public class NodeWorker extends UnicastRemoteObject implements StorageNode {
         }
     }
 
+    @Override
+    public long[] getInventoryDigests(int bucketCount) throws RemoteException {
+        if (bucketCount <= 0) {
+            throw new RemoteException("Número de cubetas inválido");
+        }
+
+        long[] digests = new long[3 * bucketCount];
+        for (String fileId : fileMap.keySet()) {
+            long id = parseFileId(fileId);
+            if (id < 0) {
+                continue;
+            }
+            int bucket = (int) (id % bucketCount);
+            digests[3 * bucket]++;
+            digests[3 * bucket + 1] += id;
+            digests[3 * bucket + 2] += (id * id) % 2147483647L;
+        }
+        return digests;
+    }
+
+    @Override
+    public String[] listFileIds(int bucketCount, int bucket) throws RemoteException {
+        if (bucketCount <= 0 || bucket < 0 || bucket >= bucketCount) {
+            throw new RemoteException("Cubeta inválida");
+        }
+
+        List<String> ids = new ArrayList<>();
+        for (String fileId : fileMap.keySet()) {
+            long id = parseFileId(fileId);
+            if (id >= 0 && id % bucketCount == bucket) {
+                ids.add(fileId);
+            }
+        }
+        return ids.toArray(new String[0]);
+    }
+
+    /**
+     * ID numérico de un archivo, o -1 si el nombre no corresponde a un archivo del sistema
+     */
+    private static long parseFileId(String fileId) {
+        try {
+            return Long.parseLong(fileId);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     @Override
     public long getFreeSpace() throws RemoteException {
         return storageDir.getFreeSpace();
@@ -227,7 +475,11 @@ public class NodeWorker extends UnicastRemoteObject implements StorageNode {
         try {
             // Pasar el puerto RMI al constructor
             NodeWorker node = new NodeWorker(nodeId, storagePath, rmiPort);
+            // Métricas en formato Prometheus; por defecto en el puerto RMI + 1000
+            int metricsPort = Integer.getInteger("dfs.metrics.port", rmiPort + 1000);
+            MetricsHttpServer.start(metricsPort);
             System.out.println("🟢 Nodo '" + nodeId + "' listo en puerto " + rmiPort);
+            System.out.println("📊 Métricas en http://localhost:" + metricsPort + "/metrics");
             System.out.println("📝 Directorio de almacenamiento: " + storagePath);
             System.out.println("🔌 Registrado en: rmi://localhost:1099/" + nodeId);
             System.out.println("⏹️  Presiona Enter para detener el nodo...");